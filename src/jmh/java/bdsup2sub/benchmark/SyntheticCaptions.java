@@ -0,0 +1,157 @@
+/*
+ * Copyright 2013 Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.benchmark;
+
+import bdsup2sub.bitmap.Bitmap;
+import bdsup2sub.bitmap.Palette;
+import bdsup2sub.supstream.SubPicture;
+import bdsup2sub.supstream.dvd.SubPictureDVD;
+
+import java.util.Random;
+
+/**
+ * Captions generated in-process, so that the benchmarks don't depend on sample streams.
+ * The bitmaps mimic rendered subtitle text: two lines of glyphs with an outline, anti-aliased
+ * edges and a slightly graded fill on a transparent background.
+ */
+public final class SyntheticCaptions {
+
+    /** Width of the caption bitmap */
+    public static final int WIDTH = 1400;
+    /** Height of the caption bitmap */
+    public static final int HEIGHT = 150;
+    /** Width of the video frame the caption is displayed in */
+    public static final int SCREEN_WIDTH = 1920;
+    /** Height of the video frame the caption is displayed in */
+    public static final int SCREEN_HEIGHT = 1080;
+
+    /** Width of the DVD caption bitmap */
+    public static final int DVD_WIDTH = 700;
+
+    /** Palette index of the glyph outline */
+    private static final int OUTLINE = 1;
+    /** First palette index of the fill gradient */
+    private static final int FILL = 200;
+
+    private SyntheticCaptions() {
+    }
+
+    /**
+     * @return bitmap using palette indices of {@link #palette()}, 0 is transparent
+     */
+    public static Bitmap caption() {
+        Bitmap bm = new Bitmap(WIDTH, HEIGHT, (byte)0);
+        byte[] buffer = bm.getInternalBuffer();
+        Random random = new Random(1);
+        for (int line = 0; line < 2; line++) {
+            int y0 = 10 + line * 70;
+            for (int x0 = 20; x0 + 30 < WIDTH - 20; x0 += 28 + random.nextInt(12)) {
+                int glyphWidth = 16 + random.nextInt(10);
+                int glyphHeight = 30 + random.nextInt(30);
+                for (int y = 0; y < glyphHeight; y++) {
+                    for (int x = 0; x < glyphWidth; x++) {
+                        int edgeDistance = Math.min(Math.min(x, y), Math.min(glyphWidth - 1 - x, glyphHeight - 1 - y));
+                        int color;
+                        if (edgeDistance == 0) {
+                            color = OUTLINE;
+                        } else if (edgeDistance == 1) {
+                            color = 64;
+                        } else if (edgeDistance == 2) {
+                            color = 140;
+                        } else {
+                            color = FILL + y * 54 / glyphHeight;
+                        }
+                        buffer[(y0 + y) * WIDTH + x0 + x] = (byte)color;
+                    }
+                }
+            }
+        }
+        return bm;
+    }
+
+    /**
+     * @return 256 color palette: transparent at 0 and 255, a dark outline blending into a yellowish white fill in between
+     */
+    public static Palette palette() {
+        Palette pal = new Palette(256);
+        pal.setARGB(0, 0);
+        for (int i = 1; i < 255; i++) {
+            int alpha = i < 64 ? 128 + 2 * i : 255;
+            pal.setARGB(i, (alpha << 24) | (i << 16) | (i << 8) | (i * 3 / 4));
+        }
+        pal.setARGB(255, 0);
+        return pal;
+    }
+
+    /**
+     * @return left part of the caption reduced to the four DVD colors: 0 transparent, 1 outline, 2 anti-aliasing, 3 fill
+     */
+    public static Bitmap dvdCaption() {
+        Bitmap bm = caption().crop(0, 0, DVD_WIDTH, HEIGHT);
+        byte[] buffer = bm.getInternalBuffer();
+        for (int i = 0; i < buffer.length; i++) {
+            int color = buffer[i] & 0xff;
+            if (color == 0) {
+                buffer[i] = 0;
+            } else if (color == OUTLINE) {
+                buffer[i] = 1;
+            } else if (color < FILL) {
+                buffer[i] = 2;
+            } else {
+                buffer[i] = 3;
+            }
+        }
+        return bm;
+    }
+
+    /**
+     * @param number number of the caption in the stream, used to derive time stamps
+     * @return caption info for a 1080p stream, centered near the bottom of the screen
+     */
+    public static SubPicture subPicture(int number) {
+        SubPicture pic = new SubPicture();
+        initSubPicture(pic, number);
+        return pic;
+    }
+
+    /**
+     * @return DVD caption info for a 720x576 stream
+     */
+    public static SubPictureDVD subPictureDVD() {
+        SubPictureDVD pic = new SubPictureDVD();
+        initSubPicture(pic, 0);
+        pic.setWidth(720);
+        pic.setHeight(576);
+        pic.setImageWidth(DVD_WIDTH);
+        pic.setOfsX((720 - DVD_WIDTH) / 2);
+        pic.setOfsY(576 - HEIGHT - 20);
+        pic.setAlpha(new int[] {0, 15, 15, 15});
+        pic.setPal(new int[] {0, 1, 2, 3});
+        return pic;
+    }
+
+    private static void initSubPicture(SubPicture pic, int number) {
+        pic.setWidth(SCREEN_WIDTH);
+        pic.setHeight(SCREEN_HEIGHT);
+        pic.setImageWidth(WIDTH);
+        pic.setImageHeight(HEIGHT);
+        pic.setOfsX((SCREEN_WIDTH - WIDTH) / 2);
+        pic.setOfsY(SCREEN_HEIGHT - HEIGHT - 40);
+        pic.setStartTime(90000L * (1 + 4 * number));
+        pic.setEndTime(90000L * (3 + 4 * number));
+        pic.setCompositionNumber(2 * number);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2013 Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.bitmap;
+
+import bdsup2sub.benchmark.SyntheticCaptions;
+import bdsup2sub.core.Configuration;
+import bdsup2sub.core.ScalingFilter;
+import com.mortennobel.imagescaling.ResampleFilter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.mortennobel.imagescaling.ResampleFilters.*;
+
+/**
+ * Scaling of a 1080p caption down to 720p with each scaling filter, for all ways a caption is scaled during conversion:
+ * keeping the palette, reducing to the four DVD colors and creating a new palette with or without dithering.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BitmapScaleBenchmark {
+
+    private static final int[] LUMINANCE_THRESHOLD = {
+            Configuration.DEFAULT_LUMINANCE_MED_HIGH_THRESHOLD, Configuration.DEFAULT_LUMINANCE_LOW_MED_THRESHOLD
+    };
+
+    @Param
+    private ScalingFilter scalingFilter;
+
+    private Bitmap caption;
+    private Palette palette;
+    /** null for bilinear scaling, which doesn't use a resample filter */
+    private ResampleFilter filter;
+    private int targetWidth;
+    private int targetHeight;
+
+    @Setup
+    public void setUp() {
+        caption = SyntheticCaptions.caption();
+        palette = SyntheticCaptions.palette();
+        targetWidth = caption.getWidth() * 2 / 3;
+        targetHeight = caption.getHeight() * 2 / 3;
+
+        switch (scalingFilter) {
+            case BELL:
+                filter = getBellFilter();
+                break;
+            case BICUBIC:
+                filter = getBiCubicFilter();
+                break;
+            case BICUBIC_SPLINE:
+                filter = getBSplineFilter();
+                break;
+            case HERMITE:
+                filter = getHermiteFilter();
+                break;
+            case LANCZOS3:
+                filter = getLanczos3Filter();
+                break;
+            case TRIANGLE:
+                filter = getTriangleFilter();
+                break;
+            case MITCHELL:
+                filter = getMitchellFilter();
+                break;
+            default:
+                filter = null;
+        }
+    }
+
+    @Benchmark
+    public Bitmap scaleKeepingPalette() {
+        if (filter != null) {
+            return caption.scaleFilter(targetWidth, targetHeight, palette, filter);
+        } else {
+            return caption.scaleBilinear(targetWidth, targetHeight, palette);
+        }
+    }
+
+    @Benchmark
+    public Bitmap scaleToDvdColors() {
+        if (filter != null) {
+            return caption.scaleFilterLm(targetWidth, targetHeight, palette, Configuration.DEFAULT_ALPHA_THRESHOLD, LUMINANCE_THRESHOLD, filter);
+        } else {
+            return caption.scaleBilinearLm(targetWidth, targetHeight, palette, Configuration.DEFAULT_ALPHA_THRESHOLD, LUMINANCE_THRESHOLD);
+        }
+    }
+
+    @Benchmark
+    public BitmapWithPalette scaleCreatingPalette() {
+        if (filter != null) {
+            return caption.scaleFilter(targetWidth, targetHeight, palette, filter, false);
+        } else {
+            return caption.scaleBilinear(targetWidth, targetHeight, palette, false);
+        }
+    }
+
+    @Benchmark
+    public BitmapWithPalette scaleCreatingDitheredPalette() {
+        if (filter != null) {
+            return caption.scaleFilter(targetWidth, targetHeight, palette, filter, true);
+        } else {
+            return caption.scaleBilinear(targetWidth, targetHeight, palette, true);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2013 Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.supstream.bd;
+
+import bdsup2sub.benchmark.SyntheticCaptions;
+import bdsup2sub.bitmap.Bitmap;
+import bdsup2sub.bitmap.Palette;
+import bdsup2sub.core.Configuration;
+import bdsup2sub.core.CoreException;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of a BD-SUP caption (palette and RLE image) from a stream written in the setup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SupBDBenchmark {
+
+    /** the parser drops the last epoch of a stream, so write one caption more than needed */
+    private static final int NUM_CAPTIONS = 2;
+
+    private File supFile;
+    private SupBD supBD;
+
+    @Setup
+    public void setUp() throws IOException, CoreException {
+        Bitmap caption = SyntheticCaptions.caption();
+        Palette palette = SyntheticCaptions.palette();
+        Configuration configuration = Configuration.getInstance();
+        SupBDWriter writer = new SupBDWriter(configuration);
+
+        supFile = File.createTempFile("bdsup2sub-benchmark", ".sup");
+        FileOutputStream out = new FileOutputStream(supFile);
+        try {
+            for (int i = 0; i < NUM_CAPTIONS; i++) {
+                out.write(writer.createSupFrame(SyntheticCaptions.subPicture(i), caption, palette));
+            }
+        } finally {
+            out.close();
+        }
+        supBD = new SupBD(supFile.getPath(), configuration);
+    }
+
+    @TearDown
+    public void tearDown() {
+        supBD.close();
+        supFile.delete();
+    }
+
+    @Benchmark
+    public Bitmap decode() throws CoreException {
+        supBD.decode(0);
+        return supBD.getBitmap();
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2013 Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.supstream.bd;
+
+import bdsup2sub.benchmark.SyntheticCaptions;
+import bdsup2sub.bitmap.Bitmap;
+import bdsup2sub.bitmap.Palette;
+import bdsup2sub.core.Configuration;
+import bdsup2sub.supstream.SubPicture;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creation of BD-SUP frames. The RLE encoder is compared with the boxed ArrayList based encoder it replaced.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SupBDWriterBenchmark {
+
+    private Bitmap caption;
+    private Palette palette;
+    private SubPicture subPicture;
+    private SupBDWriter writer;
+
+    @Setup
+    public void setUp() {
+        caption = SyntheticCaptions.caption();
+        palette = SyntheticCaptions.palette();
+        subPicture = SyntheticCaptions.subPicture(0);
+        writer = new SupBDWriter(Configuration.getInstance());
+    }
+
+    @Benchmark
+    public byte[] createSupFrame() {
+        return writer.createSupFrame(subPicture, caption, palette);
+    }
+
+    @Benchmark
+    public byte[] encodeImage() {
+        return writer.encodeImage(caption);
+    }
+
+    @Benchmark
+    public byte[] encodeImageBoxed() {
+        Bitmap bm = caption;
+        ArrayList<Byte> bytes = new ArrayList<Byte>();
+        byte color;
+        int ofs;
+        int len;
+
+        for (int y=0; y < bm.getHeight(); y++) {
+            ofs = y * bm.getWidth();
+            int x;
+            for (x=0; x < bm.getWidth(); x+=len, ofs+=len) {
+                color = bm.getInternalBuffer()[ofs];
+                for (len=1; x+len < bm.getWidth(); len++) {
+                    if (bm.getInternalBuffer()[ofs+len] != color) {
+                        break;
+                    }
+                }
+                if (len<=2 && color != 0) {
+                    bytes.add(color);
+                    if (len==2) {
+                        bytes.add(color);
+                    }
+                } else {
+                    if (len > 0x3fff) {
+                        len = 0x3fff;
+                    }
+                    bytes.add((byte)0);
+                    if (color == 0 && len < 0x40){
+                        bytes.add((byte)len);
+                    } else if (color == 0){
+                        bytes.add((byte)(0x40|(len>>8)) );
+                        bytes.add((byte)len);
+                    } else if(len < 0x40) {
+                        bytes.add((byte)(0x80|len) );
+                        bytes.add(color);
+                    } else {
+                        bytes.add((byte)(0xc0|(len>>8)) );
+                        bytes.add((byte)len);
+                        bytes.add(color);
+                    }
+                }
+            }
+            if (x == bm.getWidth()) {
+                bytes.add((byte)0);
+                bytes.add((byte)0);
+            }
+        }
+        int size =  bytes.size();
+        byte[] retval = new byte[size];
+        Iterator<Byte> it = bytes.iterator();
+        for (int i=0; i < size; i++) {
+            retval[i] = it.next();
+        }
+        return retval;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2013 Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.supstream.dvd;
+
+import bdsup2sub.benchmark.SyntheticCaptions;
+import bdsup2sub.bitmap.Bitmap;
+import bdsup2sub.core.Configuration;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creation of a VobSub frame (RLE encoding of even and odd lines plus packetizing).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SubDvdWriterBenchmark {
+
+    private Bitmap caption;
+    private SubPictureDVD subPicture;
+    private SubDvdWriter writer;
+
+    @Setup
+    public void setUp() {
+        caption = SyntheticCaptions.dvdCaption();
+        subPicture = SyntheticCaptions.subPictureDVD();
+        writer = new SubDvdWriter(Configuration.getInstance());
+    }
+
+    @Benchmark
+    public byte[] createSubFrame() {
+        return writer.createSubFrame(subPicture, caption);
+    }
+}
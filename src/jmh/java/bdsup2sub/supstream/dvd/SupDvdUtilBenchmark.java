@@ -0,0 +1,90 @@
+/*
+ * Copyright 2013 Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.supstream.dvd;
+
+import bdsup2sub.benchmark.SyntheticCaptions;
+import bdsup2sub.bitmap.Bitmap;
+import bdsup2sub.core.CoreException;
+import bdsup2sub.supstream.ImageObjectFragment;
+import bdsup2sub.tools.FileBuffer;
+import bdsup2sub.tools.FileBufferException;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of a DVD caption from an RLE buffer (even lines followed by odd lines) written in the setup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SupDvdUtilBenchmark {
+
+    /** size of the packets the RLE buffer is split into, like the 2048 byte packs of a VobSub stream */
+    private static final int PACKET_SIZE = 2024;
+
+    private File rleFile;
+    private FileBuffer fileBuffer;
+    private SubPictureDVD subPicture;
+
+    @Setup
+    public void setUp() throws IOException, FileBufferException {
+        Bitmap caption = SyntheticCaptions.dvdCaption();
+        byte[] even = SupDvdUtil.encodeLines(caption, true);
+        byte[] odd = SupDvdUtil.encodeLines(caption, false);
+
+        rleFile = File.createTempFile("bdsup2sub-benchmark", ".rle");
+        FileOutputStream out = new FileOutputStream(rleFile);
+        try {
+            out.write(even);
+            out.write(odd);
+        } finally {
+            out.close();
+        }
+        fileBuffer = new FileBuffer(rleFile.getPath());
+
+        int rleSize = even.length + odd.length;
+        List<ImageObjectFragment> fragments = new ArrayList<ImageObjectFragment>();
+        for (int ofs = 0; ofs < rleSize; ofs += PACKET_SIZE) {
+            fragments.add(new ImageObjectFragment(ofs, Math.min(PACKET_SIZE, rleSize - ofs)));
+        }
+        subPicture = SyntheticCaptions.subPictureDVD();
+        subPicture.setRleFragments(fragments);
+        subPicture.setRleSize(rleSize);
+        subPicture.setEvenOffset(0);
+        subPicture.setOddOffset(even.length);
+        subPicture.storeOriginal();
+    }
+
+    @TearDown
+    public void tearDown() {
+        fileBuffer.close();
+        rleFile.delete();
+    }
+
+    @Benchmark
+    public Bitmap decodeImage() throws CoreException {
+        return SupDvdUtil.decodeImage(subPicture, fileBuffer, 0);
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2013 Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.supstream.hd;
+
+import bdsup2sub.benchmark.SyntheticCaptions;
+import bdsup2sub.bitmap.Bitmap;
+import bdsup2sub.tools.BitReader;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of the even field of an HD-DVD caption from its bit oriented RLE buffer.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SupHDBenchmark {
+
+    private byte[] evenBuffer;
+    private byte[] target;
+    private int width;
+    private int height;
+
+    @Setup
+    public void setUp() {
+        Bitmap caption = SyntheticCaptions.caption();
+        width = caption.getWidth();
+        height = caption.getHeight();
+        evenBuffer = encodeField(caption, 0);
+        target = new byte[width * height];
+
+        decodeLine();
+        for (int y = 0; y < height; y += 2) {
+            for (int x = 0; x < width; x++) {
+                if (target[y * width + x] != caption.getInternalBuffer()[y * width + x]) {
+                    throw new IllegalStateException("Synthetic RLE buffer doesn't decode to the caption at " + x + ", " + y);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public byte[] decodeLine() {
+        SupHD.decodeLine(target, 0, width, width * (height / 2 + (height & 1)), new BitReader(evenBuffer));
+        return target;
+    }
+
+    /**
+     * Encode every second line of the bitmap the way the decoder expects it.
+     * @param bm bitmap to encode
+     * @param firstLine 0 for the even field, 1 for the odd field
+     * @return RLE buffer
+     */
+    private static byte[] encodeField(Bitmap bm, int firstLine) {
+        BitWriter out = new BitWriter();
+        int w = bm.getWidth();
+        byte[] pixels = bm.getInternalBuffer();
+        for (int y = firstLine; y < bm.getHeight(); y += 2) {
+            int x = 0;
+            while (x < w) {
+                int color = pixels[y * w + x] & 0xff;
+                int len = 1;
+                while (x + len < w && (pixels[y * w + x + len] & 0xff) == color) {
+                    len++;
+                }
+                boolean toEndOfLine = x + len == w && len > 9;
+                if (!toEndOfLine && len > 136) {
+                    len = 136;
+                }
+                out.write(len > 1 ? 1 : 0, 1);                  // rle type
+                if (color < 4) {
+                    out.write(0, 1);                            // 2 bit color
+                    out.write(color, 2);
+                } else {
+                    out.write(1, 1);                            // 8 bit color
+                    out.write(color, 8);
+                }
+                if (toEndOfLine) {
+                    out.write(1, 1);
+                    out.write(0, 7);                            // fill up the line
+                } else if (len > 9) {
+                    out.write(1, 1);
+                    out.write(len - 9, 7);
+                } else if (len > 1) {
+                    out.write(0, 1);
+                    out.write(len - 2, 3);
+                }
+                x += toEndOfLine ? w - x : len;
+            }
+            out.syncToByte();
+        }
+        return out.toByteArray();
+    }
+
+    private static class BitWriter {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private int current;
+        private int numBits;
+
+        void write(int value, int n) {
+            for (int i = n - 1; i >= 0; i--) {
+                current = (current << 1) | ((value >> i) & 1);
+                if (++numBits == 8) {
+                    bytes.write(current);
+                    current = 0;
+                    numBits = 0;
+                }
+            }
+        }
+
+        void syncToByte() {
+            if (numBits > 0) {
+                write(0, 8 - numBits);
+            }
+        }
+
+        byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+    }
+}
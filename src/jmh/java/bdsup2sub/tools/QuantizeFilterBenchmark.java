@@ -0,0 +1,99 @@
+/*
+ * Copyright 2013 Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.tools;
+
+import bdsup2sub.benchmark.SyntheticCaptions;
+import bdsup2sub.bitmap.Bitmap;
+import bdsup2sub.core.PaletteMode;
+import bdsup2sub.core.Quantizer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reduction of a true color caption to a 255 color palette by each quantizer, without dithering, with
+ * error diffusion and with ordered dithering.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class QuantizeFilterBenchmark {
+
+    @Param({"CREATE_NEW", "CREATE_DITHERED", "CREATE_ORDERED_DITHERED"})
+    private PaletteMode paletteMode;
+
+    @Param({"MEDIAN_CUT", "OCTREE"})
+    private Quantizer quantizer;
+
+    private int[] argb;
+    private byte[] target;
+    private int width;
+    private int height;
+
+    @Setup
+    public void setUp() {
+        // scaled captions are the typical input: the filter blends the glyph edges into lots of colors
+        Bitmap caption = SyntheticCaptions.caption();
+        width = caption.getWidth();
+        height = caption.getHeight();
+        argb = blur(caption.toARGB(SyntheticCaptions.palette()), width, height);
+        target = new byte[width * height];
+    }
+
+    @Benchmark
+    public int[] quantize() {
+        ColorQuantizer q = quantizer.createQuantizer();
+        if (paletteMode == PaletteMode.CREATE_ORDERED_DITHERED) {
+            q = new OrderedDitherQuantizer(q);
+        }
+        return q.quantize(argb.clone(), target, width, height, 255, paletteMode != PaletteMode.CREATE_NEW, false);
+    }
+
+    /**
+     * 3x3 box filter applied to each ARGB channel.
+     */
+    private static int[] blur(int[] src, int width, int height) {
+        int[] trg = new int[src.length];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int[] sum = new int[4];
+                int count = 0;
+                for (int dy = -1; dy <= 1; dy++) {
+                    for (int dx = -1; dx <= 1; dx++) {
+                        int xs = x + dx;
+                        int ys = y + dy;
+                        if (xs >= 0 && xs < width && ys >= 0 && ys < height) {
+                            int c = src[ys * width + xs];
+                            for (int channel = 0; channel < 4; channel++) {
+                                sum[channel] += (c >>> (8 * channel)) & 0xff;
+                            }
+                            count++;
+                        }
+                    }
+                }
+                int c = 0;
+                for (int channel = 0; channel < 4; channel++) {
+                    c |= (sum[channel] / count) << (8 * channel);
+                }
+                trg[y * width + x] = c;
+            }
+        }
+        return trg;
+    }
+}
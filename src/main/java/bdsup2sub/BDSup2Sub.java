@@ -15,18 +15,34 @@
  */
 package bdsup2sub;
 
+import bdsup2sub.bitmap.Palette;
 import bdsup2sub.cli.CommandLineParser;
+import bdsup2sub.cli.CommandLineSettings;
+import bdsup2sub.cli.ConversionServer;
+import bdsup2sub.cli.FileConversion;
+import bdsup2sub.cli.MetricsReport;
 import bdsup2sub.core.*;
 import bdsup2sub.gui.main.MainFrame;
-import bdsup2sub.tools.Props;
 import bdsup2sub.utils.*;
 import org.apache.commons.cli.ParseException;
 import org.simplericity.macify.eawt.Application;
 import org.simplericity.macify.eawt.DefaultApplication;
 
 import javax.swing.*;
-import java.awt.*;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static bdsup2sub.gui.support.GuiUtils.applyGtkThemeWorkarounds;
 
@@ -62,152 +78,7 @@ public class BDSup2Sub {
     }
 
     private void processOptions() {
-        if (options.isLoadSettings()) {
-            configuration.load();
-        }
-        if (options.getOutputMode().isPresent()) {
-            configuration.setOutputMode(options.getOutputMode().get());
-        }
-        if (options.getResolution().isPresent()) {
-            configuration.setConvertResolution(true);
-            configuration.setOutputResolution(options.getResolution().get());
-        }
-        processFrameRate();
-        if (options.getDelay().isPresent()) {
-            configuration.setDelayPTS((int) SubtitleUtils.syncTimePTS((long) (options.getDelay().get() * 90.0), configuration.getFpsTrg(), configuration.getFpsTrg()));
-        }
-        if (options.getScalingFilter().isPresent()) {
-            configuration.setScalingFilter(options.getScalingFilter().get());
-        }
-        if (options.getPaletteMode().isPresent()) {
-            configuration.setPaletteMode(options.getPaletteMode().get());
-        }
-        processMinimumDisplayTime();
-        if (options.getMaximumTimeDifference().isPresent()) {
-            configuration.setMergePTSdiff((int) (options.getMaximumTimeDifference().get() * 90.0 + 0.5));
-        }
-        processMoveMode();
-        if (options.getCropLines().isPresent()) {
-            configuration.setCropOffsetY(options.getCropLines().get());
-        }
-        if (options.getAlphaCropThreshold().isPresent()) {
-            configuration.setAlphaCrop(options.getAlphaCropThreshold().get());
-        }
-        if (options.getScaleX().isPresent() && options.getScaleY().isPresent()) {
-            configuration.setApplyFreeScale(true);
-            configuration.setFreeScaleFactor(options.getScaleX().get(), options.getScaleY().get());
-        }
-        if (options.isExportPalette().isPresent()) {
-            configuration.setWritePGCEditPalette(options.isExportPalette().get());
-        }
-        if (options.isExportForcedSubtitlesOnly().isPresent()) {
-            configuration.setExportForced(options.isExportForcedSubtitlesOnly().get());
-        }
-        if (options.getForcedFlagState().isPresent()) {
-            configuration.setForceAll(options.getForcedFlagState().get());
-        }
-        if (options.isSwapCrCb().isPresent()) {
-            configuration.setSwapCrCb(options.isSwapCrCb().get());
-        }
-        if (options.isFixInvisibleFrames().isPresent()) {
-            configuration.setFixZeroAlpha(options.isFixInvisibleFrames().get());
-        }
-        if (options.isVerbose().isPresent()) {
-            configuration.setVerbose(options.isVerbose().get());
-        }
-        if (options.getAlphaThreshold().isPresent()) {
-            configuration.setAlphaThreshold(options.getAlphaThreshold().get());
-        }
-        processLuminanceThreshold();
-        if (options.getLanguageIndex().isPresent()) {
-            configuration.setLanguageIdx(options.getLanguageIndex().get());
-        }
-        processPaletteFile();
-    }
-
-    private void processFrameRate() {
-        boolean targetFramerateDefined = false;
-        if (options.isConvertFpsMode()) {
-            if (!options.getSourceFrameRate().isPresent()) { // was set to "auto"
-                // leave default value
-            } else {
-                configuration.setFpsSrc(options.getSourceFrameRate().get());
-                configuration.setFpsTrg(options.getTargetFrameRate().get());
-            }
-            // convert framerate from <auto>/fpssrc to fpstrg
-            configuration.setConvertFPS(true);
-            targetFramerateDefined = true;
-        } else if (options.isSynchronizeFpsMode()) {
-            if (!options.getTargetFrameRate().isPresent()) { // was set to "keep"
-                configuration.setKeepFps(true);
-                // use source fps as target fps
-            } else {
-                // synchronize target framerate to fpstrg
-                configuration.setFpsTrg(options.getTargetFrameRate().get());
-                targetFramerateDefined = true;
-            }
-        }
-        if (!targetFramerateDefined && options.getResolution().isPresent()) {
-            switch(options.getResolution().get()) {
-                case PAL: configuration.setFpsTrg(Framerate.PAL.getValue()); break;
-                case NTSC: configuration.setFpsTrg(Framerate.NTSC.getValue()); break;
-                case HD_720: configuration.setFpsTrg(Framerate.FPS_23_976.getValue()); break;
-                case HD_1440x1080: configuration.setFpsTrg(Framerate.FPS_23_976.getValue()); break;
-                case HD_1080: configuration.setFpsTrg(Framerate.FPS_23_976.getValue()); break;
-            }
-        }
-        if (!configuration.isKeepFps() && !targetFramerateDefined) {
-            configuration.setFpsTrg(SubtitleUtils.getDefaultFramerateForResolution(configuration.getOutputResolution()));
-        }
-    }
-
-    private void processMinimumDisplayTime() {
-        if (options.getMinimumDisplayTime().isPresent()) {
-            int tMin = (int) SubtitleUtils.syncTimePTS((long) (options.getMinimumDisplayTime().get() * 90.0), configuration.getFpsTrg(), configuration.getFpsTrg());
-            configuration.setMinTimePTS(tMin);
-            configuration.setFixShortFrames(true);
-        }
-    }
-
-    private void processMoveMode() {
-        if (options.getMoveModeY().isPresent()) {
-            configuration.setMoveModeY(options.getMoveModeY().get());
-            configuration.setMoveOffsetY(options.getMoveYOffset());
-        }
-        if (options.getMoveModeX().isPresent()) {
-            configuration.setMoveModeX(options.getMoveModeX().get());
-            if (options.getMoveXOffset().isPresent()) {
-                configuration.setMoveOffsetX(options.getMoveXOffset().get());
-            }
-        }
-    }
-
-    private void processLuminanceThreshold() {
-        int lt[] = configuration.getLuminanceThreshold();
-        if (options.getLumLowMedThreshold().isPresent()) {
-            lt[1] = options.getLumLowMedThreshold().get();
-        }
-        if (options.getLumMedHighThreshold().isPresent()) {
-            lt[0] = options.getLumMedHighThreshold().get();
-        }
-        configuration.setLuminanceThreshold(lt);
-    }
-
-    private void processPaletteFile() {
-        if (options.getPaletteFile() != null) {
-            Props colProps = new Props();
-            colProps.load(options.getPaletteFile().getAbsolutePath());
-            for (int c = 0; c < 15; c++) {
-                String s = colProps.get("Color_" + c, "0,0,0");
-                String sp[] = s.split(",");
-                if (sp.length >= 3) {
-                    int red = Integer.valueOf(sp[0].trim()) & 0xff;
-                    int green = Integer.valueOf(sp[1].trim()) & 0xff;
-                    int blue = Integer.valueOf(sp[2].trim()) & 0xff;
-                    Core.getCurrentDVDPalette().setColor(c + 1, new Color(red, green, blue));
-                }
-            }
-        }
+        CommandLineSettings.apply(options, configuration, Core.getCurrentDVDPalette());
     }
 
     private void execute() {
@@ -227,6 +98,12 @@ public class BDSup2Sub {
                         mainFrame.setVisible(true);
                     }
                 });
+            } else if (options.isServerMode()) {
+                runServer();
+            } else if (options.isStreamMode()) {
+                runCliStream();
+            } else if (options.isBatchMode()) {
+                runCliBatch();
             } else {
                 runCliLoop();
             }
@@ -253,60 +130,223 @@ public class BDSup2Sub {
     private void runCliLoop() {
         String inputFile = options.getInputFile().getAbsolutePath();
         String outputFile = options.getOutputFile().getAbsolutePath();
+        ConversionSession session = Core.getDefaultSession();
+        if (options.isProgressJson()) {
+            session.setProgressListener(MetricsReport.progressEvents(System.err, inputFile));
+        }
+        String error = null;
         try {
-            boolean xml = FilenameUtils.getExtension(inputFile).equalsIgnoreCase("xml");
-            boolean idx = FilenameUtils.getExtension(inputFile).equalsIgnoreCase("idx");
-            boolean ifo = FilenameUtils.getExtension(inputFile).equalsIgnoreCase("ifo");
-            byte id[] = ToolBox.getFileID(inputFile, 4);
-            StreamID sid = (id == null) ? StreamID.UNKNOWN : StreamUtils.getStreamID(id);
-            if (!idx && !xml && !ifo && sid == StreamID.UNKNOWN) {
-                throw new CoreException("File '" + inputFile + "' is not a supported subtitle stream.");
+            FileConversion.readInput(session, inputFile, outputFile);
+            logger.printWarningsAndErrorsAndResetCounters();
+            FileConversion.writeOutput(session, outputFile, options.getScreenRatio());
+        } catch (CoreException ex) {
+            error = ex.getMessage();
+            logger.error(ex.getMessage());
+        } catch (Exception ex) {
+            error = ex.toString();
+            ToolBox.showException(ex);
+            logger.error(ex.getMessage());
+        }
+        if (options.isProgressJson()) {
+            MetricsReport.printFinished(System.err, inputFile, error);
+        }
+        writeMetrics(MetricsReport.fileResult(inputFile, outputFile, session, error).toString());
+        // clean up
+        logger.printWarningsAndErrorsAndResetCounters();
+        Core.exit();
+
+        System.out.println("\nConversion finished.");
+        System.exit(0);
+    }
+
+    /**
+     * Convert all input files in a pool of worker threads, each file in its own session with a copy of the
+     * configuration. Print a summary when all files are done, exit with 1 if any of them failed.
+     */
+    private void runCliBatch() {
+        final List<File> inputFiles = options.getInputFiles();
+        final List<File> outputFiles = options.getOutputFiles();
+        int jobs = Math.min(options.getBatchJobs().get(), inputFiles.size());
+        ExecutorService executor = Executors.newFixedThreadPool(jobs);
+        List<Future<Long>> results = new ArrayList<Future<Long>>();
+        List<ConversionSession> sessions = new ArrayList<ConversionSession>();
+        for (int i = 0; i < inputFiles.size(); i++) {
+            final String inputFile = inputFiles.get(i).getAbsolutePath();
+            final String outputFile = outputFiles.get(i).getAbsolutePath();
+            final ConversionSession session = new ConversionSession(configuration.copy());
+            session.setCurrentDVDPalette(new Palette(Core.getCurrentDVDPalette()));
+            session.setLogName(inputFiles.get(i).getName());
+            if (options.isProgressJson()) {
+                session.setProgressListener(MetricsReport.progressEvents(System.err, inputFile));
             }
-            configuration.setCurrentStreamID(sid);
+            sessions.add(session);
+            results.add(executor.submit(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    long start = System.currentTimeMillis();
+                    logger.info("Converting " + inputFile + "\n");
+                    String error = "interrupted";
+                    try {
+                        FileConversion.readInput(session, inputFile, outputFile);
+                        FileConversion.writeOutput(session, outputFile, options.getScreenRatio());
+                        error = null;
+                    } catch (Exception ex) {
+                        error = ex instanceof CoreException ? ex.getMessage() : ex.toString();
+                        throw ex;
+                    } finally {
+                        session.close();
+                        if (options.isProgressJson()) {
+                            MetricsReport.printFinished(System.err, inputFile, error);
+                        }
+                    }
+                    return System.currentTimeMillis() - start;
+                }
+            }));
+        }
+        executor.shutdown();
 
-            // check output file(s)
-            File indexFile, subtitleFile;
-            if (configuration.getOutputMode() == OutputMode.VOBSUB) {
-                indexFile = new File(FilenameUtils.removeExtension(outputFile) + ".idx");
-                subtitleFile = new File(FilenameUtils.removeExtension(outputFile) + ".sub");
-            } else {
-                subtitleFile = new File(FilenameUtils.removeExtension(outputFile) + ".sup");
-                indexFile = null;
+        int failed = 0;
+        int warnings = 0;
+        int errors = 0;
+        StringBuilder summary = new StringBuilder("\nSummary:\n");
+        List<String> fileResults = new ArrayList<String>();
+        for (int i = 0; i < results.size(); i++) {
+            String inputFile = inputFiles.get(i).getPath();
+            String error = null;
+            try {
+                long millis = results.get(i).get();
+                summary.append("  OK      ").append(inputFile).append(" -> ").append(outputFiles.get(i).getPath())
+                        .append(" (").append(String.format("%.1f", millis / 1000.0)).append("s");
+                appendWarningsAndErrors(summary, sessions.get(i));
+                summary.append(")\n");
+            } catch (ExecutionException ex) {
+                failed++;
+                Throwable cause = ex.getCause();
+                error = cause instanceof CoreException ? cause.getMessage() : cause.toString();
+                summary.append("  FAILED  ").append(inputFile).append(": ").append(error).append("\n");
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                failed++;
+                error = "interrupted";
+                summary.append("  FAILED  ").append(inputFile).append(": interrupted\n");
             }
-            if ((indexFile != null && indexFile.exists() && !indexFile.canWrite()) || (subtitleFile.exists() && !subtitleFile.canWrite())) {
-                throw new CoreException("Target file '" + outputFile + "' is write protected.");
+            warnings += sessions.get(i).getWarningCount();
+            errors += sessions.get(i).getErrorCount();
+            fileResults.add(MetricsReport.fileResult(inputFiles.get(i).getAbsolutePath(), outputFiles.get(i).getAbsolutePath(), sessions.get(i), error).toString());
+        }
+        writeMetrics(new JsonBuilder().addRaw("files", JsonBuilder.array(fileResults)).toString());
+        summary.append(inputFiles.size() - failed).append(" of ").append(inputFiles.size()).append(" files converted");
+        if (failed > 0) {
+            summary.append(", ").append(failed).append(" failed");
+        }
+        logger.flush();
+        System.out.println(summary.append("."));
+
+        // the sessions count their own warnings and errors, the global counters mix up the files
+        logger.printWarningsAndErrors(warnings, errors);
+        logger.resetWarningCounter();
+        logger.resetErrorCounter();
+        Core.exit();
+
+        System.out.println("\nConversion finished.");
+        System.exit(failed > 0 ? 1 : 0);
+    }
+
+    private static void appendWarningsAndErrors(StringBuilder summary, ConversionSession session) {
+        if (session.getWarningCount() > 0) {
+            summary.append(", ").append(session.getWarningCount()).append(session.getWarningCount() == 1 ? " warning" : " warnings");
+        }
+        if (session.getErrorCount() > 0) {
+            summary.append(", ").append(session.getErrorCount()).append(session.getErrorCount() == 1 ? " error" : " errors");
+        }
+    }
+
+    /**
+     * Stay resident and convert the jobs posted to the local server until it's shut down.
+     */
+    private void runServer() {
+        int threads = Runtime.getRuntime().availableProcessors();
+        try {
+            ConversionServer server = new ConversionServer(configuration, Core.getCurrentDVDPalette(), options.getServerPort().get(), threads);
+            server.start();
+            System.out.println("Listening on http://127.0.0.1:" + server.getPort() + "/jobs (" + threads + " worker threads)");
+            System.out.println("Send the header " + ConversionServer.TOKEN_HEADER + ": " + server.getToken() + " with each request");
+            server.awaitShutdown();
+        } catch (IOException ex) {
+            fatalError("Can't start server: " + ex.getMessage());
+            System.exit(1);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        logger.printWarningsAndErrorsAndResetCounters();
+        Core.exit();
+        System.out.println("\nServer stopped.");
+        System.exit(0);
+    }
+
+    private void runCliStream() {
+        PrintStream stdout = System.out;
+        InputStream in = null;
+        OutputStream out = null;
+        String inputName = null;
+        String outputFile = null;
+        String error = null;
+        try {
+            if (options.isStandardInput()) {
+                inputName = "standard input";
+                in = System.in;
+            } else {
+                inputName = options.getInputFile().getAbsolutePath();
+                byte id[] = ToolBox.getFileID(inputName, 4);
+                if (id == null || StreamUtils.getStreamID(id) != StreamID.BDSUP) {
+                    throw new CoreException("File '" + inputName + "' is not a BD-SUP stream, only BD-SUP can be converted in stream mode.");
+                }
+                in = new FileInputStream(inputName);
             }
+            configuration.setCurrentStreamID(StreamID.BDSUP);
 
-            // read input file
-            if (xml || sid == StreamID.XML) {
-                Core.readXml(inputFile);
-            } else if (idx || sid == StreamID.DVDSUB || sid == StreamID.IDX) {
-                Core.readVobSub(inputFile);
-            } else if (ifo || sid == StreamID.IFO) {
-                Core.readSupIfo(inputFile);
+            if (options.isStandardOutput()) {
+                // keep the console output away from the subtitle stream
+                System.setOut(System.err);
+                outputFile = null;
+                out = stdout;
             } else {
-                Core.readSup(inputFile);
+                outputFile = options.getOutputFile().getAbsolutePath();
+                String extension = configuration.getOutputMode() == OutputMode.VOBSUB ? ".sub" : ".sup";
+                File subtitleFile = new File(FilenameUtils.removeExtension(outputFile) + extension);
+                if (subtitleFile.exists() && !subtitleFile.canWrite()) {
+                    throw new CoreException("Target file '" + outputFile + "' is write protected.");
+                }
+                out = new FileOutputStream(subtitleFile);
             }
 
-            Core.scanSubtitles();
-            logger.printWarningsAndErrorsAndResetCounters();
-            // move captions
             if (configuration.getMoveModeX() != CaptionMoveModeX.KEEP_POSITION || configuration.getMoveModeY() != CaptionMoveModeY.KEEP_POSITION) {
                 configuration.setCineBarFactor((1.0 - (16.0 / 9) / options.getScreenRatio()) / 2.0);
-                Core.moveAllToBounds();
             }
-            // set some values
-            if (configuration.isExportForced() && Core.getNumForcedFrames() == 0) {
-                throw new CoreException("No forced subtitles found.");
-            }
-            // write output
-            Core.writeSub(outputFile);
+            Core.convertStream(in, inputName, out, outputFile);
         } catch (CoreException ex) {
+            error = ex.getMessage();
             logger.error(ex.getMessage());
         } catch (Exception ex) {
+            error = ex.toString();
             ToolBox.showException(ex);
             logger.error(ex.getMessage());
+        } finally {
+            try {
+                if (in != null) {
+                    in.close();
+                }
+                if (out != null) {
+                    out.close();
+                }
+            } catch (IOException ex) {
+            }
+        }
+        if (options.isProgressJson()) {
+            // the length of a stream isn't known, so there is no progress to report before
+            MetricsReport.printFinished(System.err, inputName, error);
         }
+        writeMetrics(MetricsReport.fileResult(inputName, outputFile != null ? outputFile : "standard output", Core.getDefaultSession(), error).toString());
         // clean up
         logger.printWarningsAndErrorsAndResetCounters();
         Core.exit();
@@ -315,8 +355,23 @@ public class BDSup2Sub {
         System.exit(0);
     }
 
+    /**
+     * Write a report to the metrics file if one was given.
+     * @param json Report
+     */
+    private void writeMetrics(String json) {
+        if (options.getMetricsFile().isPresent()) {
+            try {
+                MetricsReport.write(options.getMetricsFile().get(), json);
+            } catch (IOException ex) {
+                logger.error("Can't write metrics: " + ex.getMessage() + "\n");
+            }
+        }
+    }
+
     private static void fatalError(String message) {
         Core.exit();
+        logger.flush();
         System.out.println("ERROR: " + message);
         System.exit(1);
     }
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2013 Volker Oth (0xdeadbeef) / Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.bitmap;
+
+/**
+ * Fixed-point bilinear interpolation of palettized bitmaps.<br>
+ * Source positions and weights of all target columns and rows are computed once, so interpolating
+ * a pixel only needs table lookups and integer math. Source pixels next to the right or bottom edge
+ * are clamped to the edge, their weight is zero there anyway since the corners of source and target
+ * are aligned.
+ */
+final class BilinearScaler {
+
+    /** Number of fraction bits of weights */
+    static final int FRACTION_BITS = 15;
+    /** Weight 1.0 */
+    static final int ONE = 1 << FRACTION_BITS;
+    /** Weight 0.5, added before shifting a weighted sum to round it */
+    static final int HALF = ONE >> 1;
+
+    private final int dstWidth;
+    /** Source column left of each target column */
+    private final int[] x0;
+    /** Source column right of each target column */
+    private final int[] x1;
+    /** Weight of the right source column for each target column */
+    private final int[] wx;
+    /** Offset of the source row above each target row */
+    private final int[] y0;
+    /** Offset of the source row below each target row */
+    private final int[] y1;
+    /** Weight of the lower source row for each target row */
+    private final int[] wy;
+
+    BilinearScaler(int srcWidth, int srcHeight, int dstWidth, int dstHeight) {
+        this.dstWidth = dstWidth;
+        x0 = new int[dstWidth];
+        x1 = new int[dstWidth];
+        wx = new int[dstWidth];
+        y0 = new int[dstHeight];
+        y1 = new int[dstHeight];
+        wy = new int[dstHeight];
+        mapPositions(srcWidth, dstWidth, 1, x0, x1, wx);
+        mapPositions(srcHeight, dstHeight, srcWidth, y0, y1, wy);
+    }
+
+    /**
+     * Map target positions to source positions, the first and last pixels of source and target are aligned.
+     * @param srcSize Source width or height
+     * @param dstSize Target width or height
+     * @param stride  Factor applied to the source positions
+     * @param p0      Receives the source position before each target position
+     * @param p1      Receives the source position after each target position
+     * @param w       Receives the weight of the source position after each target position
+     */
+    private static void mapPositions(int srcSize, int dstSize, int stride, int[] p0, int[] p1, int[] w) {
+        int div = Math.max(dstSize - 1, 1);
+        for (int t = 0; t < dstSize; t++) {
+            long pos = (long)t * (srcSize - 1);
+            int i = (int)(pos / div);
+            long rem = pos % div;
+            p0[t] = i * stride;
+            p1[t] = Math.min(i + 1, srcSize - 1) * stride;
+            w[t] = (int)(((rem << FRACTION_BITS) + (div >> 1)) / div);
+        }
+    }
+
+    /**
+     * Expand a palette component to an int table.
+     * @param values Palette component, e.g. {@link Palette#getAlpha()}
+     * @return Component values 0..255
+     */
+    static int[] toTable(byte[] values) {
+        int[] table = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            table[i] = values[i] & 0xff;
+        }
+        return table;
+    }
+
+    /**
+     * Interpolate two palette components for one target row.<br>
+     * Results are weighted sums with {@link #FRACTION_BITS} fraction bits.
+     * @param src  Source bitmap buffer
+     * @param yt   Target row
+     * @param c0   First palette component
+     * @param c1   Second palette component
+     * @param out0 Receives the first component of each target pixel
+     * @param out1 Receives the second component of each target pixel
+     */
+    void interpolateRow(byte[] src, int yt, int[] c0, int[] c1, int[] out0, int[] out1) {
+        int top = y0[yt];
+        int bottom = y1[yt];
+        int wBottom = wy[yt];
+        int wTop = ONE - wBottom;
+        for (int xt = 0; xt < dstWidth; xt++) {
+            int left = x0[xt];
+            int right = x1[xt];
+            int w = wx[xt];
+            int w01 = (w * wTop + HALF) >> FRACTION_BITS;
+            int w00 = wTop - w01;
+            int w11 = (w * wBottom + HALF) >> FRACTION_BITS;
+            int w10 = wBottom - w11;
+            int i00 = src[top + left] & 0xff;
+            int i01 = src[top + right] & 0xff;
+            int i10 = src[bottom + left] & 0xff;
+            int i11 = src[bottom + right] & 0xff;
+            out0[xt] = c0[i00] * w00 + c0[i01] * w01 + c0[i10] * w10 + c0[i11] * w11;
+            out1[xt] = c1[i00] * w00 + c1[i01] * w01 + c1[i10] * w10 + c1[i11] * w11;
+        }
+    }
+
+    /**
+     * Interpolate four palette components for one target row.<br>
+     * Results are weighted sums with {@link #FRACTION_BITS} fraction bits.
+     * @param src  Source bitmap buffer
+     * @param yt   Target row
+     * @param a    Alpha component of the palette
+     * @param r    Red component of the palette
+     * @param g    Green component of the palette
+     * @param b    Blue component of the palette
+     * @param outA Receives the alpha component of each target pixel
+     * @param outR Receives the red component of each target pixel
+     * @param outG Receives the green component of each target pixel
+     * @param outB Receives the blue component of each target pixel
+     */
+    void interpolateRow(byte[] src, int yt, int[] a, int[] r, int[] g, int[] b, int[] outA, int[] outR, int[] outG, int[] outB) {
+        int top = y0[yt];
+        int bottom = y1[yt];
+        int wBottom = wy[yt];
+        int wTop = ONE - wBottom;
+        for (int xt = 0; xt < dstWidth; xt++) {
+            int left = x0[xt];
+            int right = x1[xt];
+            int w = wx[xt];
+            int w01 = (w * wTop + HALF) >> FRACTION_BITS;
+            int w00 = wTop - w01;
+            int w11 = (w * wBottom + HALF) >> FRACTION_BITS;
+            int w10 = wBottom - w11;
+            int i00 = src[top + left] & 0xff;
+            int i01 = src[top + right] & 0xff;
+            int i10 = src[bottom + left] & 0xff;
+            int i11 = src[bottom + right] & 0xff;
+            outA[xt] = a[i00] * w00 + a[i01] * w01 + a[i10] * w10 + a[i11] * w11;
+            outR[xt] = r[i00] * w00 + r[i01] * w01 + r[i10] * w10 + r[i11] * w11;
+            outG[xt] = g[i00] * w00 + g[i01] * w01 + g[i10] * w10 + g[i11] * w11;
+            outB[xt] = b[i00] * w00 + b[i01] * w01 + b[i10] * w10 + b[i11] * w11;
+        }
+    }
+}
@@ -16,12 +16,14 @@
 package bdsup2sub.bitmap;
 
 import bdsup2sub.core.Logger;
-import bdsup2sub.tools.QuantizeFilter;
+import bdsup2sub.tools.ColorIndexMap;
+import bdsup2sub.tools.ColorQuantizer;
+import bdsup2sub.tools.MedianCutQuantizer;
+import bdsup2sub.tools.ParallelRows;
 import com.mortennobel.imagescaling.ResampleFilter;
 
 import java.awt.image.*;
 import java.util.Arrays;
-import java.util.HashMap;
 
 import static bdsup2sub.bitmap.ColorSpaceUtils.RGB2YCbCr;
 
@@ -159,34 +161,28 @@ public class Bitmap {
      */
     public Bitmap getBitmapWithNormalizedPalette(byte[] alphaValues, int alphaThreshold, byte[] lumaValues, int lumaThreshold[]) {
         Bitmap bm = new Bitmap(width, height);
-        HashMap<Integer, Integer> p = new HashMap<Integer, Integer>();
 
-        int newColorIndex;
-        for (int i = 0; i < buffer.length; i++) {
-            int colorIndex = buffer[i] & 0xff;
+        // the new color index only depends on the palette entry, so map each entry once
+        byte[] newColorIndices = new byte[alphaValues.length];
+        for (int colorIndex = 0; colorIndex < alphaValues.length; colorIndex++) {
             int alpha = alphaValues[colorIndex] & 0xff;
             int luma = lumaValues[colorIndex] & 0xff;
-
-            Integer existingColorIndex = p.get((alpha << 8) | luma);
-
-            if (existingColorIndex != null) {
-                newColorIndex = existingColorIndex;
-            }
-            else {
-                if (alpha < alphaThreshold) {
-                    newColorIndex = 0; // transparent color
-                } else {
-                    newColorIndex = 1; // default: lightest color
-                    for (int threshold : lumaThreshold) {
-                        if (luma > threshold) {
-                            break;
-                        }
-                        newColorIndex++; // try next darker color
+            int newColorIndex;
+            if (alpha < alphaThreshold) {
+                newColorIndex = 0; // transparent color
+            } else {
+                newColorIndex = 1; // default: lightest color
+                for (int threshold : lumaThreshold) {
+                    if (luma > threshold) {
+                        break;
                     }
+                    newColorIndex++; // try next darker color
                 }
-                p.put((alpha << 8) | luma, newColorIndex);
             }
-            bm.buffer[i] = (byte)newColorIndex;
+            newColorIndices[colorIndex] = (byte)newColorIndex;
+        }
+        for (int i = 0; i < buffer.length; i++) {
+            bm.buffer[i] = newColorIndices[buffer[i] & 0xff];
         }
         return bm;
     }
@@ -205,92 +201,56 @@ public class Bitmap {
      * @return Scaled Bitmap which uses a fixed frame Palette.
      */
     public Bitmap scaleBilinearLm(final int sizeX, final int sizeY, final Palette pal, final int alphaThr, final int lumThr[]) {
-        final byte[] cy = pal.getY();
-        final byte[] a = pal.getAlpha();
-
-        final double scaleX = (double)(width - 1) / (sizeX - 1);
-        final double scaleY = (double)(height - 1) / (sizeY - 1);
-
-        int lastCY = 0;
-        int lastA  = 0;
-        int lastColIdx = 0; // 0 is the transparent color
-
-        Bitmap trg = new Bitmap(sizeX, sizeY);
-
-        for (int yt = 0; yt < sizeY; yt++) {
-            double ys = yt * scaleY; // source coordinate
-            int ysi = (int)ys;
-            double wy = (ys - ysi);
-            double wy1 = 1.0 - wy;
-
-            for (int xt = 0; xt < sizeX; xt++) {
-                double xs = xt * scaleX; // source coordinate
-                int xsi = (int)xs;
-                double wx = (xs - xsi); // weight factor
-
-                double wx1 = 1.0 - wx;
-
-                // interpolate pixel
-
-                // top left
-                double w = wx1 * wy1;
-                int idx = getPixel(xsi, ysi) & 0xff;
-                double at = (a[idx] & 0xff) * w;
-                double cyt = (cy[idx] & 0xff) * w;
-
-                // top right
-                if (xsi < width - 1) {
-                    w = wx * wy1;
-                    idx = getPixel(xsi + 1, ysi) & 0xff;
-                    at += (a[idx] & 0xff) * w;
-                    cyt += (cy[idx] & 0xff) * w;
-                }  // else assume transparent black
-
-                // bottom left
-                if (ysi < height-1) {
-                    w = wx1 * wy;
-                    idx = getPixel(xsi, ysi + 1) & 0xff;
-                    at += (a[idx] & 0xff) * w;
-                    cyt += (cy[idx] & 0xff) * w;
-                } // else assume transparent black
-
-                // bottom right
-                if ((ysi < height - 1) && (xsi < width - 1)) {
-                    w = wx * wy;
-                    idx = getPixel(xsi + 1, ysi + 1) & 0xff;
-                    at += (a[idx] & 0xff) * w;
-                    cyt += (cy[idx] & 0xff) * w;
-                } // else assume transparent black
-
-                int ati = (int)at;
-                int cyti = (int)cyt;
-
-                // find color index in palette
-
-                // already known ?
-                int colIdx = lastColIdx;
-                if (ati != lastA || cyti != lastCY ) {
-                    // determine index in target
-                    if (ati < alphaThr) {
-                        colIdx = 0; // transparent color
-                    } else {
-                        colIdx = 1; // default: lightest color
-                        for (int threshold : lumThr) {
-                            if (cyti > threshold) {
-                                break;
+        final int[] cy = BilinearScaler.toTable(pal.getY());
+        final int[] a = BilinearScaler.toTable(pal.getAlpha());
+        final BilinearScaler scaler = new BilinearScaler(width, height, sizeX, sizeY);
+        final Bitmap trg = new Bitmap(sizeX, sizeY);
+
+        ParallelRows.run(sizeY, sizeX, new ParallelRows.RowTask() {
+            @Override
+            public void processRows(int yStart, int yEnd) {
+                int[] at = new int[sizeX];
+                int[] cyt = new int[sizeX];
+                for (int yt = yStart; yt < yEnd; yt++) {
+                    scaler.interpolateRow(buffer, yt, a, cy, at, cyt);
+
+                    int lastCY = 0;
+                    int lastA  = 0;
+                    int lastColIdx = 0; // 0 is the transparent color
+                    int ofsY = yt * sizeX;
+
+                    for (int xt = 0; xt < sizeX; xt++) {
+                        int ati = at[xt] >> BilinearScaler.FRACTION_BITS;
+                        int cyti = cyt[xt] >> BilinearScaler.FRACTION_BITS;
+
+                        // find color index in palette
+
+                        // already known ?
+                        int colIdx = lastColIdx;
+                        if (ati != lastA || cyti != lastCY ) {
+                            // determine index in target
+                            if (ati < alphaThr) {
+                                colIdx = 0; // transparent color
+                            } else {
+                                colIdx = 1; // default: lightest color
+                                for (int threshold : lumThr) {
+                                    if (cyti > threshold) {
+                                        break;
+                                    }
+                                    colIdx++; // try next darker color
+                                }
                             }
-                            colIdx++; // try next darker color
+                            // remember
+                            lastA = ati;
+                            lastCY = cyti;
+                            lastColIdx = colIdx;
                         }
+                        // write target pixel
+                        trg.buffer[ofsY + xt] = (byte)colIdx;
                     }
-                    // remember
-                    lastA = ati;
-                    lastCY = cyti;
-                    lastColIdx = colIdx;
                 }
-                // write target pixel
-                trg.setPixel(xt, yt, (byte)colIdx);
             }
-        }
+        });
         return trg;
     }
 
@@ -314,16 +274,12 @@ public class Bitmap {
         Bitmap bm = new Bitmap(sizeX, sizeY);
 
         // select nearest colors in existing palette
-        HashMap<Integer, Integer> p = new HashMap<Integer, Integer>();
+        ColorIndexMap p = new ColorIndexMap();
 
         for (int i = 0; i < trg.length; i++) {
             int color = trg[i];
-            int colIdx;
-            Integer idxEx = p.get(color);
-            if (idxEx != null) {
-                colIdx = idxEx;
-            }
-            else {
+            int colIdx = p.get(color);
+            if (colIdx == ColorIndexMap.NOT_FOUND) {
                 int alpha = (color >> 24) & 0xff;
                 int red   = (color >> 16) & 0xff;
                 int green = (color >>  8) & 0xff;
@@ -357,115 +313,63 @@ public class Bitmap {
      * @return Scaled Bitmap which uses the same Palette as the source Bitmap.
      */
     public Bitmap scaleBilinear(final int sizeX, final int sizeY, final Palette pal) {
-        final byte[] r = pal.getR();
-        final byte[] g = pal.getG();
-        final byte[] b = pal.getB();
-        final byte[] a = pal.getAlpha();
-
-        final double scaleX = (double)(width - 1) / (sizeX - 1);
-        final double scaleY = (double)(height - 1) / (sizeY - 1);
-
-        int lastR = 0;
-        int lastG = 0;
-        int lastB = 0;
-        int lastA = 0;
-        int lastColIdx = pal.getIndexOfMostTransparentPaletteEntry();
-
+        final int[] r = BilinearScaler.toTable(pal.getR());
+        final int[] g = BilinearScaler.toTable(pal.getG());
+        final int[] b = BilinearScaler.toTable(pal.getB());
+        final int[] a = BilinearScaler.toTable(pal.getAlpha());
+        final int palSize = pal.getSize();
+        final int transparentColIdx = pal.getIndexOfMostTransparentPaletteEntry();
+        final BilinearScaler scaler = new BilinearScaler(width, height, sizeX, sizeY);
         final Bitmap trg = new Bitmap(sizeX, sizeY);
 
-        for (int yt = 0; yt < sizeY; yt++) {
-            double ys = yt * scaleY; // source coordinate
-            int ysi = (int)ys;
-            double wy = (ys - ysi);
-            double wy1 = 1.0 - wy;
-
-            for (int xt = 0; xt < sizeX; xt++) {
-                double xs = xt * scaleX; // source coordinate
-                int xsi = (int)xs;
-                double wx = (xs - xsi); // weight factor
-
-                double wx1 = 1.0 - wx;
-
-                // interpolate pixel
-
-                // top left
-                double w = wx1 * wy1;
-                int idx = getPixel(xsi, ysi) & 0xff;
-                double at = (a[idx] & 0xff) * w;
-                double rt = (r[idx] & 0xff) * w;
-                double gt = (g[idx] & 0xff) * w;
-                double bt = (b[idx] & 0xff) * w;
-
-                // top right
-                if (xsi < width - 1) {
-                    w = wx * wy1;
-                    idx = getPixel(xsi + 1, ysi) & 0xff;
-                    at += (a[idx] & 0xff) * w;
-                    rt += (r[idx] & 0xff) * w;
-                    gt += (g[idx] & 0xff) * w;
-                    bt += (b[idx] & 0xff) * w;
-                }  // else assume transparent black
-
-                // bottom left
-                if (ysi < height - 1) {
-                    w = wx1 * wy;
-                    idx = getPixel(xsi, ysi + 1) & 0xff;
-                    at += (a[idx] & 0xff) * w;
-                    rt += (r[idx] & 0xff) * w;
-                    gt += (g[idx] & 0xff) * w;
-                    bt += (b[idx] & 0xff) * w;
-                } // else assume transparent black
-
-                // bottom right
-                if ((ysi < height - 1) && (xsi < width - 1)) {
-                    w = wx * wy;
-                    idx = getPixel(xsi + 1, ysi + 1) & 0xff;
-                    at += (a[idx] & 0xff) * w;
-                    rt += (r[idx] & 0xff) * w;
-                    gt += (g[idx] & 0xff) * w;
-                    bt += (b[idx] & 0xff) * w;
-
-                } // else assume transparent black
-
-                int ati = (int)(at + 0.5);
-                int rti = (int)(rt + 0.5);
-                int gti = (int)(gt + 0.5);
-                int bti = (int)(bt + 0.5);
-
-                // find color index in palette
-
-                // already known ?
-                int colIdx = lastColIdx;
-                if (ati != lastA || rti != lastR || gti != lastG || bti!=lastB) {
-                    int minDistance = 0xffffff; // init > 0xff*0xff*4 = 0x03f804
-                    for (idx = 0; idx < pal.getSize(); idx++) {
-                        // distance vector (skip sqrt)
-                        int ad = ati - (a[idx] & 0xff);
-                        int rd = rti - (r[idx] & 0xff);
-                        int gd = gti - (g[idx] & 0xff);
-                        int bd = bti - (b[idx] & 0xff);
-                        int distance = rd * rd + gd * gd + bd * bd + ad * ad;
-                        // new minimum distance ?
-                        if ( distance < minDistance) {
-                            colIdx = idx;
-                            minDistance = distance;
-                            if (minDistance == 0) {
-                                break;
+        ParallelRows.run(sizeY, sizeX, new ParallelRows.RowTask() {
+            @Override
+            public void processRows(int yStart, int yEnd) {
+                int[] at = new int[sizeX];
+                int[] rt = new int[sizeX];
+                int[] gt = new int[sizeX];
+                int[] bt = new int[sizeX];
+                ColorIndexMap p = new ColorIndexMap();
+                for (int yt = yStart; yt < yEnd; yt++) {
+                    scaler.interpolateRow(buffer, yt, a, r, g, b, at, rt, gt, bt);
+
+                    int lastR = 0;
+                    int lastG = 0;
+                    int lastB = 0;
+                    int lastA = 0;
+                    int lastColIdx = transparentColIdx;
+                    int ofsY = yt * sizeX;
+
+                    for (int xt = 0; xt < sizeX; xt++) {
+                        int ati = (at[xt] + BilinearScaler.HALF) >> BilinearScaler.FRACTION_BITS;
+                        int rti = (rt[xt] + BilinearScaler.HALF) >> BilinearScaler.FRACTION_BITS;
+                        int gti = (gt[xt] + BilinearScaler.HALF) >> BilinearScaler.FRACTION_BITS;
+                        int bti = (bt[xt] + BilinearScaler.HALF) >> BilinearScaler.FRACTION_BITS;
+
+                        // find color index in palette
+
+                        // already known ?
+                        int colIdx = lastColIdx;
+                        if (ati != lastA || rti != lastR || gti != lastG || bti!=lastB) {
+                            int color = (ati << 24) | (rti << 16) | (gti << 8) | bti;
+                            colIdx = p.get(color);
+                            if (colIdx == ColorIndexMap.NOT_FOUND) {
+                                colIdx = findNearestColorIndex(ati, rti, gti, bti, a, r, g, b, palSize);
+                                p.put(color, colIdx);
                             }
+                            // remember values
+                            lastA = ati;
+                            lastR = rti;
+                            lastG = gti;
+                            lastB = bti;
+                            lastColIdx = colIdx;
                         }
+                        // write target pixel
+                        trg.buffer[ofsY + xt] = (byte)colIdx;
                     }
-                    // remember values
-                    lastA = ati;
-                    lastR = rti;
-                    lastG = gti;
-                    lastB = bti;
-                    lastColIdx = colIdx;
                 }
-                // write target pixel
-                trg.setPixel(xt, yt, (byte)colIdx);
-
             }
-        }
+        });
         return trg;
     }
 
@@ -476,101 +380,47 @@ public class Bitmap {
      * @param dither True: apply dithering
      * @return Scaled Bitmap and new Palette
      */
-    public BitmapWithPalette scaleBilinear(final int sizeX, final int sizeY, final Palette pal, final boolean dither) {
-        final byte[] r = pal.getR();
-        final byte[] g = pal.getG();
-        final byte[] b = pal.getB();
-        final byte[] a = pal.getAlpha();
-
-        final double scaleX = (double)(width - 1) / (sizeX - 1);
-        final double scaleY = (double)(height - 1) / (sizeY - 1);
+    public BitmapWithPalette scaleBilinear(int sizeX, int sizeY, Palette pal, boolean dither) {
+        return scaleBilinear(sizeX, sizeY, pal, dither, new MedianCutQuantizer());
+    }
 
+    /** Scales a palettized Bitmap to a Bitmap with a new Palette created by the given quantizer using bilinear filtering.
+     * @param sizeX     Target width
+     * @param sizeY     Target height
+     * @param pal       Palette of the source Bitmap
+     * @param dither    True: apply dithering
+     * @param quantizer Quantizer creating the new Palette
+     * @return Scaled Bitmap and new Palette
+     */
+    public BitmapWithPalette scaleBilinear(final int sizeX, final int sizeY, final Palette pal, final boolean dither, ColorQuantizer quantizer) {
+        final int[] r = BilinearScaler.toTable(pal.getR());
+        final int[] g = BilinearScaler.toTable(pal.getG());
+        final int[] b = BilinearScaler.toTable(pal.getB());
+        final int[] a = BilinearScaler.toTable(pal.getAlpha());
+        final BilinearScaler scaler = new BilinearScaler(width, height, sizeX, sizeY);
         final int[] trg = new int[sizeX * sizeY];
 
-        for (int yt = 0; yt < sizeY; yt++) {
-            double ys = yt * scaleY; // source coordinate
-            int ysi = (int)ys;
-            double wy = (ys - ysi);
-            double wy1 = 1.0 - wy;
-            int ofsY = yt * sizeX;
-
-            for (int xt = 0; xt < sizeX; xt++) {
-                double xs = xt * scaleX; // source coordinate
-                int xsi = (int)xs;
-                double wx = (xs - xsi); // weight factor
-
-                int idx;
-
-                // interpolate pixel
-                double wx1 = 1.0 - wx;
-                int x,y;
-
-                // top left
-                double w = wx1 * wy1;
-                idx = getPixel(xsi, ysi) & 0xff;
-                double at = (a[idx] & 0xff) * w;
-                double rt = (r[idx] & 0xff) * w;
-                double gt = (g[idx] & 0xff) * w;
-                double bt = (b[idx] & 0xff) * w;
-
-                // top right
-                x = xsi + 1;
-                if (x < width) {
-                    w = wx * wy1;
-                    idx = getPixel(x, ysi) & 0xff;
-                    at += (a[idx] & 0xff) * w;
-                    rt += (r[idx] & 0xff) * w;
-                    gt += (g[idx] & 0xff) * w;
-                    bt += (b[idx] & 0xff) * w;
-                }  // else assume transparent black
-
-                // bottom left
-                y = ysi + 1;
-                if (y < height) {
-                    w = wx1 * wy;
-                    idx = getPixel(xsi, y) & 0xff;
-                    at += (a[idx] & 0xff) * w;
-                    rt += (r[idx] & 0xff) * w;
-                    gt += (g[idx] & 0xff) * w;
-                    bt += (b[idx] & 0xff) * w;
-                } // else assume transparent black
-
-                // bottom right
-                x = xsi + 1;
-                y = ysi + 1;
-                if ((x < width) && (y < height)) {
-                    w = wx * wy;
-                    idx = getPixel(x, y) & 0xff;
-                    at += (a[idx] & 0xff) * w;
-                    rt += (r[idx] & 0xff) * w;
-                    gt += (g[idx] & 0xff) * w;
-                    bt += (b[idx] & 0xff) * w;
-                } // else assume transparent black
-
-                int ati = (int)(at);
-                int rti = (int)(rt);
-                int gti = (int)(gt);
-                int bti = (int)(bt);
-
-                trg[xt + ofsY] = ((ati << 24) | (rti << 16) | (gti << 8) | bti);
+        ParallelRows.run(sizeY, sizeX, new ParallelRows.RowTask() {
+            @Override
+            public void processRows(int yStart, int yEnd) {
+                int[] at = new int[sizeX];
+                int[] rt = new int[sizeX];
+                int[] gt = new int[sizeX];
+                int[] bt = new int[sizeX];
+                for (int yt = yStart; yt < yEnd; yt++) {
+                    scaler.interpolateRow(buffer, yt, a, r, g, b, at, rt, gt, bt);
+                    int ofsY = yt * sizeX;
+                    for (int xt = 0; xt < sizeX; xt++) {
+                        int ati = at[xt] >> BilinearScaler.FRACTION_BITS;
+                        int rti = rt[xt] >> BilinearScaler.FRACTION_BITS;
+                        int gti = gt[xt] >> BilinearScaler.FRACTION_BITS;
+                        int bti = bt[xt] >> BilinearScaler.FRACTION_BITS;
+                        trg[xt + ofsY] = ((ati << 24) | (rti << 16) | (gti << 8) | bti);
+                    }
+                }
             }
-        }
-        // quantize image
-        QuantizeFilter qf = new QuantizeFilter();
-        final Bitmap bm = new Bitmap(sizeX, sizeY);
-        int[] ct = qf.quantize(trg, bm.buffer, sizeX, sizeY, 255, dither, dither);
-        int size = ct.length;
-        if (size > 255) {
-            size = 255;
-            logger.warn("Quantizer failed.\n");
-        }
-        // create palette
-        Palette trgPal = new Palette(256);
-        for (int i = 0; i < size; i++) {
-            trgPal.setARGB(i,ct[i]);
-        }
-
-        return new BitmapWithPalette(bm, trgPal);
+        });
+        return quantize(trg, sizeX, sizeY, dither, quantizer);
     }
 
     /** Scales a palettized Bitmap to a Bitmap with the same Palette using a given scaling filter.
@@ -581,47 +431,24 @@ public class Bitmap {
      * @return Scaled Bitmap which uses the same Palette as the source Bitmap.
      */
     public Bitmap scaleFilter(final int sizeX, final int sizeY, final Palette pal, final ResampleFilter f) {
-        final byte[] r = pal.getR();
-        final byte[] g = pal.getG();
-        final byte[] b = pal.getB();
-        final byte[] a = pal.getAlpha();
+        final int[] r = BilinearScaler.toTable(pal.getR());
+        final int[] g = BilinearScaler.toTable(pal.getG());
+        final int[] b = BilinearScaler.toTable(pal.getB());
+        final int[] a = BilinearScaler.toTable(pal.getAlpha());
+        final int palSize = pal.getSize();
 
         final int[] trg = new FilterOp(f, sizeX, sizeY).filter(this, pal);
 
         final Bitmap bm = new Bitmap(sizeX, sizeY);
 
         // select nearest colors in existing palette
-        HashMap<Integer, Integer> p = new HashMap<Integer, Integer>();
+        ColorIndexMap p = new ColorIndexMap();
 
         for (int i = 0; i < trg.length; i++) {
             int color = trg[i];
-            int colIdx;
-            Integer idxEx = p.get(color);
-            if (idxEx != null) {
-                colIdx = idxEx;
-            } else {
-                colIdx = 0;
-                int minDistance = 0xffffff; // init > 0xff*0xff*4 = 0x03f804
-                int alpha = (color >> 24) & 0xff;
-                int red   = (color >> 16) & 0xff;
-                int green = (color >>  8) & 0xff;
-                int blue  =  color        & 0xff;
-                for (int idx = 0; idx < pal.getSize(); idx++) {
-                    // distance vector (skip sqrt)
-                    int ad = alpha - (a[idx] & 0xff);
-                    int rd = red   - (r[idx] & 0xff);
-                    int gd = green - (g[idx] & 0xff);
-                    int bd = blue  - (b[idx] & 0xff);
-                    int distance = rd * rd + gd * gd + bd * bd + ad * ad;
-                    // new minimum distance ?
-                    if ( distance < minDistance) {
-                        colIdx = idx;
-                        minDistance = distance;
-                        if (minDistance == 0) {
-                            break;
-                        }
-                    }
-                }
+            int colIdx = p.get(color);
+            if (colIdx == ColorIndexMap.NOT_FOUND) {
+                colIdx = findNearestColorIndex((color >> 24) & 0xff, (color >> 16) & 0xff, (color >> 8) & 0xff, color & 0xff, a, r, g, b, palSize);
                 p.put(color, colIdx);
             }
             // write target pixel
@@ -638,13 +465,47 @@ public class Bitmap {
      * @param dither True: apply dithering
      * @return Scaled Bitmap and new Palette
      */
-    public BitmapWithPalette scaleFilter(final int sizeX, final int sizeY, final Palette pal, final ResampleFilter f, final boolean dither) {
+    public BitmapWithPalette scaleFilter(int sizeX, int sizeY, Palette pal, ResampleFilter f, boolean dither) {
+        return scaleFilter(sizeX, sizeY, pal, f, dither, new MedianCutQuantizer());
+    }
+
+    /** Scales a palettized Bitmap to a Bitmap with a new Palette created by the given quantizer using a given scaling filter.
+     * @param sizeX     Target width
+     * @param sizeY     Target height
+     * @param pal       Palette of the source Bitmap
+     * @param f         Filter for scaling
+     * @param dither    True: apply dithering
+     * @param quantizer Quantizer creating the new Palette
+     * @return Scaled Bitmap and new Palette
+     */
+    public BitmapWithPalette scaleFilter(int sizeX, int sizeY, Palette pal, ResampleFilter f, boolean dither, ColorQuantizer quantizer) {
         final int[] trg = new FilterOp(f, sizeX, sizeY).filter(this, pal);
 
-        // quantize image
-        QuantizeFilter qf = new QuantizeFilter();
+        return quantize(trg, sizeX, sizeY, dither, quantizer);
+    }
+
+    /** Converts a palettized Bitmap to a Bitmap with a new Palette created by the given quantizer, without scaling.
+     * @param pal       Palette of the source Bitmap
+     * @param dither    True: apply dithering
+     * @param quantizer Quantizer creating the new Palette
+     * @return Bitmap and new Palette
+     */
+    public BitmapWithPalette quantize(Palette pal, boolean dither, ColorQuantizer quantizer) {
+        return quantize(toARGB(pal), width, height, dither, quantizer);
+    }
+
+    /**
+     * Quantize an ARGB image to a Bitmap with (up to) 255 colors.
+     * @param trg       ARGB pixels, modified when dithering
+     * @param sizeX     Image width
+     * @param sizeY     Image height
+     * @param dither    True: apply dithering
+     * @param quantizer Quantizer creating the new Palette
+     * @return Bitmap and new Palette
+     */
+    private static BitmapWithPalette quantize(int[] trg, int sizeX, int sizeY, boolean dither, ColorQuantizer quantizer) {
         final Bitmap bm = new Bitmap(sizeX, sizeY);
-        int[] ct = qf.quantize(trg, bm.buffer, sizeX, sizeY, 255, dither, dither);
+        int[] ct = quantizer.quantize(trg, bm.buffer, sizeX, sizeY, 255, dither, dither);
         int size = ct.length;
         if (size > 255) {
             size = 255;
@@ -659,6 +520,41 @@ public class Bitmap {
         return new BitmapWithPalette(bm, trgPal);
     }
 
+    /**
+     * Find the palette entry nearest to a color.
+     * @param alpha   Alpha component of the color
+     * @param red     Red component of the color
+     * @param green   Green component of the color
+     * @param blue    Blue component of the color
+     * @param a       Alpha components of the palette
+     * @param r       Red components of the palette
+     * @param g       Green components of the palette
+     * @param b       Blue components of the palette
+     * @param palSize Number of palette entries
+     * @return Index of the first palette entry with the minimum distance
+     */
+    private static int findNearestColorIndex(int alpha, int red, int green, int blue, int[] a, int[] r, int[] g, int[] b, int palSize) {
+        int colIdx = 0;
+        int minDistance = 0xffffff; // init > 0xff*0xff*4 = 0x03f804
+        for (int idx = 0; idx < palSize; idx++) {
+            // distance vector (skip sqrt)
+            int ad = alpha - a[idx];
+            int rd = red   - r[idx];
+            int gd = green - g[idx];
+            int bd = blue  - b[idx];
+            int distance = rd * rd + gd * gd + bd * bd + ad * ad;
+            // new minimum distance ?
+            if (distance < minDistance) {
+                colIdx = idx;
+                minDistance = distance;
+                if (minDistance == 0) {
+                    break;
+                }
+            }
+        }
+        return colIdx;
+    }
+
     public int[] toARGB(Palette pal) {
         int[] argbValues = new int[buffer.length];
         for (int i = 0; i < argbValues.length; i++) {
@@ -760,14 +656,6 @@ public class Bitmap {
         return buffer;
     }
 
-    private byte getPixel(int x, int y) {
-        return buffer[x + width * y];
-    }
-
-    private void setPixel(int x, int y, byte color) {
-        buffer[x + width * y] = color;
-    }
-
     public void setBuffer(byte[] buffer) {
         this.buffer = buffer;
     }
@@ -18,9 +18,13 @@ package bdsup2sub.bitmap;
 
 import bdsup2sub.bitmap.Bitmap;
 import bdsup2sub.bitmap.Palette;
+import bdsup2sub.tools.ParallelRows;
 import com.mortennobel.imagescaling.ResampleFilter;
 import com.mortennobel.imagescaling.ResampleFilters;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
  * Subsampling scaling algorithm with various filters.
  *
@@ -31,15 +35,35 @@ import com.mortennobel.imagescaling.ResampleFilters;
  */
 
 class FilterOp {
+    /** Maximum number of kernel tables kept, a batch job only uses a few combinations of sizes and filter */
+    private static final int MAX_CACHED_KERNELS = 64;
+    /** Maximum number of pixels of work buffers kept per thread for reuse */
+    private static final int MAX_REUSED_PIXELS = 0x200000;
+
+    /** Kernel tables by filter, source size and target size, least recently used first */
+    private static final Map<KernelKey, SubSamplingData> kernelCache = new LinkedHashMap<KernelKey, SubSamplingData>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<KernelKey, SubSamplingData> eldest) {
+            return size() > MAX_CACHED_KERNELS;
+        }
+    };
+    /** Buffer for the result of the horizontal pass, reused by the next caption scaled on the same thread */
+    private static final ThreadLocal<int[]> workBuffer = new ThreadLocal<int[]>();
+    /** Buffer for the vertical runs of equal colors of a band, reused by the next band filtered on the same thread */
+    private static final ThreadLocal<int[]> runBuffer = new ThreadLocal<int[]>();
+
     private int srcWidth;
     private int srcHeight;
     private final int dstWidth;
     private final int dstHeight;
 
-    private byte r[];
-    private byte g[];
-    private byte b[];
-    private byte a[];
+    /** Palette components as floats, so the horizontal pass doesn't convert them for every tap */
+    private float r[];
+    private float g[];
+    private float b[];
+    private float a[];
+    /** Palette as ARGB, to look up the filtered color of uniform spans */
+    private int argb[];
 
     private SubSamplingData horizontalSubsamplingData;
     private SubSamplingData verticalSubsamplingData;
@@ -51,27 +75,87 @@ class FilterOp {
         this.dstHeight = dstHeight;
     }
 
-    public int[] filter(Bitmap bitmap, Palette palette) {
+    public int[] filter(final Bitmap bitmap, Palette palette) {
         this.srcWidth  = bitmap.getWidth();
         this.srcHeight = bitmap.getHeight();
 
-        r = palette.getR();
-        g = palette.getG();
-        b = palette.getB();
-        a = palette.getAlpha();
+        r = toFloatTable(palette.getR());
+        g = toFloatTable(palette.getG());
+        b = toFloatTable(palette.getB());
+        a = toFloatTable(palette.getAlpha());
+        argb = new int[palette.getSize()];
+        for (int i = 0; i < argb.length; i++) {
+            argb[i] = palette.getARGB(i);
+        }
 
-        horizontalSubsamplingData = createSubSampling(srcWidth, dstWidth);
-        verticalSubsamplingData = createSubSampling(srcHeight, dstHeight);
+        horizontalSubsamplingData = getSubSampling(srcWidth, dstWidth);
+        verticalSubsamplingData = getSubSampling(srcHeight, dstHeight);
 
-        int[] workPixels = new int[srcHeight * dstWidth];
-        filterHorizontally(bitmap.getInternalBuffer(), workPixels);
+        final int[] workPixels = getBuffer(workBuffer, srcHeight * dstWidth);
+        ParallelRows.run(srcHeight, dstWidth, new ParallelRows.RowTask() {
+            @Override
+            public void processRows(int yStart, int yEnd) {
+                filterHorizontally(bitmap.getInternalBuffer(), workPixels, yStart, yEnd);
+            }
+        });
 
-        int[] outPixels = new int[dstHeight * dstWidth];
-        filterVertically(workPixels, outPixels);
+        final int[] outPixels = new int[dstHeight * dstWidth];
+        ParallelRows.run(dstHeight, dstWidth, new ParallelRows.RowTask() {
+            @Override
+            public void processRows(int yStart, int yEnd) {
+                filterVertically(workPixels, outPixels, yStart, yEnd);
+            }
+        });
 
         return outPixels;
     }
 
+    private static float[] toFloatTable(byte[] values) {
+        float[] table = new float[values.length];
+        for (int i = 0; i < values.length; i++) {
+            table[i] = values[i] & 0xff;
+        }
+        return table;
+    }
+
+    /**
+     * Get a buffer kept per thread, large buffers are not kept.
+     * @param buffers Buffer of the current thread
+     * @param size    Number of pixels needed
+     * @return Buffer of at least the given size
+     */
+    private static int[] getBuffer(ThreadLocal<int[]> buffers, int size) {
+        int[] buffer = buffers.get();
+        if (buffer == null || buffer.length < size) {
+            buffer = new int[size];
+            if (size <= MAX_REUSED_PIXELS) {
+                buffers.set(buffer);
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Get the kernel table for scaling one axis, computed on first use.
+     * @param srcSize Source width or height
+     * @param dstSize Target width or height
+     * @return Positions and weights of the source pixels contributing to each target pixel
+     */
+    private SubSamplingData getSubSampling(int srcSize, int dstSize) {
+        KernelKey key = new KernelKey(filter, srcSize, dstSize);
+        SubSamplingData data;
+        synchronized (kernelCache) {
+            data = kernelCache.get(key);
+        }
+        if (data == null) {
+            data = createSubSampling(srcSize, dstSize);
+            synchronized (kernelCache) {
+                kernelCache.put(key, data);
+            }
+        }
+        return data;
+    }
+
     private SubSamplingData createSubSampling(int srcSize, int dstSize) {
         float scalingFactor = (float)(dstSize - 1) / (float)(srcSize - 1);
         int[] arrN = new int[dstSize];
@@ -181,17 +265,36 @@ class FilterOp {
                 }
             }
         }
-        return new SubSamplingData(arrN, arrPixel, arrWeight, numContributors);
+        return new SubSamplingData(arrN, arrPixel, arrWeight, numContributors, srcSize);
     }
 
     /**
      * Apply filter to sample vertically from temporary buffer to target buffer
-     * @param src Integer array holding result from filtering horizontally
-     * @param trg Integer array for target bitmap
+     * @param src    Integer array holding result from filtering horizontally
+     * @param trg    Integer array for target bitmap
+     * @param yStart First target row to filter
+     * @param yEnd   Target row after the last one to filter
      */
-    private void filterVertically(int[] src, int[] trg) {
-        for (int x = 0; x < dstWidth; x++) {
-            for (int y = dstHeight-1; y >= 0 ; y--) {
+    private void filterVertically(int[] src, int[] trg, int yStart, int yEnd) {
+        int lo = Integer.MAX_VALUE;
+        int hi = 0;
+        for (int y = yStart; y < yEnd; y++) {
+            lo = Math.min(lo, verticalSubsamplingData.firstPosition[y]);
+            hi = Math.max(hi, Math.min(verticalSubsamplingData.lastPosition[y], srcHeight - 1));
+        }
+        hi = Math.max(hi, lo);
+        int[] runEnd = getBuffer(runBuffer, (hi - lo + 1) * dstWidth);
+        findVerticalRuns(src, lo, hi, runEnd);
+
+        for (int y = yStart; y < yEnd; y++) {
+            int first = verticalSubsamplingData.firstPosition[y];
+            int last = verticalSubsamplingData.lastPosition[y];
+            int runOfs = (first - lo) * dstWidth;
+            for (int x = 0; x < dstWidth; x++) {
+                if (runEnd[runOfs + x] > last) {
+                    trg[x + dstWidth * y] = uniformColor(verticalSubsamplingData.uniformResponse, y, src[x + dstWidth * first]);
+                    continue;
+                }
                 int yTimesNumContributors = y * verticalSubsamplingData.matrixWidth;
                 int max = verticalSubsamplingData.sampleCount[y];
                 int ofsY = dstWidth * y;
@@ -242,14 +345,27 @@ class FilterOp {
 
     /**
      * Apply filter to sample horizontally from src to Work
-     * @param src Byte array holding source image data
-     * @param trg Integer array to store temporary result from filtering horizontally
+     * @param src    Byte array holding source image data
+     * @param trg    Integer array to store temporary result from filtering horizontally
+     * @param yStart First source row to filter
+     * @param yEnd   Source row after the last one to filter
      */
-    private void filterHorizontally(byte[] src, int[] trg) {
-        for (int k = 0; k < srcHeight; k++) {
+    private void filterHorizontally(byte[] src, int[] trg, int yStart, int yEnd) {
+        int[] runEnd = new int[srcWidth];
+        for (int k = yStart; k < yEnd; k++) {
             int destOfsY = dstWidth * k;
             int srcOfsY = srcWidth * k;
+            runEnd[srcWidth - 1] = srcWidth;
+            for (int x = srcWidth - 2; x >= 0; x--) {
+                runEnd[x] = src[srcOfsY + x] == src[srcOfsY + x + 1] ? runEnd[x + 1] : x + 1;
+            }
             for (int i = dstWidth-1; i >= 0 ; i--) {
+                int first = horizontalSubsamplingData.firstPosition[i];
+                if (runEnd[first] > horizontalSubsamplingData.lastPosition[i]) {
+                    int palIdx = src[srcOfsY + first] & 0xff;
+                    trg[i + destOfsY] = uniformColor(horizontalSubsamplingData.uniformResponse, i, argb[palIdx]);
+                    continue;
+                }
                 float red   = 0;
                 float green = 0;
                 float blue  = 0;
@@ -262,10 +378,10 @@ class FilterOp {
                     int ofsX = horizontalSubsamplingData.pixelPositions[index];
                     int palIdx = src[srcOfsY+ofsX] & 0xff;
                     float w = horizontalSubsamplingData.weightFactors[index];
-                    red   += (r[palIdx] & 0xff) * w;
-                    green += (g[palIdx] & 0xff) * w;
-                    blue  += (b[palIdx] & 0xff) * w;
-                    alpha += (a[palIdx] & 0xff) * w;
+                    red   += r[palIdx] * w;
+                    green += g[palIdx] * w;
+                    blue  += b[palIdx] * w;
+                    alpha += a[palIdx] * w;
                     index++;
                 }
                 int ri = (int)(red);
@@ -298,7 +414,70 @@ class FilterOp {
         }
     }
 
-    private class SubSamplingData {
+    /**
+     * Find the runs of equal colors in each column of the rows lo to hi.
+     * @param src    Integer array holding result from filtering horizontally
+     * @param lo     First row
+     * @param hi     Last row
+     * @param runEnd Receives for each pixel the first row after it with a different color, hi + 1 if none
+     */
+    private void findVerticalRuns(int[] src, int lo, int hi, int[] runEnd) {
+        int ofs = (hi - lo) * dstWidth;
+        for (int x = 0; x < dstWidth; x++) {
+            runEnd[ofs + x] = hi + 1;
+        }
+        for (int y = hi - 1; y >= lo; y--) {
+            ofs = (y - lo) * dstWidth;
+            int srcOfs = y * dstWidth;
+            for (int x = 0; x < dstWidth; x++) {
+                runEnd[ofs + x] = src[srcOfs + x] == src[srcOfs + dstWidth + x] ? runEnd[ofs + dstWidth + x] : y + 1;
+            }
+        }
+    }
+
+    /**
+     * @param uniformResponse Filtered channel values of uniform spans
+     * @param pos             Target position
+     * @param color           ARGB color of the span
+     * @return ARGB color of a target pixel whose samples all have the given color
+     */
+    private static int uniformColor(byte[] uniformResponse, int pos, int color) {
+        int row = pos << 8;
+        return (uniformResponse[row | color >>> 24] & 0xff) << 24
+                | (uniformResponse[row | (color >> 16) & 0xff] & 0xff) << 16
+                | (uniformResponse[row | (color >> 8) & 0xff] & 0xff) << 8
+                | (uniformResponse[row | color & 0xff] & 0xff);
+    }
+
+    /** Identifies a kernel table, filters are compared by identity since ResampleFilters hands out shared instances */
+    private static final class KernelKey {
+        private final ResampleFilter filter;
+        private final int srcSize;
+        private final int dstSize;
+
+        KernelKey(ResampleFilter filter, int srcSize, int dstSize) {
+            this.filter = filter;
+            this.srcSize = srcSize;
+            this.dstSize = dstSize;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof KernelKey)) {
+                return false;
+            }
+            KernelKey other = (KernelKey)o;
+            return filter == other.filter && srcSize == other.srcSize && dstSize == other.dstSize;
+        }
+
+        @Override
+        public int hashCode() {
+            return (System.identityHashCode(filter) * 31 + srcSize) * 31 + dstSize;
+        }
+    }
+
+    /** Immutable once created, shared by all captions scaled with the same filter and sizes */
+    private static final class SubSamplingData {
         /** Number of samples */
         private final int[] sampleCount;
         /** 2D matrix of pixel positions */
@@ -307,6 +486,16 @@ class FilterOp {
         private final float[] weightFactors;
         /** Width of 2D matrices pixelPos and weight */
         private final int matrixWidth;
+        /** Lowest source position sampled for each target pixel */
+        private final int[] firstPosition;
+        /** Highest source position sampled for each target pixel, Integer.MAX_VALUE if a position is outside the source */
+        private final int[] lastPosition;
+        /**
+         * Filtered value of a span of one channel value for each target pixel, indexed by position << 8 | value.
+         * Summed with the same float operations in the same order as the filter passes, so it is exactly what
+         * they would compute for a span of one color.
+         */
+        private final byte[] uniformResponse;
 
         /**
          * Private storage class to hold precalculated values for subsampling or supersampling
@@ -314,12 +503,48 @@ class FilterOp {
          * @param pixelPositions   2D matrix of pixel positions
          * @param weightFactors   2D matrix of weight factors
          * @param matrixWidth Width of 2D matrices pixelPos and weight
+         * @param srcSize Source width or height
          */
-        private SubSamplingData(int[] sampleCount, int[] pixelPositions, float[] weightFactors, int matrixWidth) {
+        private SubSamplingData(int[] sampleCount, int[] pixelPositions, float[] weightFactors, int matrixWidth, int srcSize) {
             this.sampleCount = sampleCount;
             this.pixelPositions = pixelPositions;
             this.weightFactors = weightFactors;
             this.matrixWidth = matrixWidth;
+
+            int dstSize = sampleCount.length;
+            firstPosition = new int[dstSize];
+            lastPosition = new int[dstSize];
+            uniformResponse = new byte[dstSize << 8];
+            for (int i = 0; i < dstSize; i++) {
+                int first = srcSize;
+                int last = -1;
+                int subindex = i * matrixWidth;
+                for (int k = subindex; k < subindex + sampleCount[i]; k++) {
+                    first = Math.min(first, pixelPositions[k]);
+                    last = Math.max(last, pixelPositions[k]);
+                }
+                if (first < 0 || last >= srcSize) {
+                    first = 0;
+                    last = Integer.MAX_VALUE;
+                }
+                firstPosition[i] = Math.min(first, srcSize - 1);
+                lastPosition[i] = last;
+
+                for (int value = 0; value < 256; value++) {
+                    float v = value;
+                    float sum = 0;
+                    for (int k = subindex; k < subindex + sampleCount[i]; k++) {
+                        sum += v * weightFactors[k];
+                    }
+                    int c = (int)(sum);
+                    if (c < 0) {
+                        c = 0;
+                    } else if (c > 255) {
+                        c = 255;
+                    }
+                    uniformResponse[i << 8 | value] = (byte)c;
+                }
+            }
         }
     }
 }
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2013 Volker Oth (0xdeadbeef) / Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.cli;
+
+import bdsup2sub.utils.FilenameUtils;
+import org.apache.commons.cli.ParseException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Input and output files of a batch conversion.<br>
+ * Each input argument is a subtitle file, a directory (all subtitle streams in it), a file name pattern with the
+ * wildcards * and ? (e.g. "subs/*.sup") or a list file prefixed with @ (one input per line, # starts a comment).
+ * The output file name is a template: {name} is replaced by the name of the input file without extension,
+ * {dir} by the directory of the input file.
+ */
+public final class BatchFiles {
+
+    /** Placeholder for the input file name without extension */
+    public static final String NAME = "{name}";
+    /** Placeholder for the directory of the input file */
+    public static final String DIR = "{dir}";
+
+    private static final char LIST_FILE_PREFIX = '@';
+    private static final String COMMENT_PREFIX = "#";
+    private static final String[] STREAM_EXTENSIONS = {"sup", "xml", "idx", "ifo", "sub"};
+
+    private BatchFiles() {
+    }
+
+    /**
+     * Expand input arguments to input files.
+     * @param args Files, directories, file name patterns or list files
+     * @return Input files in the order given, each only once
+     * @throws ParseException if a file, directory or list file doesn't exist
+     */
+    public static List<File> expandInputs(List<String> args) throws ParseException {
+        Map<String, File> files = new LinkedHashMap<String, File>();
+        for (String arg : args) {
+            if (arg.length() > 1 && arg.charAt(0) == LIST_FILE_PREFIX) {
+                for (String line : readListFile(new File(arg.substring(1)))) {
+                    addInput(line, files);
+                }
+            } else {
+                addInput(arg, files);
+            }
+        }
+        return new ArrayList<File>(files.values());
+    }
+
+    private static void addInput(String arg, Map<String, File> files) throws ParseException {
+        File file = new File(arg);
+        List<File> found;
+        if (isPattern(file.getName())) {
+            found = findMatching(file);
+        } else if (file.isDirectory()) {
+            found = findStreams(file);
+        } else if (file.exists()) {
+            found = Arrays.asList(file);
+        } else {
+            throw new ParseException("Input file not found: " + file.getAbsolutePath());
+        }
+        for (File f : found) {
+            String key = f.getAbsolutePath();
+            if (!files.containsKey(key)) {
+                files.put(key, f);
+            }
+        }
+    }
+
+    private static boolean isPattern(String name) {
+        return name.indexOf('*') >= 0 || name.indexOf('?') >= 0;
+    }
+
+    /**
+     * @param pattern File with wildcards in its name (not in its directory)
+     * @return Files matching the pattern, sorted by name
+     */
+    private static List<File> findMatching(File pattern) throws ParseException {
+        File dir = pattern.getAbsoluteFile().getParentFile();
+        if (dir == null || !dir.isDirectory()) {
+            throw new ParseException("Input directory not found: " + pattern.getAbsoluteFile().getParent());
+        }
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern.getName());
+        List<File> found = new ArrayList<File>();
+        for (File file : listSorted(dir)) {
+            if (file.isFile() && matcher.matches(Paths.get(file.getName()))) {
+                found.add(file);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Find the subtitle streams in a directory.<br>
+     * The SUB of a SUB/IDX and the SUP of a SUP/IFO are skipped, the IDX and IFO stand for the pair.
+     * @param dir Directory
+     * @return Subtitle streams sorted by name
+     */
+    private static List<File> findStreams(File dir) {
+        List<File> found = new ArrayList<File>();
+        for (File file : listSorted(dir)) {
+            String extension = FilenameUtils.getExtension(file.getName()).toLowerCase();
+            if (!file.isFile() || !Arrays.asList(STREAM_EXTENSIONS).contains(extension)) {
+                continue;
+            }
+            String base = FilenameUtils.removeExtension(file.getPath());
+            if (extension.equals("sub") && exists(base, "idx")) {
+                continue;
+            }
+            if (extension.equals("sup") && exists(base, "ifo")) {
+                continue;
+            }
+            found.add(file);
+        }
+        return found;
+    }
+
+    private static boolean exists(String base, String extension) {
+        return new File(base + "." + extension).exists() || new File(base + "." + extension.toUpperCase()).exists();
+    }
+
+    private static List<File> listSorted(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return new ArrayList<File>();
+        }
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+
+    private static List<String> readListFile(File listFile) throws ParseException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(listFile), "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith(COMMENT_PREFIX)) {
+                    lines.add(line);
+                }
+            }
+        } catch (IOException ex) {
+            throw new ParseException("Can't read list file: " + listFile.getAbsolutePath());
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException ex) {
+                }
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Get the output file of an input file.
+     * @param template Output file name, may contain {name} and {dir}
+     * @param input    Input file
+     * @return Output file
+     */
+    public static File outputFile(String template, File input) {
+        String parent = input.getAbsoluteFile().getParent();
+        String name = FilenameUtils.removeExtension(input.getName());
+        return new File(template.replace(DIR, parent == null ? "" : parent).replace(NAME, name));
+    }
+}
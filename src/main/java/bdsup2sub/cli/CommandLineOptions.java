@@ -34,6 +34,8 @@ public class CommandLineOptions {
     static final String DELAY = "d";
     static final String SCALING_FILTER = "f";
     static final String PALETTE_MODE = "p";
+    static final String QUANTIZER = "q";
+    static final String GLOBAL_PALETTE = "g";
     static final String MIN_DISPLAY_TIME = "m";
     static final String MAX_TIME_DIFF = "x";
     static final String MOVE_IN = "I";
@@ -53,12 +55,21 @@ public class CommandLineOptions {
     static final String LUM_MED_HIGH_THRESHOLD = "H";
     static final String LANGUAGE_CODE = "l";
     static final String PALETTE_FILE = "t";
+    static final String EXPORT_THREADS = "j";
+    static final String STREAM = "s";
+    static final String BATCH = "b";
+    static final String SERVER = "R";
+    static final String METRICS = "e";
+    static final String PROGRESS_JSON = "J";
+
+    /** File name standing for standard input (as input) or standard output (as output) */
+    public static final String STANDARD_STREAM = "-";
 
     static final List<String> OPTION_ORDER = Arrays.asList(HELP, LOAD_SETTINGS, RESOLUTION, TARGET_FRAMERATE,
-            CONVERT_FRAMERATE, DELAY, SCALING_FILTER, PALETTE_MODE, MIN_DISPLAY_TIME, MAX_TIME_DIFF, MOVE_IN, MOVE_OUT,
+            CONVERT_FRAMERATE, DELAY, SCALING_FILTER, PALETTE_MODE, QUANTIZER, GLOBAL_PALETTE, MIN_DISPLAY_TIME, MAX_TIME_DIFF, MOVE_IN, MOVE_OUT,
             MOVE_X, CROP_LINES, ALPHA_CROP_THRESHOLD, SCALE, EXPORT_PALETTE, EXPORT_FORCED_SUBTITLES_ONLY, FORCED_FLAG,
             SWAP_CR_CB, FIX_INVISIBLE_FRAMES, ALPHA_THRESHOLD, LUM_LOW_MED_THRESHOLD, LUM_MED_HIGH_THRESHOLD,
-            LANGUAGE_CODE, PALETTE_FILE, OUTPUT_FILE, VERBOSE, VERSION);
+            LANGUAGE_CODE, PALETTE_FILE, EXPORT_THREADS, STREAM, BATCH, SERVER, METRICS, PROGRESS_JSON, OUTPUT_FILE, VERBOSE, VERSION);
 
     private final Options options = new Options();
 
@@ -85,7 +96,7 @@ public class CommandLineOptions {
 
         Option output = OptionBuilder
                 .withLongOpt("output")
-                .withDescription("Specify output file.")
+                .withDescription("Specify output file. Use '-' to write a BD-SUP to standard output.")
                 .hasArg().create(OUTPUT_FILE);
         options.addOption(output);
 
@@ -143,10 +154,24 @@ public class CommandLineOptions {
         Option paletteMode = OptionBuilder
                 .withArgName("mode")
                 .withLongOpt("palette-mode")
-                .withDescription("Set palette mode.\nSupported values: keep, create, dither\nDefault: create")
+                .withDescription("Set palette mode.\nSupported values: keep, create, dither (error diffusion), ordered (ordered dithering)\nDefault: create")
                 .hasArg().create(PALETTE_MODE);
         options.addOption(paletteMode);
 
+        Option quantizer = OptionBuilder
+                .withArgName("quantizer")
+                .withLongOpt("quantizer")
+                .withDescription("Set the algorithm used to create a new palette.\nSupported values: median-cut, octree (former quantizer)\nDefault: median-cut")
+                .hasArg().create(QUANTIZER);
+        options.addOption(quantizer);
+
+        Option globalPalette = OptionBuilder
+                .withArgName("captions")
+                .withLongOpt("global-palette")
+                .withDescription("Let BD-SUP captions share one palette instead of creating one per caption (palette modes create, dither and ordered).\nSupported values: all (one palette for the whole stream), 1..n (a new palette every n captions)")
+                .hasArg().create(GLOBAL_PALETTE);
+        options.addOption(globalPalette);
+
         Option minDisplayTime = OptionBuilder
                 .withArgName("time")
                 .withLongOpt("minimum-time")
@@ -275,5 +300,45 @@ public class CommandLineOptions {
                 .withDescription("Load palette file for SUB/IDX conversion. Overrides default palette.")
                 .hasArg().create(PALETTE_FILE);
         options.addOption(paletteFile);
+
+        Option exportThreads = OptionBuilder
+                .withArgName("n")
+                .withLongOpt("threads")
+                .withDescription("Set number of threads used to convert and encode captions on export.\nSupported values: 1..n, auto (one per processor)\nDefault: 1")
+                .hasArg().create(EXPORT_THREADS);
+        options.addOption(exportThreads);
+
+        Option stream = OptionBuilder
+                .withLongOpt("stream")
+                .withDescription("Convert a BD-SUP caption by caption while reading it, without loading the whole stream.\nImplied when reading from standard input (input '-') or writing to standard output (output '-', BD-SUP only).")
+                .hasArg(false).create(STREAM);
+        options.addOption(stream);
+
+        Option batch = OptionBuilder
+                .withArgName("n")
+                .withLongOpt("batch")
+                .withDescription("Convert several input files, n at the same time. An input may be a file, a directory, a file name pattern (e.g. \"subs/*.sup\") or @listfile (one input per line). The output file name may contain {name} (input file name without extension) and {dir} (directory of input file).\nSupported values: 1..n, auto (one per processor)")
+                .hasArg().create(BATCH);
+        options.addOption(batch);
+
+        Option server = OptionBuilder
+                .withArgName("port")
+                .withLongOpt("server")
+                .withDescription("Stay resident and convert the jobs posted to http://127.0.0.1:<port>/jobs (only reachable from this machine). Each request needs the X-Auth-Token header with the token printed at startup. A job is a list of command line arguments, one per line, with input and output file. Results and progress are reported as JSON.\nSupported values: 0..65535 (0: any free port)")
+                .hasArg().create(SERVER);
+        options.addOption(server);
+
+        Option metrics = OptionBuilder
+                .withArgName("file")
+                .withLongOpt("metrics")
+                .withDescription("Write timings and counters of the conversion as JSON when done: time per phase (parse, scan, decode, scale, quantize, encode, write), captions and bytes read and written, largest caption size.\nUse '-' to write to standard error.")
+                .hasArg().create(METRICS);
+        options.addOption(metrics);
+
+        Option progressJson = OptionBuilder
+                .withLongOpt("progress-json")
+                .withDescription("Print the progress to standard error as JSON, one event per line.")
+                .hasArg(false).create(PROGRESS_JSON);
+        options.addOption(progressJson);
     }
 }
@@ -23,8 +23,12 @@ import bdsup2sub.utils.ToolBox;
 import org.apache.commons.cli.*;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import static bdsup2sub.cli.CommandLineOptions.*;
 import static bdsup2sub.core.Configuration.*;
@@ -37,6 +41,10 @@ public class CommandLineParser {
     private boolean cliMode;
     private File inputFile;
     private File outputFile;
+    private Optional<Integer> batchJobs = Optional.absent();
+    private Optional<Integer> serverPort = Optional.absent();
+    private List<File> inputFiles = new ArrayList<File>();
+    private List<File> outputFiles = new ArrayList<File>();
     private Optional<OutputMode> outputMode = Optional.absent();
     private boolean loadSettings;
     private Optional<Resolution> resolution = Optional.absent();
@@ -47,6 +55,8 @@ public class CommandLineParser {
     private Optional<Double> delay = Optional.absent();
     private Optional<ScalingFilter> scalingFilter = Optional.absent();
     private Optional<PaletteMode> paletteMode = Optional.absent();
+    private Optional<Quantizer> quantizer = Optional.absent();
+    private Optional<Integer> globalPaletteWindow = Optional.absent();
     private Optional<Double> minimumDisplayTime = Optional.absent();
     private Optional<Double> maximumTimeDifference = Optional.absent();
     private Optional<CaptionMoveModeY> moveModeY = Optional.absent();
@@ -68,6 +78,10 @@ public class CommandLineParser {
     private Optional<Integer> lumLowMedThreshold  = Optional.absent();
     private Optional<Integer> lumMedHighThreshold = Optional.absent();
     private Optional<Integer> languageIndex = Optional.absent();
+    private Optional<Integer> exportThreads = Optional.absent();
+    private boolean streamMode;
+    private Optional<File> metricsFile = Optional.absent();
+    private boolean progressJson;
 
     private File paletteFile;
     private Options options;
@@ -84,9 +98,12 @@ public class CommandLineParser {
         } else if (line.hasOption(VERSION)) {
             printVersionMode = true;
         } else {
+            parseServerOption(line);
+            parseBatchOption(line);
             parseInputFileOption(line);
             parseOutputFileOption(line);
-            cliMode = line.hasOption(OUTPUT_FILE);
+            parseBatchOutputFiles(line);
+            cliMode = line.hasOption(OUTPUT_FILE) || serverPort.isPresent();
             loadSettings = line.hasOption(LOAD_SETTINGS) || !cliMode;
             parseResolutionOption(line);
             parseTargetFramerateOption(line);
@@ -94,6 +111,8 @@ public class CommandLineParser {
             parseDelayOption(line);
             parseScalingFilterOption(line);
             parsePaletteModeOption(line);
+            parseQuantizerOption(line);
+            parseGlobalPaletteOption(line);
             parseMinimumDisplayTimeOption(line);
             parseMaxTimeDiffOption(line);
             parseMoveYOption(line);
@@ -111,17 +130,66 @@ public class CommandLineParser {
             parseLuminanceThresholdOption(line);
             parseLanguageCodeOption(line);
             parsePaletteFileOption(line);
+            parseExportThreadsOption(line);
+            parseStreamOption(line);
+            parseMetricsOptions(line);
+        }
+    }
+
+    private void parseServerOption(CommandLine line) throws ParseException {
+        if (line.hasOption(SERVER)) {
+            String value = line.getOptionValue(SERVER);
+            serverPort = Optional.of(ToolBox.getInt(value.trim()));
+            if (serverPort.get() < 0 || serverPort.get() > 0xffff) {
+                throw new ParseException("Invalid server port: " + value);
+            }
+            if (!line.getArgList().isEmpty() || line.hasOption(OUTPUT_FILE)) {
+                throw new ParseException("Server mode takes input and output files from its jobs.");
+            }
+            if (line.hasOption(BATCH) || line.hasOption(STREAM)) {
+                throw new ParseException("Server mode doesn't support batch or stream mode.");
+            }
+        }
+    }
+
+    private void parseBatchOption(CommandLine line) throws ParseException {
+        if (line.hasOption(BATCH)) {
+            String value = line.getOptionValue(BATCH);
+            if (value.equalsIgnoreCase("auto")) {
+                batchJobs = Optional.of(Runtime.getRuntime().availableProcessors());
+            } else {
+                batchJobs = Optional.of(ToolBox.getInt(value.trim()));
+                if (batchJobs.get() < 1) {
+                    throw new ParseException("Invalid number of files converted at once: " + value);
+                }
+            }
         }
     }
 
     private void parseInputFileOption(CommandLine line) throws ParseException {
-        if (line.getArgList().isEmpty() && line.hasOption(OUTPUT_FILE)) {
+        if (batchJobs.isPresent()) {
+            if (line.getArgList().isEmpty()) {
+                throw new ParseException("Missing input file.");
+            }
+            List<String> args = new ArrayList<String>();
+            for (Object arg : line.getArgList()) {
+                args.add(arg.toString());
+            }
+            if (args.contains(STANDARD_STREAM)) {
+                throw new ParseException("Batch mode can't read from standard input.");
+            }
+            inputFiles = BatchFiles.expandInputs(args);
+            if (inputFiles.isEmpty()) {
+                throw new ParseException("No input files found.");
+            }
+            inputFile = inputFiles.get(0);
+        } else if (line.getArgList().isEmpty() && line.hasOption(OUTPUT_FILE)) {
             throw new ParseException("Missing input file.");
         } else if (line.getArgList().size() > 1) {
             throw new ParseException("Too many input files.");
         } else if (line.getArgList().size() == 1) {
             inputFile = new File(line.getArgList().get(0).toString());
-            if (!inputFile.exists()) {
+            if (!isStandardInput() && !inputFile.exists()) {
                 throw new ParseException("Input file not found: " + inputFile.getAbsolutePath());
             }
         }
@@ -131,6 +199,10 @@ public class CommandLineParser {
         if (line.hasOption(OUTPUT_FILE)) {
             String value = line.getOptionValue(OUTPUT_FILE);
             outputFile = new File(value);
+            if (isStandardOutput()) {
+                outputMode = Optional.of(OutputMode.BDSUP);
+                return;
+            }
 
             String extension = FilenameUtils.getExtension(value);
             if (extension.isEmpty()) {
@@ -150,6 +222,29 @@ public class CommandLineParser {
         }
     }
 
+    private void parseBatchOutputFiles(CommandLine line) throws ParseException {
+        if (!batchJobs.isPresent()) {
+            return;
+        }
+        if (!line.hasOption(OUTPUT_FILE)) {
+            throw new ParseException("Batch mode needs an output file.");
+        }
+        if (isStandardOutput()) {
+            throw new ParseException("Batch mode can't write to standard output.");
+        }
+        String template = line.getOptionValue(OUTPUT_FILE);
+        Map<File, File> inputByOutput = new HashMap<File, File>();
+        for (File input : inputFiles) {
+            File output = BatchFiles.outputFile(template, input).getAbsoluteFile();
+            File other = inputByOutput.put(output, input);
+            if (other != null) {
+                throw new ParseException("Input files " + other.getPath() + " and " + input.getPath() + " would both be converted to "
+                        + output.getPath() + ", use " + BatchFiles.NAME + " in the output file name.");
+            }
+            outputFiles.add(output);
+        }
+    }
+
     private void parseResolutionOption(CommandLine line) throws ParseException {
         if (line.hasOption(RESOLUTION)) {
             String value = line.getOptionValue(RESOLUTION);
@@ -246,12 +341,46 @@ public class CommandLineParser {
                 paletteMode = Optional.of(PaletteMode.CREATE_NEW);
             } else if (value.equalsIgnoreCase("dither")) {
                 paletteMode = Optional.of(PaletteMode.CREATE_DITHERED);
+            } else if (value.equalsIgnoreCase("ordered")) {
+                paletteMode = Optional.of(PaletteMode.CREATE_ORDERED_DITHERED);
             } else {
                 throw new ParseException("Invalid palette mode: " + value);
             }
         }
     }
 
+    private void parseQuantizerOption(CommandLine line) throws ParseException {
+        if (line.hasOption(QUANTIZER)) {
+            String value = line.getOptionValue(QUANTIZER);
+            boolean found = false;
+            for (Quantizer q : Quantizer.values()) {
+                if (q.toString().equalsIgnoreCase(value)) {
+                    quantizer = Optional.of(q);
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                throw new ParseException("Illegal quantizer value: " + value);
+            }
+        }
+    }
+
+    private void parseGlobalPaletteOption(CommandLine line) throws ParseException {
+        if (line.hasOption(GLOBAL_PALETTE)) {
+            String value = line.getOptionValue(GLOBAL_PALETTE);
+            if (value.equalsIgnoreCase("all")) {
+                globalPaletteWindow = Optional.of(0);
+            } else {
+                int captions = ToolBox.getInt(value.trim());
+                if (captions < 1) {
+                    throw new ParseException("Invalid number of captions per global palette: " + value);
+                }
+                globalPaletteWindow = Optional.of(captions);
+            }
+        }
+    }
+
     private void parseMinimumDisplayTimeOption(CommandLine line) throws ParseException {
         if (line.hasOption(MIN_DISPLAY_TIME)) {
             String value = line.getOptionValue(MIN_DISPLAY_TIME);
@@ -445,6 +574,49 @@ public class CommandLineParser {
         }
     }
 
+    private void parseExportThreadsOption(CommandLine line) throws ParseException {
+        if (line.hasOption(EXPORT_THREADS)) {
+            String value = line.getOptionValue(EXPORT_THREADS);
+            if (value.equalsIgnoreCase("auto")) {
+                exportThreads = Optional.of(Runtime.getRuntime().availableProcessors());
+            } else {
+                exportThreads = Optional.of(ToolBox.getInt(value.trim()));
+                if (exportThreads.get() < 1) {
+                    throw new ParseException("Invalid number of export threads: " + value);
+                }
+            }
+        }
+    }
+
+    private void parseStreamOption(CommandLine line) throws ParseException {
+        streamMode = line.hasOption(STREAM) || isStandardInput() || isStandardOutput();
+        if (streamMode && !cliMode) {
+            throw new ParseException("Stream mode needs an output file.");
+        }
+        if (streamMode && outputMode.get() == OutputMode.XML) {
+            throw new ParseException("Stream mode doesn't support XML output.");
+        }
+        if (streamMode && batchJobs.isPresent()) {
+            throw new ParseException("Stream mode doesn't support batch conversion.");
+        }
+        if (streamMode && globalPaletteWindow.isPresent()) {
+            throw new ParseException("Stream mode doesn't support a global palette.");
+        }
+    }
+
+    private void parseMetricsOptions(CommandLine line) throws ParseException {
+        if (line.hasOption(METRICS)) {
+            if (!cliMode || serverPort.isPresent()) {
+                throw new ParseException("Metrics are only written by command line conversions.");
+            }
+            metricsFile = Optional.of(new File(line.getOptionValue(METRICS)));
+        }
+        progressJson = line.hasOption(PROGRESS_JSON);
+        if (progressJson && (!cliMode || serverPort.isPresent())) {
+            throw new ParseException("Progress events are only printed by command line conversions.");
+        }
+    }
+
     public boolean isPrintHelpMode() {
         return printHelpMode;
     }
@@ -465,6 +637,54 @@ public class CommandLineParser {
         return outputFile;
     }
 
+    public boolean isServerMode() {
+        return serverPort.isPresent();
+    }
+
+    /**
+     * @return Port the server mode listens on, 0 for any free port
+     */
+    public Optional<Integer> getServerPort() {
+        return serverPort;
+    }
+
+    public boolean isBatchMode() {
+        return batchJobs.isPresent();
+    }
+
+    /**
+     * @return Number of files converted at the same time in batch mode
+     */
+    public Optional<Integer> getBatchJobs() {
+        return batchJobs;
+    }
+
+    /**
+     * @return Input files of a batch conversion
+     */
+    public List<File> getInputFiles() {
+        return inputFiles;
+    }
+
+    /**
+     * @return Output file of each input file of a batch conversion
+     */
+    public List<File> getOutputFiles() {
+        return outputFiles;
+    }
+
+    public boolean isStandardInput() {
+        return inputFile != null && inputFile.getPath().equals(STANDARD_STREAM);
+    }
+
+    public boolean isStandardOutput() {
+        return outputFile != null && outputFile.getPath().equals(STANDARD_STREAM);
+    }
+
+    public boolean isStreamMode() {
+        return streamMode;
+    }
+
     public Optional<OutputMode> getOutputMode() {
         return outputMode;
     }
@@ -505,6 +725,17 @@ public class CommandLineParser {
         return paletteMode;
     }
 
+    public Optional<Quantizer> getQuantizer() {
+        return quantizer;
+    }
+
+    /**
+     * @return Number of captions sharing one palette, 0 for all captions, absent if each caption gets its own palette
+     */
+    public Optional<Integer> getGlobalPaletteWindow() {
+        return globalPaletteWindow;
+    }
+
     public Optional<Double> getMinimumDisplayTime() {
         return minimumDisplayTime;
     }
@@ -593,6 +824,21 @@ public class CommandLineParser {
         return paletteFile;
     }
 
+    public Optional<Integer> getExportThreads() {
+        return exportThreads;
+    }
+
+    /**
+     * @return File receiving the metrics of the conversion as JSON, "-" for standard error
+     */
+    public Optional<File> getMetricsFile() {
+        return metricsFile;
+    }
+
+    public boolean isProgressJson() {
+        return progressJson;
+    }
+
     public void printHelp() {
         HelpFormatter formatter = new HelpFormatter();
         formatter.setOptionComparator(new Comparator() {
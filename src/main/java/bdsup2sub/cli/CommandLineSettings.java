@@ -0,0 +1,209 @@
+/*
+ * Copyright 2013 Volker Oth (0xdeadbeef) / Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.cli;
+
+import bdsup2sub.bitmap.Palette;
+import bdsup2sub.core.Configuration;
+import bdsup2sub.core.Framerate;
+import bdsup2sub.tools.Props;
+import bdsup2sub.utils.SubtitleUtils;
+
+import java.awt.Color;
+
+/**
+ * Applies the options of a parsed command line to a configuration.
+ */
+public final class CommandLineSettings {
+
+    private final CommandLineParser options;
+    private final Configuration configuration;
+    private final Palette dvdPalette;
+
+    private CommandLineSettings(CommandLineParser options, Configuration configuration, Palette dvdPalette) {
+        this.options = options;
+        this.configuration = configuration;
+        this.dvdPalette = dvdPalette;
+    }
+
+    /**
+     * Apply the options of a command line.
+     * @param options       Parsed command line
+     * @param configuration Configuration to change
+     * @param dvdPalette    DVD palette changed by a palette file
+     */
+    public static void apply(CommandLineParser options, Configuration configuration, Palette dvdPalette) {
+        new CommandLineSettings(options, configuration, dvdPalette).processOptions();
+    }
+
+    private void processOptions() {
+        if (options.isLoadSettings()) {
+            configuration.load();
+        }
+        if (options.getOutputMode().isPresent()) {
+            configuration.setOutputMode(options.getOutputMode().get());
+        }
+        if (options.getResolution().isPresent()) {
+            configuration.setConvertResolution(true);
+            configuration.setOutputResolution(options.getResolution().get());
+        }
+        processFrameRate();
+        if (options.getDelay().isPresent()) {
+            configuration.setDelayPTS((int) SubtitleUtils.syncTimePTS((long) (options.getDelay().get() * 90.0), configuration.getFpsTrg(), configuration.getFpsTrg()));
+        }
+        if (options.getScalingFilter().isPresent()) {
+            configuration.setScalingFilter(options.getScalingFilter().get());
+        }
+        if (options.getPaletteMode().isPresent()) {
+            configuration.setPaletteMode(options.getPaletteMode().get());
+        }
+        if (options.getQuantizer().isPresent()) {
+            configuration.setQuantizer(options.getQuantizer().get());
+        }
+        if (options.getGlobalPaletteWindow().isPresent()) {
+            configuration.setGlobalPalette(true);
+            configuration.setGlobalPaletteWindow(options.getGlobalPaletteWindow().get());
+        }
+        processMinimumDisplayTime();
+        if (options.getMaximumTimeDifference().isPresent()) {
+            configuration.setMergePTSdiff((int) (options.getMaximumTimeDifference().get() * 90.0 + 0.5));
+        }
+        processMoveMode();
+        if (options.getCropLines().isPresent()) {
+            configuration.setCropOffsetY(options.getCropLines().get());
+        }
+        if (options.getAlphaCropThreshold().isPresent()) {
+            configuration.setAlphaCrop(options.getAlphaCropThreshold().get());
+        }
+        if (options.getScaleX().isPresent() && options.getScaleY().isPresent()) {
+            configuration.setApplyFreeScale(true);
+            configuration.setFreeScaleFactor(options.getScaleX().get(), options.getScaleY().get());
+        }
+        if (options.isExportPalette().isPresent()) {
+            configuration.setWritePGCEditPalette(options.isExportPalette().get());
+        }
+        if (options.isExportForcedSubtitlesOnly().isPresent()) {
+            configuration.setExportForced(options.isExportForcedSubtitlesOnly().get());
+        }
+        if (options.getForcedFlagState().isPresent()) {
+            configuration.setForceAll(options.getForcedFlagState().get());
+        }
+        if (options.isSwapCrCb().isPresent()) {
+            configuration.setSwapCrCb(options.isSwapCrCb().get());
+        }
+        if (options.isFixInvisibleFrames().isPresent()) {
+            configuration.setFixZeroAlpha(options.isFixInvisibleFrames().get());
+        }
+        if (options.isVerbose().isPresent()) {
+            configuration.setVerbose(options.isVerbose().get());
+        }
+        if (options.getAlphaThreshold().isPresent()) {
+            configuration.setAlphaThreshold(options.getAlphaThreshold().get());
+        }
+        processLuminanceThreshold();
+        if (options.getLanguageIndex().isPresent()) {
+            configuration.setLanguageIdx(options.getLanguageIndex().get());
+        }
+        processPaletteFile();
+        if (options.getExportThreads().isPresent()) {
+            configuration.setExportThreads(options.getExportThreads().get());
+        }
+    }
+
+    private void processFrameRate() {
+        boolean targetFramerateDefined = false;
+        if (options.isConvertFpsMode()) {
+            if (!options.getSourceFrameRate().isPresent()) { // was set to "auto"
+                // leave default value
+            } else {
+                configuration.setFpsSrc(options.getSourceFrameRate().get());
+                configuration.setFpsTrg(options.getTargetFrameRate().get());
+            }
+            // convert framerate from <auto>/fpssrc to fpstrg
+            configuration.setConvertFPS(true);
+            targetFramerateDefined = true;
+        } else if (options.isSynchronizeFpsMode()) {
+            if (!options.getTargetFrameRate().isPresent()) { // was set to "keep"
+                configuration.setKeepFps(true);
+                // use source fps as target fps
+            } else {
+                // synchronize target framerate to fpstrg
+                configuration.setFpsTrg(options.getTargetFrameRate().get());
+                targetFramerateDefined = true;
+            }
+        }
+        if (!targetFramerateDefined && options.getResolution().isPresent()) {
+            switch(options.getResolution().get()) {
+                case PAL: configuration.setFpsTrg(Framerate.PAL.getValue()); break;
+                case NTSC: configuration.setFpsTrg(Framerate.NTSC.getValue()); break;
+                case HD_720: configuration.setFpsTrg(Framerate.FPS_23_976.getValue()); break;
+                case HD_1440x1080: configuration.setFpsTrg(Framerate.FPS_23_976.getValue()); break;
+                case HD_1080: configuration.setFpsTrg(Framerate.FPS_23_976.getValue()); break;
+            }
+        }
+        if (!configuration.isKeepFps() && !targetFramerateDefined) {
+            configuration.setFpsTrg(SubtitleUtils.getDefaultFramerateForResolution(configuration.getOutputResolution()));
+        }
+    }
+
+    private void processMinimumDisplayTime() {
+        if (options.getMinimumDisplayTime().isPresent()) {
+            int tMin = (int) SubtitleUtils.syncTimePTS((long) (options.getMinimumDisplayTime().get() * 90.0), configuration.getFpsTrg(), configuration.getFpsTrg());
+            configuration.setMinTimePTS(tMin);
+            configuration.setFixShortFrames(true);
+        }
+    }
+
+    private void processMoveMode() {
+        if (options.getMoveModeY().isPresent()) {
+            configuration.setMoveModeY(options.getMoveModeY().get());
+            configuration.setMoveOffsetY(options.getMoveYOffset());
+        }
+        if (options.getMoveModeX().isPresent()) {
+            configuration.setMoveModeX(options.getMoveModeX().get());
+            if (options.getMoveXOffset().isPresent()) {
+                configuration.setMoveOffsetX(options.getMoveXOffset().get());
+            }
+        }
+    }
+
+    private void processLuminanceThreshold() {
+        int lt[] = configuration.getLuminanceThreshold();
+        if (options.getLumLowMedThreshold().isPresent()) {
+            lt[1] = options.getLumLowMedThreshold().get();
+        }
+        if (options.getLumMedHighThreshold().isPresent()) {
+            lt[0] = options.getLumMedHighThreshold().get();
+        }
+        configuration.setLuminanceThreshold(lt);
+    }
+
+    private void processPaletteFile() {
+        if (options.getPaletteFile() != null) {
+            Props colProps = new Props();
+            colProps.load(options.getPaletteFile().getAbsolutePath());
+            for (int c = 0; c < 15; c++) {
+                String s = colProps.get("Color_" + c, "0,0,0");
+                String sp[] = s.split(",");
+                if (sp.length >= 3) {
+                    int red = Integer.valueOf(sp[0].trim()) & 0xff;
+                    int green = Integer.valueOf(sp[1].trim()) & 0xff;
+                    int blue = Integer.valueOf(sp[2].trim()) & 0xff;
+                    dvdPalette.setColor(c + 1, new Color(red, green, blue));
+                }
+            }
+        }
+    }
+}
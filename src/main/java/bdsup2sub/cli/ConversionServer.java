@@ -0,0 +1,440 @@
+/*
+ * Copyright 2013 Volker Oth (0xdeadbeef) / Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.cli;
+
+import bdsup2sub.bitmap.Palette;
+import bdsup2sub.core.Configuration;
+import bdsup2sub.core.ConversionMetrics;
+import bdsup2sub.core.ConversionSession;
+import bdsup2sub.core.CoreException;
+import bdsup2sub.core.Logger;
+import bdsup2sub.utils.JsonBuilder;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.cli.ParseException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resident conversion server, only reachable from the local machine (loopback interface).<br>
+ * Web pages open in a browser can reach the loopback interface as well, so each request has to carry the token
+ * created at startup in the X-Auth-Token header, and requests with another Host than 127.0.0.1:&lt;port&gt; or
+ * localhost:&lt;port&gt; (DNS rebinding) or with an Origin header (sent by browsers) are rejected.<br>
+ * Requests:
+ * <ul>
+ * <li>POST /jobs - queue a job, the body holds its command line arguments (UTF-8, one per line),
+ * e.g. input file, -o output file and conversion options</li>
+ * <li>GET /jobs - state of all jobs</li>
+ * <li>GET /jobs/&lt;id&gt; - state of one job</li>
+ * <li>DELETE /jobs/&lt;id&gt; - cancel a queued or running job</li>
+ * <li>POST /shutdown - stop the server, running jobs are finished first</li>
+ * </ul>
+ * All responses are JSON. Each job is converted in its own session with a copy of the server's configuration,
+ * the options of the job are applied on top of it.
+ */
+public class ConversionServer {
+
+    private static final Logger logger = Logger.getInstance();
+
+    /** Maximum number of jobs waiting for a worker thread */
+    private static final int MAX_QUEUED_JOBS = 1000;
+    /** Maximum number of finished jobs kept for status requests, the oldest ones are dropped */
+    private static final int MAX_FINISHED_JOBS = 1000;
+    private static final String JOBS_PATH = "/jobs";
+    /** Request header holding the token */
+    public static final String TOKEN_HEADER = "X-Auth-Token";
+
+    /** State of a job */
+    enum JobState {
+        QUEUED, RUNNING, DONE, FAILED, CANCELED
+    }
+
+    private final Configuration configuration;
+    private final Palette dvdPalette;
+    private final HttpServer server;
+    private final ThreadPoolExecutor executor;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    /** Random token each request has to present */
+    private final String token;
+    /** Jobs by id in order of submission, guarded by this */
+    private final Map<Long, Job> jobs = new LinkedHashMap<Long, Job>();
+    private long nextId = 1;
+
+    /**
+     * @param configuration Configuration the jobs start with
+     * @param dvdPalette    DVD palette the jobs start with
+     * @param port          Port on the loopback interface, 0 for any free port
+     * @param threads       Maximum number of jobs converted at the same time
+     * @throws IOException if the port can't be bound
+     */
+    public ConversionServer(Configuration configuration, Palette dvdPalette, int port, int threads) throws IOException {
+        this.configuration = configuration;
+        this.dvdPalette = dvdPalette;
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(MAX_QUEUED_JOBS));
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        token = createToken();
+        server.createContext(JOBS_PATH, new JobsHandler()).getFilters().add(new AccessFilter());
+        server.createContext("/shutdown", new ShutdownHandler()).getFilters().add(new AccessFilter());
+    }
+
+    private static String createToken() {
+        byte[] bytes = new byte[16];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b & 0xff));
+        }
+        return sb.toString();
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * @return Port the server listens on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return Token the clients have to send in the X-Auth-Token header of each request
+     */
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * Stop accepting requests and wait until the running and queued jobs are finished.
+     * @throws InterruptedException
+     */
+    public void stop() throws InterruptedException {
+        server.stop(0);
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        stopped.countDown();
+    }
+
+    /**
+     * Block until the server was stopped, e.g. by a shutdown request.
+     * @throws InterruptedException
+     */
+    public void awaitShutdown() throws InterruptedException {
+        stopped.await();
+    }
+
+    /**
+     * Queue a job.
+     * @param args Command line arguments of the job
+     * @return Queued job
+     * @throws ParseException if the arguments are invalid or don't describe a single file conversion
+     * @throws RejectedExecutionException if too many jobs are queued
+     */
+    Job submit(List<String> args) throws ParseException {
+        CommandLineParser jobOptions = new CommandLineParser();
+        jobOptions.parse(args.toArray(new String[args.size()]));
+        if (!jobOptions.isCliMode() || jobOptions.isPrintHelpMode() || jobOptions.isPrintVersionMode()
+                || jobOptions.isServerMode() || jobOptions.isBatchMode() || jobOptions.isStreamMode()) {
+            throw new ParseException("A job needs one input file and an output file (-o).");
+        }
+        Configuration jobConfiguration = configuration.copy();
+        ConversionSession session = new ConversionSession(jobConfiguration);
+        session.setCurrentDVDPalette(new Palette(dvdPalette));
+        CommandLineSettings.apply(jobOptions, jobConfiguration, session.getCurrentDVDPalette());
+
+        synchronized (this) {
+            Job job = new Job(nextId, jobOptions, session);
+            job.future = executor.submit(job);
+            nextId++;
+            jobs.put(job.id, job);
+            dropFinishedJobs();
+            return job;
+        }
+    }
+
+    synchronized Job getJob(long id) {
+        return jobs.get(id);
+    }
+
+    synchronized List<Job> getJobs() {
+        return new ArrayList<Job>(jobs.values());
+    }
+
+    private void dropFinishedJobs() {
+        int finished = 0;
+        for (Job job : jobs.values()) {
+            if (job.isFinished()) {
+                finished++;
+            }
+        }
+        Iterator<Job> it = jobs.values().iterator();
+        while (finished > MAX_FINISHED_JOBS && it.hasNext()) {
+            if (it.next().isFinished()) {
+                it.remove();
+                finished--;
+            }
+        }
+    }
+
+    /**
+     * Conversion of one file.
+     */
+    static final class Job implements Runnable {
+        final long id;
+        private final String inputFile;
+        private final String outputFile;
+        private final double screenRatio;
+        /** Session converting the file, released when the job is finished */
+        private volatile ConversionSession session;
+        /** Metrics of the session, kept when the session is released */
+        private final ConversionMetrics metrics;
+        private volatile Future<?> future;
+        private volatile JobState state = JobState.QUEUED;
+        private volatile boolean canceled;
+        private volatile String error;
+        private volatile long startTime;
+        private volatile long endTime;
+
+        Job(long id, CommandLineParser options, ConversionSession session) {
+            this.id = id;
+            this.session = session;
+            metrics = session.getMetrics();
+            inputFile = options.getInputFile().getAbsolutePath();
+            outputFile = options.getOutputFile().getAbsolutePath();
+            screenRatio = options.getScreenRatio();
+        }
+
+        @Override
+        public void run() {
+            ConversionSession session = this.session;
+            startTime = System.currentTimeMillis();
+            state = JobState.RUNNING;
+            logger.info("Job " + id + ": converting " + inputFile + "\n");
+            try {
+                FileConversion.readInput(session, inputFile, outputFile);
+                FileConversion.writeOutput(session, outputFile, screenRatio);
+                state = JobState.DONE;
+            } catch (Exception ex) {
+                error = ex instanceof CoreException ? ex.getMessage() : ex.toString();
+                state = canceled ? JobState.CANCELED : JobState.FAILED;
+            } finally {
+                session.close();
+                this.session = null;
+                endTime = System.currentTimeMillis();
+                logger.info("Job " + id + ": " + state.name().toLowerCase() + "\n");
+            }
+        }
+
+        /**
+         * Cancel the job, a running job stops at the next caption.
+         */
+        void cancel() {
+            canceled = true;
+            if (future.cancel(false)) {
+                state = JobState.CANCELED;
+                session = null;
+            } else {
+                ConversionSession session = this.session;
+                if (session != null) {
+                    session.cancel();
+                }
+            }
+        }
+
+        boolean isFinished() {
+            JobState s = state;
+            return s == JobState.DONE || s == JobState.FAILED || s == JobState.CANCELED;
+        }
+
+        JobState getState() {
+            return state;
+        }
+
+        String toJson() {
+            JobState s = state;
+            ConversionSession session = this.session;
+            boolean running = s == JobState.RUNNING && session != null;
+            int progress = s == JobState.DONE ? 100 : (running ? session.getProgress() : 0);
+            String phase = running ? session.getProgressOperation() : null;
+            long end = endTime != 0 ? endTime : System.currentTimeMillis();
+            JsonBuilder json = new JsonBuilder()
+                    .add("id", id)
+                    .add("state", s.name().toLowerCase())
+                    .add("phase", phase != null ? phase : "")
+                    .add("progress", progress)
+                    .add("input", inputFile)
+                    .add("output", outputFile)
+                    .add("error", error)
+                    .add("seconds", startTime == 0 ? 0.0 : (end - startTime) / 1000.0);
+            if (s == JobState.DONE) {
+                json.add("metrics", metrics.toJson());
+            }
+            return json.toString();
+        }
+    }
+
+    /**
+     * Rejects requests that don't come from a client knowing the token, see the class description.
+     */
+    private class AccessFilter extends Filter {
+        @Override
+        public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+            Headers headers = exchange.getRequestHeaders();
+            String host = headers.getFirst("Host");
+            if (host == null || !(host.equalsIgnoreCase("127.0.0.1:" + getPort()) || host.equalsIgnoreCase("localhost:" + getPort()))) {
+                sendError(exchange, 403, "Invalid host: " + host);
+            } else if (headers.containsKey("Origin")) {
+                sendError(exchange, 403, "Cross origin requests are not allowed.");
+            } else if (!isValidToken(headers.getFirst(TOKEN_HEADER))) {
+                sendError(exchange, 403, "Missing or invalid " + TOKEN_HEADER + " header.");
+            } else {
+                chain.doFilter(exchange);
+            }
+        }
+
+        private boolean isValidToken(String value) throws IOException {
+            return value != null && MessageDigest.isEqual(token.getBytes("UTF-8"), value.trim().getBytes("UTF-8"));
+        }
+
+        @Override
+        public String description() {
+            return "Host, Origin and token check";
+        }
+    }
+
+    private class JobsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath();
+            if (path.equals(JOBS_PATH) || path.equals(JOBS_PATH + "/")) {
+                if (method.equals("GET")) {
+                    List<String> list = new ArrayList<String>();
+                    for (Job job : getJobs()) {
+                        list.add(job.toJson());
+                    }
+                    send(exchange, 200, new JsonBuilder().addRaw("jobs", JsonBuilder.array(list)).toString());
+                } else if (method.equals("POST")) {
+                    try {
+                        send(exchange, 202, submit(readArguments(exchange)).toJson());
+                    } catch (ParseException ex) {
+                        sendError(exchange, 400, ex.getMessage());
+                    } catch (RejectedExecutionException ex) {
+                        sendError(exchange, 503, "Too many queued jobs.");
+                    }
+                } else {
+                    sendError(exchange, 405, "Unsupported method: " + method);
+                }
+                return;
+            }
+            Job job = null;
+            try {
+                job = getJob(Long.parseLong(path.substring(JOBS_PATH.length() + 1)));
+            } catch (NumberFormatException ex) {
+                // not found
+            }
+            if (job == null) {
+                sendError(exchange, 404, "Unknown job: " + path);
+            } else if (method.equals("GET")) {
+                send(exchange, 200, job.toJson());
+            } else if (method.equals("DELETE")) {
+                job.cancel();
+                send(exchange, 200, job.toJson());
+            } else {
+                sendError(exchange, 405, "Unsupported method: " + method);
+            }
+        }
+    }
+
+    private class ShutdownHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                sendError(exchange, 405, "Unsupported method: " + exchange.getRequestMethod());
+                return;
+            }
+            send(exchange, 200, new JsonBuilder().add("state", "stopping").toString());
+            // stopping waits for the exchange handlers, so it can't be done by this one
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        stop();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }).start();
+        }
+    }
+
+    /**
+     * Read the command line arguments of a job from the request body, one per line. Empty lines are skipped.
+     */
+    private static List<String> readArguments(HttpExchange exchange) throws IOException {
+        List<String> args = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    args.add(line.trim());
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return args;
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        send(exchange, status, new JsonBuilder().add("error", message).toString());
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = (json + "\n").getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(body);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2013 Volker Oth (0xdeadbeef) / Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.cli;
+
+import bdsup2sub.core.*;
+import bdsup2sub.utils.FilenameUtils;
+import bdsup2sub.utils.StreamUtils;
+import bdsup2sub.utils.ToolBox;
+
+import java.io.File;
+
+/**
+ * Conversion of one subtitle file by a session, as done for each file on the command line.
+ */
+public final class FileConversion {
+
+    private FileConversion() {
+    }
+
+    /**
+     * Check input and output file of a conversion, read the input file and scan its captions.
+     * @param session    Session converting the file
+     * @param inputFile  Input file name
+     * @param outputFile Output file name
+     * @throws Exception
+     */
+    public static void readInput(ConversionSession session, String inputFile, String outputFile) throws Exception {
+        Configuration configuration = session.getConfiguration();
+        boolean xml = FilenameUtils.getExtension(inputFile).equalsIgnoreCase("xml");
+        boolean idx = FilenameUtils.getExtension(inputFile).equalsIgnoreCase("idx");
+        boolean ifo = FilenameUtils.getExtension(inputFile).equalsIgnoreCase("ifo");
+        byte id[] = ToolBox.getFileID(inputFile, 4);
+        StreamID sid = (id == null) ? StreamID.UNKNOWN : StreamUtils.getStreamID(id);
+        if (!idx && !xml && !ifo && sid == StreamID.UNKNOWN) {
+            throw new CoreException("File '" + inputFile + "' is not a supported subtitle stream.");
+        }
+        configuration.setCurrentStreamID(sid);
+
+        // check output file(s)
+        File indexFile, subtitleFile;
+        if (configuration.getOutputMode() == OutputMode.VOBSUB) {
+            indexFile = new File(FilenameUtils.removeExtension(outputFile) + ".idx");
+            subtitleFile = new File(FilenameUtils.removeExtension(outputFile) + ".sub");
+        } else {
+            subtitleFile = new File(FilenameUtils.removeExtension(outputFile) + ".sup");
+            indexFile = null;
+        }
+        if ((indexFile != null && indexFile.exists() && !indexFile.canWrite()) || (subtitleFile.exists() && !subtitleFile.canWrite())) {
+            throw new CoreException("Target file '" + outputFile + "' is write protected.");
+        }
+
+        // read input file
+        session.startProgress("reading", new File(inputFile).length());
+        if (xml || sid == StreamID.XML) {
+            session.readXml(inputFile);
+        } else if (idx || sid == StreamID.DVDSUB || sid == StreamID.IDX) {
+            session.readVobSub(inputFile);
+        } else if (ifo || sid == StreamID.IFO) {
+            session.readSupIfo(inputFile);
+        } else {
+            session.readSup(inputFile);
+        }
+
+        session.scanSubtitles();
+    }
+
+    /**
+     * Move the captions of a scanned input file if requested and write the output file.
+     * @param session     Session converting the file
+     * @param outputFile  Output file name
+     * @param screenRatio Screen ratio used to move captions
+     * @throws Exception
+     */
+    public static void writeOutput(ConversionSession session, String outputFile, double screenRatio) throws Exception {
+        Configuration configuration = session.getConfiguration();
+        // move captions
+        if (configuration.getMoveModeX() != CaptionMoveModeX.KEEP_POSITION || configuration.getMoveModeY() != CaptionMoveModeY.KEEP_POSITION) {
+            configuration.setCineBarFactor((1.0 - (16.0 / 9) / screenRatio) / 2.0);
+            session.startProgress("moving", session.getNumFrames());
+            session.moveAllToBounds();
+        }
+        // set some values
+        if (configuration.isExportForced() && session.getNumForcedFrames() == 0) {
+            throw new CoreException("No forced subtitles found.");
+        }
+        // write output
+        session.startProgress("writing", session.getNumFrames());
+        session.writeSub(outputFile);
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2013 Volker Oth (0xdeadbeef) / Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.cli;
+
+import bdsup2sub.core.ConversionSession;
+import bdsup2sub.core.ProgressListener;
+import bdsup2sub.utils.JsonBuilder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+
+import static bdsup2sub.cli.CommandLineOptions.STANDARD_STREAM;
+
+/**
+ * Machine readable output of command line conversions.<br>
+ * Progress events are JSON objects printed one per line while converting:
+ * <pre>
+ * {"event":"progress","input":"a.sup","operation":"writing","percent":42}
+ * {"event":"finished","input":"a.sup","status":"ok"}
+ * </pre>
+ * The result of a file is written when it's done, see {@link #fileResult}.
+ */
+public final class MetricsReport {
+
+    private MetricsReport() {
+    }
+
+    /**
+     * @param out   Stream receiving one JSON object per line
+     * @param input Input file the events belong to
+     * @return Listener printing the progress of a session as events
+     */
+    public static ProgressListener progressEvents(final PrintStream out, final String input) {
+        return new ProgressListener() {
+            @Override
+            public void progressChanged(String operation, int percent) {
+                out.println(new JsonBuilder()
+                        .add("event", "progress")
+                        .add("input", input)
+                        .add("operation", operation)
+                        .add("percent", percent));
+            }
+        };
+    }
+
+    /**
+     * Print the event closing the events of a file.
+     * @param out   Stream receiving one JSON object per line
+     * @param input Input file
+     * @param error Error message or null if the file was converted
+     */
+    public static void printFinished(PrintStream out, String input, String error) {
+        out.println(new JsonBuilder()
+                .add("event", "finished")
+                .add("input", input)
+                .add("status", error == null ? "ok" : "failed"));
+    }
+
+    /**
+     * @param input   Input file
+     * @param output  Output file
+     * @param session Session that converted the file
+     * @param error   Error message or null if the file was converted
+     * @return Result and metrics of the conversion of one file
+     */
+    public static JsonBuilder fileResult(String input, String output, ConversionSession session, String error) {
+        return new JsonBuilder()
+                .add("input", input)
+                .add("output", output)
+                .add("status", error == null ? "ok" : "failed")
+                .add("error", error)
+                .add("metrics", session.getMetrics().toJson());
+    }
+
+    /**
+     * Write a report to a file or to standard error.
+     * @param file Target file, "-" for standard error
+     * @param json Report
+     * @throws IOException
+     */
+    public static void write(File file, String json) throws IOException {
+        if (file.getPath().equals(STANDARD_STREAM)) {
+            System.err.println(json);
+            return;
+        }
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(json);
+            writer.write('\n');
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -56,6 +56,9 @@ public final class Configuration {
     //Two equal captions are merged of they are closer than 200ms (0.2*90000 = 18000)
     public static final int DEFAULT_MERGE_PTS_DIFF = 18000;
     public static final OutputMode DEFAULT_OUTPUT_MODE = OutputMode.VOBSUB;
+    public static final int DEFAULT_EXPORT_THREADS = 1;
+    public static final int DEFAULT_DECODE_CACHE_SIZE_MB = 64;
+    public static final int DEFAULT_PREFETCH_CAPTIONS = 2;
 
     private boolean convertResolution = CONVERT_RESOLUTION_BY_DEFAULT;
     private boolean convertFPS = CONVERT_FRAMERATE_BY_DEFAULT;
@@ -85,6 +88,9 @@ public final class Configuration {
     private double cineBarFactor = 5.0/42;
     private StreamID currentStreamID = StreamID.UNKNOWN;
     private boolean keepFps;
+    private int exportThreads = DEFAULT_EXPORT_THREADS;
+    private boolean globalPalette;
+    private int globalPaletteWindow;
 
     private static final int RECENT_FILE_COUNT = 5;
     private static final String CONFIG_FILE = "bdsup2sup.ini";
@@ -101,6 +107,44 @@ public final class Configuration {
         props = new Props();
     }
 
+    private Configuration(Configuration other) {
+        configFilePath = other.configFilePath;
+        props = new Props(other.props);
+        recentFiles = other.recentFiles == null ? null : new ArrayList<String>(other.recentFiles);
+        luminanceThreshold = other.luminanceThreshold.clone();
+        alphaThreshold = other.alphaThreshold;
+
+        convertResolution = other.convertResolution;
+        convertFPS = other.convertFPS;
+        delayPTS = other.delayPTS;
+        cliMode = other.cliMode;
+        fixShortFrames = other.fixShortFrames;
+        minTimePTS = other.minTimePTS;
+        applyFreeScale = other.applyFreeScale;
+        freeScaleFactorX = other.freeScaleFactorX;
+        freeScaleFactorY = other.freeScaleFactorY;
+        fpsSrc = other.fpsSrc;
+        fpsTrg = other.fpsTrg;
+        fpsSrcCertain = other.fpsSrcCertain;
+        outputResolution = other.outputResolution;
+        languageIdx = other.languageIdx;
+        exportForced = other.exportForced;
+        cropOffsetY = other.cropOffsetY;
+        forceAll = other.forceAll;
+        swapCrCb = other.swapCrCb;
+        moveModeX = other.moveModeX;
+        moveModeY = other.moveModeY;
+        moveOffsetX = other.moveOffsetX;
+        moveOffsetY = other.moveOffsetY;
+        moveCaptions = other.moveCaptions;
+        cineBarFactor = other.cineBarFactor;
+        currentStreamID = other.currentStreamID;
+        keepFps = other.keepFps;
+        exportThreads = other.exportThreads;
+        globalPalette = other.globalPalette;
+        globalPaletteWindow = other.globalPaletteWindow;
+    }
+
     public void load() {
         readConfigFile();
         loadConfig();
@@ -151,6 +195,14 @@ public final class Configuration {
         return INSTANCE;
     }
 
+    /**
+     * Create an independent copy of this configuration, e.g. to run a conversion with its own settings.
+     * @return Copy of this configuration
+     */
+    public Configuration copy() {
+        return new Configuration(this);
+    }
+
     public String getConfigFilePath() {
         if (PlatformUtils.isLinux()) {
             String xdgConfigHome = System.getenv("XDG_CONFIG_HOME");
@@ -247,6 +299,22 @@ public final class Configuration {
         props.set("filter", filter.name());
     }
 
+    /**
+     * Get the algorithm used to create a new palette for true color captions.
+     */
+    public Quantizer getQuantizer() {
+        Quantizer defaultQuantizer = Quantizer.MEDIAN_CUT;
+        try {
+            return Quantizer.valueOf(props.get("quantizer", defaultQuantizer.name()));
+        } catch (IllegalArgumentException ex) {
+            return defaultQuantizer;
+        }
+    }
+
+    public void setQuantizer(Quantizer quantizer) {
+        props.set("quantizer", quantizer.name());
+    }
+
     /**
      * Get palette creation mode.
      */
@@ -697,4 +765,59 @@ public final class Configuration {
     public void setKeepFps(boolean keepFps) {
         this.keepFps = keepFps;
     }
+
+    /**
+     * Get number of worker threads used to convert and encode captions on export.
+     */
+    public int getExportThreads() {
+        return exportThreads;
+    }
+
+    public void setExportThreads(int exportThreads) {
+        this.exportThreads = exportThreads;
+    }
+
+    /**
+     * Get whether exported BD-SUP captions share one palette instead of getting their own (only when creating new palettes).
+     */
+    public boolean getGlobalPalette() {
+        return globalPalette;
+    }
+
+    public void setGlobalPalette(boolean globalPalette) {
+        this.globalPalette = globalPalette;
+    }
+
+    /**
+     * Get number of consecutive captions sharing one palette in global palette mode (0: all captions of the stream).
+     */
+    public int getGlobalPaletteWindow() {
+        return globalPaletteWindow;
+    }
+
+    public void setGlobalPaletteWindow(int globalPaletteWindow) {
+        this.globalPaletteWindow = globalPaletteWindow;
+    }
+
+    /**
+     * Get memory budget in MB for decoded source captions kept in memory while editing (0 disables the cache).
+     */
+    public int getDecodeCacheSize() {
+        return props.get("decodeCacheMB", DEFAULT_DECODE_CACHE_SIZE_MB);
+    }
+
+    public void setDecodeCacheSize(int decodeCacheSize) {
+        props.set("decodeCacheMB", decodeCacheSize);
+    }
+
+    /**
+     * Get number of captions before and after the displayed one converted in the background while editing (0 disables prefetching).
+     */
+    public int getPrefetchCaptions() {
+        return props.get("prefetchCaptions", DEFAULT_PREFETCH_CAPTIONS);
+    }
+
+    public void setPrefetchCaptions(int prefetchCaptions) {
+        props.set("prefetchCaptions", prefetchCaptions);
+    }
 }
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2013 Volker Oth (0xdeadbeef) / Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.core;
+
+import bdsup2sub.utils.JsonBuilder;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timings and counters of the conversion done by a session since its stream was loaded.<br>
+ * Phase times are summed over all threads. Captions exported by several threads are decoded, scaled and
+ * encoded at the same time, so the phase times may add up to more than the elapsed time.
+ */
+public final class ConversionMetrics {
+
+    /** Phases of a conversion */
+    public enum Phase {
+        /** Reading and parsing the input stream */
+        PARSE,
+        /** Creating the target captions: times, sizes and positions */
+        SCAN,
+        /** Decoding the bitmaps of source captions */
+        DECODE,
+        /** Scaling bitmaps (includes palette reduction of DVD output) */
+        SCALE,
+        /** Creating palettes and mapping pixels to them */
+        QUANTIZE,
+        /** Encoding captions to the output format */
+        ENCODE,
+        /** Writing output files */
+        WRITE
+    }
+
+    private static final int PHASES = Phase.values().length;
+
+    private final AtomicLongArray phaseNanos = new AtomicLongArray(PHASES);
+    private final AtomicLongArray phaseCount = new AtomicLongArray(PHASES);
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicInteger captionsRead = new AtomicInteger();
+    private final AtomicInteger captionsWritten = new AtomicInteger();
+    private final AtomicInteger maxSourceWidth = new AtomicInteger();
+    private final AtomicInteger maxSourceHeight = new AtomicInteger();
+    private final AtomicInteger maxTargetWidth = new AtomicInteger();
+    private final AtomicInteger maxTargetHeight = new AtomicInteger();
+    private volatile long startTime = System.nanoTime();
+
+    /**
+     * Clear all timings and counters and restart the elapsed time, e.g. when another stream is loaded.
+     */
+    public void reset() {
+        for (int i = 0; i < PHASES; i++) {
+            phaseNanos.set(i, 0);
+            phaseCount.set(i, 0);
+        }
+        bytesRead.set(0);
+        bytesWritten.set(0);
+        captionsRead.set(0);
+        captionsWritten.set(0);
+        maxSourceWidth.set(0);
+        maxSourceHeight.set(0);
+        maxTargetWidth.set(0);
+        maxTargetHeight.set(0);
+        startTime = System.nanoTime();
+    }
+
+    /**
+     * Add the time spent in a phase.
+     * @param phase Phase
+     * @param nanos Time in nanoseconds
+     */
+    public void add(Phase phase, long nanos) {
+        phaseNanos.addAndGet(phase.ordinal(), nanos);
+        phaseCount.incrementAndGet(phase.ordinal());
+    }
+
+    /**
+     * Add the time spent in a phase up to now.
+     * @param phase Phase
+     * @param start Start of the phase, from {@link System#nanoTime()}
+     */
+    public void addSince(Phase phase, long start) {
+        add(phase, System.nanoTime() - start);
+    }
+
+    /**
+     * @param phase Phase
+     * @return Time spent in the phase in nanoseconds
+     */
+    public long getNanos(Phase phase) {
+        return phaseNanos.get(phase.ordinal());
+    }
+
+    /**
+     * @param phase Phase
+     * @return Number of times the phase was entered, e.g. number of captions decoded
+     */
+    public long getCount(Phase phase) {
+        return phaseCount.get(phase.ordinal());
+    }
+
+    public void addBytesRead(long bytes) {
+        bytesRead.addAndGet(bytes);
+    }
+
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    public void addBytesWritten(long bytes) {
+        bytesWritten.addAndGet(bytes);
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    public void setCaptionsRead(int count) {
+        captionsRead.set(count);
+    }
+
+    public int getCaptionsRead() {
+        return captionsRead.get();
+    }
+
+    public void addCaptionWritten() {
+        captionsWritten.incrementAndGet();
+    }
+
+    public int getCaptionsWritten() {
+        return captionsWritten.get();
+    }
+
+    /**
+     * Record the image size of a source caption.
+     * @param width  Image width
+     * @param height Image height
+     */
+    public void updateSourceSize(int width, int height) {
+        updateMax(maxSourceWidth, width);
+        updateMax(maxSourceHeight, height);
+    }
+
+    /**
+     * Record the image size of a target caption.
+     * @param width  Image width
+     * @param height Image height
+     */
+    public void updateTargetSize(int width, int height) {
+        updateMax(maxTargetWidth, width);
+        updateMax(maxTargetHeight, height);
+    }
+
+    public int getMaxSourceWidth() {
+        return maxSourceWidth.get();
+    }
+
+    public int getMaxSourceHeight() {
+        return maxSourceHeight.get();
+    }
+
+    public int getMaxTargetWidth() {
+        return maxTargetWidth.get();
+    }
+
+    public int getMaxTargetHeight() {
+        return maxTargetHeight.get();
+    }
+
+    private static void updateMax(AtomicInteger max, int value) {
+        int current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * @return Metrics as JSON object, times in seconds
+     */
+    public JsonBuilder toJson() {
+        JsonBuilder phases = new JsonBuilder();
+        for (Phase phase : Phase.values()) {
+            phases.add(phase.name().toLowerCase(), new JsonBuilder()
+                    .add("seconds", getNanos(phase) / 1e9)
+                    .add("count", getCount(phase)));
+        }
+        return new JsonBuilder()
+                .add("seconds", (System.nanoTime() - startTime) / 1e9)
+                .add("captions", new JsonBuilder()
+                        .add("read", getCaptionsRead())
+                        .add("written", getCaptionsWritten()))
+                .add("bytes", new JsonBuilder()
+                        .add("read", getBytesRead())
+                        .add("written", getBytesWritten()))
+                .add("largestCaption", new JsonBuilder()
+                        .add("source", size(getMaxSourceWidth(), getMaxSourceHeight()))
+                        .add("target", size(getMaxTargetWidth(), getMaxTargetHeight())))
+                .add("phases", phases);
+    }
+
+    private static JsonBuilder size(int width, int height) {
+        return new JsonBuilder().add("width", width).add("height", height);
+    }
+}
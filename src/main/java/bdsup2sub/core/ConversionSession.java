@@ -0,0 +1,3286 @@
+/*
+ * Copyright 2013 Volker Oth (0xdeadbeef) / Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.core;
+
+import static bdsup2sub.core.Constants.*;
+import static bdsup2sub.utils.SubtitleUtils.*;
+import static bdsup2sub.utils.TimeUtils.*;
+import static com.mortennobel.imagescaling.ResampleFilters.*;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import javax.swing.*;
+import bdsup2sub.bitmap.Bitmap;
+import bdsup2sub.bitmap.BitmapWithPalette;
+import bdsup2sub.bitmap.ErasePatch;
+import bdsup2sub.bitmap.Palette;
+import bdsup2sub.gui.support.Progress;
+import bdsup2sub.supstream.SubPicture;
+import bdsup2sub.supstream.SubtitleStream;
+import bdsup2sub.supstream.bd.SubPictureBD;
+import bdsup2sub.supstream.bd.SupBD;
+import bdsup2sub.supstream.bd.SupBDWriter;
+import bdsup2sub.supstream.bdnxml.SubPictureXml;
+import bdsup2sub.supstream.bdnxml.SupXml;
+import bdsup2sub.supstream.dvd.DvdSubtitleStream;
+import bdsup2sub.supstream.dvd.IfoWriter;
+import bdsup2sub.supstream.dvd.SubDvd;
+import bdsup2sub.supstream.dvd.SubDvdWriter;
+import bdsup2sub.supstream.dvd.SubPictureDVD;
+import bdsup2sub.supstream.dvd.SupDvd;
+import bdsup2sub.supstream.dvd.SupDvdUtil;
+import bdsup2sub.supstream.dvd.SupDvdWriter;
+import bdsup2sub.supstream.hd.SupHD;
+import bdsup2sub.tools.ColorHistogram;
+import bdsup2sub.tools.ColorQuantizer;
+import bdsup2sub.tools.EnhancedPngEncoder;
+import bdsup2sub.tools.FixedPaletteQuantizer;
+import bdsup2sub.tools.MedianCutQuantizer;
+import bdsup2sub.tools.OrderedDitherQuantizer;
+import bdsup2sub.utils.CountingInputStream;
+import bdsup2sub.utils.FilenameUtils;
+import bdsup2sub.utils.SubtitleUtils;
+import bdsup2sub.utils.ToolBox;
+import com.mortennobel.imagescaling.ResampleFilter;
+
+/**
+ * One conversion of a subtitle stream: the loaded stream, the target pictures and palettes and the
+ * configuration used for them.<br>
+ * Every session owns its state, so several sessions may load and export different files at the same
+ * time. The static API of {@link Core} delegates to a default session.
+ */
+public class ConversionSession {
+
+    private static final Logger logger = Logger.getInstance();
+
+    /** Session that receives progress and cancel callbacks from the stream parsers of the current thread */
+    private static final ThreadLocal<ConversionSession> CURRENT = new ThreadLocal<ConversionSession>();
+
+    /** Settings used by this session */
+    private final Configuration configuration;
+
+    /** Enumeration of functionalities executed by the operation thread */
+    private enum RunType {
+        /** read a SUP stream */
+        READSUP,
+        /** read a SUP stream */
+        READXML,
+        /** read a VobSub stream */
+        READVOBSUB,
+        /** read a SUP/IFO stream */
+        READSUPIFO,
+        /** write a VobSub stream */
+        CREATESUB,
+        /** write a BD-SUP stream */
+        CREATESUP,
+        /** move all captions */
+        MOVEALL
+    }
+
+    /** Enumeration of caption types (used for moving captions) */
+    private enum CaptionType {
+        /** caption in upper half of the screen */
+        UP,
+        /** caption in lower half of the screen */
+        DOWN,
+        /** caption covering more or less the whole screen */
+        FULL
+    }
+
+    /** Current DVD palette (for create mode) - initialized as default */
+    private Palette currentDVDPalette = new Palette(
+            DEFAULT_PALETTE_RED, DEFAULT_PALETTE_GREEN, DEFAULT_PALETTE_BLUE, DEFAULT_PALETTE_ALPHA, true
+    );
+
+    private static final int MIN_IMAGE_DIMENSION = 8;
+
+    /** Palette imported from SUB/IDX or SUP/IFO */
+    private Palette defaultSourceDVDPalette;
+    /** Current palette based on the one imported from SUB/IDX or SUP/IFO */
+    private Palette currentSourceDVDPalette;
+    /** Default alpha map */
+    private static final int[] DEFAULT_ALPHA = { 0, 0xf, 0xf, 0xf};
+
+    /** Converted unpatched target bitmap of current subpicture - just for display */
+    private Bitmap trgBitmapUnpatched;
+    /** Converted target bitmap of current subpicture - just for display */
+    private Bitmap trgBitmap;
+    /** Palette of target caption */
+    private Palette trgPal;
+    /** Used for creating VobSub streams */
+    private SubPictureDVD subVobTrg;
+    /** Bitmap of the last decoded source caption - just for display */
+    private Bitmap srcBitmapDecoded;
+    /** Palette of the last decoded source caption - just for display */
+    private Palette srcPaletteDecoded;
+    /** Decoded source captions, so navigating in the GUI and moving captions don't decode them again */
+    private final DecodedFrameCache decodedFrameCache = new DecodedFrameCache(0);
+    /** Neighbouring captions converted in the background while editing, by caption index */
+    private final Map<Integer, ConvertedFrame> prefetchedFrames = new HashMap<Integer, ConvertedFrame>();
+    /** Single background thread converting neighbouring captions, created on first use */
+    private ExecutorService prefetchExecutor;
+    /** Prefetch task currently queued or running */
+    private Future<?> prefetchTask;
+    /** Incremented for each prefetch request, tasks of older requests stop */
+    private volatile int prefetchGeneration;
+    /** Incremented whenever decoded captions become invalid, e.g. another stream was loaded */
+    private int streamGeneration;
+    /** Index of the caption the last prefetch request was made for */
+    private int prefetchCenter;
+    /** Quantizers mapping the exported captions to their shared palette by caption index, only set while exporting in global palette mode */
+    private Map<Integer, ColorQuantizer> globalPalettes;
+
+    /** Used for handling BD SUPs */
+    private SupBD supBD;
+    /** Used for handling HD-DVD SUPs */
+    private SupHD supHD;
+    /** Used for handling Xmls */
+    private SupXml supXml;
+    /** Used for handling VobSub */
+    private SubDvd subDVD;
+    /** Used for handling SUP/IFO */
+    private SupDvd supDVD;
+    /** Used for common handling of either SUPs */
+    private SubtitleStream subtitleStream;
+
+    /** Array of subpictures used for editing and export */
+    private SubPicture[] subPictures;
+
+    /** Input mode used for last import */
+    private InputMode inMode = InputMode.VOBSUB;
+
+    /** Use BT.601 color model instead of BT.709 */
+    private boolean useBT601;
+
+    /** Full filename of current source SUP (needed for thread) */
+    private String fileName;
+
+    /** Progress dialog for loading/exporting */
+    private Progress progress;
+    /** Maximum absolute value for progress bar */
+    private volatile long progressMax;
+    /** Highest absolute progress value reported by the working threads */
+    private final AtomicLong progressValue = new AtomicLong();
+    /** Last relative value for progress bar, sampled by the progress dialog and other threads watching the session */
+    private final AtomicInteger progressLast = new AtomicInteger();
+    /** Name of the operation whose progress is counted */
+    private volatile String progressOperation;
+    /** Receives progress changes besides the progress dialog or null */
+    private volatile ProgressListener progressListener;
+    /** Timings and counters since the current stream was loaded */
+    private final ConversionMetrics metrics = new ConversionMetrics();
+    /** Warnings logged by the threads of this session since the current stream was loaded */
+    private final AtomicInteger warningCount = new AtomicInteger();
+    /** Errors logged by the threads of this session since the current stream was loaded */
+    private final AtomicInteger errorCount = new AtomicInteger();
+    /** Name prepended to the log lines of this session, null for none */
+    private volatile String logName;
+
+    /** Frame writers of each exporting thread, they reuse their headers and scratch buffers */
+    private final ThreadLocal<SubDvdWriter> subDvdWriters = new ThreadLocal<SubDvdWriter>() {
+        @Override
+        protected SubDvdWriter initialValue() {
+            return new SubDvdWriter(configuration);
+        }
+    };
+    private final ThreadLocal<SupDvdWriter> supDvdWriters = new ThreadLocal<SupDvdWriter>() {
+        @Override
+        protected SupDvdWriter initialValue() {
+            return new SupDvdWriter(configuration);
+        }
+    };
+    private final ThreadLocal<SupBDWriter> supBDWriters = new ThreadLocal<SupBDWriter>() {
+        @Override
+        protected SupBDWriter initialValue() {
+            return new SupBDWriter(configuration);
+        }
+    };
+
+    /** Thread state */
+    private volatile CoreThreadState state = CoreThreadState.INACTIVE;
+    /** Single thread running the loading, export and move operations, created on first use */
+    private ExecutorService operationExecutor;
+    /** Operations queued or running on the operation thread, the current one first */
+    private final Queue<Operation> operations = new ArrayDeque<Operation>();
+    /** Semaphore to disable actions while changing component properties */
+    private volatile boolean ready;
+    /** Semaphore for synchronization */
+    private final Object semaphore = new Object();
+
+    /**
+     * Create a session working with the given settings.
+     * @param configuration Settings used for import and export, e.g. a {@link Configuration#copy()}
+     */
+    public ConversionSession(Configuration configuration) {
+        this.configuration = configuration;
+    }
+
+    /**
+     * Get the session bound to the calling thread.
+     * @return Session currently reading or writing a stream on this thread, null if none
+     */
+    public static ConversionSession current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Bind this session to the calling thread, so the stream parsers report progress to it.
+     * @return Session bound to the thread before, to be passed to {@link #unbind(ConversionSession)}
+     */
+    ConversionSession bind() {
+        ConversionSession previous = CURRENT.get();
+        CURRENT.set(this);
+        return previous;
+    }
+
+    /**
+     * Restore the session bound to the calling thread before {@link #bind()}.
+     * @param previous Session returned by bind
+     */
+    static void unbind(ConversionSession previous) {
+        if (previous != null) {
+            CURRENT.set(previous);
+        } else {
+            CURRENT.remove();
+        }
+    }
+
+    /**
+     * Get the settings of this session.
+     * @return Configuration used by this session
+     */
+    public Configuration getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * Run an operation on the operation thread of this session.<br>
+     * The session is active from now on until the last queued operation is done, so the progress dialog doesn't
+     * close before the operation thread has started. Canceling the future of a queued operation cancels it at once.
+     * A running operation is asked to stop instead and cancel returns false, the future is completed as canceled
+     * once the operation has stopped.
+     * @param runType Operation
+     * @param fname   File to read or write, null if none
+     * @return Future completed when the operation is done, exceptionally with the exception it threw
+     */
+    private synchronized CompletableFuture<Void> submit(RunType runType, String fname) {
+        if (operationExecutor == null) {
+            operationExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "Conversion");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        Operation operation = new Operation(runType, fname);
+        if (operations.isEmpty()) {
+            state = CoreThreadState.ACTIVE;
+        }
+        operations.add(operation);
+        operationExecutor.execute(operation);
+        return operation;
+    }
+
+    /**
+     * Mark an operation as running on the operation thread.
+     * @param operation Operation
+     * @return False if the operation was canceled before it started
+     */
+    private synchronized boolean startOperation(Operation operation) {
+        if (operation.canceled) {
+            return false;
+        }
+        operation.started = true;
+        state = CoreThreadState.ACTIVE;
+        return true;
+    }
+
+    /**
+     * Mark an operation as stopped. The session stays active while further operations are queued.
+     * @param operation Operation
+     */
+    private synchronized void finishOperation(Operation operation) {
+        operations.remove(operation);
+        state = operations.isEmpty() ? CoreThreadState.INACTIVE : CoreThreadState.ACTIVE;
+    }
+
+    /**
+     * Cancel an operation. A queued operation won't start and no longer keeps the session active, a running one
+     * stops at the next caption.
+     * @param operation Operation
+     * @return True if the operation hasn't started
+     */
+    private synchronized boolean cancelOperation(Operation operation) {
+        operation.canceled = true;
+        if (!operation.started) {
+            operations.remove(operation);
+            if (operations.isEmpty()) {
+                state = CoreThreadState.INACTIVE;
+            }
+            return true;
+        }
+        if (operations.peek() == operation) {
+            state = CoreThreadState.CANCELED;
+        }
+        return false;
+    }
+
+    private void runOperation(RunType runType, String fname) throws Exception {
+        switch (runType) {
+            case CREATESUB:
+                writeSub(fname);
+                break;
+            case READSUP:
+                readSup(fname);
+                break;
+            case READVOBSUB:
+                readVobSub(fname);
+                break;
+            case READSUPIFO:
+                readSupIfo(fname);
+                break;
+            case READXML:
+                readXml(fname);
+                break;
+            case MOVEALL:
+                moveAllToBounds();
+                break;
+        }
+    }
+
+    /**
+     * Show the modal progress dialog until an operation is done.
+     * @param future Operation
+     * @throws Exception Exception thrown by the operation
+     */
+    private void showProgress(CompletableFuture<Void> future) throws Exception {
+        final Progress dialog = progress;
+        future.whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void result, Throwable ex) {
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        dialog.dispose();
+                    }
+                });
+            }
+        });
+        dialog.setVisible(true);
+        await(future);
+    }
+
+    /**
+     * Wait for an operation.
+     * @param future Operation
+     * @throws Exception Exception thrown by the operation
+     */
+    private static void await(CompletableFuture<Void> future) throws Exception {
+        try {
+            future.get();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception)cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Reset the session, close all files
+     */
+    public void close() {
+        ready = false;
+        clearDecodedFrames();
+        if (supBD != null) {
+            supBD.close();
+        }
+        if (supHD != null) {
+            supHD.close();
+        }
+        if (supXml != null) {
+            supXml.close();
+        }
+        if (subDVD != null) {
+            subDVD.close();
+        }
+        if (supDVD != null) {
+            supDVD.close();
+        }
+    }
+
+    /**
+     * Shut down the session (write properties, close files etc.).
+     */
+    public void exit() {
+        configuration.storeConfig();
+        if (prefetchExecutor != null) {
+            prefetchExecutor.shutdownNow();
+        }
+        synchronized (this) {
+            if (operationExecutor != null) {
+                operationExecutor.shutdownNow();
+            }
+        }
+        if (supBD != null) {
+            supBD.close();
+        }
+        if (supHD != null) {
+            supHD.close();
+        }
+        if (supXml != null) {
+            supXml.close();
+        }
+        if (subDVD != null) {
+            subDVD.close();
+        }
+        if (supDVD != null) {
+            supDVD.close();
+        }
+    }
+
+    /**
+     * Read a subtitle stream in a thread and display the progress dialog.
+     * @param fname		File name of subtitle stream to read
+     * @param parent	Parent frame (needed for progress dialog)
+     * @param sid       stream identifier
+     * @throws Exception
+     */
+    public void readStreamThreaded(String fname, JFrame parent, StreamID sid) throws Exception {
+        progress = new Progress(parent);
+        progress.setTitle("Loading");
+        progress.setText("Loading subtitle stream");
+        showProgress(readStreamAsync(fname, sid));
+    }
+
+    /**
+     * Read a subtitle stream on the operation thread of this session.
+     * @param fname File name of subtitle stream to read
+     * @param sid   stream identifier
+     * @return Future completed when the stream is read
+     */
+    public CompletableFuture<Void> readStreamAsync(String fname, StreamID sid) {
+        boolean xml = FilenameUtils.getExtension(fname).equalsIgnoreCase("xml");
+        boolean idx = FilenameUtils.getExtension(fname).equalsIgnoreCase("idx");
+        boolean ifo = FilenameUtils.getExtension(fname).equalsIgnoreCase("ifo");
+
+        fileName = fname;
+        startProgress("reading", new File(fname).length());
+        RunType runType;
+        if (xml || sid == StreamID.XML) {
+            runType = RunType.READXML;
+        } else if (idx || sid == StreamID.DVDSUB || sid == StreamID.IDX) {
+            runType = RunType.READVOBSUB;
+        } else if (ifo || sid == StreamID.IFO) {
+            runType = RunType.READSUPIFO;
+        } else {
+            File ifoFile = new File(FilenameUtils.removeExtension(fname) + ".ifo");
+            if (ifoFile.exists()) {
+                runType = RunType.READSUPIFO;
+            } else {
+                runType = RunType.READSUP;
+            }
+        }
+
+        configuration.setCurrentStreamID(sid);
+        return submit(runType, fname);
+    }
+
+    /**
+     * Write a VobSub or BD-SUP in a thread and display the progress dialog.
+     * @param fname		File name of subtitle stream to create
+     * @param parent	Parent frame (needed for progress dialog)
+     * @throws Exception
+     */
+    public void createSubThreaded(String fname, JFrame parent) throws Exception {
+        progress = new Progress(parent);
+        progress.setTitle("Exporting");
+        OutputMode outputMode = configuration.getOutputMode();
+        if (outputMode == OutputMode.VOBSUB) {
+            progress.setText("Exporting SUB/IDX");
+        } else if (outputMode == OutputMode.BDSUP) {
+            progress.setText("Exporting SUP(BD)");
+        } else if (outputMode == OutputMode.XML) {
+            progress.setText("Exporting XML/PNG");
+        } else {
+            progress.setText("Exporting SUP/IFO");
+        }
+        showProgress(createSubAsync(fname));
+    }
+
+    /**
+     * Write a VobSub or BD-SUP on the operation thread of this session.
+     * @param fname File name of subtitle stream to create
+     * @return Future completed when the stream is written
+     */
+    public CompletableFuture<Void> createSubAsync(String fname) {
+        fileName = fname;
+        startProgress("writing", subtitleStream.getFrameCount());
+        return submit(RunType.CREATESUB, fname);
+    }
+
+    /**
+     * Create the frame individual 4-color palette for VobSub mode.
+     * @param index Index of caption
+     * @param dvdPic DVD subpicture that receives the frame palette and alpha values
+     * @param srcPal Palette of the decoded source caption
+     * @param primaryColorIndex Index of the dominant color of the decoded source caption
+     * @return Palette of the target caption
+     */
+    private Palette determineFramePal(int index, SubPictureDVD dvdPic, Palette srcPal, int primaryColorIndex) {
+        if ((inMode != InputMode.VOBSUB && inMode != InputMode.SUPIFO) || configuration.getPaletteMode() != PaletteMode.KEEP_EXISTING) {
+            // get the primary color from the source palette
+            int rgbSrc[] = srcPal.getRGB(primaryColorIndex);
+
+            // match with primary color from 16 color target palette
+            // note: skip index 0 , primary colors at even positions
+            // special treatment for index 1:  white
+            Palette trgPallete = currentDVDPalette;
+            int minDistance = 0xffffff; // init > 0xff*0xff*3 = 0x02fa03
+            int colIdx = 0;
+            for (int idx=1; idx<trgPallete.getSize(); idx+=2 )  {
+                int rgb[] = trgPallete.getRGB(idx);
+                // distance vector (skip sqrt)
+                int rd = rgbSrc[0]-rgb[0];
+                int gd = rgbSrc[1]-rgb[1];
+                int bd = rgbSrc[2]-rgb[2];
+                int distance = rd*rd+gd*gd+bd*bd;
+                // new minimum distance ?
+                if ( distance < minDistance) {
+                    colIdx = idx;
+                    minDistance = distance;
+                    if (minDistance == 0) {
+                        break;
+                    }
+                }
+                // special treatment for index 1 (white)
+                if (idx == 1) {
+                    idx--; // -> continue with index = 2
+                }
+            }
+
+            // set new frame palette
+            int palFrame[] = new int[4];
+            palFrame[0] = 0;        // black - transparent color
+            palFrame[1] = colIdx;   // primary color
+            if (colIdx == 1) {
+                palFrame[2] = colIdx+2; // special handling: white + dark grey
+            } else {
+                palFrame[2] = colIdx+1; // darker version of primary color
+            }
+            palFrame[3] = 0;        // black - opaque
+
+            dvdPic.setAlpha(DEFAULT_ALPHA);
+            dvdPic.setPal(palFrame);
+
+            return SupDvdUtil.decodePalette(dvdPic, trgPallete, configuration.getAlphaCrop());
+        } else {
+            // use palette from loaded VobSub or SUP/IFO
+            Palette miniPal = new Palette(4, true);
+            int alpha[];
+            int palFrame[];
+            DvdSubtitleStream substreamDvd;
+
+            if (inMode == InputMode.VOBSUB) {
+                substreamDvd = subDVD;
+            } else {
+                substreamDvd = supDVD;
+            }
+
+            alpha = substreamDvd.getFrameAlpha(index);
+            palFrame = substreamDvd.getFramePalette(index);
+
+            for (int i=0; i < 4; i++) {
+                int a = (alpha[i]*0xff)/0xf;
+                if (a >= configuration.getAlphaCrop()) {
+                    miniPal.setARGB(i, currentSourceDVDPalette.getARGB(palFrame[i]));
+                    miniPal.setAlpha(i, a);
+                } else {
+                    miniPal.setARGB(i, 0);
+                }
+            }
+            dvdPic.setAlpha(alpha);
+            dvdPic.setPal(palFrame);
+            return miniPal;
+        }
+    }
+
+    /**
+     * Read BD-SUP or HD-DVD-SUP.
+     * @param fname File name
+     * @throws CoreException
+     */
+    public void readSup(String fname) throws CoreException {
+        ConversionSession previous = bind();
+        try {
+            logger.info("Loading " + fname + "\n");
+            warningCount.set(0);
+            errorCount.set(0);
+            metrics.reset();
+            long start = System.nanoTime();
+
+            selectLanguageByFilename(fname);
+
+            // close existing subtitleStream
+            clearDecodedFrames();
+            if (subtitleStream != null) {
+                subtitleStream.close();
+            }
+
+            // check first two byte to determine whether this is a BD-SUP or HD-DVD-SUP
+            byte id[] = ToolBox.getFileID(fname, 2);
+            if (id != null && id[0] == 0x50 && id[1] == 0x47) {
+                supBD = new SupBD(fname, configuration);
+                subtitleStream = supBD;
+                supHD = null;
+                inMode = InputMode.BDSUP;
+            } else {
+                supHD = new SupHD(fname, configuration);
+                subtitleStream = supHD;
+                supBD = null;
+                inMode = InputMode.HDDVDSUP;
+            }
+
+            // decode first frame
+            subtitleStream.decode(0);
+            subVobTrg = new SubPictureDVD();
+
+            // automatically set luminance thresholds for VobSub conversion
+            setLuminanceThresholdFromCaption();
+
+            // try to detect source frame rate
+            if (subtitleStream == supBD) {
+                setFpsSrcFromStream(supBD.getFps(0));
+            } else {
+                // for HD-DVD we need to guess
+                useBT601 = false;
+                configuration.setFpsSrcCertain(false);
+                configuration.setFpsSrc(Framerate.FPS_23_976.getValue());
+            }
+            metrics.setCaptionsRead(subtitleStream.getFrameCount());
+            metrics.addBytesRead(new File(fname).length());
+            metrics.addSince(ConversionMetrics.Phase.PARSE, start);
+        } finally {
+            unbind(previous);
+        }
+    }
+
+    /**
+     * Try to find matching language idx if filename contains language string.
+     * @param fname File name
+     */
+    private void selectLanguageByFilename(String fname) {
+        String fnl = FilenameUtils.getName(fname.toLowerCase());
+        for (int i=0; i < LANGUAGES.length; i++) {
+            if (fnl.contains(LANGUAGES[i][0].toLowerCase())) {
+                configuration.setLanguageIdx(i);
+                logger.info("Selected language '" + LANGUAGES[i][0] + " (" + LANGUAGES[i][1] + ")' by filename\n");
+                break;
+            }
+        }
+    }
+
+    /**
+     * Set the luminance thresholds for VobSub conversion from the primary color of the last decoded caption.
+     */
+    private void setLuminanceThresholdFromCaption() {
+        int maxLum = subtitleStream.getPalette().getY()[subtitleStream.getPrimaryColorIndex()] & 0xff;
+        int[] luminanceThreshold = new int[2];
+        configuration.setLuminanceThreshold(luminanceThreshold);
+        if (maxLum > 30) {
+            luminanceThreshold[0] = maxLum*2/3;
+            luminanceThreshold[1] = maxLum/3;
+        } else {
+            luminanceThreshold[0] = 210;
+            luminanceThreshold[1] = 160;
+        }
+    }
+
+    /**
+     * Use the frame rate stored in a BD-SUP as source frame rate.
+     * @param fps Frame rate of the first caption
+     */
+    private void setFpsSrcFromStream(double fps) {
+        configuration.setFpsSrc(fps);
+        configuration.setFpsSrcCertain(true);
+        if (configuration.isKeepFps()) {
+            configuration.setFpsTrg(configuration.getFPSSrc());
+        }
+    }
+
+    /**
+     * Read Sony BDN XML file.
+     * @param fname File name
+     * @throws CoreException
+     */
+    public void readXml(String fname) throws CoreException {
+        ConversionSession previous = bind();
+        try {
+            logger.info("Loading " + fname + "\n");
+            warningCount.set(0);
+            errorCount.set(0);
+            metrics.reset();
+            long start = System.nanoTime();
+
+            // close existing subtitleStream
+            clearDecodedFrames();
+            if (subtitleStream != null) {
+                subtitleStream.close();
+            }
+
+            supXml = new SupXml(fname, configuration);
+            subtitleStream = supXml;
+
+            inMode = InputMode.XML;
+
+            // decode first frame
+            subtitleStream.decode(0);
+            subVobTrg = new SubPictureDVD();
+
+            // automatically set luminance thresholds for VobSub conversion
+            setLuminanceThresholdFromCaption();
+
+            // find language idx
+            for (int i=0; i < LANGUAGES.length; i++) {
+                if (LANGUAGES[i][2].equalsIgnoreCase(supXml.getLanguage())) {
+                    configuration.setLanguageIdx(i);
+                    break;
+                }
+            }
+
+            // set frame rate
+            configuration.setFpsSrc(supXml.getFps());
+            configuration.setFpsSrcCertain(true);
+            if (configuration.isKeepFps()) {
+                configuration.setFpsTrg(configuration.getFPSSrc());
+            }
+            // the images are read when the captions are decoded, their size is counted here anyway
+            long bytes = new File(fname).length();
+            for (int i=0; i < supXml.getFrameCount(); i++) {
+                bytes += new File(((SubPictureXml)supXml.getSubPicture(i)).getFileName()).length();
+            }
+            metrics.setCaptionsRead(supXml.getFrameCount());
+            metrics.addBytesRead(bytes);
+            metrics.addSince(ConversionMetrics.Phase.PARSE, start);
+        } finally {
+            unbind(previous);
+        }
+    }
+
+    /**
+     * Read VobSub.
+     * @param fname File name
+     * @throws CoreException
+     */
+    public void readVobSub(String fname) throws CoreException {
+        readDVDSubstream(fname, true);
+    }
+
+    /**
+     * Read SUP/IFO.
+     * @param fname File name
+     * @throws CoreException
+     */
+    public void readSupIfo(String fname) throws CoreException {
+        readDVDSubstream(fname, false);
+    }
+
+    /**
+     * Read VobSub or SUP/IFO.
+     * @param fname File name
+     * @param isVobSub True if SUB/IDX, false if SUP/IFO
+     * @throws CoreException
+     */
+    private void readDVDSubstream(String fname, boolean isVobSub) throws CoreException {
+        ConversionSession previous = bind();
+        try {
+            logger.info("Loading " + fname + "\n");
+            warningCount.set(0);
+            errorCount.set(0);
+            metrics.reset();
+            long start = System.nanoTime();
+
+            // close existing subtitleStream
+            clearDecodedFrames();
+            if (subtitleStream != null) {
+                subtitleStream.close();
+            }
+
+            DvdSubtitleStream substreamDvd;
+            String fnI;
+            String fnS;
+
+            if (isVobSub) {
+                // SUB/IDX
+                if (configuration.getCurrentStreamID() == StreamID.DVDSUB) {
+                    fnS = fname;
+                    fnI = FilenameUtils.removeExtension(fname) + ".idx";
+                } else {
+                    fnI = fname;
+                    fnS = FilenameUtils.removeExtension(fname) + ".sub";
+                }
+                subDVD = new SubDvd(fnS, fnI, configuration);
+                subtitleStream = subDVD;
+                inMode = InputMode.VOBSUB;
+                substreamDvd = subDVD;
+            } else {
+                // SUP/IFO
+                if (FilenameUtils.getExtension(fname).equalsIgnoreCase("ifo") ) {
+                    fnI = fname;
+                    fnS = FilenameUtils.removeExtension(fname) + ".sup";
+                } else {
+                    fnI = FilenameUtils.removeExtension(fname) + ".ifo";
+                    fnS = fname;
+                }
+                supDVD = new SupDvd(fnS, fnI, configuration);
+                subtitleStream = supDVD;
+                inMode = InputMode.SUPIFO;
+                substreamDvd = supDVD;
+            }
+
+            // decode first frame
+            subtitleStream.decode(0);
+            subVobTrg = new SubPictureDVD();
+            defaultSourceDVDPalette = substreamDvd.getSrcPalette();
+            currentSourceDVDPalette = new Palette(defaultSourceDVDPalette);
+
+            // automatically set luminance thresholds for VobSub conversion
+            int primColIdx = subtitleStream.getPrimaryColorIndex();
+            int yMax = subtitleStream.getPalette().getY()[primColIdx] & 0xff;
+            int[] luminanceThreshold = new int[2];
+            configuration.setLuminanceThreshold(luminanceThreshold);
+            if (yMax > 10) {
+                // find darkest opaque color
+                int yMin = yMax;
+                for (int i=0; i < 4; i++) {
+                    int y = subtitleStream.getPalette().getY()[i] & 0xff;
+                    int a = subtitleStream.getPalette().getAlpha(i);
+                    if (y < yMin && a > configuration.getAlphaThreshold()) {
+                        yMin = y;
+                    }
+                }
+                luminanceThreshold[0] = yMin + (yMax-yMin)*9/10;
+                luminanceThreshold[1] = yMin + (yMax-yMin)*3/10;
+            } else {
+                luminanceThreshold[0] = 210;
+                luminanceThreshold[1] = 160;
+            }
+
+            configuration.setLanguageIdx(substreamDvd.getLanguageIndex());
+
+            // set frame rate
+            int h = subtitleStream.getSubPicture(0).getHeight(); //subtitleStream.getBitmap().getHeight();
+            switch (h) {
+                case 480:
+                    configuration.setFpsSrc(Framerate.NTSC.getValue());
+                    useBT601 = true;
+                    configuration.setFpsSrcCertain(true);
+                    break;
+                case 576:
+                    configuration.setFpsSrc(Framerate.PAL.getValue());
+                    useBT601 = true;
+                    configuration.setFpsSrcCertain(true);
+                    break;
+                default:
+                    useBT601 = false;
+                    configuration.setFpsSrc(Framerate.FPS_23_976.getValue());
+                    configuration.setFpsSrcCertain(false);
+            }
+            metrics.setCaptionsRead(subtitleStream.getFrameCount());
+            metrics.addBytesRead(new File(fnS).length() + new File(fnI).length());
+            metrics.addSince(ConversionMetrics.Phase.PARSE, start);
+        } finally {
+            unbind(previous);
+        }
+    }
+
+
+    /**
+     * Check start and end time, fix overlaps etc.
+     * @param idx			Index of subpicture (just for display)
+     * @param subPic		Subpicture to check/fix
+     * @param subPicNext	Next subpicture
+     * @param subPicPrev	Previous subpicture
+     */
+    private void validateTimes(int idx, SubPicture subPic, SubPicture subPicNext, SubPicture subPicPrev) {
+        //long tpf = (long)(90000/fpsTrg); // time per frame
+        long startTime = subPic.getStartTime();
+        long endTime = subPic.getEndTime();
+        final long delay = 5000 * 90;  // default delay for missing end time (5 seconds)
+
+        idx += 1; // only used for display
+
+        // get end time of last frame
+        long lastEndTime = subPicPrev != null ? subPicPrev.getEndTime() : -1;
+
+        if (startTime < lastEndTime) {
+            logger.warn("start time of frame " + idx + " < end of last frame -> fixed\n");
+            startTime = lastEndTime;
+        }
+
+        // get start time of next frame
+        long nextStartTime = subPicNext != null ? subPicNext.getStartTime() : 0;
+
+        if (nextStartTime == 0) {
+            if (endTime > startTime) {
+                nextStartTime = endTime;
+            } else {
+                // completely messed up:
+                // end time and next start time are invalid
+                nextStartTime = startTime + delay;
+            }
+        }
+
+        if (endTime <= startTime) {
+            if (endTime == 0) {
+                logger.warn("missing end time of frame " + idx + " -> fixed\n");
+            } else {
+                logger.warn("end time of frame " + idx + " <= start time -> fixed\n");
+            }
+            endTime = startTime + delay;
+            if (endTime > nextStartTime) {
+                endTime = nextStartTime;
+            }
+        } else if (endTime > nextStartTime) {
+            logger.warn("end time of frame " + idx + " > start time of next frame -> fixed\n");
+            endTime = nextStartTime;
+        }
+
+        int minTimePTS = configuration.getMinTimePTS();
+        if (endTime - startTime < minTimePTS) {
+            if (configuration.getFixShortFrames()) {
+                endTime = startTime + minTimePTS;
+                if (endTime > nextStartTime) {
+                    endTime = nextStartTime;
+                }
+                logger.warn("duration of frame " + idx + " was shorter than " + (ToolBox.formatDouble(minTimePTS / 90.0)) + "ms -> fixed\n");
+            } else {
+                logger.warn("duration of frame " + idx + " is shorter than " + (ToolBox.formatDouble(minTimePTS / 90.0)) + "ms\n");
+            }
+        }
+
+        if (subPic.getStartTime() != startTime) {
+            subPic.setStartTime(SubtitleUtils.syncTimePTS(startTime, configuration.getFpsTrg(), configuration.getFpsTrg()));
+        }
+        if (subPic.getEndTime() != endTime) {
+            subPic.setEndTime(SubtitleUtils.syncTimePTS(endTime, configuration.getFpsTrg(), configuration.getFpsTrg()));
+        }
+    }
+
+    /**
+     * Update width, height and offsets of target SubPicture.<br>
+     * This is needed if cropping captions during decode (i.e. the source image size changes).
+     * @param index Index of caption
+     * @return true: image size has changed, false: image size didn't change.
+     */
+    private boolean updateTrgPic(int index) {
+        return updateTrgPic(subtitleStream.getSubPicture(index), subPictures[index]);
+    }
+
+    /**
+     * Update width, height and offsets of target SubPicture from its (decoded) source SubPicture.
+     * @param picSrc Source subpicture
+     * @param picTrg Target subpicture
+     * @return true: image size has changed, false: image size didn't change.
+     */
+    private boolean updateTrgPic(SubPicture picSrc, SubPicture picTrg) {
+        double scaleX = (double) picTrg.getWidth() / picSrc.getWidth();
+        double scaleY = (double) picTrg.getHeight() / picSrc.getHeight();
+        double fx;
+        double fy;
+        if (configuration.getApplyFreeScale()) {
+            fx = configuration.getFreeScaleFactorX();
+            fy = configuration.getFreeScaleFactorY();
+        } else {
+            fx = 1.0;
+            fy = 1.0;
+        }
+
+        int wOld = picTrg.getImageWidth();
+        int hOld = picTrg.getImageHeight();
+        int wNew = (int)(picSrc.getImageWidth()  * scaleX * fx + 0.5);
+        if (wNew < MIN_IMAGE_DIMENSION) {
+            wNew = picSrc.getImageWidth();
+        } else if (wNew > picTrg.getWidth()) {
+            wNew = picTrg.getWidth();
+        }
+        int hNew = (int)(picSrc.getImageHeight() * scaleY * fy + 0.5);
+        if (hNew < MIN_IMAGE_DIMENSION) {
+            hNew = picSrc.getImageHeight();
+        } else if (hNew > picTrg.getHeight()) {
+            hNew = picTrg.getHeight();
+        }
+        picTrg.setImageWidth(wNew);
+        picTrg.setImageHeight(hNew);
+        if (wNew != wOld) {
+            int xOfs = (int)(picSrc.getXOffset() * scaleX + 0.5);
+            int spaceSrc = (int)((picSrc.getWidth() -picSrc.getImageWidth())*scaleX + 0.5);
+            int spaceTrg = picTrg.getWidth() - wNew;
+            xOfs += (spaceTrg - spaceSrc) / 2;
+            if (xOfs < 0) {
+                xOfs = 0;
+            } else if (xOfs+wNew > picTrg.getWidth()) {
+                xOfs = picTrg.getWidth() - wNew;
+            }
+            picTrg.setOfsX(xOfs);
+        }
+        if (hNew != hOld) {
+            int yOfs = (int)(picSrc.getYOffset() * scaleY + 0.5);
+            int spaceSrc = (int)((picSrc.getHeight() -picSrc.getImageHeight())*scaleY + 0.5);
+            int spaceTrg = picTrg.getHeight() - hNew;
+            yOfs += (spaceTrg - spaceSrc) / 2;
+            if (yOfs+hNew > picTrg.getHeight()) {
+                yOfs = picTrg.getHeight() - hNew;
+            }
+            picTrg.setOfsY(yOfs);
+        }
+        // was image cropped?
+        return (wNew != wOld) || (hNew != hOld);
+    }
+
+    /**
+     * Create a copy of the loaded subpicture information frames.<br>
+     * Apply scaling and speedup/delay to the copied frames.<br>
+     * Sync frames to target fps.
+     */
+    public void scanSubtitles() {
+        long start = System.nanoTime();
+        boolean convertFPS = configuration.getConvertFPS();
+        subPictures = new SubPicture[subtitleStream.getFrameCount()];
+        double factTS = convertFPS ? configuration.getFPSSrc() / configuration.getFpsTrg() : 1.0;
+
+        // change target resolution to source resolution if no conversion is needed
+        if (!configuration.getConvertResolution() && getNumFrames() > 0) {
+            configuration.setOutputResolution(getResolutionForDimension(getSubPictureSrc(0).getWidth(), getSubPictureSrc(0).getHeight()));
+        }
+
+        double fx;
+        double fy;
+        if (configuration.getApplyFreeScale()) {
+            fx = configuration.getFreeScaleFactorX();
+            fy = configuration.getFreeScaleFactorY();
+        } else {
+            fx = 1.0;
+            fy = 1.0;
+        }
+
+        // first run: clone source subpics, apply speedup/down,
+        SubPicture picSrc;
+        for (int i=0; i<subPictures.length; i++) {
+            subPictures[i] = createTargetPicture(subtitleStream.getSubPicture(i), factTS, fx, fy);
+        }
+
+        // 2nd run: validate times
+        SubPicture picPrev = null;
+        SubPicture picNext;
+        for (int i=0; i<subPictures.length; i++) {
+            if (i < subPictures.length-1) {
+                picNext = subPictures[i+1];
+            } else {
+                picNext = null;
+            }
+            picSrc = subPictures[i];
+            validateTimes(i, subPictures[i], picNext, picPrev);
+            picPrev = picSrc;
+        }
+        metrics.addSince(ConversionMetrics.Phase.SCAN, start);
+    }
+
+    /**
+     * Create the target subpicture for a source subpicture.<br>
+     * Apply speedup/delay, sync the times to the target fps, set the forced flag and scale size and offsets.
+     * @param picSrc Source subpicture
+     * @param factTS Factor applied to the time stamps (fps conversion)
+     * @param fx     Free scaling factor in X direction
+     * @param fy     Free scaling factor in Y direction
+     * @return Target subpicture (times not validated yet)
+     */
+    private SubPicture createTargetPicture(SubPicture picSrc, double factTS, double fx, double fy) {
+        boolean convertFPS = configuration.getConvertFPS();
+        SubPicture picTrg = new SubPicture(picSrc);
+        long ts = picSrc.getStartTime();
+        long te = picSrc.getEndTime();
+        // copy time stamps and apply speedup/speeddown
+        int delayPTS = configuration.getDelayPTS();
+        if (!convertFPS) {
+            picTrg.setStartTime(ts + delayPTS);
+            picTrg.setEndTime(te + delayPTS);
+        } else {
+            picTrg.setStartTime((long) (ts * factTS + 0.5) + delayPTS);
+            picTrg.setEndTime((long) (te * factTS + 0.5) + delayPTS);
+        }
+        // synchronize to target frame rate
+        picTrg.setStartTime(SubtitleUtils.syncTimePTS(picTrg.getStartTime(), configuration.getFpsTrg(), configuration.getFpsTrg()));
+        picTrg.setEndTime(SubtitleUtils.syncTimePTS(picTrg.getEndTime(), configuration.getFpsTrg(), configuration.getFpsTrg()));
+
+        // set forced flag
+        switch (configuration.getForceAll()) {
+            case SET:
+                picTrg.setForced(true);
+                break;
+            case CLEAR:
+                picTrg.setForced(false);
+                break;
+        }
+
+        double scaleX;
+        double scaleY;
+        if (configuration.getConvertResolution()) {
+            // adjust image sizes and offsets
+            // determine scaling factors
+            picTrg.setWidth(configuration.getOutputResolution().getDimensions()[0]);
+            picTrg.setHeight(configuration.getOutputResolution().getDimensions()[1]);
+            scaleX = (double) picTrg.getWidth() / picSrc.getWidth();
+            scaleY = (double) picTrg.getHeight() / picSrc.getHeight();
+        } else {
+            picTrg.setWidth(picSrc.getWidth());
+            picTrg.setHeight(picSrc.getHeight());
+            scaleX = 1.0;
+            scaleY = 1.0;
+        }
+        int w = (int)(picSrc.getImageWidth()  * scaleX * fx + 0.5);
+        if (w < MIN_IMAGE_DIMENSION) {
+            w = picSrc.getImageWidth();
+        } else if (w > picTrg.getWidth()) {
+            w = picTrg.getWidth();
+        }
+
+        int h = (int)(picSrc.getImageHeight() * scaleY * fy + 0.5);
+        if (h < MIN_IMAGE_DIMENSION) {
+            h = picSrc.getImageHeight();
+        } else if (h > picTrg.getHeight()) {
+            h = picTrg.getHeight();
+        }
+        picTrg.setImageWidth(w);
+        picTrg.setImageHeight(h);
+
+        int xOfs = (int)(picSrc.getXOffset() * scaleX + 0.5);
+        int spaceSrc = (int)((picSrc.getWidth() -picSrc.getImageWidth())*scaleX + 0.5);
+        int spaceTrg = picTrg.getWidth() - w;
+        xOfs += (spaceTrg - spaceSrc) / 2;
+        if (xOfs < 0) {
+            xOfs = 0;
+        } else if (xOfs+w > picTrg.getWidth()) {
+            xOfs = picTrg.getWidth() - w;
+        }
+        picTrg.setOfsX(xOfs);
+
+        int yOfs = (int)(picSrc.getYOffset() * scaleY + 0.5);
+        spaceSrc = (int)((picSrc.getHeight() -picSrc.getImageHeight())*scaleY + 0.5);
+        spaceTrg = picTrg.getHeight() - h;
+        yOfs += (spaceTrg - spaceSrc) / 2;
+        if (yOfs+h > picTrg.getHeight()) {
+            yOfs = picTrg.getHeight() - h;
+        }
+        picTrg.setOfsY(yOfs);
+        return picTrg;
+    }
+
+    /**
+     * Same as scanSubtitles, but consider existing frame copies.<br>
+     * Times and X/Y offsets of existing frames are converted to new settings.
+     * @param resOld        Resolution of existing frames
+     * @param fpsTrgOld     Target fps of existing frames
+     * @param delayOld      Delay of existing frames
+     * @param convertFpsOld ConverFPS setting for existing frames
+     * @param fsXOld        Old free scaling factor in X direction
+     * @param fsYOld        Old free scaling factor in Y direction
+     */
+    public void reScanSubtitles(Resolution resOld, double fpsTrgOld, int delayOld, boolean convertFpsOld, double fsXOld, double fsYOld) {
+        //SubPicture subPicturesOld[] = subPictures;
+        //subPictures = new SubPicture[sup.getNumFrames()];
+        SubPicture picOld;
+        SubPicture picSrc;
+        double factTS;
+        double factX;
+        double factY;
+        double fsXNew;
+        double fsYNew;
+
+        if (configuration.getApplyFreeScale()) {
+            fsXNew = configuration.getFreeScaleFactorX();
+            fsYNew = configuration.getFreeScaleFactorY();
+        } else {
+            fsXNew = 1.0;
+            fsYNew = 1.0;
+        }
+
+        boolean convertFPS = configuration.getConvertFPS();
+        double fpsTrg = configuration.getFpsTrg();
+        double fpsSrc = configuration.getFPSSrc();
+        if (convertFPS && !convertFpsOld) {
+            factTS = fpsSrc / fpsTrg;
+        } else if (!convertFPS && convertFpsOld) {
+            factTS = fpsTrgOld / fpsSrc;
+        } else if (convertFPS && convertFpsOld && (fpsTrg != fpsTrgOld)) {
+            factTS = fpsTrgOld / fpsTrg;
+        } else {
+            factTS = 1.0;
+        }
+
+        // change target resolution to source resolution if no conversion is needed
+        if (!configuration.getConvertResolution() && getNumFrames() > 0) {
+            configuration.setOutputResolution(getResolutionForDimension(getSubPictureSrc(0).getWidth(), getSubPictureSrc(0).getHeight()));
+        }
+
+        if (resOld != configuration.getOutputResolution()) {
+            int rOld[] = resOld.getDimensions();
+            int rNew[] = configuration.getOutputResolution().getDimensions();
+            factX = (double)rNew[0]/(double)rOld[0];
+            factY = (double)rNew[1]/(double)rOld[1];
+        } else {
+            factX = 1.0;
+            factY = 1.0;
+        }
+
+        // first run: clone source subpics, apply speedup/down,
+        for (int i=0; i < subPictures.length; i++) {
+            picOld = subPictures[i];
+            picSrc = subtitleStream.getSubPicture(i);
+            subPictures[i] = new SubPicture(picOld);
+
+            // set forced flag
+            switch (configuration.getForceAll()) {
+                case SET:
+                    subPictures[i].setForced(true);
+                    break;
+                case CLEAR:
+                    subPictures[i].setForced(false);
+                    break;
+            }
+
+            long ts = picOld.getStartTime();
+            long te = picOld.getEndTime();
+            // copy time stamps and apply speedup/speeddown
+            int delayPTS = configuration.getDelayPTS();
+            if (factTS == 1.0) {
+                subPictures[i].setStartTime(ts - delayOld + delayPTS);
+                subPictures[i].setEndTime(te - delayOld + delayPTS);
+            } else {
+                subPictures[i].setStartTime((long)(ts * factTS + 0.5) - delayOld + delayPTS);
+                subPictures[i].setEndTime((long)(te * factTS + 0.5) - delayOld + delayPTS);
+            }
+            // synchronize to target frame rate
+            subPictures[i].setStartTime(SubtitleUtils.syncTimePTS(subPictures[i].getStartTime(), fpsTrg, fpsTrg));
+            subPictures[i].setEndTime(SubtitleUtils.syncTimePTS(subPictures[i].getEndTime(), fpsTrg, fpsTrg));
+            // adjust image sizes and offsets
+            // determine scaling factors
+            double scaleX;
+            double scaleY;
+            if (configuration.getConvertResolution()) {
+                subPictures[i].setWidth(configuration.getOutputResolution().getDimensions()[0]);
+                subPictures[i].setHeight(configuration.getOutputResolution().getDimensions()[1]);
+                scaleX = (double) subPictures[i].getWidth() / picSrc.getWidth();
+                scaleY = (double) subPictures[i].getHeight() / picSrc.getHeight();
+            } else {
+                subPictures[i].setWidth(picSrc.getWidth());
+                subPictures[i].setHeight(picSrc.getHeight());
+                scaleX = 1.0;
+                scaleY = 1.0;
+            }
+
+            int w = (int)(picSrc.getImageWidth()  * scaleX * fsXNew + 0.5);
+            if (w < MIN_IMAGE_DIMENSION) {
+                w = picSrc.getImageWidth();
+            } else if (w > subPictures[i].getWidth()) {
+                w = subPictures[i].getWidth();
+                fsXNew = (double)w / (double)picSrc.getImageWidth() / scaleX;
+            }
+            int h = (int)(picSrc.getImageHeight() * scaleY * fsYNew + 0.5);
+            if (h < MIN_IMAGE_DIMENSION) {
+                h = picSrc.getImageHeight();
+            } else if (h > subPictures[i].getHeight()) {
+                h = subPictures[i].getHeight();
+                fsYNew = (double)h / (double)picSrc.getImageHeight() / scaleY;
+            }
+
+            subPictures[i].setImageWidth(w);
+            subPictures[i].setImageHeight(h);
+
+            // correct ratio change
+            int xOfs = (int)(picOld.getXOffset()*factX + 0.5);
+            if (fsXNew != fsXOld) {
+                int spaceTrgOld = (int)((picOld.getWidth() - picOld.getImageWidth())*factX + 0.5);
+                int spaceTrg    = subPictures[i].getWidth() - w;
+                xOfs += (spaceTrg - spaceTrgOld) / 2;
+            }
+            if (xOfs < 0) {
+                xOfs = 0;
+            } else if (xOfs+w > subPictures[i].getWidth()) {
+                xOfs = subPictures[i].getWidth() - w;
+            }
+            subPictures[i].setOfsX(xOfs);
+
+            int yOfs = (int)(picOld.getYOffset()*factY + 0.5);
+            if (fsYNew != fsYOld) {
+                int spaceTrgOld = (int)((picOld.getHeight() - picOld.getImageHeight())*factY + 0.5);
+                int spaceTrg = subPictures[i].getHeight() - h;
+                yOfs += (spaceTrg - spaceTrgOld) / 2;
+            }
+            if (yOfs < 0) {
+                yOfs = 0;
+            }
+            if (yOfs+h > subPictures[i].getHeight()) {
+                yOfs = subPictures[i].getHeight() - h;
+            }
+            subPictures[i].setOfsY(yOfs);
+
+            // fix erase patches
+            double fx = factX * fsXNew / fsXOld;
+            double fy = factY * fsYNew / fsYOld;
+            List<ErasePatch> erasePatches = subPictures[i].getErasePatch();
+            if (!erasePatches.isEmpty()) {
+                for (int j = 0; j < erasePatches.size(); j++) {
+                    ErasePatch ep = erasePatches.get(j);
+                    int x = (int)(ep.x * fx + 0.5);
+                    int y = (int)(ep.y * fy + 0.5);
+                    int width = (int)(ep.width * fx + 0.5);
+                    int height = (int)(ep.height * fy + 0.5);
+                    erasePatches.set(j, new ErasePatch(x, y, width, height));
+                }
+            }
+        }
+
+        // 2nd run: validate times (not fully necessary, but to avoid overlap due to truncation
+        SubPicture subPicPrev = null;
+        SubPicture subPicNext;
+
+        for (int i=0; i<subPictures.length; i++) {
+            if (i < subPictures.length-1) {
+                subPicNext = subPictures[i+1];
+            } else {
+                subPicNext = null;
+            }
+
+            picOld = subPictures[i];
+            validateTimes(i, subPictures[i], subPicNext, subPicPrev);
+            subPicPrev = picOld;
+        }
+    }
+
+    /**
+     * Convert source subpicture image to target subpicture image.
+     * @param index			Index of subtitle to convert
+     * @param displayNum	Subtitle number to display (needed for forced subs)
+     * @param displayMax	Maximum subtitle number to display (needed for forced subs)
+     * @throws CoreException
+     */
+    public void convertSup(int index, int displayNum, int displayMax) throws CoreException{
+        convertSup(index, displayNum, displayMax, false);
+    }
+
+    /**
+     * Convert source subpicture image to target subpicture image.
+     * @param index			Index of subtitle to convert
+     * @param displayNum	Subtitle number to display (needed for forced subs)
+     * @param displayMax	Maximum subtitle number to display (needed for forced subs)
+     * @param skipScaling   true: skip bitmap scaling and palette transformation (used for moving captions)
+     * @throws CoreException
+     */
+    private void convertSup(int index, int displayNum, int displayMax, boolean skipScaling) throws CoreException{
+        ConvertedFrame frame = convertFrame(index, displayNum, displayMax, skipScaling);
+        synchronized (semaphore) {
+            if (frame.dvdPicture != null) {
+                subVobTrg = frame.dvdPicture;
+                trgPal = frame.palette;
+            }
+            if (!skipScaling) {
+                trgBitmapUnpatched = frame.bitmapUnpatched;
+                trgBitmap = frame.bitmap;
+                trgPal = frame.palette;
+            }
+        }
+    }
+
+    /**
+     * Decode a source caption or take it from the cache of decoded captions.<br>
+     * Must be called while holding the semaphore. Captions are only cached in GUI mode, an export
+     * from the command line decodes every caption once anyway.
+     * @param index Index of caption
+     * @return Decoded caption
+     * @throws CoreException
+     */
+    private DecodedFrameCache.Entry decodeSrc(int index) throws CoreException {
+        DecodedFrameCache.Entry entry = getDecodedFrame(index);
+        srcBitmapDecoded = entry.bitmap;
+        srcPaletteDecoded = entry.palette;
+        return entry;
+    }
+
+    /**
+     * Decode a source caption or take it from the cache of decoded captions without changing the
+     * caption used for display. Must be called while holding the semaphore.
+     * @param index Index of caption
+     * @return Decoded caption
+     * @throws CoreException
+     */
+    private DecodedFrameCache.Entry getDecodedFrame(int index) throws CoreException {
+        List<Object> settings = getDecodeSettings(index);
+        boolean useCache = !configuration.isCliMode() || globalPalettes != null;
+        DecodedFrameCache.Entry entry = null;
+        if (useCache) {
+            decodedFrameCache.setBudget(configuration.getDecodeCacheSize() * 1024L * 1024L);
+            entry = decodedFrameCache.get(index, settings);
+        }
+        if (entry == null) {
+            long start = System.nanoTime();
+            subtitleStream.decode(index);
+            metrics.addSince(ConversionMetrics.Phase.DECODE, start);
+            entry = new DecodedFrameCache.Entry(subtitleStream.getBitmap(), subtitleStream.getPalette(), subtitleStream.getPrimaryColorIndex(), settings);
+            if (useCache) {
+                decodedFrameCache.put(index, entry);
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Forget all decoded source captions, e.g. because another stream is loaded.
+     */
+    private void clearDecodedFrames() {
+        synchronized (semaphore) {
+            decodedFrameCache.clear();
+            srcBitmapDecoded = null;
+            srcPaletteDecoded = null;
+            // stop prefetching and drop captions converted from the old stream or with the old palette
+            prefetchGeneration++;
+            streamGeneration++;
+            prefetchedFrames.clear();
+        }
+    }
+
+    /**
+     * Collect all settings the decoded source caption depends on.
+     * @param index Index of caption
+     * @return Settings to compare with the ones of a cached caption
+     */
+    private List<Object> getDecodeSettings(int index) {
+        List<Object> settings = new ArrayList<Object>();
+        settings.add(configuration.isSwapCrCb());
+        settings.add(configuration.getAlphaCrop());
+        settings.add(configuration.getAlphaThreshold());
+        settings.add(useBT601);
+        settings.add(configuration.getQuantizer());
+        if (inMode == InputMode.VOBSUB || inMode == InputMode.SUPIFO) {
+            // the frame palette and alpha values can be edited in place
+            DvdSubtitleStream substreamDvd = (inMode == InputMode.VOBSUB) ? subDVD : supDVD;
+            for (int value : substreamDvd.getFramePalette(index)) {
+                settings.add(value);
+            }
+            for (int value : substreamDvd.getFrameAlpha(index)) {
+                settings.add(value);
+            }
+        }
+        return settings;
+    }
+
+    /**
+     * Collect all inputs of scaling and palette conversion of a decoded source caption.
+     * @param decoded  Decoded source caption
+     * @param framePal Frame palette for DVD output, else null
+     * @param w        Image width of the source caption
+     * @param h        Image height of the source caption
+     * @param picTrg   Target subpicture
+     * @return Settings to compare with the ones of a prefetched caption
+     */
+    private List<Object> getConversionSettings(DecodedFrameCache.Entry decoded, Palette framePal, int w, int h, SubPicture picTrg) {
+        List<Object> settings = new ArrayList<Object>();
+        settings.add(decoded.settings);
+        settings.add(inMode);
+        settings.add(configuration.getOutputMode());
+        settings.add(configuration.getPaletteMode());
+        settings.add(configuration.getScalingFilter());
+        settings.add(configuration.getQuantizer());
+        for (int value : configuration.getLuminanceThreshold()) {
+            settings.add(value);
+        }
+        settings.add(w);
+        settings.add(h);
+        settings.add(picTrg.getImageWidth());
+        settings.add(picTrg.getImageHeight());
+        for (ErasePatch ep : picTrg.getErasePatch()) {
+            settings.add(ep.x);
+            settings.add(ep.y);
+            settings.add(ep.width);
+            settings.add(ep.height);
+        }
+        if (framePal != null) {
+            settings.add(framePal.usesBT601());
+            for (int i = 0; i < framePal.getSize(); i++) {
+                settings.add(framePal.getARGB(i));
+            }
+        }
+        return settings;
+    }
+
+    /**
+     * Convert the captions around the given one in the background, so stepping through the captions
+     * in the GUI doesn't have to wait for scaling. Work still pending for an earlier request is dropped.
+     * @param index Index of the caption currently displayed
+     */
+    public void prefetchCaptions(int index) {
+        int count = configuration.getPrefetchCaptions();
+        synchronized (semaphore) {
+            prefetchGeneration++;
+            prefetchCenter = index;
+            if (prefetchTask != null) {
+                prefetchTask.cancel(false);
+                prefetchTask = null;
+            }
+            Iterator<Integer> it = prefetchedFrames.keySet().iterator();
+            while (it.hasNext()) {
+                if (Math.abs(it.next() - index) > count) {
+                    it.remove();
+                }
+            }
+            if (count <= 0 || configuration.isCliMode() || subtitleStream == null) {
+                return;
+            }
+            if (prefetchExecutor == null) {
+                prefetchExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "Caption prefetch");
+                        thread.setDaemon(true);
+                        thread.setPriority(Thread.MIN_PRIORITY);
+                        return thread;
+                    }
+                });
+            }
+            prefetchTask = prefetchExecutor.submit(new PrefetchTask(index, count, prefetchGeneration));
+        }
+    }
+
+    /**
+     * @return Number of converted captions kept from prefetching
+     */
+    int getPrefetchedCount() {
+        synchronized (semaphore) {
+            return prefetchedFrames.size();
+        }
+    }
+
+    /**
+     * Convert one caption in the background and keep it for display.
+     * @param index      Index of caption
+     * @param count      Number of captions prefetched before and after the displayed one
+     * @param generation Prefetch request this is done for
+     * @throws CoreException
+     */
+    private void prefetchFrame(int index, int count, int generation) throws CoreException {
+        ConvertedFrame frame = new ConvertedFrame();
+        Bitmap srcBitmap;
+        Palette srcPalette;
+        int w, h;
+        SubPicture picTrg;
+        int streamGen;
+        synchronized (semaphore) {
+            // the stream may have been replaced or the request superseded while waiting for the semaphore
+            if (generation != prefetchGeneration || subPictures == null || index < 0 || index >= subPictures.length || srcBitmapDecoded == null) {
+                return;
+            }
+            streamGen = streamGeneration;
+            SubPicture subPic = subtitleStream.getSubPicture(index);
+            DecodedFrameCache.Entry decoded = getDecodedFrame(index);
+            srcBitmap = decoded.bitmap;
+            srcPalette = decoded.palette;
+            w = subPic.getImageWidth();
+            h = subPic.getImageHeight();
+            OutputMode outputMode = configuration.getOutputMode();
+            if (outputMode == OutputMode.VOBSUB || outputMode == OutputMode.SUPIFO) {
+                frame.palette = determineFramePal(index, new SubPictureDVD(), srcPalette, decoded.primaryColorIndex);
+            }
+            updateTrgPic(index);
+            picTrg = subPictures[index];
+            frame.settings = getConversionSettings(decoded, frame.palette, w, h, picTrg);
+            ConvertedFrame prefetched = prefetchedFrames.get(index);
+            if (prefetched != null && prefetched.settings.equals(frame.settings)) {
+                return;
+            }
+        }
+
+        scaleFrame(frame, srcBitmap, srcPalette, w, h, picTrg, index + 1, false, null);
+
+        synchronized (semaphore) {
+            // keep the result even if the user moved on meanwhile, as long as it's still a neighbour
+            if (streamGen == streamGeneration && Math.abs(index - prefetchCenter) <= count) {
+                prefetchedFrames.put(index, frame);
+            }
+        }
+    }
+
+    /**
+     * Convert source subpicture image to target subpicture image without touching the target
+     * caption used for display. Only decoding is serialized, so this may be called from several
+     * export workers at once as long as each one converts a different index.
+     * @param index			Index of subtitle to convert
+     * @param displayNum	Subtitle number to display (needed for forced subs)
+     * @param displayMax	Maximum subtitle number to display (needed for forced subs)
+     * @param skipScaling   true: skip bitmap scaling and palette transformation (used for moving captions)
+     * @return Converted caption
+     * @throws CoreException
+     */
+    private ConvertedFrame convertFrame(int index, int displayNum, int displayMax, boolean skipScaling) throws CoreException{
+        ConversionSession previous = bind();
+        try {
+            int w,h;
+            int startOfs = (int) subtitleStream.getStartOffset(index);
+            SubPicture subPic = subtitleStream.getSubPicture(index);
+            ConvertedFrame frame = new ConvertedFrame();
+            Bitmap srcBitmap;
+            Palette srcPalette;
+
+            logger.info("Decoding frame " + displayNum + "/" + displayMax + ((subtitleStream == supXml) ? "\n" : (" at offset " + ToolBox.toHexLeftZeroPadded(startOfs, 8) + "\n")));
+
+            ConvertedFrame prefetched = null;
+            ColorQuantizer globalPalette;
+            synchronized (semaphore) {
+                globalPalette = globalPalettes == null ? null : globalPalettes.get(index);
+                DecodedFrameCache.Entry decoded = decodeSrc(index);
+                srcBitmap = decoded.bitmap;
+                srcPalette = decoded.palette;
+                w = subPic.getImageWidth();
+                h = subPic.getImageHeight();
+                OutputMode outputMode = configuration.getOutputMode();
+                if (outputMode == OutputMode.VOBSUB || outputMode == OutputMode.SUPIFO) {
+                    frame.dvdPicture = new SubPictureDVD();
+                    frame.palette = determineFramePal(index, frame.dvdPicture, srcPalette, decoded.primaryColorIndex);
+                }
+                updateTrgPic(index);
+                if (!skipScaling && globalPalette == null && !prefetchedFrames.isEmpty()) {
+                    prefetched = prefetchedFrames.get(index);
+                    if (prefetched != null && !prefetched.settings.equals(getConversionSettings(decoded, frame.palette, w, h, subPictures[index]))) {
+                        prefetchedFrames.remove(index);
+                        prefetched = null;
+                    }
+                }
+            }
+
+            if (prefetched != null) {
+                subPictures[index].setWasDecoded(true);
+                frame.bitmap = prefetched.bitmap;
+                frame.bitmapUnpatched = prefetched.bitmapUnpatched;
+                frame.palette = prefetched.palette;
+                return frame;
+            }
+            return scaleFrame(frame, srcBitmap, srcPalette, w, h, subPictures[index], displayNum, skipScaling, globalPalette);
+        } finally {
+            unbind(previous);
+        }
+    }
+
+    /**
+     * Scale a decoded source caption to the size of its target subpicture and convert its palette.
+     * @param frame       Caption being converted, receives bitmaps and palette
+     * @param srcBitmap   Bitmap of the decoded source caption
+     * @param srcPalette  Palette of the decoded source caption
+     * @param w           Image width of the source caption
+     * @param h           Image height of the source caption
+     * @param picTrg      Target subpicture
+     * @param displayNum  Subtitle number to display (needed for forced subs)
+     * @param skipScaling true: skip bitmap scaling and palette transformation (used for moving captions)
+     * @param globalPalette Quantizer mapping the caption to the palette it shares with other captions or null to create its own palette
+     * @return Converted caption
+     */
+    private ConvertedFrame scaleFrame(ConvertedFrame frame, Bitmap srcBitmap, Palette srcPalette, int w, int h, SubPicture picTrg, int displayNum, boolean skipScaling, ColorQuantizer globalPalette) {
+        picTrg.setWasDecoded(true);
+
+        int trgWidth = picTrg.getImageWidth();
+        int trgHeight = picTrg.getImageHeight();
+        if (trgWidth < MIN_IMAGE_DIMENSION || trgHeight < MIN_IMAGE_DIMENSION || w < MIN_IMAGE_DIMENSION || h < MIN_IMAGE_DIMENSION) {
+            // don't scale to avoid division by zero in scaling routines
+            trgWidth = w;
+            trgHeight = h;
+        }
+
+        if (!skipScaling) {
+            long start = System.nanoTime();
+            long quantizeNanos = 0;
+            TimedQuantizer timedQuantizer = null;
+            metrics.updateSourceSize(w, h);
+            metrics.updateTargetSize(trgWidth, trgHeight);
+            ResampleFilter f;
+            switch (configuration.getScalingFilter()) {
+                case BELL:
+                    f = getBellFilter();
+                    break;
+                case BICUBIC:
+                    f = getBiCubicFilter();
+                    break;
+                case BICUBIC_SPLINE:
+                    f = getBSplineFilter();
+                    break;
+                case HERMITE:
+                    f = getHermiteFilter();
+                    break;
+                case LANCZOS3:
+                    f = getLanczos3Filter();
+                    break;
+                case TRIANGLE:
+                    f = getTriangleFilter();
+                    break;
+                case MITCHELL:
+                    f = getMitchellFilter();
+                    break;
+                default:
+                    f = null;
+            }
+
+            Bitmap tBm;
+            Palette tPal = frame.palette;
+            // create scaled bitmap
+            OutputMode outputMode = configuration.getOutputMode();
+            PaletteMode paletteMode = configuration.getPaletteMode();
+            if (outputMode == OutputMode.VOBSUB || outputMode == OutputMode.SUPIFO) {
+                // export 4 color palette
+                if (w==trgWidth && h==trgHeight) {
+                    // don't scale at all
+                    if ( (inMode == InputMode.VOBSUB || inMode == InputMode.SUPIFO) && paletteMode == PaletteMode.KEEP_EXISTING) {
+                        tBm = srcBitmap; // no conversion
+                    } else {
+                        long quantizeStart = System.nanoTime();
+                        tBm = srcBitmap.getBitmapWithNormalizedPalette(srcPalette.getAlpha(), configuration.getAlphaThreshold(), srcPalette.getY(), configuration.getLuminanceThreshold()); // reduce palette
+                        quantizeNanos = System.nanoTime() - quantizeStart;
+                    }
+                } else {
+                    // scale up/down
+                    if ((inMode == InputMode.VOBSUB || inMode == InputMode.SUPIFO) && paletteMode == PaletteMode.KEEP_EXISTING) {
+                        // keep palette
+                        if (f != null) {
+                            tBm = srcBitmap.scaleFilter(trgWidth, trgHeight, srcPalette, f);
+                        } else {
+                            tBm = srcBitmap.scaleBilinear(trgWidth, trgHeight, srcPalette);
+                        }
+                    } else {
+                        // reduce palette
+                        if (f != null) {
+                            tBm = srcBitmap.scaleFilterLm(trgWidth, trgHeight, srcPalette, configuration.getAlphaThreshold(), configuration.getLuminanceThreshold(), f);
+                        } else {
+                            tBm = srcBitmap.scaleBilinearLm(trgWidth, trgHeight, srcPalette, configuration.getAlphaThreshold(), configuration.getLuminanceThreshold());
+                        }
+                    }
+                }
+            } else {
+                // export (up to) 256 color palette
+                tPal = srcPalette;
+                if (w==trgWidth && h==trgHeight) {
+                    if (globalPalette != null) {
+                        // no scaling, but use the shared palette
+                        timedQuantizer = new TimedQuantizer(withDither(globalPalette, paletteMode));
+                        BitmapWithPalette pb = srcBitmap.quantize(srcPalette, paletteMode != PaletteMode.CREATE_NEW, timedQuantizer);
+                        tBm = pb.bitmap;
+                        tPal = pb.palette;
+                    } else {
+                        tBm = srcBitmap; // no scaling, no conversion
+                    }
+                } else {
+                    // scale up/down
+                    if (paletteMode == PaletteMode.KEEP_EXISTING) {
+                        // keep palette
+                        if (f != null) {
+                            tBm = srcBitmap.scaleFilter(trgWidth, trgHeight, srcPalette, f);
+                        } else {
+                            tBm = srcBitmap.scaleBilinear(trgWidth, trgHeight, srcPalette);
+                        }
+                    } else {
+                        // create new palette
+                        boolean dither = paletteMode != PaletteMode.CREATE_NEW;
+                        BitmapWithPalette pb;
+                        timedQuantizer = new TimedQuantizer(withDither(globalPalette != null ? globalPalette : configuration.getQuantizer().createQuantizer(), paletteMode));
+                        if (f != null) {
+                            pb = srcBitmap.scaleFilter(trgWidth, trgHeight, srcPalette, f, dither, timedQuantizer);
+                        } else {
+                            pb = srcBitmap.scaleBilinear(trgWidth, trgHeight, srcPalette, dither, timedQuantizer);
+                        }
+                        tBm = pb.bitmap;
+                        tPal = pb.palette;
+                    }
+                }
+            }
+            if (!picTrg.getErasePatch().isEmpty()) {
+                if (tBm == srcBitmap) {
+                    // patch a copy, the source bitmap may be cached
+                    frame.bitmapUnpatched = tBm;
+                    tBm = new Bitmap(tBm);
+                } else {
+                    frame.bitmapUnpatched = new Bitmap(tBm);
+                }
+                int col = tPal.getIndexOfMostTransparentPaletteEntry();
+                for (ErasePatch ep : picTrg.getErasePatch()) {
+                    tBm.fillRectangularWithColorIndex(ep.x, ep.y, ep.width, ep.height, (byte)col);
+                }
+            } else {
+                frame.bitmapUnpatched = tBm;
+            }
+            frame.bitmap = tBm;
+            frame.palette = tPal;
+            if (timedQuantizer != null) {
+                quantizeNanos += timedQuantizer.nanos;
+            }
+            metrics.add(ConversionMetrics.Phase.SCALE, System.nanoTime() - start - quantizeNanos);
+            if (quantizeNanos > 0) {
+                metrics.add(ConversionMetrics.Phase.QUANTIZE, quantizeNanos);
+            }
+        }
+
+        if (configuration.isCliMode()) {
+            moveToBounds(picTrg, displayNum, configuration.getCineBarFactor(), configuration.getMoveOffsetX(), configuration.getMoveOffsetY(), configuration.getMoveModeX(), configuration.getMoveModeY(), configuration.getCropOffsetY());
+        }
+        return frame;
+    }
+
+    /**
+     * @param quantizer   Quantizer creating or mapping to the palette
+     * @param paletteMode Palette mode
+     * @return Quantizer dithering as requested by the palette mode
+     */
+    private static ColorQuantizer withDither(ColorQuantizer quantizer, PaletteMode paletteMode) {
+        return paletteMode == PaletteMode.CREATE_ORDERED_DITHERED ? new OrderedDitherQuantizer(quantizer) : quantizer;
+    }
+
+    /**
+     * Create BD-SUP or VobSub or Xml.
+     * @param fname File name of SUP/SUB/XML to create
+     * @throws CoreException
+     */
+    public void writeSub(String fname) throws CoreException {
+        ConversionSession previous = bind();
+        try {
+            BufferedOutputStream out = null;
+            List<Integer> offsets = null;
+            List<Integer> timestamps = null;
+            SortedMap<Integer, SubPicture> exportedSubPictures = new TreeMap<Integer, SubPicture>();
+            int frameNum = 0;
+            String fn = "";
+
+            List<Integer> subPicturesToBeExported = getSubPicturesToBeExported();
+
+            if (subPicturesToBeExported.isEmpty()) {
+                logger.warn("There is no subpicture to be exported.");
+                return;
+            }
+
+            OutputMode outputMode = configuration.getOutputMode();
+            try {
+                // handle file name extensions depending on mode
+                if (outputMode == OutputMode.VOBSUB) {
+                    fname = FilenameUtils.removeExtension(fname) + ".sub";
+                    out = new BufferedOutputStream(new FileOutputStream(fname));
+                    offsets = new ArrayList<Integer>();
+                    timestamps = new ArrayList<Integer>();
+                } else if (outputMode == OutputMode.SUPIFO) {
+                    fname = FilenameUtils.removeExtension(fname) + ".sup";
+                    out = new BufferedOutputStream(new FileOutputStream(fname));
+                } else if (outputMode == OutputMode.BDSUP) {
+                    fname = FilenameUtils.removeExtension(fname) + ".sup";
+                    out = new BufferedOutputStream(new FileOutputStream(fname));
+                } else {
+                    fn = FilenameUtils.removeExtension(fname);
+                    fname = fn + ".xml";
+                }
+                logger.info("\nWriting " + fname + "\n");
+                if (configuration.getGlobalPalette() && outputMode == OutputMode.BDSUP && configuration.getPaletteMode() != PaletteMode.KEEP_EXISTING) {
+                    synchronized (semaphore) {
+                        globalPalettes = new HashMap<Integer, ColorQuantizer>();
+                    }
+                    createGlobalPalettes(subPicturesToBeExported);
+                }
+
+                // main loop
+                int offset = 0;
+                int displayMax = subPicturesToBeExported.size();
+                int threadCount = Math.min(configuration.getExportThreads(), displayMax);
+                ExecutorService executor = null;
+                Queue<Future<byte[]>> pendingFrames = new ArrayDeque<Future<byte[]>>();
+                int submitted = 0;
+                if (threadCount > 1) {
+                    logger.trace("Exporting with " + threadCount + " worker threads\n");
+                    executor = Executors.newFixedThreadPool(threadCount);
+                }
+                try {
+                    for (int i : subPicturesToBeExported) {
+                        // for threaded version
+                        if (isCanceled()) {
+                            throw new CoreException("Canceled by user!");
+                        }
+                        // for threaded version (progress bar);
+                        setProgress(i);
+
+                        SubPicture subPicture = subPictures[i];
+                        byte buf[];
+                        if (executor == null) {
+                            buf = exportFrame(i, frameNum, displayMax, fn);
+                        } else {
+                            // keep a bounded number of captions in flight ahead of the one written next
+                            while (submitted < displayMax && submitted < frameNum/2 + 2*threadCount) {
+                                pendingFrames.add(executor.submit(new ExportTask(subPicturesToBeExported.get(submitted), 2*submitted, displayMax, fn)));
+                                submitted++;
+                            }
+                            buf = awaitFrame(pendingFrames.remove());
+                        }
+                        long start = System.nanoTime();
+                        if (outputMode == OutputMode.VOBSUB) {
+                            offsets.add(offset);
+                            out.write(buf);
+                            offset += buf.length;
+                            timestamps.add((int) subPicture.getStartTime());
+                        } else if (outputMode == OutputMode.SUPIFO || outputMode == OutputMode.BDSUP) {
+                            out.write(buf);
+                        } else {
+                            exportedSubPictures.put(i, subPicture);
+                        }
+                        if (buf != null) {
+                            metrics.addSince(ConversionMetrics.Phase.WRITE, start);
+                            metrics.addBytesWritten(buf.length);
+                        }
+                        metrics.addCaptionWritten();
+                        frameNum+=2;
+                    }
+                } finally {
+                    if (executor != null) {
+                        stopExport(executor, pendingFrames);
+                    }
+                }
+            } catch (IOException ex) {
+                throw new CoreException(ex.getMessage());
+            } finally {
+                synchronized (semaphore) {
+                    if (globalPalettes != null && configuration.isCliMode()) {
+                        decodedFrameCache.clear();
+                    }
+                    globalPalettes = null;
+                }
+                try {
+                    if (out != null) {
+                        out.close();
+                    }
+                } catch (IOException ex) {
+                }
+            }
+
+            if (outputMode == OutputMode.XML) {
+                // XML - write XML
+                logger.info("\nWriting " + fname + "\n");
+                long start = System.nanoTime();
+                SupXml.writeXml(fname, exportedSubPictures, configuration);
+                metrics.addSince(ConversionMetrics.Phase.WRITE, start);
+                metrics.addBytesWritten(new File(fname).length());
+            } else {
+                writeIndex(fname, subPictures[0], offsets, timestamps);
+            }
+
+            state = CoreThreadState.FINISHED;
+        } finally {
+            unbind(previous);
+        }
+    }
+
+    /**
+     * Create the palettes shared by the exported captions in global palette mode (BD-SUP output creating new palettes).<br>
+     * Each window of consecutive captions gets a palette created from the colors of its decoded source captions,
+     * weighted by their number of pixels. Scaling blends these colors, the blends are mapped to the nearest entry.
+     * The quantizer mapping a caption to its palette is stored in globalPalettes by caption index. The decoded
+     * captions are cached meanwhile, also in CLI mode, so converting them doesn't have to decode them again.
+     * @param indices Indices of the captions to export, in export order
+     * @throws CoreException
+     */
+    private void createGlobalPalettes(List<Integer> indices) throws CoreException {
+        int window = configuration.getGlobalPaletteWindow();
+        if (window <= 0) {
+            window = indices.size();
+        }
+        logger.info("Creating global palette" + (window < indices.size() ? "s for every " + window + " captions\n" : "\n"));
+        ConversionSession previous = bind();
+        try {
+            for (int start = 0; start < indices.size(); start += window) {
+                int end = Math.min(start + window, indices.size());
+                ColorHistogram histogram = new ColorHistogram();
+                for (int k = start; k < end; k++) {
+                    if (isCanceled()) {
+                        throw new CoreException("Canceled by user!");
+                    }
+                    synchronized (semaphore) {
+                        DecodedFrameCache.Entry decoded = getDecodedFrame(indices.get(k));
+                        int[] argb = new int[decoded.palette.getSize()];
+                        for (int i = 0; i < argb.length; i++) {
+                            argb[i] = decoded.palette.getARGB(i);
+                        }
+                        histogram.addIndexedPixels(decoded.bitmap.getInternalBuffer(), argb);
+                        histogram.addIndexedBlends(decoded.bitmap.getInternalBuffer(), decoded.bitmap.getWidth(), argb);
+                    }
+                }
+                FixedPaletteQuantizer quantizer = new FixedPaletteQuantizer(MedianCutQuantizer.createPalette(histogram, 255));
+                logger.trace("Captions " + (start + 1) + "-" + end + ": " + histogram.getSize() + " colors reduced to " + quantizer.getPalette().length + "\n");
+                synchronized (semaphore) {
+                    for (int k = start; k < end; k++) {
+                        globalPalettes.put(indices.get(k), quantizer);
+                    }
+                }
+            }
+        } finally {
+            unbind(previous);
+        }
+    }
+
+    /**
+     * Write the files accompanying an exported SUB or SUP stream: IDX for VobSub, IFO for SUP/IFO
+     * and optionally the PGCEdit palette.
+     * @param fname      File name of the exported stream
+     * @param firstPic   First target subpicture (defines the screen size)
+     * @param offsets    File offsets of the exported VobSub captions (VobSub only)
+     * @param timestamps Start times of the exported VobSub captions (VobSub only)
+     * @throws CoreException
+     */
+    private void writeIndex(String fname, SubPicture firstPic, List<Integer> offsets, List<Integer> timestamps) throws CoreException {
+        long start = System.nanoTime();
+        OutputMode outputMode = configuration.getOutputMode();
+        boolean importedDVDPalette = (inMode == InputMode.VOBSUB) || (inMode == InputMode.SUPIFO);
+
+        Palette trgPallete = null;
+        PaletteMode paletteMode = configuration.getPaletteMode();
+        if (outputMode == OutputMode.VOBSUB) {
+            // VobSub - write IDX
+            /* return offsets as array of ints */
+            int[] ofs = new int[offsets.size()];
+            for (int i=0; i < ofs.length; i++) {
+                ofs[i] = offsets.get(i);
+            }
+            int[] ts = new int[timestamps.size()];
+            for (int i=0; i < ts.length; i++) {
+                ts[i] = timestamps.get(i);
+            }
+            fname = FilenameUtils.removeExtension(fname) + ".idx";
+            logger.info("\nWriting " + fname + "\n");
+            if (!importedDVDPalette || paletteMode != PaletteMode.KEEP_EXISTING) {
+                trgPallete = currentDVDPalette;
+            } else {
+                trgPallete = currentSourceDVDPalette;
+            }
+            SubDvdWriter.writeIdx(fname, firstPic, ofs, ts, trgPallete, configuration);
+            metrics.addBytesWritten(new File(fname).length());
+        } else if (outputMode == OutputMode.SUPIFO) {
+            // SUP/IFO - write IFO
+            if (!importedDVDPalette || paletteMode != PaletteMode.KEEP_EXISTING) {
+                trgPallete = currentDVDPalette;
+            } else {
+                trgPallete = currentSourceDVDPalette;
+            }
+            fname = FilenameUtils.removeExtension(fname) + ".ifo";
+            logger.info("\nWriting " + fname + "\n");
+            IfoWriter.writeIFO(fname, firstPic.getHeight(), trgPallete, configuration);
+            metrics.addBytesWritten(new File(fname).length());
+        }
+
+        // only possible for SUB/IDX and SUP/IFO (else there is no public palette)
+        if (trgPallete != null && configuration.getWritePGCEditPalette()) {
+            String fnp = FilenameUtils.removeExtension(fname) + ".txt";
+            logger.info("\nWriting " + fnp + "\n");
+            writePGCEditPal(fnp, trgPallete);
+            metrics.addBytesWritten(new File(fnp).length());
+        }
+        if (outputMode == OutputMode.VOBSUB || outputMode == OutputMode.SUPIFO) {
+            metrics.addSince(ConversionMetrics.Phase.WRITE, start);
+        }
+    }
+
+    /**
+     * Convert one caption and create its binary representation for the current output mode.
+     * @param index      Index of subtitle to export
+     * @param frameNum   Number of the caption in the exported stream times two (composition number for BD-SUP)
+     * @param displayMax Number of captions to export (only used for display)
+     * @param fn         File name of the XML without extension (only used for XML export)
+     * @return Binary stream representation of the caption or null for XML export, where the PNG is written directly
+     * @throws CoreException
+     * @throws IOException
+     */
+    private byte[] exportFrame(int index, int frameNum, int displayMax, String fn) throws CoreException, IOException {
+        SubPicture subPicture = subPictures[index];
+        OutputMode outputMode = configuration.getOutputMode();
+        if (outputMode == OutputMode.BDSUP) {
+            subPicture.setCompositionNumber(frameNum);
+        }
+        ConvertedFrame frame = convertFrame(index, frameNum/2+1, displayMax, false);
+        if (outputMode != OutputMode.XML) {
+            return encodeFrame(frame, subPicture);
+        } else {
+            // Xml
+            String fnp = SupXml.getPNGname(fn, index+1);
+            long start = System.nanoTime();
+            EnhancedPngEncoder pngEncoder= new EnhancedPngEncoder(frame.bitmap.getImage(frame.palette.getColorModel()));
+            byte buf[] = pngEncoder.pngEncode();
+            metrics.addSince(ConversionMetrics.Phase.ENCODE, start);
+            start = System.nanoTime();
+            BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(fnp));
+            try {
+                out.write(buf);
+            } finally {
+                out.close();
+            }
+            metrics.addSince(ConversionMetrics.Phase.WRITE, start);
+            metrics.addBytesWritten(buf.length);
+            return null;
+        }
+    }
+
+    /**
+     * Create the binary representation of a converted caption for SUB, SUP/IFO or BD-SUP output.
+     * @param frame      Converted caption
+     * @param subPicture Target subpicture
+     * @return Binary stream representation of the caption
+     * @throws CoreException
+     */
+    private byte[] encodeFrame(ConvertedFrame frame, SubPicture subPicture) throws CoreException {
+        OutputMode outputMode = configuration.getOutputMode();
+        long start = System.nanoTime();
+        byte[] buf;
+        if (outputMode == OutputMode.VOBSUB) {
+            frame.dvdPicture.copyInfo(subPicture);
+            buf = subDvdWriters.get().createSubFrame(frame.dvdPicture, frame.bitmap);
+        } else if (outputMode == OutputMode.SUPIFO) {
+            frame.dvdPicture.copyInfo(subPicture);
+            buf = supDvdWriters.get().createSupFrame(frame.dvdPicture, frame.bitmap);
+        } else {
+            buf = supBDWriters.get().createSupFrame(subPicture, frame.bitmap, frame.palette);
+        }
+        metrics.addSince(ConversionMetrics.Phase.ENCODE, start);
+        return buf;
+    }
+
+    /**
+     * Convert a BD-SUP stream caption by caption while it is read, e.g. from a pipe.<br>
+     * Other than with readSup, scanSubtitles and writeSub, the stream is never held in memory as a whole:
+     * a caption is converted and written as soon as the following one was read (needed to validate the end time).
+     * Only the captions in flight and their part of the input are kept, so the stream may be of any length.
+     * @param in    BD-SUP input stream
+     * @param name  Name of the input stream (only used for display)
+     * @param out   Stream receiving the SUB or SUP data, not closed here
+     * @param fname File name of the output, used for IDX, IFO and palette files (not needed for BD-SUP)
+     * @throws CoreException
+     */
+    public void convertStream(InputStream in, String name, OutputStream out, String fname) throws CoreException {
+        ConversionSession previous = bind();
+        try {
+            OutputMode outputMode = configuration.getOutputMode();
+            if (outputMode == OutputMode.XML) {
+                throw new CoreException("Export to XML is not supported in stream mode.");
+            }
+            logger.info("Converting " + name + "\n");
+            warningCount.set(0);
+            errorCount.set(0);
+            metrics.reset();
+            selectLanguageByFilename(name);
+
+            // close existing subtitleStream
+            clearDecodedFrames();
+            if (subtitleStream != null) {
+                subtitleStream.close();
+            }
+            CountingInputStream countingIn = new CountingInputStream(in);
+            long start = System.nanoTime();
+            supBD = new SupBD(countingIn, name, configuration);
+            subtitleStream = supBD;
+            supHD = null;
+            inMode = InputMode.BDSUP;
+            subPictures = new SubPicture[0];
+
+            // decode first frame
+            SubPictureBD picSrc = supBD.readSubPicture();
+            if (picSrc == null) {
+                throw new CoreException("No captions found in " + name);
+            }
+            supBD.decode(picSrc);
+            metrics.addSince(ConversionMetrics.Phase.PARSE, start);
+            subVobTrg = new SubPictureDVD();
+            setLuminanceThresholdFromCaption();
+            setFpsSrcFromStream(Framerate.valueForId(picSrc.getType()));
+
+            boolean convertFPS = configuration.getConvertFPS();
+            double factTS = convertFPS ? configuration.getFPSSrc() / configuration.getFpsTrg() : 1.0;
+            // change target resolution to source resolution if no conversion is needed
+            if (!configuration.getConvertResolution()) {
+                configuration.setOutputResolution(getResolutionForDimension(picSrc.getWidth(), picSrc.getHeight()));
+            }
+            double fx;
+            double fy;
+            if (configuration.getApplyFreeScale()) {
+                fx = configuration.getFreeScaleFactorX();
+                fy = configuration.getFreeScaleFactorY();
+            } else {
+                fx = 1.0;
+                fy = 1.0;
+            }
+
+            List<Integer> offsets = new ArrayList<Integer>();
+            List<Integer> timestamps = new ArrayList<Integer>();
+            BufferedOutputStream bos = new BufferedOutputStream(out);
+            SubPicture firstPic = createTargetPicture(picSrc, factTS, fx, fy);
+            SubPicture picTrg = firstPic;
+            SubPicture picPrev = null;
+            int index = 0;
+            int frameNum = 0;
+            int offset = 0;
+            logger.info("\nWriting " + (fname != null ? fname : "output stream") + "\n");
+            while (picSrc != null) {
+                // for threaded version
+                if (isCanceled()) {
+                    throw new CoreException("Canceled by user!");
+                }
+                start = System.nanoTime();
+                SubPictureBD picSrcNext = supBD.readSubPicture();
+                metrics.addSince(ConversionMetrics.Phase.PARSE, start);
+                start = System.nanoTime();
+                SubPicture picTrgNext = picSrcNext != null ? createTargetPicture(picSrcNext, factTS, fx, fy) : null;
+                validateTimes(index, picTrg, picTrgNext, picPrev);
+                metrics.addSince(ConversionMetrics.Phase.SCAN, start);
+
+                if (!picTrg.isExcluded() && (!configuration.isExportForced() || picTrg.isForced())) {
+                    byte buf[] = exportFrame(picSrc, picTrg, index, frameNum);
+                    if (outputMode == OutputMode.VOBSUB) {
+                        offsets.add(offset);
+                        offset += buf.length;
+                        timestamps.add((int) picTrg.getStartTime());
+                    }
+                    start = System.nanoTime();
+                    bos.write(buf);
+                    metrics.addSince(ConversionMetrics.Phase.WRITE, start);
+                    metrics.addBytesWritten(buf.length);
+                    metrics.addCaptionWritten();
+                    frameNum += 2;
+                }
+                supBD.release(picSrc);
+                picPrev = picTrg;
+                picSrc = picSrcNext;
+                picTrg = picTrgNext;
+                index++;
+            }
+            start = System.nanoTime();
+            bos.flush();
+            metrics.addSince(ConversionMetrics.Phase.WRITE, start);
+            metrics.setCaptionsRead(index);
+            metrics.addBytesRead(countingIn.getCount());
+
+            if (configuration.isExportForced() && supBD.getForcedFrameCount() == 0) {
+                throw new CoreException("No forced subtitles found.");
+            }
+            if (frameNum == 0) {
+                logger.warn("There is no subpicture to be exported.");
+            } else if (fname != null) {
+                writeIndex(fname, firstPic, offsets, timestamps);
+            }
+            state = CoreThreadState.FINISHED;
+        } catch (IOException ex) {
+            throw new CoreException(ex.getMessage());
+        } finally {
+            if (supBD != null) {
+                supBD.close();
+            }
+            unbind(previous);
+        }
+    }
+
+    /**
+     * Convert and encode one caption of a stream converted with {@link #convertStream(InputStream, String, OutputStream, String)}.
+     * @param picSrc   Source caption
+     * @param picTrg   Target subpicture
+     * @param index    Index of the caption in the input stream
+     * @param frameNum Number of the caption in the exported stream times two (composition number for BD-SUP)
+     * @return Binary stream representation of the caption
+     * @throws CoreException
+     */
+    private byte[] exportFrame(SubPictureBD picSrc, SubPicture picTrg, int index, int frameNum) throws CoreException {
+        OutputMode outputMode = configuration.getOutputMode();
+        if (outputMode == OutputMode.BDSUP) {
+            picTrg.setCompositionNumber(frameNum);
+        }
+        ConvertedFrame frame = new ConvertedFrame();
+        logger.info("Decoding frame " + (frameNum/2+1) + " at offset " + ToolBox.toHexLeftZeroPadded(supBD.getStartOffset(picSrc), 8) + "\n");
+        long start = System.nanoTime();
+        supBD.decode(picSrc);
+        metrics.addSince(ConversionMetrics.Phase.DECODE, start);
+        if (outputMode == OutputMode.VOBSUB || outputMode == OutputMode.SUPIFO) {
+            frame.dvdPicture = new SubPictureDVD();
+            frame.palette = determineFramePal(index, frame.dvdPicture, supBD.getPalette(), supBD.getPrimaryColorIndex());
+        }
+        updateTrgPic(picSrc, picTrg);
+        scaleFrame(frame, supBD.getBitmap(), supBD.getPalette(), picSrc.getImageWidth(), picSrc.getImageHeight(), picTrg, frameNum/2+1, false, null);
+        return encodeFrame(frame, picTrg);
+    }
+
+    /**
+     * Cancel the captions still in flight and wait until the export workers are idle, so that none of them
+     * touches the captions, the palettes or the output anymore once the export has returned.
+     * @param executor Executor running the export tasks
+     * @param pendingFrames Pending results not written yet
+     */
+    private static void stopExport(ExecutorService executor, Queue<Future<byte[]>> pendingFrames) {
+        for (Future<byte[]> future : pendingFrames) {
+            future.cancel(true);
+        }
+        pendingFrames.clear();
+        executor.shutdownNow();
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    if (executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                        break;
+                    }
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Wait for a caption exported by a worker thread.
+     * @param future Pending result of the export task
+     * @return Binary stream representation of the caption
+     * @throws CoreException
+     * @throws IOException
+     */
+    private byte[] awaitFrame(Future<byte[]> future) throws CoreException, IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new CoreException("Export interrupted.");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof CoreException) {
+                throw (CoreException)cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException)cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            } else if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new CoreException(String.valueOf(cause));
+        }
+    }
+
+    /**
+     * Move all subpictures into or outside given bounds in a thread and display the progress dialog.
+     * @param parent	Parent frame (needed for progress dialog)
+     * @throws Exception
+     */
+    public void moveAllThreaded(JFrame parent) throws Exception {
+        progress = new Progress(parent);
+        progress.setTitle("Moving");
+        progress.setText("Moving all captions");
+        showProgress(moveAllAsync());
+    }
+
+    /**
+     * Move all subpictures into or outside given bounds on the operation thread of this session.
+     * @return Future completed when all captions are moved
+     */
+    public CompletableFuture<Void> moveAllAsync() {
+        startProgress("moving", subtitleStream.getFrameCount());
+        return submit(RunType.MOVEALL, null);
+    }
+
+    /**
+     * Move all subpictures into or outside given bounds.
+     * @throws CoreException
+     */
+    public void moveAllToBounds() throws CoreException {
+        String sy = null;
+        switch (configuration.getMoveModeY()) {
+            case MOVE_INSIDE_BOUNDS:
+                sy = "inside";
+                break;
+            case MOVE_OUTSIDE_BOUNDS:
+                sy = "outside";
+                break;
+        }
+        String sx = null;
+        switch (configuration.getMoveModeX()) {
+            case CENTER:
+                sx = "center vertically";
+                break;
+            case LEFT:
+                sx = "left";
+                break;
+            case RIGHT:
+                sx = "right";
+        }
+        String s = "Moving captions ";
+        if (sy!= null) {
+            s += sy + " cinemascope bars";
+            if (sx != null) {
+                 s += " and to the " + sx;
+            }
+            logger.trace(s + ".\n");
+        } else if (sx != null) {
+            logger.trace(s + "to the " + sx + ".\n");
+        }
+
+        if (!configuration.isCliMode()) {
+            // in CLI mode, moving is done during export
+            for (int idx=0; idx<subPictures.length; idx++) {
+                setProgress(idx);
+                if (!subPictures[idx].isWasDecoded()) {
+                    convertSup(idx, idx+1, subPictures.length, true);
+                }
+                moveToBounds(subPictures[idx], idx+1, configuration.getCineBarFactor(), configuration.getMoveOffsetX(), configuration.getMoveOffsetY(), configuration.getMoveModeX(), configuration.getMoveModeY(), configuration.getCropOffsetY());
+            }
+        }
+    }
+
+    /**
+     * Move subpicture into or outside given bounds.
+     * @param pic         SubPicture object containing coordinates and size
+     * @param idx         Index (only used for display)
+     * @param barFactor   Factor to calculate cinemascope bar height from screen height
+     * @param offsetX     X offset to consider when moving
+     * @param offsetY     Y offset to consider when moving
+     * @param mmx         Move mode in X direction
+     * @param mmy         Move mode in Y direction
+     * @param cropOffsetY Number of lines to crop from bottom and top
+     */
+    public static void moveToBounds(SubPicture pic, int idx, double barFactor, int offsetX, int offsetY,
+            CaptionMoveModeX mmx, CaptionMoveModeY mmy, int cropOffsetY) {
+
+        int barHeight = (int)(pic.getHeight() * barFactor + 0.5);
+        int y1 = pic.getYOffset();
+        int h = pic.getHeight();
+        int w = pic.getWidth();
+        int hi = pic.getImageHeight();
+        int wi = pic.getImageWidth();
+        int y2 = y1 + hi;
+        CaptionType c;
+
+        if (mmy != CaptionMoveModeY.KEEP_POSITION) {
+            // move vertically
+            if (y1 < h/2 && y2 < h/2) {
+                c = CaptionType.UP;
+            } else if (y1 > h/2 && y2 > h/2) {
+                c = CaptionType.DOWN;
+            } else {
+                c = CaptionType.FULL;
+            }
+
+            switch (c) {
+                case FULL:
+                    // maybe add scaling later, but for now: do nothing
+                    logger.warn("Caption " + idx + " not moved (too large)\n");
+                    break;
+                case UP:
+                    if (mmy == CaptionMoveModeY.MOVE_INSIDE_BOUNDS)
+                        pic.setOfsY(barHeight+offsetY);
+                    else
+                        pic.setOfsY(offsetY);
+                    logger.trace("Caption " + idx + " moved to y position " + pic.getYOffset() + "\n");
+                    break;
+                case DOWN:
+                    if (mmy == CaptionMoveModeY.MOVE_INSIDE_BOUNDS) {
+                        pic.setOfsY(h-barHeight-offsetY-hi);
+                    } else {
+                        pic.setOfsY(h-offsetY-hi);
+                    }
+                    logger.trace("Caption " + idx + " moved to y position " + pic.getYOffset() + "\n");
+                    break;
+            }
+            if (pic.getYOffset() < cropOffsetY) {
+                pic.getYOffset();
+            } else {
+                int yMax = pic.getHeight() - pic.getImageHeight() - cropOffsetY;
+                if (pic.getYOffset() > yMax) {
+                    pic.setOfsY(yMax);
+                }
+            }
+        }
+        // move horizontally
+        switch (mmx) {
+            case LEFT:
+                if (w-wi >= offsetX) {
+                    pic.setOfsX(offsetX);
+                } else {
+                    pic.setOfsX((w-wi)/2);
+                }
+                break;
+            case RIGHT:
+                if (w-wi >= offsetX) {
+                    pic.setOfsX(w-wi-offsetX);
+                } else {
+                    pic.setOfsX((w-wi)/2);
+                }
+                break;
+            case CENTER:
+                pic.setOfsX((w-wi)/2);
+                break;
+        }
+    }
+
+    /**
+     * Create PGCEdit palette file from given Palette.
+     * @param fname File name
+     * @param p     Palette
+     * @throws CoreException
+     */
+    private void writePGCEditPal(String fname, Palette p) throws CoreException {
+        BufferedWriter out = null;
+        try {
+            out = new BufferedWriter(new FileWriter(fname));
+            out.write("# Palette file for PGCEdit - colors given as R,G,B components (0..255)");
+            out.newLine();
+            for (int i=0; i < p.getSize(); i++) {
+                int rgb[] = p.getRGB(i);
+                out.write("Color "+i+"="+rgb[0]+", "+rgb[1]+", "+rgb[2]);
+                out.newLine();
+            }
+        } catch (IOException ex) {
+            throw new CoreException(ex.getMessage());
+        }
+        finally {
+            try {
+                if (out != null) {
+                    out.close();
+                }
+            } catch (IOException ex) {
+            }
+        }
+    }
+
+    /**
+     * Count the number of forced subpictures to be exported.
+     * @return Number of forced subpictures to be exported
+     */
+    private int countForcedIncluded() {
+        int n = 0;
+        for (SubPicture pic : subPictures) {
+            if (pic.isForced() && !pic.isExcluded()) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Return indexes of subpictures to be exported.
+     * @return indexes of subpictures to be exported
+     */
+    private List<Integer> getSubPicturesToBeExported() {
+        List<Integer> subPicturesToBeExported = new ArrayList<Integer>();
+        for (int i=0; i < subPictures.length; i++) {
+            SubPicture subPicture = subPictures[i];
+            if (!subPicture.isExcluded() && (!configuration.isExportForced() || subPicture.isForced())) {
+                subPicturesToBeExported.add(i);
+            }
+        }
+        return subPicturesToBeExported;
+    }
+
+    /**
+     * Get session ready state.
+     * @return True if the session is ready
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Set session ready state.
+     * @param r true if the session is ready
+     */
+    public void setReady(boolean r) {
+        ready = r;
+    }
+
+    /**
+     *  Force session to cancel current operation.
+     */
+    public synchronized void cancel() {
+        Operation operation = operations.peek();
+        if (operation != null) {
+            operation.canceled = true;
+        }
+        state = CoreThreadState.CANCELED;
+    }
+
+    /**
+     * Get cancel state.
+     * @return True if the current operation was canceled
+     */
+    public boolean isCanceled() {
+        return state == CoreThreadState.CANCELED;
+    }
+
+    /**
+     * Get session state.
+     * @return Current session state
+     */
+    public CoreThreadState getStatus() {
+        return state;
+    }
+
+    /**
+     * Set progress in progress bar.<br>
+     * Only publishes the value, the progress dialog samples it on its own timer. So a busy event dispatch thread
+     * never stalls the caller, and several worker threads may report at the same time: the highest value wins.
+     * @param p Subtitle index processed
+     */
+    public void setProgress(long p) {
+        long value = progressValue.get();
+        while (p > value && !progressValue.compareAndSet(value, p)) {
+            value = progressValue.get();
+        }
+        long max = progressMax;
+        if (max > 0) {
+            int val = (int)((Math.max(p, value) * 100) / max);
+            int last = progressLast.get();
+            while (val > last) {
+                if (progressLast.compareAndSet(last, val)) {
+                    // only the thread that raised the percentage reports it
+                    ProgressListener listener = progressListener;
+                    if (listener != null) {
+                        listener.progressChanged(progressOperation, val);
+                    }
+                    break;
+                }
+                last = progressLast.get();
+            }
+        }
+    }
+
+    /**
+     * Start counting progress of a new operation from zero.
+     * @param operation Name of the operation, e.g. "reading"
+     * @param max       Internal maximum for progress (e.g. file size or number of subtitles)
+     */
+    public void startProgress(String operation, long max) {
+        progressOperation = operation;
+        progressMax = max;
+        progressValue.set(0);
+        progressLast.set(0);
+    }
+
+    /**
+     * Get the operation whose progress is counted.
+     * @return Name of the operation or null if none was started
+     */
+    public String getProgressOperation() {
+        return progressOperation;
+    }
+
+    /**
+     * Report progress changes to a listener, in addition to the progress dialog.
+     * @param listener Listener or null to remove the listener
+     */
+    public void setProgressListener(ProgressListener listener) {
+        progressListener = listener;
+    }
+
+    /**
+     * Get the number of warnings logged for the current stream.
+     * @return Warnings logged by the threads of this session since the current stream was loaded
+     */
+    public int getWarningCount() {
+        return warningCount.get();
+    }
+
+    /**
+     * Get the number of errors logged for the current stream.
+     * @return Errors logged by the threads of this session since the current stream was loaded
+     */
+    public int getErrorCount() {
+        return errorCount.get();
+    }
+
+    void countWarning() {
+        warningCount.incrementAndGet();
+    }
+
+    void countError() {
+        errorCount.incrementAndGet();
+    }
+
+    /**
+     * Set a name prepended to the log lines of this session, e.g. the input file of a batch conversion.
+     * @param name Name, null for none
+     */
+    public void setLogName(String name) {
+        logName = name;
+    }
+
+    String getLogName() {
+        return logName;
+    }
+
+    /**
+     * Get timings and counters of the conversion.
+     * @return Metrics collected since the current stream was loaded
+     */
+    public ConversionMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Get progress of the current operation.
+     * @return Percentage done, 0..100
+     */
+    public int getProgress() {
+        return progressLast.get();
+    }
+
+    /**
+     * Get input mode.
+     * @return Current input mode
+     */
+    public InputMode getInputMode() {
+        return inMode;
+    }
+
+    /**
+     * Get source image as BufferedImage.
+     * @return Source image as BufferedImage
+     */
+    public BufferedImage getSrcImage() {
+        synchronized (semaphore) {
+            if (srcBitmapDecoded != null) {
+                return srcBitmapDecoded.getImage(srcPaletteDecoded.getColorModel());
+            }
+            return subtitleStream.getImage();
+        }
+    }
+
+    /**
+     * Get source image as BufferedImage.
+     * @param idx	Index of subtitle
+     * @return		Source image as BufferedImage
+     * @throws CoreException
+     */
+    public BufferedImage getSrcImage(int idx) throws CoreException {
+        ConversionSession previous = bind();
+        try {
+            synchronized (semaphore) {
+                DecodedFrameCache.Entry decoded = decodeSrc(idx);
+                return decoded.bitmap.getImage(decoded.palette.getColorModel());
+            }
+        } finally {
+            unbind(previous);
+        }
+    }
+
+    /**
+     * Get target image as BufferedImage.
+     * @return Target image as BufferedImage
+     */
+    public BufferedImage getTrgImage() {
+        synchronized (semaphore) {
+            return trgBitmap.getImage(trgPal.getColorModel());
+        }
+    }
+
+    /**
+     * Get target image as BufferedImage.
+     * @param pic SubPicture to use for applying erase patches
+     * @return Target image as BufferedImage
+     */
+    public BufferedImage getTrgImagePatched(SubPicture pic) {
+        synchronized (semaphore) {
+            if (!pic.getErasePatch().isEmpty()) {
+                Bitmap trgBitmapPatched = new Bitmap(trgBitmapUnpatched);
+                int col = trgPal.getIndexOfMostTransparentPaletteEntry();
+                for (ErasePatch ep : pic.getErasePatch()) {
+                    trgBitmapPatched.fillRectangularWithColorIndex(ep.x, ep.y, ep.width, ep.height, (byte)col);
+                }
+                return trgBitmapPatched.getImage(trgPal.getColorModel());
+            } else {
+                return trgBitmapUnpatched.getImage(trgPal.getColorModel());
+            }
+        }
+    }
+
+    /**
+     * Get screen width of target.
+     * @param index Subtitle index
+     * @return Screen width of target
+     */
+    public int getTrgWidth(int index) {
+        synchronized (semaphore) {
+            return subPictures[index].getWidth();
+        }
+    }
+
+    /**
+     * Get screen height of target.
+     * @param index Subtitle index
+     * @return Screen height of target
+     */
+    public int getTrgHeight(int index) {
+        synchronized (semaphore) {
+            return subPictures[index].getHeight();
+        }
+    }
+
+    /**
+     * Get subtitle width of target.
+     * @param index Subtitle index
+     * @return Subtitle width of target
+     */
+    public int getTrgImgWidth(int index) {
+        synchronized (semaphore) {
+            return subPictures[index].getImageWidth();
+        }
+    }
+
+    /**
+     * Get subtitle height of target.
+     * @param index Subtitle index
+     * @return Subtitle height of target
+     */
+    public int getTrgImgHeight(int index) {
+        synchronized (semaphore) {
+            return subPictures[index].getImageHeight();
+        }
+    }
+
+    /**
+     * Get exclude (from export) state of target.
+     * @param index Subtitle index
+     * @return Screen width of target
+     */
+    public boolean getTrgExcluded(int index) {
+        synchronized (semaphore) {
+            return subPictures[index].isExcluded();
+        }
+    }
+
+    /**
+     * Get subtitle x offset of target.
+     * @param index Subtitle index
+     * @return Subtitle x offset of target
+     */
+    public int getTrgOfsX(int index) {
+        synchronized (semaphore) {
+            return subPictures[index].getXOffset();
+        }
+    }
+
+    /**
+     * Get subtitle y offset of target.
+     * @param index Subtitle index
+     * @return Subtitle y offset of target
+     */
+    public int getTrgOfsY(int index) {
+        synchronized (semaphore) {
+            return subPictures[index].getYOffset();
+        }
+    }
+
+    /**
+     * Get number of subtitles.
+     * @return Number of subtitles
+     */
+    public int getNumFrames() {
+        return subtitleStream == null ? 0 : subtitleStream.getFrameCount();
+    }
+
+    /**
+     * Get number of forced subtitles.
+     * @return Number of forced subtitles
+     */
+    public int getNumForcedFrames() {
+        return subtitleStream == null ? 0 : subtitleStream.getForcedFrameCount();
+    }
+
+    /**
+     * Create info string for target subtitle.
+     * @param index Index of subtitle
+     * @return Info string for target subtitle
+     */
+    public String getTrgInfoStr(int index) {
+        SubPicture pic = subPictures[index];
+        String text = "screen size: "+getTrgWidth(index)+"x"+getTrgHeight(index)+"    ";
+        text +=	"image size: "+getTrgImgWidth(index)+"x"+getTrgImgHeight(index)+"    ";
+        text += "pos: ("+pic.getXOffset()+","+pic.getYOffset()+") - ("+(pic.getXOffset()+getTrgImgWidth(index))+","+(pic.getYOffset()+getTrgImgHeight(index))+")    ";
+        text += "start: "+ptsToTimeStr(pic.getStartTime())+"    ";
+        text += "end: "+ptsToTimeStr(pic.getEndTime())+"    ";
+        text += "forced: "+((pic.isForced())?"yes":"no");
+        return text;
+    }
+
+    /**
+     * Create info string for source subtitle.
+     * @param index Index of subtitle
+     * @return Info string for source subtitle
+     */
+    public String getSrcInfoStr(int index) {
+        String text;
+
+        SubPicture pic = subtitleStream.getSubPicture(index);
+        text  = "screen size: "+ pic.getWidth() +"x"+ pic.getHeight() +"    ";
+        text +=	"image size: "+pic.getImageWidth()+"x"+pic.getImageHeight()+"    ";
+        text += "pos: ("+pic.getXOffset()+","+pic.getYOffset()+") - ("+(pic.getXOffset()+pic.getImageWidth())+","+(pic.getYOffset()+pic.getImageHeight())+")    ";
+        text += "start: "+ptsToTimeStr(pic.getStartTime())+"    ";
+        text += "end: "+ptsToTimeStr(pic.getEndTime())+"    ";
+        text += "forced: "+((pic.isForced())?"yes":"no");
+        return text;
+    }
+
+    /**
+     * Get current DVD palette.
+     * @return DVD palette
+     */
+    public Palette getCurrentDVDPalette() {
+        return currentDVDPalette;
+    }
+
+    /**
+     * Set current DVD palette.
+     * @param pal DVD palette
+     */
+    public void setCurrentDVDPalette(Palette pal) {
+        currentDVDPalette = pal;
+    }
+
+    /**
+     * Get target subpicture.
+     * @param index Index of subpicture
+     * @return Target SubPicture
+     */
+    public SubPicture getSubPictureTrg(int index) {
+        synchronized (semaphore) {
+            return subPictures[index];
+        }
+    }
+
+    /**
+     * Get source subpicture.
+     * @param index Index of subpicture
+     * @return Source SubPicture
+     */
+    public SubPicture getSubPictureSrc(int index) {
+        synchronized (semaphore) {
+            return subtitleStream.getSubPicture(index);
+        }
+    }
+
+    /**
+     * Get: use of BT.601 color model instead of BT.709.
+     * @return True if BT.601 is used
+     */
+    public boolean usesBT601() {
+        return useBT601;
+    }
+
+    /**
+     * Set internal maximum for progress bar.
+     * @param max Internal maximum for progress bar (e.g. number of subtitles)
+     */
+    public void setProgressMax(int max) {
+        progressMax = max;
+    }
+
+    /**
+     * Get imported palette if input is DVD format.
+     * @return Imported palette if input is DVD format, else null
+     */
+    public Palette getDefSrcDVDPalette() {
+        return defaultSourceDVDPalette;
+    }
+
+    /**
+     * Get modified imported palette if input is DVD format.
+     * @return Imported palette if input is DVD format, else null
+     */
+    public Palette getCurSrcDVDPalette() {
+        return currentSourceDVDPalette;
+    }
+
+    /**
+     * Set modified imported palette.
+     * @param pal Modified imported palette
+     */
+    public void setCurSrcDVDPalette(Palette pal) {
+        currentSourceDVDPalette = pal;
+        clearDecodedFrames();
+
+        DvdSubtitleStream substreamDvd = null;
+        if (inMode == InputMode.VOBSUB) {
+            substreamDvd = subDVD;
+        } else if (inMode == InputMode.SUPIFO) {
+            substreamDvd = supDVD;
+        }
+
+        substreamDvd.setSrcPalette(currentSourceDVDPalette);
+    }
+
+    /**
+     * Return frame palette of given subtitle.
+     * @param index Index of subtitle
+     * @return Frame palette of given subtitle as array of int (4 entries)
+     */
+    public int[] getFramePal(int index) {
+        DvdSubtitleStream substreamDvd = null;
+
+        if (inMode == InputMode.VOBSUB) {
+            substreamDvd = subDVD;
+        } else if (inMode == InputMode.SUPIFO) {
+            substreamDvd = supDVD;
+        }
+
+        if (substreamDvd != null) {
+            return substreamDvd.getFramePalette(index);
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Return frame alpha values of given subtitle.
+     * @param index Index of subtitle
+     * @return Frame alpha values of given subtitle as array of int (4 entries)
+     */
+    public int[] getFrameAlpha(int index) {
+        DvdSubtitleStream substreamDvd = null;
+
+        if (inMode == InputMode.VOBSUB) {
+            substreamDvd = subDVD;
+        } else if (inMode == InputMode.SUPIFO) {
+            substreamDvd = supDVD;
+        }
+
+        if (substreamDvd != null) {
+            return substreamDvd.getFrameAlpha(index);
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Return original frame palette of given subtitle.
+     * @param index Index of subtitle
+     * @return Frame palette of given subtitle as array of int (4 entries)
+     */
+    public int[] getOriginalFramePal(int index) {
+        DvdSubtitleStream substreamDvd = null;
+
+        if (inMode == InputMode.VOBSUB) {
+            substreamDvd = subDVD;
+        } else if (inMode == InputMode.SUPIFO) {
+            substreamDvd = supDVD;
+        }
+
+        if (substreamDvd != null) {
+            return substreamDvd.getOriginalFramePalette(index);
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Return original frame alpha values of given subtitle.
+     * @param index Index of subtitle
+     * @return Frame alpha values of given subtitle as array of int (4 entries)
+     */
+    public int[] getOriginalFrameAlpha(int index) {
+        DvdSubtitleStream substreamDvd = null;
+
+        if (inMode == InputMode.VOBSUB) {
+            substreamDvd = subDVD;
+        } else if (inMode == InputMode.SUPIFO) {
+            substreamDvd = supDVD;
+        }
+
+        if (substreamDvd != null) {
+            return substreamDvd.getOriginalFrameAlpha(index);
+        } else {
+            return null;
+        }
+    }
+
+    /** Result of converting one caption: target bitmap and palette plus the DVD frame info (VobSub and SUP/IFO only) */
+    private static final class ConvertedFrame {
+        /** Converted target bitmap with erase patches applied */
+        Bitmap bitmap;
+        /** Converted target bitmap without erase patches */
+        Bitmap bitmapUnpatched;
+        /** Palette of target caption */
+        Palette palette;
+        /** Frame palette and alpha values for DVD output, else null */
+        SubPictureDVD dvdPicture;
+        /** Conversion settings of a prefetched caption, else null */
+        List<Object> settings;
+    }
+
+    /** Measures the time spent in a quantizer, used by one thread converting one caption */
+    private static final class TimedQuantizer implements ColorQuantizer {
+        private final ColorQuantizer quantizer;
+        /** Time spent quantizing in nanoseconds */
+        long nanos;
+
+        TimedQuantizer(ColorQuantizer quantizer) {
+            this.quantizer = quantizer;
+        }
+
+        @Override
+        public int[] quantize(int[] inPixels, byte[] outPixels, int width, int height, int numColors, boolean dither, boolean serpentine) {
+            long start = System.nanoTime();
+            try {
+                return quantizer.quantize(inPixels, outPixels, width, height, numColors, dither, serpentine);
+            } finally {
+                nanos += System.nanoTime() - start;
+            }
+        }
+    }
+
+    /** Converts the captions around the displayed one, nearest first, until a newer request is made */
+    private final class PrefetchTask implements Runnable {
+        private final int center;
+        private final int count;
+        private final int generation;
+
+        PrefetchTask(int center, int count, int generation) {
+            this.center = center;
+            this.count = count;
+            this.generation = generation;
+        }
+
+        @Override
+        public void run() {
+            ConversionSession previous = bind();
+            try {
+                for (int distance = 1; distance <= count; distance++) {
+                    for (int index : new int[] {center + distance, center - distance}) {
+                        if (generation != prefetchGeneration) {
+                            return;
+                        }
+                        prefetchFrame(index, count, generation);
+                    }
+                }
+            } catch (CoreException ex) {
+                // nothing to report, the caption is converted again when it's displayed
+            } finally {
+                unbind(previous);
+            }
+        }
+    }
+
+    /**
+     * Operation run on the operation thread, also the future returned to the caller.<br>
+     * Canceling completes the future of a queued operation. A running operation is only marked, its future
+     * is completed as canceled once it has stopped.
+     */
+    private final class Operation extends CompletableFuture<Void> implements Runnable {
+        private final RunType runType;
+        private final String fname;
+        /** Set when the operation is canceled, read by the operation thread */
+        private volatile boolean canceled;
+        /** Set when the operation thread has started the operation, guarded by the session */
+        private boolean started;
+
+        Operation(RunType runType, String fname) {
+            this.runType = runType;
+            this.fname = fname;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (isDone()) {
+                return false;
+            }
+            return cancelOperation(this) && super.cancel(false);
+        }
+
+        @Override
+        public void run() {
+            Throwable error = null;
+            if (startOperation(this)) {
+                try {
+                    runOperation(runType, fname);
+                } catch (Throwable ex) {
+                    error = ex;
+                }
+            }
+            finishOperation(this);
+            if (canceled) {
+                super.cancel(false);
+            } else if (error == null) {
+                complete(null);
+            } else {
+                completeExceptionally(error);
+            }
+        }
+    }
+
+    /** Converts and encodes one caption on an export worker thread */
+    private final class ExportTask implements Callable<byte[]> {
+        private final int index;
+        private final int frameNum;
+        private final int displayMax;
+        private final String fn;
+
+        ExportTask(int index, int frameNum, int displayMax, String fn) {
+            this.index = index;
+            this.frameNum = frameNum;
+            this.displayMax = displayMax;
+            this.fn = fn;
+        }
+
+        @Override
+        public byte[] call() throws Exception {
+            if (isCanceled()) {
+                throw new CoreException("Canceled by user!");
+            }
+            ConversionSession previous = bind();
+            try {
+                return exportFrame(index, frameNum, displayMax, fn);
+            } finally {
+                unbind(previous);
+            }
+        }
+    }
+}
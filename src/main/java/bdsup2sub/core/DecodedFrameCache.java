@@ -0,0 +1,154 @@
+/*
+ * Copyright 2013 Volker Oth (0xdeadbeef) / Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.core;
+
+import bdsup2sub.bitmap.Bitmap;
+import bdsup2sub.bitmap.Palette;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decoded source captions (bitmap, palette and primary color) of a subtitle stream by caption index.<br>
+ * The least recently used captions are dropped as soon as the estimated memory use exceeds the budget.
+ * Each entry remembers the decoder settings it was created with, a lookup with different settings misses.<br>
+ * Not thread safe, the session only uses it while holding its semaphore.
+ */
+final class DecodedFrameCache {
+
+    /** Estimated fixed overhead of one entry in bytes */
+    private static final int ENTRY_OVERHEAD = 128;
+    /** Number of bytes per palette entry (RGBA and YCbCr components) */
+    private static final int BYTES_PER_PALETTE_ENTRY = 7;
+
+    /** Decoded source caption */
+    static final class Entry {
+        final Bitmap bitmap;
+        final Palette palette;
+        final int primaryColorIndex;
+        /** Decoder settings used, compared with equals() */
+        final Object settings;
+        /** Estimated memory use in bytes */
+        final long size;
+
+        Entry(Bitmap bitmap, Palette palette, int primaryColorIndex, Object settings) {
+            this.bitmap = bitmap;
+            this.palette = palette;
+            this.primaryColorIndex = primaryColorIndex;
+            this.settings = settings;
+            size = (long)bitmap.getWidth() * bitmap.getHeight() + (long)palette.getSize() * BYTES_PER_PALETTE_ENTRY + ENTRY_OVERHEAD;
+        }
+    }
+
+    /** Entries in access order, least recently used first */
+    private final Map<Integer, Entry> entries = new LinkedHashMap<Integer, Entry>(16, 0.75f, true);
+    /** Maximum estimated memory use in bytes */
+    private long budget;
+    /** Estimated memory use of all entries in bytes */
+    private long size;
+
+    /**
+     * @param budget Maximum estimated memory use in bytes, 0 disables the cache
+     */
+    DecodedFrameCache(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Get a decoded caption.
+     * @param index    Index of caption
+     * @param settings Decoder settings the caption has to be decoded with
+     * @return Decoded caption or null if it's not cached or was decoded with other settings
+     */
+    Entry get(int index, Object settings) {
+        Entry entry = entries.get(index);
+        if (entry != null && !entry.settings.equals(settings)) {
+            remove(index);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Store a decoded caption, replacing a cached one with the same index.<br>
+     * A caption larger than the whole budget is not stored.
+     * @param index Index of caption
+     * @param entry Decoded caption
+     */
+    void put(int index, Entry entry) {
+        remove(index);
+        if (entry.size <= budget) {
+            entries.put(index, entry);
+            size += entry.size;
+            evict();
+        }
+    }
+
+    /**
+     * Drop a cached caption.
+     * @param index Index of caption
+     */
+    void remove(int index) {
+        Entry entry = entries.remove(index);
+        if (entry != null) {
+            size -= entry.size;
+        }
+    }
+
+    /**
+     * Drop all cached captions, e.g. when another stream was loaded.
+     */
+    void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    /**
+     * Change the memory budget, least recently used captions are dropped until the cache fits.
+     * @param budget Maximum estimated memory use in bytes, 0 disables the cache
+     */
+    void setBudget(long budget) {
+        this.budget = budget;
+        evict();
+    }
+
+    long getBudget() {
+        return budget;
+    }
+
+    /**
+     * @return Estimated memory use of all cached captions in bytes
+     */
+    long getSize() {
+        return size;
+    }
+
+    /**
+     * @return Number of cached captions
+     */
+    int getCount() {
+        return entries.size();
+    }
+
+    private void evict() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (size > budget && it.hasNext()) {
+            size -= it.next().size;
+            it.remove();
+        }
+    }
+}
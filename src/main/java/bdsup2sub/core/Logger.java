@@ -18,18 +18,59 @@ package bdsup2sub.core;
 import bdsup2sub.gui.main.MainFrameView;
 
 import javax.swing.*;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Console output of the conversion.<br>
+ * Messages are queued in a ring buffer and written by one consumer thread, which appends all messages
+ * queued since its last run with one console write (or one update of the GUI console) per tick. So logging
+ * doesn't block the converting threads, and many short messages don't flood the console or the event queue.
+ * Use {@link #flush()} before writing to the console directly.<br>
+ * Warnings and errors are also counted by the session bound to the logging thread, and its lines are prefixed
+ * with the log name of the session if it has one, so concurrent conversions can be told apart.
+ */
 public final class Logger {
 
     private static final Configuration configuration = Configuration.getInstance();
     private static final Logger INSTANCE = new Logger();
 
-    private int errorCount;
-    private int warningCount;
+    /** Number of messages the buffer holds before producers have to wait */
+    private static final int BUFFER_CAPACITY = 8192;
+    /** Interval in which the consumer writes the queued messages */
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    private final AtomicInteger errorCount = new AtomicInteger();
+    private final AtomicInteger warningCount = new AtomicInteger();
+    private final MessageRingBuffer buffer = new MessageRingBuffer(BUFFER_CAPACITY);
+    /** Held while taking messages from the buffer, so flush() and the consumer thread don't interleave */
+    private final Object drainLock = new Object();
+    private final Thread consumer;
 
-    private MainFrameView mainFrame;
+    private volatile MainFrameView mainFrame;
 
     private Logger() {
+        consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    synchronized (drainLock) {
+                        drain();
+                    }
+                    LockSupport.parkNanos(TICK_NANOS);
+                }
+            }
+        }, "Logger");
+        consumer.setDaemon(true);
+        consumer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }));
     }
 
     public static Logger getInstance() {
@@ -37,82 +78,187 @@ public final class Logger {
     }
 
     public void warn(String message) {
-        warningCount++;
-        final String msg = "WARNING: " + message;
-        if (mainFrame != null) {
-            SwingUtilities.invokeLater(new Runnable() {
-                @Override
-                public void run() {
-                    mainFrame.printToConsole(msg);
-                }
-            });
-        } else {
-            System.out.print(msg);
+        warningCount.incrementAndGet();
+        ConversionSession session = ConversionSession.current();
+        if (session != null) {
+            session.countWarning();
         }
+        log("WARNING: " + message);
     }
 
     public void error(String message) {
-        errorCount++;
-        final String msg = "ERROR: " + message;
-        if (mainFrame != null) {
-            SwingUtilities.invokeLater(new Runnable() {
-                @Override
-                public void run() {
-                    mainFrame.printToConsole(msg);
-                }
-            });
-        } else {
-            System.out.print(msg);
+        errorCount.incrementAndGet();
+        ConversionSession session = ConversionSession.current();
+        if (session != null) {
+            session.countError();
         }
+        log("ERROR: " + message);
+    }
+
+    /**
+     * Check this before building an expensive trace message.<br>
+     * The verbose setting of the session bound to the calling thread applies, so a job can trace on its own.
+     * @return True if trace messages are written (verbose mode)
+     */
+    public boolean isTraceEnabled() {
+        ConversionSession session = ConversionSession.current();
+        return (session != null ? session.getConfiguration() : configuration).isVerbose();
     }
 
     public void trace(String message) {
-        final String msg = message;
-        if (configuration.isVerbose()) {
-            if (mainFrame != null) {
-                SwingUtilities.invokeLater(new Runnable() {
-                    @Override
-                    public void run() {
-                        mainFrame.printToConsole(msg);
-                    }
-                });
-            } else {
-                System.out.print(msg);
-            }
+        if (isTraceEnabled()) {
+            log(message);
+        }
+    }
+
+    /**
+     * Write a trace message built from a format template.<br>
+     * The message is only formatted in verbose mode, so parsers can trace every segment or packet
+     * without building strings in normal runs.
+     * @param format Template as for {@link String#format(String, Object...)}, e.g. "ofs: 0x%08x\n"
+     * @param args   Arguments referenced by the template
+     */
+    public void trace(String format, Object... args) {
+        if (isTraceEnabled()) {
+            log(String.format(Locale.US, format, args));
+        }
+    }
+
+    /**
+     * Write a trace message built from a format template with one number, e.g. an offset.<br>
+     * Unlike {@link #trace(String, Object...)} this neither allocates an argument array nor boxes the number
+     * in normal runs.
+     * @param format Template as for {@link String#format(String, Object...)}
+     * @param arg    Number referenced by the template
+     */
+    public void trace(String format, long arg) {
+        if (isTraceEnabled()) {
+            log(String.format(Locale.US, format, arg));
+        }
+    }
+
+    /**
+     * Write a trace message built from a format template with two numbers, e.g. offset and size of a segment.
+     * @param format Template as for {@link String#format(String, Object...)}
+     * @param arg1   First number referenced by the template
+     * @param arg2   Second number referenced by the template
+     */
+    public void trace(String format, long arg1, long arg2) {
+        if (isTraceEnabled()) {
+            log(String.format(Locale.US, format, arg1, arg2));
         }
     }
 
     public void info(String message) {
-        final String msg = message;
-        if (mainFrame != null) {
+        log(message);
+    }
+
+    private void log(String message) {
+        if (message == null) {
+            message = "null";
+        }
+        ConversionSession session = ConversionSession.current();
+        String name = session != null ? session.getLogName() : null;
+        if (name != null) {
+            message = prefixLines(message, "[" + name + "] ");
+        }
+        buffer.put(message);
+        if (buffer.size() > BUFFER_CAPACITY / 2) {
+            // don't wait for the next tick, producers are about to block
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * Insert a prefix at the start of each non empty line of a message.
+     * @param message Message, may contain several lines
+     * @param prefix  Prefix
+     * @return Prefixed message
+     */
+    static String prefixLines(String message, String prefix) {
+        StringBuilder sb = new StringBuilder(message.length() + prefix.length());
+        int start = 0;
+        while (start < message.length()) {
+            int end = message.indexOf('\n', start);
+            end = end < 0 ? message.length() : end + 1;
+            if (message.charAt(start) != '\n') {
+                sb.append(prefix);
+            }
+            sb.append(message, start, end);
+            start = end;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Write all messages logged so far, e.g. before writing to the console directly.
+     */
+    public void flush() {
+        long claimed = buffer.getClaimed();
+        synchronized (drainLock) {
+            while (buffer.getConsumed() < claimed) {
+                if (!drain()) {
+                    // a message was claimed, but its producer hasn't stored it yet
+                    Thread.yield();
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the queued messages with one console update. Must be called while holding the drain lock.
+     * @return True if any messages were written
+     */
+    private boolean drain() {
+        StringBuilder sb = new StringBuilder();
+        if (buffer.drainTo(sb) == 0) {
+            return false;
+        }
+        final String text = sb.toString();
+        final MainFrameView view = mainFrame;
+        if (view != null) {
             SwingUtilities.invokeLater(new Runnable() {
                 @Override
                 public void run() {
-                    mainFrame.printToConsole(msg);
+                    view.printToConsole(text);
+                    view.flushConsole();
                 }
             });
         } else {
-            System.out.print(msg);
+            System.out.print(text);
         }
+        return true;
     }
 
     public int getErrorCount() {
-        return errorCount;
+        return errorCount.get();
     }
 
     public void resetErrorCounter() {
-        errorCount = 0;
+        errorCount.set(0);
     }
 
     public int getWarningCount() {
-        return warningCount;
+        return warningCount.get();
     }
 
     public void resetWarningCounter() {
-        warningCount = 0;
+        warningCount.set(0);
     }
 
     public void printWarningsAndErrorsAndResetCounters() {
+        printWarningsAndErrors(getWarningCount(), getErrorCount());
+        resetWarningCounter();
+        resetErrorCounter();
+    }
+
+    /**
+     * Print the number of warnings and errors, e.g. summed up over the sessions of a batch conversion.
+     * @param warningCount Number of warnings
+     * @param errorCount   Number of errors
+     */
+    public void printWarningsAndErrors(int warningCount, int errorCount) {
+        flush();
         if (warningCount + errorCount > 0) {
             String message = "";
             if (warningCount > 0) {
@@ -139,11 +285,10 @@ public final class Logger {
             }
             System.out.println(message);
         }
-        resetWarningCounter();
-        resetErrorCounter();
     }
 
     public void setMainFrame(MainFrameView mainFrame) {
+        flush();
         this.mainFrame = mainFrame;
     }
 }
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2013 Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded ring buffer of log messages with any number of producers and a single consumer.<br>
+ * A producer claims a sequence number with one atomic increment and publishes its message into the
+ * slot of that number, so adding a message never takes a lock. Only when the buffer is full, producers
+ * wait for the consumer. The consumer takes the published messages in sequence order and frees their slots.
+ */
+final class MessageRingBuffer {
+
+    /** Time a producer waits before checking again whether a full buffer has space */
+    private static final long FULL_WAIT_NANOS = 100000;
+
+    private final AtomicReferenceArray<String> slots;
+    private final int mask;
+    /** Next sequence number to claim */
+    private final AtomicLong tail = new AtomicLong();
+    /** Next sequence number to consume, only written by the consumer */
+    private volatile long head;
+
+    /**
+     * @param capacity Number of slots, a power of two
+     */
+    MessageRingBuffer(int capacity) {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        slots = new AtomicReferenceArray<String>(capacity);
+        mask = capacity - 1;
+    }
+
+    /**
+     * Add a message, waits while the buffer is full.
+     * @param message Message, not null
+     */
+    void put(String message) {
+        long seq = tail.getAndIncrement();
+        while (seq - head >= slots.length()) {
+            LockSupport.parkNanos(FULL_WAIT_NANOS);
+        }
+        slots.set((int)seq & mask, message);
+    }
+
+    /**
+     * Take all messages published in sequence, stops at a claimed slot whose message isn't published yet.
+     * Must only be called by one thread at a time.
+     * @param sb Receives the messages
+     * @return Number of messages taken
+     */
+    int drainTo(StringBuilder sb) {
+        long h = head;
+        int count = 0;
+        for (;;) {
+            int index = (int)h & mask;
+            String message = slots.get(index);
+            if (message == null) {
+                break;
+            }
+            slots.set(index, null);
+            sb.append(message);
+            h++;
+            count++;
+            head = h;
+        }
+        return count;
+    }
+
+    /**
+     * @return Number of sequence numbers claimed so far
+     */
+    long getClaimed() {
+        return tail.get();
+    }
+
+    /**
+     * @return Number of messages taken by the consumer so far
+     */
+    long getConsumed() {
+        return head;
+    }
+
+    /**
+     * @return Number of messages claimed but not taken yet
+     */
+    int size() {
+        return (int)(tail.get() - head);
+    }
+
+    int getCapacity() {
+        return slots.length();
+    }
+}
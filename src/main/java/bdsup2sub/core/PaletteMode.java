@@ -34,4 +34,10 @@ public enum PaletteMode {
             return "dithered";
         }
     },
+    CREATE_ORDERED_DITHERED {
+        @Override
+        public String toString() {
+            return "ordered dither";
+        }
+    },
 }
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2013 Volker Oth (0xdeadbeef) / Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.core;
+
+/**
+ * Receives the progress of the operations of a session, e.g. to report it outside of the GUI.
+ */
+public interface ProgressListener {
+
+    /**
+     * Called on the thread doing the operation each time its progress reaches another percent.
+     * If several worker threads report progress, each percentage is reported once by the thread reaching it.
+     * @param operation Operation as given to {@link ConversionSession#startProgress(String, long)}
+     * @param percent   Percentage done, 1..100
+     */
+    void progressChanged(String operation, int percent);
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2013 Volker Oth (0xdeadbeef) / Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.core;
+
+import bdsup2sub.tools.ColorQuantizer;
+import bdsup2sub.tools.MedianCutQuantizer;
+import bdsup2sub.tools.QuantizeFilter;
+
+/**
+ * Algorithm used to create a new palette for a true color caption.
+ */
+public enum Quantizer {
+    MEDIAN_CUT {
+        @Override
+        public String toString() {
+            return "Median-Cut";
+        }
+
+        @Override
+        public ColorQuantizer createQuantizer() {
+            return new MedianCutQuantizer();
+        }
+    },
+    /** Former quantizer, kept to compare output with older versions */
+    OCTREE {
+        @Override
+        public String toString() {
+            return "Octree";
+        }
+
+        @Override
+        public ColorQuantizer createQuantizer() {
+            return new QuantizeFilter();
+        }
+    };
+
+    /**
+     * @return New quantizer using this algorithm
+     */
+    public abstract ColorQuantizer createQuantizer();
+}
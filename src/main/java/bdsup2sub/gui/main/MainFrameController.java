@@ -312,6 +312,7 @@ class MainFrameController {
                             view.setQuitMenuItemEnabled(true);
                             view.refreshSrcFrame(subIndex);
                             view.refreshTrgFrame(subIndex);
+                            Core.prefetchCaptions(subIndex);
                             view.enableCoreComponents(true);
                             if (model.getOutputMode() == OutputMode.VOBSUB || Core.getInputMode() == InputMode.SUPIFO) {
                                 view.enableVobsubBits(true);
@@ -652,6 +653,7 @@ class MainFrameController {
                     Core.convertSup(subIndex, subIndex +1, Core.getNumFrames());
                     view.refreshSrcFrame(subIndex);
                     view.refreshTrgFrame(subIndex);
+                    Core.prefetchCaptions(subIndex);
                 } catch (CoreException ex) {
                     view.error(ex.getMessage());
                 } catch (Exception ex) {
@@ -690,6 +692,7 @@ class MainFrameController {
                         Core.convertSup(subIndex, subIndex + 1, Core.getNumFrames());
                         view.refreshSrcFrame(subIndex);
                         view.refreshTrgFrame(subIndex);
+                        Core.prefetchCaptions(subIndex);
                     } catch (CoreException ex) {
                         view.error(ex.getMessage());
                     } catch (Exception ex) {
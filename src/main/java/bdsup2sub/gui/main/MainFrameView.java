@@ -1187,11 +1187,11 @@ public class MainFrameView extends JFrame implements ClipboardOwner {
         Core.setReady(false);
         jComboBoxPalette.removeAllItems();
         for (PaletteMode m : PaletteMode.values()) {
-            if (!b || m != PaletteMode.CREATE_DITHERED) {
+            if (!b || (m != PaletteMode.CREATE_DITHERED && m != PaletteMode.CREATE_ORDERED_DITHERED)) {
                 jComboBoxPalette.addItem(m.toString());
             }
         }
-        if (!b || model.getPaletteMode() != PaletteMode.CREATE_DITHERED) {
+        if (!b || (model.getPaletteMode() != PaletteMode.CREATE_DITHERED && model.getPaletteMode() != PaletteMode.CREATE_ORDERED_DITHERED)) {
             jComboBoxPalette.setSelectedIndex(model.getPaletteMode().ordinal());
         } else {
             jComboBoxPalette.setSelectedIndex(PaletteMode.CREATE_NEW.ordinal());
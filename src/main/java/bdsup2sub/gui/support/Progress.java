@@ -38,6 +38,8 @@ public class Progress extends JDialog {
     private JLabel jLabelProgress;
 
     private Timer timer;
+    /** Percentage shown by the progress bar, only used by the timer thread */
+    private int shownProgress;
 
 
     public Progress(Frame owner) {
@@ -127,12 +129,27 @@ public class Progress extends JDialog {
         jProgressBar.repaint();
     }
 
+    /**
+     * Closes the dialog when the operation is done and samples its progress, so the working thread
+     * only publishes its progress and never waits for the event dispatch thread.
+     */
     private class ProgressTimer extends TimerTask {
         @Override
         public void run() {
             if (Core.getStatus() != CoreThreadState.ACTIVE) {
                 timer.cancel();
                 dispose();
+            } else {
+                final int val = Core.getProgress();
+                if (val != shownProgress) {
+                    shownProgress = val;
+                    SwingUtilities.invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            setProgress(val);
+                        }
+                    });
+                }
             }
         }
     }
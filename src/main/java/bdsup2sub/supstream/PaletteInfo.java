@@ -22,17 +22,17 @@ public class PaletteInfo {
 
     private final int id;
     /** offset to palette info in SUP file */
-    private final int paletteOffset;
+    private final long paletteOffset;
     /** number of palette entries */
     private final int paletteSize;
 
-    public PaletteInfo(int id, int paletteOffset, int paletteSize) {
+    public PaletteInfo(int id, long paletteOffset, int paletteSize) {
         this.id = id;
         this.paletteOffset = paletteOffset;
         this.paletteSize = paletteSize;
     }
 
-    public int getPaletteOffset() {
+    public long getPaletteOffset() {
         return paletteOffset;
     }
 
@@ -55,7 +55,7 @@ public class PaletteInfo {
 
     @Override
     public int hashCode() {
-        int result = paletteOffset;
+        int result = (int) (paletteOffset ^ (paletteOffset >>> 32));
         result = 31 * result + paletteSize;
         return result;
     }
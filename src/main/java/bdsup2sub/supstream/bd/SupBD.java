@@ -21,11 +21,14 @@ import bdsup2sub.core.*;
 import bdsup2sub.supstream.*;
 import bdsup2sub.tools.FileBuffer;
 import bdsup2sub.tools.FileBufferException;
+import bdsup2sub.tools.StreamBuffer;
 import bdsup2sub.utils.ToolBox;
 
 import java.awt.*;
 import java.awt.color.ColorSpace;
 import java.awt.image.*;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -35,12 +38,14 @@ import java.util.Map;
  */
 public class SupBD implements SubtitleStream {
 
-    private static final Configuration configuration = Configuration.getInstance();
+    private final Configuration configuration;
     private static final Logger logger = Logger.getInstance();
 
     private FileBuffer buffer;
     private List<SubPictureBD> subPictures = new ArrayList<SubPictureBD>();
     private int forcedFrameCount;
+    /** parser of a stream that is read caption by caption, null for files */
+    private SupBDParser streamParser;
 
     /** color palette of the last decoded caption  */
     private Palette palette;
@@ -50,12 +55,62 @@ public class SupBD implements SubtitleStream {
     private int primaryColorIndex;
 
     public SupBD(String filename) throws CoreException {
+        this(filename, Configuration.getInstance());
+    }
+
+    public SupBD(String filename, Configuration configuration) throws CoreException {
+        this.configuration = configuration;
         SupBDParser parser = new SupBDParser(filename);
         buffer = parser.getBuffer();
         subPictures = parser.getSubPictures();
         forcedFrameCount = parser.getForcedFrameCount();
     }
 
+    /**
+     * Open a BD-SUP stream that is parsed while it is read (e.g. from a pipe).<br>
+     * Captions have to be fetched with {@link #readSubPicture()} and handed back with
+     * {@link #release(SubPictureBD)} once they were decoded, the index based accessors only
+     * see the captions that were read and not released yet.
+     * @param in input stream
+     * @param name name of the input stream used in messages
+     * @param configuration configuration used for decoding
+     */
+    public SupBD(InputStream in, String name, Configuration configuration) {
+        this.configuration = configuration;
+        buffer = new StreamBuffer(in, name);
+        streamParser = new SupBDParser((StreamBuffer)buffer);
+    }
+
+    /**
+     * Read the next caption from a stream opened with {@link #SupBD(InputStream, String, Configuration)}.
+     * @return next caption or null at the end of the stream
+     * @throws CoreException
+     */
+    public SubPictureBD readSubPicture() throws CoreException {
+        SubPictureBD pic = streamParser.readNextSubPicture();
+        if (pic != null) {
+            subPictures.add(pic);
+            if (pic.isForced()) {
+                forcedFrameCount++;
+            }
+        }
+        return pic;
+    }
+
+    /**
+     * Release a caption read with {@link #readSubPicture()}.<br>
+     * Stream data that is neither referenced by the remaining captions nor needed by the parser is dropped.
+     * @param pic caption that won't be decoded anymore
+     */
+    public void release(SubPictureBD pic) {
+        subPictures.remove(pic);
+        long offset = streamParser.getRetainOffset();
+        for (SubPictureBD p : subPictures) {
+            offset = Math.min(offset, SupBDParser.getDataOffset(p));
+        }
+        ((StreamBuffer)buffer).discardBefore(offset);
+    }
+
     /**
      * Decode caption from the input stream.
      * @param subPictureBD SubPicture object containing info about the caption
@@ -105,29 +160,19 @@ public class SupBD implements SubtitleStream {
         int xpos = 0;
         Bitmap bm = new Bitmap(width, height, (byte)transparentColorIndex);
         try {
-            // just for multi-packet support, copy all of the image data in one common buffer
             for (Map.Entry<Integer, ImageObject> entry : subPictureBD.getImageObjectMap().entrySet()) {
                 ImageObject o = entry.getValue();
                 /*if (subPictureBD.getStartTime() == 6914408)
                     continue;*/
-                byte[] buffer = new byte[o.getBufferSize()];
-                index = 0;
-
-                for (ImageObjectFragment fragment : o.getFragmentList()) {
-                    // copy data of all packet to one common buffer
-                    imageObjectFragment = fragment;
-                    for (int i = 0; i < imageObjectFragment.getImagePacketSize(); i++) {
-                        buffer[index + i] = (byte) this.buffer.getByte(imageObjectFragment.getImageBufferOfs() + i);
-                    }
-                    index += imageObjectFragment.getImagePacketSize();
-                }
+                ByteBuffer rle = getRleBuffer(o);
+                int rleSize = rle.limit();
 
                 index = 0;
                 ofs = (o.getYOffset() - minY) * width + o.getXOffset() - minX;
                 do {
-                    b = buffer[index++] & 0xff;
+                    b = rle.get(index++) & 0xff;
                     if (b == 0) {
-                        b = buffer[index++] & 0xff;
+                        b = rle.get(index++) & 0xff;
                         if (b == 0) {
                             // next line
                             ofs = (ofs / width) * width + o.getXOffset() - minX;
@@ -140,7 +185,7 @@ public class SupBD implements SubtitleStream {
                                 break;
                             if ((b & 0xC0) == 0x40) {
                                 // 00 4x xx -> xxx zeroes
-                                size = ((b - 0x40) << 8) + (buffer[index++] & 0xff);
+                                size = ((b - 0x40) << 8) + (rle.get(index++) & 0xff);
                                 for (int i = 0; i < size; i++) {
                                     bm.getInternalBuffer()[ofs++] = 0; /*(byte)b;*/
                                 }
@@ -148,15 +193,15 @@ public class SupBD implements SubtitleStream {
                             } else if ((b & 0xC0) == 0x80) {
                                 // 00 8x yy -> x times value y
                                 size = (b - 0x80);
-                                b = buffer[index++] & 0xff;
+                                b = rle.get(index++) & 0xff;
                                 for (int i = 0; i < size; i++) {
                                     bm.getInternalBuffer()[ofs++] = (byte) b;
                                 }
                                 xpos += size;
                             } else if ((b & 0xC0) != 0) {
                                 // 00 cx yy zz -> xyy times value z
-                                size = ((b - 0xC0) << 8) + (buffer[index++] & 0xff);
-                                b = buffer[index++] & 0xff;
+                                size = ((b - 0xC0) << 8) + (rle.get(index++) & 0xff);
+                                b = rle.get(index++) & 0xff;
                                 for (int i = 0; i < size; i++) {
                                     bm.getInternalBuffer()[ofs++] = (byte) b;
                                 }
@@ -173,19 +218,42 @@ public class SupBD implements SubtitleStream {
                         bm.getInternalBuffer()[ofs++] = (byte) b;
                         xpos++;
                     }
-                } while (index < buffer.length);
+                } while (index < rleSize);
             }
 
             return bm;
         } catch (FileBufferException ex) {
             throw new CoreException(ex.getMessage());
-        } catch (ArrayIndexOutOfBoundsException ex) {
+        } catch (IndexOutOfBoundsException ex) {
             ex.printStackTrace();
             logger.warn("Problems during RLE decoding of picture OBJ at offset " + ToolBox.toHexLeftZeroPadded(startOfs + index, 8) + "\n");
             return new Bitmap(width, height, (byte)transparentColorIndex);
         }
     }
 
+    /**
+     * Get the RLE data of an image object.<br>
+     * A single fragment is decoded directly from the mapped file, the fragments of a multi-packet
+     * object are gathered with one bulk read per fragment.
+     * @param imageObject image object containing the list of fragments
+     * @return buffer containing the complete RLE data
+     * @throws FileBufferException
+     */
+    private ByteBuffer getRleBuffer(ImageObject imageObject) throws FileBufferException {
+        List<ImageObjectFragment> fragments = imageObject.getFragmentList();
+        if (fragments.size() == 1) {
+            ImageObjectFragment fragment = fragments.get(0);
+            return buffer.getSlice(fragment.getImageBufferOfs(), fragment.getImagePacketSize());
+        }
+        byte[] rle = new byte[imageObject.getBufferSize()];
+        int index = 0;
+        for (ImageObjectFragment fragment : fragments) {
+            buffer.getBytes(fragment.getImageBufferOfs(), rle, index, fragment.getImagePacketSize());
+            index += fragment.getImagePacketSize();
+        }
+        return ByteBuffer.wrap(rle);
+    }
+
     /**
      * decode palette from the input stream
      * @param pic SubPicture object containing info about the current caption
@@ -206,7 +274,7 @@ public class SupBD implements SubtitleStream {
 
         try {
             for (PaletteInfo paletteInfo : paletteInfos) {
-                int index = paletteInfo.getPaletteOffset();
+                long index = paletteInfo.getPaletteOffset();
                 for (int i = 0; i < paletteInfo.getPaletteSize(); i++) {
                     // each palette entry consists of 5 bytes
                     paletteIndex = buffer.getByte(index);
@@ -252,7 +320,7 @@ public class SupBD implements SubtitleStream {
      * @param pic SubPicture object containing info about caption
      * @throws CoreException
      */
-    private void decode(SubPictureBD pic)  throws CoreException {
+    public void decode(SubPictureBD pic)  throws CoreException {
         palette = decodePalette(pic);
         bitmap  = decodeImage(pic, palette.getIndexOfMostTransparentPaletteEntry());
         primaryColorIndex = bitmap.getPrimaryColorIndex(palette.getAlpha(), configuration.getAlphaThreshold(), palette.getY());
@@ -359,7 +427,15 @@ public class SupBD implements SubtitleStream {
      * @see SubtitleStream#getStartOffset(int)
      */
     public long getStartOffset(int index) {
-        SubPictureBD pic = subPictures.get(index);
+        return getStartOffset(subPictures.get(index));
+    }
+
+    /**
+     * Get start offset of the image data of a caption.
+     * @param pic caption
+     * @return file offset of the first fragment of the image object
+     */
+    public long getStartOffset(SubPictureBD pic) {
         return pic.getImageObject().getFragmentList().get(0).getImageBufferOfs();
     }
 
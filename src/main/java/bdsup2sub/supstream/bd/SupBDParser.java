@@ -10,6 +10,7 @@ import bdsup2sub.supstream.PCSObject;
 import bdsup2sub.supstream.PaletteInfo;
 import bdsup2sub.tools.FileBuffer;
 import bdsup2sub.tools.FileBufferException;
+import bdsup2sub.tools.StreamBuffer;
 import bdsup2sub.utils.ToolBox;
 
 import java.util.ArrayList;
@@ -33,13 +34,27 @@ public class SupBDParser {
         int type;
         int size;
         long pts;
-        int offset; // file offset of segment
+        long offset; // file offset of segment
     }
 
     private FileBuffer buffer;
     private List<SubPictureBD> subPictures = new ArrayList<SubPictureBD>();
     private int forcedFrameCount;
 
+    /** file offset of the next segment */
+    private long index;
+    /** caption whose segments are currently parsed */
+    private SubPictureBD subPictureBD;
+    private int odsCounter;
+    private int pdsCounter;
+    private boolean paletteUpdate;
+    private PGSCompositionState compositionState = PGSCompositionState.INVALID;
+
+    /** stream mode: all segments were parsed */
+    private boolean endOfStream;
+    /** stream mode: number of captions returned by readNextSubPicture */
+    private int emittedFrameCount;
+
     public SupBDParser(String filename) throws CoreException {
         try {
             buffer = new FileBuffer(filename);
@@ -49,15 +64,17 @@ public class SupBDParser {
         parse();
     }
 
+    /**
+     * Create a parser reading the segments from a sequential stream.<br>
+     * Nothing is parsed here, the captions are fetched one by one with {@link #readNextSubPicture()}.
+     * @param buffer stream to parse
+     */
+    SupBDParser(StreamBuffer buffer) {
+        this.buffer = buffer;
+    }
+
     private void parse() throws CoreException {
-        int index = 0;
         long bufferSize = buffer.getSize();
-        PCSSegment segment;
-        SubPictureBD subPictureBD = null;
-        int odsCounter = 0;
-        int pdsCounter = 0;
-        boolean paletteUpdate = false;
-        PGSCompositionState compositionState = PGSCompositionState.INVALID;
 
         try {
             while (index < bufferSize) {
@@ -66,82 +83,7 @@ public class SupBDParser {
                     throw new CoreException("Canceled by user!");
                 }
                 Core.setProgress(index);
-                segment = readPCSSegment(index);
-                switch (segment.type) {
-                    case PGSSUP_PALETTE_SEGMENT:
-                        StringBuffer message = new StringBuffer("PDS offset: ").append(ToolBox.toHexLeftZeroPadded(index, 8)).append(", size: ").append(ToolBox.toHexLeftZeroPadded(segment.size, 4));
-                            if (subPictureBD != null) {
-                                StringBuffer result = new StringBuffer();
-                                int paletteSize = parsePDS(segment, subPictureBD, result, paletteUpdate);
-                                if (paletteSize >= 0) {
-                                    logger.trace(message + ", " + result + "\n");
-                                    if (paletteSize > 0) {
-                                        pdsCounter++;
-                                    }
-                                } else {
-                                    logger.trace(message + "\n");
-                                    logger.warn(result + "\n");
-                                }
-                            } else {
-                                logger.trace(message + "\n");
-                                logger.warn("Missing PTS start -> ignored\n");
-                            }
-                        break;
-                    case PGSSUP_PICTURE_SEGMENT:
-                        message = new StringBuffer("ODS offset: ").append(ToolBox.toHexLeftZeroPadded(index, 8)).append(", size: ").append(ToolBox.toHexLeftZeroPadded(segment.size, 4));
-                        if (!paletteUpdate) {
-                            if (subPictureBD != null) {
-                                StringBuffer result = new StringBuffer();
-                                parseODS(segment, subPictureBD, result);
-                            }
-                        }
-                        break;
-                    case PGSSUP_PRESENTATION_SEGMENT:   //PCS
-                        compositionState = getCompositionState(segment);
-                        paletteUpdate = getPaletteUpdateFlag(segment);
-                        if (subPictureBD != null) {
-                            subPictures.add(subPictureBD);
-                        }
-                        switch (compositionState) {
-                            case EPOCH_START:
-                            case ACQU_POINT:
-                                subPictureBD = new SubPictureBD();
-                                subPictureBD.setStartTime(segment.pts);
-                                StringBuffer result = new StringBuffer();
-                                parsePCS(segment, subPictureBD, result);
-                                break;
-                            case NORMAL:
-                                /*subPictureBD = new SubPictureBD(subPictures.get(subPictures.size() - 1));
-                                subPictureBD.setStartTime(segment.pts);*/
-                                break;
-                        }
-                        if (subPictures.size() > 0 && subPictures.get(subPictures.size() - 1).getEndTime() == 0) {
-                            subPictures.get(subPictures.size() - 1).setEndTime(segment.pts);
-                        }
-                        break;
-                    case PGSSUP_WINDOW_SEGMENT:
-                        message = new StringBuffer("WDS offset: ").append(ToolBox.toHexLeftZeroPadded(index, 8)).append(", size: ").append(ToolBox.toHexLeftZeroPadded(segment.size, 4));
-                        if (subPictureBD != null) {
-                            parseWDS(segment, subPictureBD);
-                            logger.trace(message + ", dim: " + subPictureBD.getWindowWidth() + "*" + subPictureBD.getWindowHeight() + "\n");
-                        } else {
-                            logger.trace(message + "\n");
-                            logger.warn("Missing PTS start -> ignored\n");
-                        }
-                        break;
-                    case PGSSUP_DISPLAY_SEGMENT:
-                        logger.trace("END offset: " + ToolBox.toHexLeftZeroPadded(index, 8) + "\n");
-                        if (subPictureBD != null) {
-                            subPictures.add(subPictureBD);
-                            subPictureBD = null;
-                        }
-                        break;
-                    default:
-                        logger.warn("<unknown> " + ToolBox.toHexLeftZeroPadded(segment.type, 2) + " ofs:" + ToolBox.toHexLeftZeroPadded(index, 8) + "\n");
-                        break;
-                }
-                index += 13; // header size
-                index += segment.size;
+                parseSegment();
             }
         } catch (CoreException ex) {
             if (subPictures.size() == 0) {
@@ -157,13 +99,189 @@ public class SupBDParser {
             logger.trace("Probably not all caption imported due to error.\n");
         }
 
-        removeLastFrameIfInvalid(odsCounter, pdsCounter);
+        removeLastFrameIfInvalid();
         Core.setProgress(bufferSize);
         countForcedFrames();
+    }
+
+    /**
+     * Read the next complete caption from the stream.<br>
+     * A caption is returned as soon as no later segment can modify it anymore, so only the segments
+     * of about two display sets have to be kept in the buffer.
+     * @return next caption or null at the end of the stream
+     * @throws CoreException
+     */
+    SubPictureBD readNextSubPicture() throws CoreException {
+        while (true) {
+            if (subPictures.size() > 0) {
+                SubPictureBD first = subPictures.get(0);
+                if (endOfStream || (subPictures.size() > 1 && first != subPictureBD && first != subPictures.get(subPictures.size() - 1))) {
+                    subPictures.remove(0);
+                    emittedFrameCount++;
+                    if (first.isForced()) {
+                        forcedFrameCount++;
+                    }
+                    return first;
+                }
+            }
+            if (endOfStream) {
+                return null;
+            }
+            try {
+                if (Core.isCanceled()) {
+                    throw new CoreException("Canceled by user!");
+                }
+                if (buffer.hasDataAt(index)) {
+                    parseSegment();
+                } else {
+                    finishStream();
+                }
+            } catch (CoreException ex) {
+                if (emittedFrameCount + subPictures.size() == 0) {
+                    throw ex;
+                }
+                logger.error(ex.getMessage() + "\n");
+                logger.trace("Probably not all caption imported due to error.\n");
+                finishStream();
+            } catch (FileBufferException ex) {
+                if (emittedFrameCount + subPictures.size() == 0) {
+                    throw new CoreException(ex.getMessage());
+                }
+                logger.error(ex.getMessage() + "\n");
+                logger.trace("Probably not all caption imported due to error.\n");
+                finishStream();
+            }
+        }
+    }
 
+    private void finishStream() {
+        endOfStream = true;
+        removeLastFrameIfInvalid();
+        if (emittedFrameCount + subPictures.size() > 0) {
+            logger.info("\nDetected " + (forcedFrameCount + countForced(subPictures)) + " forced captions.\n");
+        }
     }
 
-    private void removeLastFrameIfInvalid(int odsCounter, int pdsCounter) {
+    /**
+     * Get the lowest file offset that is still referenced by the captions not returned yet or by the parser itself.
+     * @return file offset of the first byte still needed by the parser
+     */
+    long getRetainOffset() {
+        long offset = index;
+        for (SubPictureBD pic : subPictures) {
+            offset = Math.min(offset, getDataOffset(pic));
+        }
+        if (subPictureBD != null) {
+            offset = Math.min(offset, getDataOffset(subPictureBD));
+        }
+        return offset;
+    }
+
+    /**
+     * Get the lowest file offset of the palette and image data referenced by a caption.
+     * @param pic caption
+     * @return lowest file offset or Long.MAX_VALUE if no data is referenced
+     */
+    static long getDataOffset(SubPictureBD pic) {
+        long offset = Long.MAX_VALUE;
+        for (List<PaletteInfo> paletteInfos : pic.getPalettes()) {
+            for (PaletteInfo paletteInfo : paletteInfos) {
+                offset = Math.min(offset, paletteInfo.getPaletteOffset());
+            }
+        }
+        for (ImageObject imageObject : pic.getImageObjectMap().values()) {
+            for (ImageObjectFragment fragment : imageObject.getFragmentList()) {
+                offset = Math.min(offset, fragment.getImageBufferOfs());
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * Parse the segment at the current index and advance to the next one.
+     * @throws CoreException
+     * @throws FileBufferException
+     */
+    private void parseSegment() throws CoreException, FileBufferException {
+        PCSSegment segment = readPCSSegment(index);
+        switch (segment.type) {
+            case PGSSUP_PALETTE_SEGMENT:
+                    if (subPictureBD != null) {
+                        StringBuffer result = logger.isTraceEnabled() ? new StringBuffer() : null;
+                        int paletteSize = parsePDS(segment, subPictureBD, result, paletteUpdate);
+                        if (paletteSize >= 0) {
+                            if (result != null) {
+                                logger.trace("PDS offset: 0x%08x, size: 0x%04x, %s\n", index, segment.size, result);
+                            }
+                            if (paletteSize > 0) {
+                                pdsCounter++;
+                            }
+                        } else {
+                            logger.trace("PDS offset: 0x%08x, size: 0x%04x\n", index, segment.size);
+                            logger.warn("Illegal palette id at offset " + ToolBox.toHexLeftZeroPadded(segment.offset, 8) + "\n");
+                        }
+                    } else {
+                        logger.trace("PDS offset: 0x%08x, size: 0x%04x\n", index, segment.size);
+                        logger.warn("Missing PTS start -> ignored\n");
+                    }
+                break;
+            case PGSSUP_PICTURE_SEGMENT:
+                if (!paletteUpdate) {
+                    if (subPictureBD != null) {
+                        // details of ODS and PCS segments aren't traced by this parser
+                        parseODS(segment, subPictureBD, null);
+                    }
+                }
+                break;
+            case PGSSUP_PRESENTATION_SEGMENT:   //PCS
+                compositionState = getCompositionState(segment);
+                paletteUpdate = getPaletteUpdateFlag(segment);
+                if (subPictureBD != null) {
+                    subPictures.add(subPictureBD);
+                }
+                switch (compositionState) {
+                    case EPOCH_START:
+                    case ACQU_POINT:
+                        subPictureBD = new SubPictureBD();
+                        subPictureBD.setStartTime(segment.pts);
+                        parsePCS(segment, subPictureBD, null);
+                        break;
+                    case NORMAL:
+                        /*subPictureBD = new SubPictureBD(subPictures.get(subPictures.size() - 1));
+                        subPictureBD.setStartTime(segment.pts);*/
+                        break;
+                }
+                if (subPictures.size() > 0 && subPictures.get(subPictures.size() - 1).getEndTime() == 0) {
+                    subPictures.get(subPictures.size() - 1).setEndTime(segment.pts);
+                }
+                break;
+            case PGSSUP_WINDOW_SEGMENT:
+                if (subPictureBD != null) {
+                    parseWDS(segment, subPictureBD);
+                    if (logger.isTraceEnabled()) {
+                        logger.trace("WDS offset: 0x%08x, size: 0x%04x, dim: %d*%d\n", index, segment.size, subPictureBD.getWindowWidth(), subPictureBD.getWindowHeight());
+                    }
+                } else {
+                    logger.trace("WDS offset: 0x%08x, size: 0x%04x\n", index, segment.size);
+                    logger.warn("Missing PTS start -> ignored\n");
+                }
+                break;
+            case PGSSUP_DISPLAY_SEGMENT:
+                logger.trace("END offset: 0x%08x\n", index);
+                if (subPictureBD != null) {
+                    subPictures.add(subPictureBD);
+                    subPictureBD = null;
+                }
+                break;
+            default:
+                logger.warn("<unknown> " + ToolBox.toHexLeftZeroPadded(segment.type, 2) + " ofs:" + ToolBox.toHexLeftZeroPadded(index, 8) + "\n");
+                break;
+        }
+        index += 13; // header size
+        index += segment.size;
+    }
+
+    private void removeLastFrameIfInvalid() {
         if (subPictures.size() > 0 && (odsCounter == 0 || pdsCounter == 0)) {
             logger.warn("Missing PDS/ODS: last epoch is discarded\n");
             subPictures.remove(subPictures.size() - 1);
@@ -171,16 +289,21 @@ public class SupBDParser {
     }
 
     private void countForcedFrames() {
-        forcedFrameCount = 0;
-        for (SubPictureBD p : subPictures) {
+        forcedFrameCount = countForced(subPictures);
+        logger.info("\nDetected " + forcedFrameCount + " forced captions.\n");
+    }
+
+    private static int countForced(List<SubPictureBD> pics) {
+        int count = 0;
+        for (SubPictureBD p : pics) {
             if (p.isForced()) {
-                forcedFrameCount++;
+                count++;
             }
         }
-        logger.info("\nDetected " + forcedFrameCount + " forced captions.\n");
+        return count;
     }
 
-    private PCSSegment readPCSSegment(int offset) throws FileBufferException, CoreException {
+    private PCSSegment readPCSSegment(long offset) throws FileBufferException, CoreException {
         PCSSegment pcsSegment = new PCSSegment();
         if (buffer.getWord(offset) != PGSSUP_FILE_MAGIC) {
             throw new CoreException("PG missing at index " + ToolBox.toHexLeftZeroPadded(offset, 8) + "\n");
@@ -220,11 +343,11 @@ public class SupBDParser {
      *
      * @param segment object containing info about the current segment
      * @param subPictureBD SubPicture object containing info about the current caption
-     * @param message
+     * @param message receives details for the trace output, null if not traced
      * @throws FileBufferException
      */
     private void parsePCS(PCSSegment segment, SubPictureBD subPictureBD, StringBuffer message) throws FileBufferException {
-        int index = segment.offset;
+        long index = segment.offset;
         if (segment.size >= 4) {
             subPictureBD.setWidth(buffer.getWord(index));               // video_width
             subPictureBD.setHeight(buffer.getWord(index + 2));          // video_height
@@ -238,7 +361,9 @@ public class SupBDParser {
             if (compositionObjectCount > 0) {
                 // composition_object:
                 int objectId = buffer.getWord(index + 11); // 16bit object_id_ref
-                message.append("paletteId: ").append(paletteId).append(", objectId: ").append(objectId);
+                if (message != null) {
+                    message.append("paletteId: ").append(paletteId).append(", objectId: ").append(objectId);
+                }
                 ImageObject imageObject;
                 if (!subPictureBD.getImageObjectMap().containsKey(objectId)) {
                     imageObject = new ImageObject();
@@ -280,7 +405,7 @@ public class SupBDParser {
     }
 
     private void parseWDS(PCSSegment pcsSegment, SubPictureBD subPictureBD) throws FileBufferException {
-        int index = pcsSegment.offset;
+        long index = pcsSegment.offset;
         if (pcsSegment.size >= 10) {
             // skipped:
             // 8bit: number of windows (currently assumed 1, 0..2 is legal)
@@ -293,7 +418,7 @@ public class SupBDParser {
     }
 
     private boolean parseODS(PCSSegment pcsSegment, SubPictureBD subPictureBD, StringBuffer message) throws FileBufferException {
-        int index = pcsSegment.offset;
+        long index = pcsSegment.offset;
         int objectId = buffer.getWord(index);                 // 16bit object_id
         int objectVersion = buffer.getByte(index+1);          // object_version_number
         int objectSequenceOrder = buffer.getByte(index+3);    // 8bit  first_in_sequence (0x80), last_in_sequence (0x40), 6bits reserved
@@ -317,14 +442,16 @@ public class SupBDParser {
             int height = buffer.getWord(index + 9);       // object_height
 
             if (width <= subPictureBD.getWidth() && height <= subPictureBD.getHeight()) {
-                imageObjectFragment = new ImageObjectFragment(index + 11, pcsSegment.size - (index + 11 - pcsSegment.offset));
+                imageObjectFragment = new ImageObjectFragment(index + 11, pcsSegment.size - 11);
                 imageObject.getFragmentList().add(imageObjectFragment);
                 imageObject.setBufferSize(imageObjectFragment.getImagePacketSize());
                 imageObject.setHeight(height);
                 imageObject.setWidth(width);
                 imageObject.setXOffset(subPictureBD.getPcsObjectMap().get(objectId).getxOffset());
                 imageObject.setYOffset(subPictureBD.getPcsObjectMap().get(objectId).getyOffset());
-                message.append("ID: ").append(objectId).append(", update: ").append(objectVersion).append(", seq: ").append((first ? "first" : "")).append(((first && last) ? "/" : "")).append((last ? "" + "last" : ""));
+                if (message != null) {
+                    message.append("ID: ").append(objectId).append(", update: ").append(objectVersion).append(", seq: ").append((first ? "first" : "")).append(((first && last) ? "/" : "")).append((last ? "" + "last" : ""));
+                }
                 return true;
             } else {
                 logger.warn("Invalid image size - ignored\n");
@@ -336,21 +463,22 @@ public class SupBDParser {
             //  16bit object_id
             //  8bit  object_version_number
             //  8bit  first_in_sequence (0x80), last_in_sequence (0x40), 6bits reserved
-            imageObjectFragment = new ImageObjectFragment(index + 4, pcsSegment.size - (index + 4 - pcsSegment.offset));
+            imageObjectFragment = new ImageObjectFragment(index + 4, pcsSegment.size - 4);
             imageObject.getFragmentList().add(imageObjectFragment);
             imageObject.setBufferSize(imageObject.getBufferSize() + imageObjectFragment.getImagePacketSize());
-            message.append("ID: ").append(objectId).append(", update: ").append(objectVersion).append(", seq: ").append((first ? "first" : "")).append(((first && last) ? "/" : "")).append((last ? "" + "last" : ""));
+            if (message != null) {
+                message.append("ID: ").append(objectId).append(", update: ").append(objectVersion).append(", seq: ").append((first ? "first" : "")).append(((first && last) ? "/" : "")).append((last ? "" + "last" : ""));
+            }
             return false;
         }
     }
 
     private int parsePDS(PCSSegment pcsSegment, SubPictureBD subPictureBD, StringBuffer message, boolean paletteUpdate) throws FileBufferException {
-        int index = pcsSegment.offset;
+        long index = pcsSegment.offset;
         int paletteID = buffer.getByte(index);  // 8bit palette ID (0..7)
         // 8bit palette version number (incremented for each palette change)
         int version = buffer.getByte(index + 1);
         if (paletteID > 7) {
-            message.append("Illegal palette id at offset ").append(ToolBox.toHexLeftZeroPadded(index, 8));
             return -1;
         }
 
@@ -360,7 +488,9 @@ public class SupBDParser {
 
         PaletteInfo paletteInfo = new PaletteInfo(paletteID, index + 2, (pcsSegment.size - 2) / 5);
         subPictureBD.getPalettes().get(paletteID).add(paletteInfo);
-        message.append("ID: ").append(paletteID).append(", update: ").append(version).append(", ").append(paletteInfo.getPaletteSize()).append(" entries");
+        if (message != null) {
+            message.append("ID: ").append(paletteID).append(", update: ").append(version).append(", ").append(paletteInfo.getPaletteSize()).append(" entries");
+        }
         return paletteInfo.getPaletteSize();
     }
 
@@ -77,48 +77,50 @@ public class SupBDParser1 {
                 segment = readPCSSegment(index);
                 switch (segment.type) {
                     case PGSSUP_PALETTE_SEGMENT:
-                        StringBuffer message = new StringBuffer("PDS offset: ").append(ToolBox.toHexLeftZeroPadded(index, 8)).append(", size: ").append(ToolBox.toHexLeftZeroPadded(segment.size, 4));
                         if (compositionNumber != compositionNumberOld) {
                             if (subPictureBD != null) {
-                                StringBuffer result = new StringBuffer();
+                                StringBuffer result = logger.isTraceEnabled() ? new StringBuffer() : null;
                                 int paletteSize = parsePDS(segment, subPictureBD, result);
                                 if (paletteSize >= 0) {
-                                    logger.trace(message + ", " + result + "\n");
+                                    if (result != null) {
+                                        logger.trace("PDS offset: 0x%08x, size: 0x%04x, %s\n", index, segment.size, result);
+                                    }
                                     if (paletteSize > 0) {
                                         pdsCounter++;
                                     }
                                 } else {
-                                    logger.trace(message + "\n");
-                                    logger.warn(result + "\n");
+                                    logger.trace("PDS offset: 0x%08x, size: 0x%04x\n", index, segment.size);
+                                    logger.warn("Illegal palette id at offset " + ToolBox.toHexLeftZeroPadded(segment.offset, 8) + "\n");
                                 }
                             } else {
-                                logger.trace(message + "\n");
+                                logger.trace("PDS offset: 0x%08x, size: 0x%04x\n", index, segment.size);
                                 logger.warn("Missing PTS start -> ignored\n");
                             }
                         } else {
-                            logger.trace(message + ", composition number unchanged -> ignored\n");
+                            logger.trace("PDS offset: 0x%08x, size: 0x%04x, composition number unchanged -> ignored\n", index, segment.size);
                         }
                         break;
                     case PGSSUP_PICTURE_SEGMENT:
-                        message = new StringBuffer("ODS offset: ").append(ToolBox.toHexLeftZeroPadded(index, 8)).append(", size: ").append(ToolBox.toHexLeftZeroPadded(segment.size, 4));
                         if (compositionNumber != compositionNumberOld) {
                             if (!paletteUpdate) {
                                 if (subPictureBD != null) {
-                                    StringBuffer result = new StringBuffer();
+                                    StringBuffer result = logger.isTraceEnabled() ? new StringBuffer() : null;
                                     if (parseODS(segment, subPictureBD, result)) {
                                         odsCounter++;
                                     }
-                                    logger.trace(message + ", img size: " + subPictureBD.getImageWidth() + "*" + subPictureBD.getImageHeight() + (result.length() == 0 ? "\n" : ", " + result) + "\n");
+                                    if (result != null) {
+                                        logger.trace("ODS offset: 0x%08x, size: 0x%04x, img size: %d*%d%s\n", index, segment.size, subPictureBD.getImageWidth(), subPictureBD.getImageHeight(), (result.length() == 0 ? "\n" : ", " + result));
+                                    }
                                 } else {
-                                    logger.trace(message + "\n");
+                                    logger.trace("ODS offset: 0x%08x, size: 0x%04x\n", index, segment.size);
                                     logger.warn("missing PTS start -> ignored\n");
                                 }
                             } else {
-                                logger.trace(message + "\n");
+                                logger.trace("ODS offset: 0x%08x, size: 0x%04x\n", index, segment.size);
                                 logger.warn("palette update only -> ignored\n");
                             }
                         } else {
-                            logger.trace(message + ", composition number unchanged -> ignored\n");
+                            logger.trace("ODS offset: 0x%08x, size: 0x%04x, composition number unchanged -> ignored\n", index, segment.size);
                         }
                         break;
                     case PGSSUP_PRESENTATION_SEGMENT:
@@ -152,16 +154,18 @@ public class SupBDParser1 {
                             subPictureBD.setStartTime(segment.pts);
                             logger.info("#> " + (subPictures.size()) + " (" + ptsToTimeStr(subPictureBD.getStartTime()) + ")\n");
 
-                            StringBuffer result = new StringBuffer();
+                            StringBuffer result = logger.isTraceEnabled() ? new StringBuffer() : null;
                             parsePCS(segment, subPictureBD, result);
                             // fix end time stamp of previous subPictureBD if still missing
                             if (lastSubPicture != null && lastSubPicture.getEndTime() == 0) {
                                 lastSubPicture.setEndTime(subPictureBD.getStartTime());
                             }
 
-                            message = new StringBuffer("PCS offset: ").append(ToolBox.toHexLeftZeroPadded(index, 8)).append(", START, size: ").append(ToolBox.toHexLeftZeroPadded(segment.size, 4)).append(", composition number: ").append(compositionNumber).append(", forced: ").append(subPictureBD.isForced()).append((result.length() == 0 ? "\n" : ", " + result + "\n"));
-                            message.append("PTS start: ").append(ptsToTimeStr(subPictureBD.getStartTime())).append(", screen size: ").append(subPictureBD.getWidth()).append("*").append(subPictureBD.getHeight()).append("\n");
-                            logger.trace(message.toString());
+                            if (result != null) {
+                                StringBuffer message = new StringBuffer("PCS offset: ").append(ToolBox.toHexLeftZeroPadded(index, 8)).append(", START, size: ").append(ToolBox.toHexLeftZeroPadded(segment.size, 4)).append(", composition number: ").append(compositionNumber).append(", forced: ").append(subPictureBD.isForced()).append((result.length() == 0 ? "\n" : ", " + result + "\n"));
+                                message.append("PTS start: ").append(ptsToTimeStr(subPictureBD.getStartTime())).append(", screen size: ").append(subPictureBD.getWidth()).append("*").append(subPictureBD.getHeight()).append("\n");
+                                logger.trace(message.toString());
+                            }
 
                             odsCounter = 0;
                             pdsCounter = 0;
@@ -173,45 +177,50 @@ public class SupBDParser1 {
                                 logger.warn("Missing start of epoch at offset " + ToolBox.toHexLeftZeroPadded(index, 8) + "\n");
                                 break;
                             }
-                            message = new StringBuffer("PCS offset: ").append(ToolBox.toHexLeftZeroPadded(index, 8)).append(", ");
-                            switch (compositionState) {
-                                case EPOCH_CONTINUE:
-                                    message.append("CONT, ");
-                                    break;
-                                case ACQU_POINT:
-                                    message.append("ACQU, ");
-                                    break;
-                                case NORMAL:
-                                    message.append("NORM, ");
-                                    break;
-                            }
-                            message.append(" size: ").append(ToolBox.toHexLeftZeroPadded(segment.size, 4)).append(", composition number: ").append(compositionNumber).append(", forced: ").append(subPictureBD.isForced());
-                            StringBuffer result = new StringBuffer();
+                            // the forced flag is traced as it was before parsing this segment
+                            boolean forced = subPictureBD.isForced();
+                            StringBuffer result = logger.isTraceEnabled() ? new StringBuffer() : null;
                             if (compositionNumber != compositionNumberOld) {
                                 // store the state so that we can revert to it
                                 picTmp = new SubPictureBD(subPictureBD);
                                 // create new subPictureBD
                                 parsePCS(segment, subPictureBD, result);
                             }
-                            if (result.length() > 0) {
-                                message.append(", ").append(result);
+                            if (result != null) {
+                                StringBuffer message = new StringBuffer("PCS offset: ").append(ToolBox.toHexLeftZeroPadded(index, 8)).append(", ");
+                                switch (compositionState) {
+                                    case EPOCH_CONTINUE:
+                                        message.append("CONT, ");
+                                        break;
+                                    case ACQU_POINT:
+                                        message.append("ACQU, ");
+                                        break;
+                                    case NORMAL:
+                                        message.append("NORM, ");
+                                        break;
+                                }
+                                message.append(" size: ").append(ToolBox.toHexLeftZeroPadded(segment.size, 4)).append(", composition number: ").append(compositionNumber).append(", forced: ").append(forced);
+                                if (result.length() > 0) {
+                                    message.append(", ").append(result);
+                                }
+                                message.append(", pal update: ").append(paletteUpdate).append("\n").append("PTS: ").append(ptsToTimeStr(segment.pts)).append("\n");
+                                logger.trace(message.toString());
                             }
-                            message.append(", pal update: ").append(paletteUpdate).append("\n").append("PTS: ").append(ptsToTimeStr(segment.pts)).append("\n");
-                            logger.trace(message.toString());
                         }
                         break;
                     case PGSSUP_WINDOW_SEGMENT:
-                        message = new StringBuffer("WDS offset: ").append(ToolBox.toHexLeftZeroPadded(index, 8)).append(", size: ").append(ToolBox.toHexLeftZeroPadded(segment.size, 4));
                         if (subPictureBD != null) {
                             parseWDS(segment, subPictureBD);
-                            logger.trace(message + ", dim: " + subPictureBD.getWindowWidth() + "*" + subPictureBD.getWindowHeight() + "\n");
+                            if (logger.isTraceEnabled()) {
+                                logger.trace("WDS offset: 0x%08x, size: 0x%04x, dim: %d*%d\n", index, segment.size, subPictureBD.getWindowWidth(), subPictureBD.getWindowHeight());
+                            }
                         } else {
-                            logger.trace(message + "\n");
+                            logger.trace("WDS offset: 0x%08x, size: 0x%04x\n", index, segment.size);
                             logger.warn("Missing PTS start -> ignored\n");
                         }
                         break;
                     case PGSSUP_DISPLAY_SEGMENT:
-                        logger.trace("END offset: " + ToolBox.toHexLeftZeroPadded(index, 8) + "\n");
+                        logger.trace("END offset: 0x%08x\n", index);
                         // decide whether to store this last composition section as caption or merge it
                         if (compositionState == PGSCompositionState.EPOCH_START) {
                             if (compositionCount > 0 && odsCounter > odsCounterOld && compositionNumber != compositionNumberOld
@@ -355,7 +364,7 @@ public class SupBDParser1 {
      *
      * @param segment object containing info about the current segment
      * @param subPictureBD SubPicture object containing info about the current caption
-     * @param message
+     * @param message receives details for the trace output, null if not traced
      * @throws FileBufferException
      *//*
 
@@ -374,7 +383,9 @@ public class SupBDParser1 {
             if (compositionObjectCount > 0) {
                 // composition_object:
                 int objectId = buffer.getWord(index + 11); // 16bit object_id_ref
-                message.append("paletteId: ").append(paletteId).append(", objectId: ").append(objectId);
+                if (message != null) {
+                    message.append("paletteId: ").append(paletteId).append(", objectId: ").append(objectId);
+                }
                 ImageObject imageObject;
                 if (objectId >= subPictureBD.getImageObjectList().size()) {
                     imageObject = new ImageObject();
@@ -446,7 +457,9 @@ public class SupBDParser1 {
                 imageObject.setBufferSize(imageObjectFragment.getImagePacketSize());
                 imageObject.setHeight(height);
                 imageObject.setWidth(width);
-                message.append("ID: ").append(objectID).append(", update: ").append(objectVersion).append(", seq: ").append((first ? "first" : "")).append(((first && last) ? "/" : "")).append((last ? "" + "last" : ""));
+                if (message != null) {
+                    message.append("ID: ").append(objectID).append(", update: ").append(objectVersion).append(", seq: ").append((first ? "first" : "")).append(((first && last) ? "/" : "")).append((last ? "" + "last" : ""));
+                }
                 return true;
             } else {
                 logger.warn("Invalid image size - ignored\n");
@@ -461,7 +474,9 @@ public class SupBDParser1 {
             imageObjectFragment = new ImageObjectFragment(index + 4, pcsSegment.size - (index + 4 - pcsSegment.offset));
             imageObject.getFragmentList().add(imageObjectFragment);
             imageObject.setBufferSize(imageObject.getBufferSize() + imageObjectFragment.getImagePacketSize());
-            message.append("ID: ").append(objectID).append(", update: ").append(objectVersion).append(", seq: ").append((first ? "first" : "")).append(((first && last) ? "/" : "")).append((last ? "" + "last" : ""));
+            if (message != null) {
+                message.append("ID: ").append(objectID).append(", update: ").append(objectVersion).append(", seq: ").append((first ? "first" : "")).append(((first && last) ? "/" : "")).append((last ? "" + "last" : ""));
+            }
             return false;
         }
     }
@@ -472,13 +487,14 @@ public class SupBDParser1 {
         // 8bit palette version number (incremented for each palette change)
         int paletteUpdate = buffer.getByte(index + 1);
         if (paletteID > 7) {
-            message.append("Illegal palette id at offset ").append(ToolBox.toHexLeftZeroPadded(index, 8));
             return -1;
         }
 
         PaletteInfo paletteInfo = new PaletteInfo(index + 2, (pcsSegment.size - 2) / 5);
         subPictureBD.getPalettes().get(paletteID).add(paletteInfo);
-        message.append("ID: ").append(paletteID).append(", update: ").append(paletteUpdate).append(", ").append(paletteInfo.getPaletteSize()).append(" entries");
+        if (message != null) {
+            message.append("ID: ").append(paletteID).append(", update: ").append(paletteUpdate).append(", ").append(paletteInfo.getPaletteSize()).append(" entries");
+        }
         return paletteInfo.getPaletteSize();
     }
 
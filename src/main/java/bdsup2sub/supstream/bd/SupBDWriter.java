@@ -6,20 +6,26 @@ import bdsup2sub.core.Configuration;
 import bdsup2sub.core.Framerate;
 import bdsup2sub.core.Logger;
 import bdsup2sub.supstream.SubPicture;
-import bdsup2sub.tools.QuantizeFilter;
+import bdsup2sub.tools.ColorQuantizer;
 
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
 
 import static bdsup2sub.utils.ByteUtils.setByte;
 import static bdsup2sub.utils.ByteUtils.setDWord;
 import static bdsup2sub.utils.ByteUtils.setWord;
 
+/**
+ * Encodes captions to BD-SUP frames.<br>
+ * A writer owns its header and RLE scratch buffers and reuses them for the following frames, so it must
+ * only be used by one thread at a time. Use one writer per worker thread to encode frames in parallel.
+ */
 public final class SupBDWriter {
 
-    private static final Configuration configuration = Configuration.getInstance();
     private static final Logger logger = Logger.getInstance();
 
+    /** Initial size of the RLE scratch buffer - large enough for most captions without growing */
+    private static final int INITIAL_RLE_SCRATCH_SIZE = 0x40000;
+
     private static final byte PACKET_HEADER[] = {
             0x50, 0x47,             // 0:  "PG"
             0x00, 0x00, 0x00, 0x00, // 2:  PTS - presentation time stamp
@@ -74,7 +80,27 @@ public final class SupBDWriter {
             0x00, 0x00, 0x00, 0x00  // 6 : width, height
     };
 
-    private SupBDWriter() {
+    /** Settings providing crop offset, target frame rate and quantizer */
+    private final Configuration configuration;
+
+    // headers of this writer - all fields that vary are written again for each frame
+    private final byte[] packetHeader = PACKET_HEADER.clone();
+    private final byte[] headerPcsStart = HEADER_PCS_START.clone();
+    private final byte[] headerPcsEnd = HEADER_PCS_END.clone();
+    private final byte[] headerOdsFirst = HEADER_ODS_FIRST.clone();
+    private final byte[] headerOdsNext = HEADER_ODS_NEXT.clone();
+    private final byte[] headerWds = HEADER_WDS.clone();
+
+    /** Scratch buffer the RLE encoder works in, reused for the next frame */
+    private byte[] rle = new byte[0];
+    /** Number of bytes of the last encoded image in the scratch buffer */
+    private int rleSize;
+
+    /**
+     * @param configuration settings providing crop offset and target frame rate
+     */
+    public SupBDWriter(Configuration configuration) {
+        this.configuration = configuration;
     }
 
     /**
@@ -84,13 +110,14 @@ public final class SupBDWriter {
      * @param pal palette
      * @return byte buffer containing the binary stream representation of one caption
      */
-    public static byte[] createSupFrame(SubPicture pic, Bitmap bm, Palette pal) {
+    public byte[] createSupFrame(SubPicture pic, Bitmap bm, Palette pal) {
+
         // the last palette entry must be transparent
         if (pal.getSize() > 255 && pal.getAlpha(255) > 0) {
             // quantize image
-            QuantizeFilter qf = new QuantizeFilter();
+            ColorQuantizer quantizer = configuration.getQuantizer().createQuantizer();
             Bitmap bmQ = new Bitmap(bm.getWidth(), bm.getHeight());
-            int[] ct = qf.quantize(bm.toARGB(pal), bmQ.getInternalBuffer(), bm.getWidth(), bm.getHeight(), 255, false, false);
+            int[] ct = quantizer.quantize(bm.toARGB(pal), bmQ.getInternalBuffer(), bm.getWidth(), bm.getHeight(), 255, false, false);
             int size = ct.length;
             if (size > 255) {
                 size = 255;
@@ -108,7 +135,9 @@ public final class SupBDWriter {
             bm = bmQ;
         }
 
-        byte[] rleBuf = encodeImage(bm);
+        encodeToScratch(bm);
+        byte[] rleBuf = rle;
+        int rleLength = rleSize;
 
         // for some obscure reason, a packet can be a maximum 0xfffc bytes
         // since 13 bytes are needed for the header("PG", PTS, DTS, ID, SIZE)
@@ -118,21 +147,21 @@ public final class SupBDWriter {
         // first package can store only 0xffe4 RLE buffer bytes and the
         // following packets can store 0xffeb RLE buffer bytes
         int numAddPackets;
-        if (rleBuf.length <= 0xffe4) {
+        if (rleLength <= 0xffe4) {
             numAddPackets = 0; // no additional packets needed;
         } else {
-            numAddPackets = 1 + (rleBuf.length - 0xffe4) / 0xffeb;
+            numAddPackets = 1 + (rleLength - 0xffe4) / 0xffeb;
         }
 
         // a typical frame consists of 8 packets. It can be enlonged by additional
         // object frames
         int palSize = bm.getHighestVisibleColorIndex(pal.getAlpha()) + 1;
-        int size = PACKET_HEADER.length * (8 + numAddPackets);
-        size += HEADER_PCS_START.length + HEADER_PCS_END.length;
-        size += 2* HEADER_WDS.length + HEADER_ODS_FIRST.length;
-        size += numAddPackets * HEADER_ODS_NEXT.length;
+        int size = packetHeader.length * (8 + numAddPackets);
+        size += headerPcsStart.length + headerPcsEnd.length;
+        size += 2* headerWds.length + headerOdsFirst.length;
+        size += numAddPackets * headerOdsNext.length;
         size += (2 + palSize * 5) /* PDS */;
-        size += rleBuf.length;
+        size += rleLength;
 
         int yOfs = pic.getYOffset() - configuration.getCropOffsetY();
         if (yOfs < 0) {
@@ -162,48 +191,48 @@ public final class SupBDWriter {
            based on the decoding pixel rate of 128e6 bit/s - always rounded up  */
         int imageDecodeTime = (bm.getWidth() * bm.getHeight() * 9 + 1599) / 1600;
         // write PCS start
-        PACKET_HEADER[10] = 0x16;                               // ID
-        setDWord(PACKET_HEADER, 2, (int) pic.getStartTime());   // PTS
-        setDWord(PACKET_HEADER, 6, 0);                          // DTS (0)
-        setWord(PACKET_HEADER, 11, HEADER_PCS_START.length);    // size
-        for (byte b : PACKET_HEADER) {
+        packetHeader[10] = 0x16;                               // ID
+        setDWord(packetHeader, 2, (int) pic.getStartTime());   // PTS
+        setDWord(packetHeader, 6, 0);                          // DTS (0)
+        setWord(packetHeader, 11, headerPcsStart.length);    // size
+        for (byte b : packetHeader) {
             buf[index++] = b;
         }
-        setWord(HEADER_PCS_START,0, pic.getWidth());
-        setWord(HEADER_PCS_START, 2, h);                        // cropped height
-        setByte(HEADER_PCS_START, 4, fpsId);
-        setWord(HEADER_PCS_START, 5, pic.getCompositionNumber());
-        HEADER_PCS_START[14] = (pic.isForced() ? (byte)0x40 : 0);
-        setWord(HEADER_PCS_START,15, pic.getXOffset());
-        setWord(HEADER_PCS_START,17, yOfs);
-        for (byte b : HEADER_PCS_START) {
+        setWord(headerPcsStart,0, pic.getWidth());
+        setWord(headerPcsStart, 2, h);                        // cropped height
+        setByte(headerPcsStart, 4, fpsId);
+        setWord(headerPcsStart, 5, pic.getCompositionNumber());
+        headerPcsStart[14] = (pic.isForced() ? (byte)0x40 : 0);
+        setWord(headerPcsStart,15, pic.getXOffset());
+        setWord(headerPcsStart,17, yOfs);
+        for (byte b : headerPcsStart) {
             buf[index++] = b;
         }
 
         // write WDS
-        PACKET_HEADER[10] = 0x17;                                   // ID
+        packetHeader[10] = 0x17;                                   // ID
         int timeStamp = (int) pic.getStartTime() - windowInitTime;
-        setDWord(PACKET_HEADER, 2, timeStamp);                      // PTS
-        setDWord(PACKET_HEADER, 6, 0);                              // DTS (0)
-        setWord(PACKET_HEADER, 11, HEADER_WDS.length);              // size
-        for (byte b : PACKET_HEADER) {
+        setDWord(packetHeader, 2, timeStamp);                      // PTS
+        setDWord(packetHeader, 6, 0);                              // DTS (0)
+        setWord(packetHeader, 11, headerWds.length);              // size
+        for (byte b : packetHeader) {
             buf[index++] = b;
         }
-        setWord(HEADER_WDS, 2, pic.getXOffset());
-        setWord(HEADER_WDS, 4, yOfs);
-        setWord(HEADER_WDS, 6, bm.getWidth());
-        setWord(HEADER_WDS, 8, bm.getHeight());
-        for (byte b : HEADER_WDS) {
+        setWord(headerWds, 2, pic.getXOffset());
+        setWord(headerWds, 4, yOfs);
+        setWord(headerWds, 6, bm.getWidth());
+        setWord(headerWds, 8, bm.getHeight());
+        for (byte b : headerWds) {
             buf[index++] = b;
         }
 
         // write PDS
-        PACKET_HEADER[10] = 0x14;                       // ID
+        packetHeader[10] = 0x14;                       // ID
         int dts = (int) pic.getStartTime() - (frameInitTime + windowInitTime);
-        setDWord(PACKET_HEADER, 2, dts);                // PTS
-        setDWord(PACKET_HEADER, 6, 0);                  // DTS (0)
-        setWord(PACKET_HEADER, 11, (2 + palSize * 5));  // size
-        for (byte b : PACKET_HEADER) {
+        setDWord(packetHeader, 2, dts);                // PTS
+        setDWord(packetHeader, 6, 0);                  // DTS (0)
+        setWord(packetHeader, 11, (2 + palSize * 5));  // size
+        for (byte b : packetHeader) {
             buf[index++] = b;
         }
         buf[index++] = 0;
@@ -217,99 +246,99 @@ public final class SupBDWriter {
         }
 
         // write first OBJ
-        int bufSize = rleBuf.length;
+        int bufSize = rleLength;
         int rleIndex = 0;
         if (bufSize > 0xffe4) {
             bufSize = 0xffe4;
         }
-        PACKET_HEADER[10] = 0x15;                                       // ID
+        packetHeader[10] = 0x15;                                       // ID
         timeStamp = dts + imageDecodeTime;
-        setDWord(PACKET_HEADER, 2, timeStamp);                          // PTS
-        setDWord(PACKET_HEADER, 6, 0);                                  // DTS (0)
-        setWord(PACKET_HEADER, 11, HEADER_ODS_FIRST.length + bufSize);  // size
-        for (byte b : PACKET_HEADER) {
+        setDWord(packetHeader, 2, timeStamp);                          // PTS
+        setDWord(packetHeader, 6, 0);                                  // DTS (0)
+        setWord(packetHeader, 11, headerOdsFirst.length + bufSize);  // size
+        for (byte b : packetHeader) {
             buf[index++] = b;
         }
         int marker = ((numAddPackets == 0) ? 0xC0000000 : 0x80000000);
-        setDWord(HEADER_ODS_FIRST, 3, marker | (rleBuf.length + 4));
-        setWord(HEADER_ODS_FIRST, 7, bm.getWidth());
-        setWord(HEADER_ODS_FIRST, 9, bm.getHeight());
-        for (byte b : HEADER_ODS_FIRST) {
+        setDWord(headerOdsFirst, 3, marker | (rleLength + 4));
+        setWord(headerOdsFirst, 7, bm.getWidth());
+        setWord(headerOdsFirst, 9, bm.getHeight());
+        for (byte b : headerOdsFirst) {
             buf[index++] = b;
         }
-        for (int i=0; i < bufSize; i++) {
-            buf[index++] = rleBuf[rleIndex++];
-        }
+        System.arraycopy(rleBuf, rleIndex, buf, index, bufSize);
+        index += bufSize;
+        rleIndex += bufSize;
 
         // write additional OBJ packets
-        bufSize = rleBuf.length-bufSize; // remaining bytes to write
+        bufSize = rleLength-bufSize; // remaining bytes to write
         for (int p=0; p < numAddPackets; p++) {
             int psize = bufSize;
             if (psize > 0xffeb) {
                 psize = 0xffeb;
             }
-            PACKET_HEADER[10] = 0x15;                                   // ID (keep DTS & PTS)
-            setWord(PACKET_HEADER, 11, HEADER_ODS_NEXT.length + psize); // size
-            for (byte b : PACKET_HEADER) {
+            packetHeader[10] = 0x15;                                   // ID (keep DTS & PTS)
+            setWord(packetHeader, 11, headerOdsNext.length + psize); // size
+            for (byte b : packetHeader) {
                 buf[index++] = b;
             }
-            for (byte b : HEADER_ODS_NEXT) {
+            for (byte b : headerOdsNext) {
                 buf[index++] = b;
             }
-            for (int i=0; i < psize; i++) {
-                buf[index++] = rleBuf[rleIndex++];
-            }
+            System.arraycopy(rleBuf, rleIndex, buf, index, psize);
+            index += psize;
+            rleIndex += psize;
             bufSize -= psize;
         }
 
         // write END
-        PACKET_HEADER[10] = (byte)0x80;                 // ID
-        setDWord(PACKET_HEADER, 2, timeStamp);          // PTS
-        setDWord(PACKET_HEADER, 6, 0);                  // DTS (0)
-        setWord(PACKET_HEADER, 11, 0);                  // size
-        for (byte b : PACKET_HEADER) {
+        packetHeader[10] = (byte)0x80;                 // ID
+        setDWord(packetHeader, 2, timeStamp);          // PTS
+        setDWord(packetHeader, 6, 0);                  // DTS (0)
+        setWord(packetHeader, 11, 0);                  // size
+        for (byte b : packetHeader) {
             buf[index++] = b;
         }
 
         // write PCS end
-        PACKET_HEADER[10] = 0x16;                               // ID
-        setDWord(PACKET_HEADER, 2, (int) pic.getEndTime());     // PTS
-        setDWord(PACKET_HEADER, 6, 0);                          // DTS (0)
-        setWord(PACKET_HEADER, 11, HEADER_PCS_END.length);      // size
-        for (byte b : PACKET_HEADER) {
+        packetHeader[10] = 0x16;                               // ID
+        setDWord(packetHeader, 2, (int) pic.getEndTime());     // PTS
+        setDWord(packetHeader, 6, 0);                          // DTS (0)
+        setWord(packetHeader, 11, headerPcsEnd.length);      // size
+        for (byte b : packetHeader) {
             buf[index++] = b;
         }
-        setWord(HEADER_PCS_END,0, pic.getWidth());
-        setWord(HEADER_PCS_END, 2, h);                          // cropped height
-        setByte(HEADER_PCS_END, 4, fpsId);
-        setWord(HEADER_PCS_END, 5, pic.getCompositionNumber() + 1);
-        for (byte b : HEADER_PCS_END) {
+        setWord(headerPcsEnd,0, pic.getWidth());
+        setWord(headerPcsEnd, 2, h);                          // cropped height
+        setByte(headerPcsEnd, 4, fpsId);
+        setWord(headerPcsEnd, 5, pic.getCompositionNumber() + 1);
+        for (byte b : headerPcsEnd) {
             buf[index++] = b;
         }
 
         // write WDS
-        PACKET_HEADER[10] = 0x17;                               // ID
+        packetHeader[10] = 0x17;                               // ID
         timeStamp = (int) pic.getEndTime() - windowInitTime;
-        setDWord(PACKET_HEADER, 2, timeStamp);                  // PTS
-        setDWord(PACKET_HEADER, 6, 0);
-        setWord(PACKET_HEADER, 11, HEADER_WDS.length);          // size
-        for (byte b : PACKET_HEADER) {
+        setDWord(packetHeader, 2, timeStamp);                  // PTS
+        setDWord(packetHeader, 6, 0);
+        setWord(packetHeader, 11, headerWds.length);          // size
+        for (byte b : packetHeader) {
             buf[index++] = b;
         }
-        setWord(HEADER_WDS, 2, pic.getXOffset());
-        setWord(HEADER_WDS, 4, yOfs);
-        setWord(HEADER_WDS, 6, bm.getWidth());
-        setWord(HEADER_WDS, 8, bm.getHeight());
-        for (byte b : HEADER_WDS) {
+        setWord(headerWds, 2, pic.getXOffset());
+        setWord(headerWds, 4, yOfs);
+        setWord(headerWds, 6, bm.getWidth());
+        setWord(headerWds, 8, bm.getHeight());
+        for (byte b : headerWds) {
             buf[index++] = b;
         }
 
         // write END
-        PACKET_HEADER[10] = (byte)0x80;             // ID
-        setDWord(PACKET_HEADER, 2, timeStamp);      // PTS (PTS of end PCS)
-        setDWord(PACKET_HEADER, 6, 0);              // DTS (0)
-        setWord(PACKET_HEADER, 11, 0);              // size
-        for (byte b : PACKET_HEADER) {
+        packetHeader[10] = (byte)0x80;             // ID
+        setDWord(packetHeader, 2, timeStamp);      // PTS (PTS of end PCS)
+        setDWord(packetHeader, 6, 0);              // DTS (0)
+        setWord(packetHeader, 11, 0);              // size
+        for (byte b : packetHeader) {
             buf[index++] = b;
         }
 
@@ -321,70 +350,77 @@ public final class SupBDWriter {
      * @param bm bitmap to compress
      * @return RLE buffer
      */
-    private static byte[] encodeImage(Bitmap bm) {
-        ArrayList<Byte> bytes = new ArrayList<Byte>();
-        byte color;
-        int ofs;
-        int len;
-        //boolean eol;
-
-        for (int y=0; y < bm.getHeight(); y++) {
-            ofs = y * bm.getWidth();
-            //eol = false;
-            int x;
-            for (x=0; x < bm.getWidth(); x+=len, ofs+=len) {
-                color = bm.getInternalBuffer()[ofs];
-                for (len=1; x+len < bm.getWidth(); len++) {
-                    if (bm.getInternalBuffer()[ofs+len] != color) {
-                        break;
-                    }
+    byte[] encodeImage(Bitmap bm) {
+        encodeToScratch(bm);
+        return Arrays.copyOf(rle, rleSize);
+    }
+
+    /**
+     * RLE encode a bitmap into the scratch buffer, which grows as needed.
+     * @param bm bitmap to compress
+     */
+    private void encodeToScratch(Bitmap bm) {
+        int width = bm.getWidth();
+        int height = bm.getHeight();
+        byte[] pixels = bm.getInternalBuffer();
+        // one line can't need more than two bytes per pixel (single transparent pixels) plus the EOL marker
+        int maxLineSize = 2 * width + 2;
+
+        if (rle.length < maxLineSize) {
+            rle = new byte[Math.max(maxLineSize, INITIAL_RLE_SCRATCH_SIZE)];
+        }
+        byte[] rle = this.rle;
+        int size = 0;
+
+        for (int y=0; y < height; y++) {
+            if (size + maxLineSize > rle.length) {
+                rle = Arrays.copyOf(rle, Math.max(2 * rle.length, size + maxLineSize));
+            }
+            int ofs = y * width;
+            int eol = ofs + width;
+            while (ofs < eol) {
+                byte color = pixels[ofs];
+                int end = ofs + 1;
+                while (end < eol && pixels[end] == color) {
+                    end++;
                 }
+                int len = end - ofs;
                 if (len<=2 && color != 0) {
                     // only a single occurrence -> add color
-                    bytes.add(color);
+                    rle[size++] = color;
                     if (len==2) {
-                        bytes.add(color);
+                        rle[size++] = color;
                     }
                 } else {
                     if (len > 0x3fff) {
                         len = 0x3fff;
                     }
-                    bytes.add((byte)0); // rle id
-                    // commented out due to bug in SupRip
-                    /*if (color == 0 && x+len == bm.getWidth()) {
-                        bytes.add((byte)0);
-                        eol = true;
-                    } else*/
+                    rle[size++] = 0; // rle id
+                    // note: transparent runs up to the end of the line are not encoded as "00 00" due to bug in SupRip
                     if (color == 0 && len < 0x40){
                         // 00 xx -> xx times 0
-                        bytes.add((byte)len);
+                        rle[size++] = (byte)len;
                     } else if (color == 0){
                         // 00 4x xx -> xxx zeroes
-                        bytes.add((byte)(0x40|(len>>8)) );
-                        bytes.add((byte)len);
+                        rle[size++] = (byte)(0x40|(len>>8));
+                        rle[size++] = (byte)len;
                     } else if(len < 0x40) {
                         // 00 8x cc -> x times value cc
-                        bytes.add((byte)(0x80|len) );
-                        bytes.add(color);
+                        rle[size++] = (byte)(0x80|len);
+                        rle[size++] = color;
                     } else {
                         // 00 cx yy cc -> xyy times value cc
-                        bytes.add((byte)(0xc0|(len>>8)) );
-                        bytes.add((byte)len);
-                        bytes.add(color);
+                        rle[size++] = (byte)(0xc0|(len>>8));
+                        rle[size++] = (byte)len;
+                        rle[size++] = color;
                     }
                 }
+                ofs += len;
             }
-            if (/*!eol &&*/ x == bm.getWidth()) {
-                bytes.add((byte)0); // rle id
-                bytes.add((byte)0);
-            }
-        }
-        int size =  bytes.size();
-        byte[] retval = new byte[size];
-        Iterator<Byte> it = bytes.iterator();
-        for (int i=0; i < size; i++) {
-            retval[i] = it.next();
+            rle[size++] = 0; // rle id
+            rle[size++] = 0;
         }
-        return retval;
+        this.rle = rle;
+        rleSize = size;
     }
 }
@@ -21,7 +21,7 @@ import bdsup2sub.bitmap.Palette;
 import bdsup2sub.core.*;
 import bdsup2sub.supstream.SubPicture;
 import bdsup2sub.supstream.SubtitleStream;
-import bdsup2sub.tools.QuantizeFilter;
+import bdsup2sub.tools.ColorQuantizer;
 import bdsup2sub.utils.FilenameUtils;
 import bdsup2sub.utils.SubtitleUtils;
 import bdsup2sub.utils.ToolBox;
@@ -54,7 +54,7 @@ import static bdsup2sub.utils.TimeUtils.timeStrXmlToPTS;
  */
 public class SupXml implements SubtitleStream {
 
-    private static final Configuration configuration = Configuration.getInstance();
+    private final Configuration configuration;
     private static final Logger logger = Logger.getInstance();
 
     /** ArrayList of captions contained in the current file */
@@ -87,6 +87,17 @@ public class SupXml implements SubtitleStream {
      * @throws CoreException
      */
     public SupXml(String filename) throws CoreException {
+        this(filename, Configuration.getInstance());
+    }
+
+    /**
+     * Constructor (for reading)
+     * @param filename file name of Xml file to read
+     * @param configuration settings used for decoding the captions
+     * @throws CoreException
+     */
+    public SupXml(String filename, Configuration configuration) throws CoreException {
+        this.configuration = configuration;
         this.pathName = FilenameUtils.addSeparator(FilenameUtils.getParent(filename));
         this.title = FilenameUtils.removeExtension(FilenameUtils.getName(filename));
 
@@ -175,9 +186,9 @@ public class SupXml implements SubtitleStream {
                 int[] pixels = new int[w * h];
                 img.getRGB(0, 0, w, h, pixels, 0, w);
                 // quantize image
-                QuantizeFilter qf = new QuantizeFilter();
+                ColorQuantizer quantizer = configuration.getQuantizer().createQuantizer();
                 bitmap = new Bitmap(img.getWidth(), img.getHeight());
-                int ct[] = qf.quantize(pixels, bitmap.getInternalBuffer(), w, h, 255, false, false);
+                int ct[] = quantizer.quantize(pixels, bitmap.getInternalBuffer(), w, h, 255, false, false);
                 int size = ct.length;
                 if (size > 255) {
                     logger.warn("Quantizer failed.\n");
@@ -230,6 +241,18 @@ public class SupXml implements SubtitleStream {
      * @throws CoreException
      */
     public static void writeXml(String fname, SortedMap<Integer, SubPicture> pics) throws CoreException {
+        writeXml(fname, pics, Configuration.getInstance());
+    }
+
+    /**
+     * Create Xml file
+     *
+     * @param fname file name
+     * @param pics Map of SubPictures and their original indexes which were used to generate the png file names
+     * @param configuration settings providing target frame rate, language and resolution
+     * @throws CoreException
+     */
+    public static void writeXml(String fname, SortedMap<Integer, SubPicture> pics, Configuration configuration) throws CoreException {
         double fps = configuration.getFpsTrg();
         double fpsXml = XmlFps(fps);
         BufferedWriter out = null;
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2013 Volker Oth (0xdeadbeef) / Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.supstream.dvd;
+
+import bdsup2sub.bitmap.Bitmap;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * RLE encoder for DVD captions (VobSub and SUP/IFO), encoding the even and the odd lines of a bitmap
+ * into two reusable buffers.<br>
+ * Runs are packed as nibbles directly into the buffers. An encoder must only be used by one thread at a time,
+ * the odd lines of large captions are encoded by a helper thread while the calling thread encodes the even lines.
+ */
+final class DvdRleEncoder {
+
+    /** Captions with at least this many pixels are encoded by two threads, one per field */
+    private static final int PARALLEL_MIN_PIXELS = 0x20000;
+    private static final boolean PARALLEL = Runtime.getRuntime().availableProcessors() > 1;
+
+    private byte[] even = new byte[0];
+    private int evenSize;
+    private byte[] odd = new byte[0];
+    private int oddSize;
+
+    /**
+     * Encode the even and the odd lines of a bitmap.
+     * @param bm bitmap to compress
+     */
+    void encode(final Bitmap bm) {
+        int maxSize = maxFieldSize(bm);
+        if (even.length < maxSize) {
+            even = new byte[maxSize];
+        }
+        if (odd.length < maxSize) {
+            odd = new byte[maxSize];
+        }
+        if (PARALLEL && bm.getWidth() * bm.getHeight() >= PARALLEL_MIN_PIXELS) {
+            final byte[] oddBuf = odd;
+            ForkJoinTask<Integer> oddTask = ForkJoinPool.commonPool().submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return encodeField(bm, 1, oddBuf);
+                }
+            });
+            evenSize = encodeField(bm, 0, even);
+            oddSize = oddTask.join();
+        } else {
+            evenSize = encodeField(bm, 0, even);
+            oddSize = encodeField(bm, 1, odd);
+        }
+    }
+
+    /**
+     * @return Buffer holding the RLE data of the even lines, valid up to {@link #getEvenSize()}
+     */
+    byte[] getEven() {
+        return even;
+    }
+
+    int getEvenSize() {
+        return evenSize;
+    }
+
+    /**
+     * @return Buffer holding the RLE data of the odd lines, valid up to {@link #getOddSize()}
+     */
+    byte[] getOdd() {
+        return odd;
+    }
+
+    int getOddSize() {
+        return oddSize;
+    }
+
+    /**
+     * Get the largest possible size of the RLE data of one field.<br>
+     * A run never needs more nibbles than it has pixels, plus one nibble per line to align it to a byte
+     * and four nibbles for the final line feed.
+     * @param bm bitmap to compress
+     * @return size in bytes
+     */
+    static int maxFieldSize(Bitmap bm) {
+        return ((bm.getHeight() + 1) / 2) * (bm.getWidth() / 2 + 1) + 2;
+    }
+
+    /**
+     * Compress every second line of a bitmap.
+     * @param bm        bitmap to compress
+     * @param firstLine 0: encode even lines, 1: encode odd lines
+     * @param buf       receives the RLE data, at least {@link #maxFieldSize(Bitmap)} bytes
+     * @return size of the RLE data in bytes
+     */
+    static int encodeField(Bitmap bm, int firstLine, byte[] buf) {
+        int width = bm.getWidth();
+        int height = bm.getHeight();
+        byte[] pixels = bm.getInternalBuffer();
+        int nibbles = 0;
+
+        for (int y = firstLine; y < height; y += 2) {
+            int ofs = y * width;
+            int eol = ofs + width;
+            while (ofs < eol) {
+                byte color = pixels[ofs];
+                int end = ofs + 1;
+                while (end < eol && pixels[end] == color) {
+                    end++;
+                }
+                int len = end - ofs;
+                int c = color & 3;
+                if (len < 4) {
+                    nibbles = putNibble(buf, nibbles, (len << 2) | c);
+                } else if (len < 0x10) {
+                    nibbles = putNibble(buf, nibbles, len >> 2);
+                    nibbles = putNibble(buf, nibbles, (len << 2) | c);
+                } else if (len < 0x40) {
+                    nibbles = putNibble(buf, nibbles, 0);
+                    nibbles = putNibble(buf, nibbles, len >> 2);
+                    nibbles = putNibble(buf, nibbles, (len << 2) | c);
+                } else if (end == eol) {
+                    // run up to the end of the line
+                    nibbles = putNibble(buf, nibbles, 0);
+                    nibbles = putNibble(buf, nibbles, 0);
+                    nibbles = putNibble(buf, nibbles, 0);
+                    nibbles = putNibble(buf, nibbles, color);
+                } else {
+                    if (len > 0xff) {
+                        len = 0xff;
+                    }
+                    nibbles = putNibble(buf, nibbles, 0);
+                    nibbles = putNibble(buf, nibbles, len >> 6);
+                    nibbles = putNibble(buf, nibbles, len >> 2);
+                    nibbles = putNibble(buf, nibbles, (len << 2) | c);
+                }
+                ofs += len;
+            }
+            if ((nibbles & 1) == 1) {
+                nibbles = putNibble(buf, nibbles, 0);
+            }
+        }
+        // end buffer with line feed
+        buf[nibbles >> 1] = 0;
+        buf[(nibbles >> 1) + 1] = 0;
+        return (nibbles >> 1) + 2;
+    }
+
+    /**
+     * Store the low four bits of a value as next nibble, the high nibble of a byte comes first.
+     * @return number of nibbles stored
+     */
+    private static int putNibble(byte[] buf, int nibbles, int value) {
+        if ((nibbles & 1) == 0) {
+            buf[nibbles >> 1] = (byte)((value & 0xf) << 4);
+        } else {
+            buf[nibbles >> 1] |= (byte)(value & 0xf);
+        }
+        return nibbles + 1;
+    }
+}
@@ -44,10 +44,14 @@ public class IfoParser {
     public IfoParser(String filename) throws CoreException {
         try {
             this.fileBuffer = new FileBuffer(filename);
-            processIFO();
         } catch (FileBufferException e) {
             throw new CoreException(e.getMessage());
         }
+        try {
+            processIFO();
+        } finally {
+            fileBuffer.close();
+        }
     }
 
     private void processIFO() throws CoreException {
@@ -141,7 +145,7 @@ public class IfoParser {
 
     private void readFirstPalette() throws FileBufferException {
         // get start offset of Titles&Chapters table
-        long VTS_PGCITI_ofs = fileBuffer.getDWord(0xCC) * 2048;
+        long VTS_PGCITI_ofs = (fileBuffer.getDWord(0xCC) & 0xffffffffL) * 2048;
         // PTT_SRPTI
         VTS_PGCITI_ofs += fileBuffer.getDWord(VTS_PGCITI_ofs+0x0C);
         logger.trace("Reading palette from offset: " + ToolBox.toHexLeftZeroPadded(VTS_PGCITI_ofs, 8) + "\n");
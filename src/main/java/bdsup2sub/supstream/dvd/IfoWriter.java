@@ -34,6 +34,10 @@ public final class IfoWriter {
     }
 
     public static void writeIFO(String fname, int pictureHeight, Palette palette) throws CoreException {
+        writeIFO(fname, pictureHeight, palette, configuration);
+    }
+
+    public static void writeIFO(String fname, int pictureHeight, Palette palette, Configuration configuration) throws CoreException {
         byte[] buf = new byte[0x1800];
         int index = 0;
 
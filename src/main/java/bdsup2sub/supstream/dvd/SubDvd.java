@@ -40,7 +40,7 @@ import static bdsup2sub.utils.TimeUtils.timeStrToPTS;
  */
 public class SubDvd implements DvdSubtitleStream {
 
-    private static final Configuration configuration = Configuration.getInstance();
+    private final Configuration configuration;
     private static final Logger logger = Logger.getInstance();
 
     /** ArrayList of captions contained in the current file */
@@ -72,10 +72,15 @@ public class SubDvd implements DvdSubtitleStream {
     /** number of forced captions in the current file  */
     private int forcedFrameCount;
     /** store last alpha values for invisible workaround */
-    private static int[] lastAlpha = {0, 0xf, 0xf, 0xf};
+    private int[] lastAlpha = {0, 0xf, 0xf, 0xf};
 
 
     public SubDvd(String subFile, String idxFile) throws CoreException {
+        this(subFile, idxFile, Configuration.getInstance());
+    }
+
+    public SubDvd(String subFile, String idxFile, Configuration configuration) throws CoreException {
+        this.configuration = configuration;
         readIdx(idxFile);
         Core.setProgressMax(subPictures.size());
         try {
@@ -86,7 +91,7 @@ public class SubDvd implements DvdSubtitleStream {
         for (int i=0; i < subPictures.size(); i++) {
             Core.setProgress(i);
             logger.info("# " + (i + 1) + "\n");
-            logger.trace("Offset: " + ToolBox.toHexLeftZeroPadded(subPictures.get(i).getOffset(), 8) + "\n");
+            logger.trace("Offset: 0x%08x\n", subPictures.get(i).getOffset());
             long nextOfs;
             if (i < subPictures.size() - 1) {
                 nextOfs = subPictures.get(i+1).getOffset();
@@ -425,14 +430,10 @@ public class SubDvd implements DvdSubtitleStream {
                 if (diff<0) {
                     diff = 0;
                 }
-                int copied = ctrlHeaderCopied;
-                try {
-                    for (int i=0; (i < diff) && (ctrlHeaderCopied<ctrlSize); i++) {
-                        ctrlHeader[ctrlHeaderCopied] = (byte)buffer.getByte(ctrlOfs + i + copied);
-                        ctrlHeaderCopied++;
-                    }
-                } catch (ArrayIndexOutOfBoundsException ex) {
-                    throw new CoreException("Inconsistent control buffer access (" + ex.getMessage() + ")");
+                int copy = Math.min(diff, ctrlSize - ctrlHeaderCopied);
+                if (copy > 0) {
+                    buffer.getBytes(ctrlOfs + ctrlHeaderCopied, ctrlHeader, ctrlHeaderCopied, copy);
+                    ctrlHeaderCopied += copy;
                 }
                 rleFrag = new ImageObjectFragment(ofs, length - headerSize - diff + packHeaderSize);
                 pic.getRleFragments().add(rleFrag);
@@ -473,7 +474,7 @@ public class SubDvd implements DvdSubtitleStream {
         int delay = -1;
         boolean ColAlphaUpdate = false;
 
-        logger.trace("SP_DCSQT at ofs: " + ToolBox.toHexLeftZeroPadded(ctrlOfs, 8) + "\n");
+        logger.trace("SP_DCSQT at ofs: 0x%08x\n", ctrlOfs);
 
         try {
             // parse control header
@@ -502,7 +503,9 @@ public class SubDvd implements DvdSubtitleStream {
                         b = getByte(ctrlHeader, index++);
                         pic.getPal()[1] = (b >> 4);
                         pic.getPal()[0] = b & 0x0f;
-                        logger.trace("Palette:   " + pic.getPal()[0] + ", " + pic.getPal()[1] + ", " + pic.getPal()[2] + ", " + pic.getPal()[3] + "\n");
+                        if (logger.isTraceEnabled()) {
+                            logger.trace("Palette:   %d, %d, %d, %d\n", pic.getPal()[0], pic.getPal()[1], pic.getPal()[2], pic.getPal()[3]);
+                        }
                         break;
                     case 4: // alpha info
                         b = getByte(ctrlHeader, index++);
@@ -514,7 +517,9 @@ public class SubDvd implements DvdSubtitleStream {
                         for (int i = 0; i<4; i++) {
                             alphaSum += pic.getAlpha()[i] & 0xff;
                         }
-                        logger.trace("Alpha:     " + pic.getAlpha()[0] + ", " + pic.getAlpha()[1] + ", " + pic.getAlpha()[2] + ", " + pic.getAlpha()[3] + "\n");
+                        if (logger.isTraceEnabled()) {
+                            logger.trace("Alpha:     %d, %d, %d, %d\n", pic.getAlpha()[0], pic.getAlpha()[1], pic.getAlpha()[2], pic.getAlpha()[3]);
+                        }
                         break;
                     case 5: // coordinates
                         int xOfs = (getByte(ctrlHeader, index)<<4) | (getByte(ctrlHeader, index+1)>>4);
@@ -523,16 +528,17 @@ public class SubDvd implements DvdSubtitleStream {
                         int yOfs = (getByte(ctrlHeader, index+3)<<4) | (getByte(ctrlHeader, index+4)>>4);
                         pic.setOfsY(globalYOffset +yOfs);
                         pic.setImageHeight((((getByte(ctrlHeader, index+4)&0xf)<<8) | (getByte(ctrlHeader, index+5))) - yOfs + 1);
-                        logger.trace("Area info:" + " ("
-                                + pic.getXOffset() + ", " + pic.getYOffset() + ") - (" + (pic.getXOffset() + pic.getImageWidth() - 1) + ", "
-                                + (pic.getYOffset() + pic.getImageHeight() - 1) + ")\n");
+                        if (logger.isTraceEnabled()) {
+                            logger.trace("Area info: (%d, %d) - (%d, %d)\n",
+                                    pic.getXOffset(), pic.getYOffset(), pic.getXOffset() + pic.getImageWidth() - 1, pic.getYOffset() + pic.getImageHeight() - 1);
+                        }
                         index += 6;
                         break;
                     case 6: // offset to RLE buffer
                         pic.setEvenOffset(getWord(ctrlHeader, index) - 4);
                         pic.setOddOffset(getWord(ctrlHeader, index + 2) - 4);
                         index += 4;
-                        logger.trace("RLE ofs:   " + ToolBox.toHexLeftZeroPadded(pic.getEvenOffset(), 4) + ", " + ToolBox.toHexLeftZeroPadded(pic.getOddOffset(), 4) + "\n");
+                        logger.trace("RLE ofs:   0x%04x, 0x%04x\n", (long)pic.getEvenOffset(), (long)pic.getOddOffset());
                         break;
                     case 7: // color/alpha update
                         ColAlphaUpdate = true;
@@ -625,7 +631,7 @@ public class SubDvd implements DvdSubtitleStream {
     }
 
     private void decode(SubPictureDVD pic)  throws CoreException {
-        palette = SupDvdUtil.decodePalette(pic, srcPalette);
+        palette = SupDvdUtil.decodePalette(pic, srcPalette, configuration.getAlphaCrop());
         bitmap  = SupDvdUtil.decodeImage(pic, buffer, palette.getIndexOfMostTransparentPaletteEntry());
 
         // crop
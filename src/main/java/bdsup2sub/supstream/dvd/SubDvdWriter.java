@@ -30,10 +30,13 @@ import java.io.IOException;
 import static bdsup2sub.core.Constants.LANGUAGES;
 import static bdsup2sub.utils.TimeUtils.ptsToTimeStrIdx;
 
+/**
+ * Encodes captions to VobSub frames and writes the IDX file.<br>
+ * A writer owns its packet headers and reuses them for the following frames, so it must only be used by
+ * one thread at a time. Use one writer per worker thread to encode frames in parallel.
+ */
 public final class SubDvdWriter {
 
-    private static final Configuration configuration = Configuration.getInstance();
-
     private static final byte[] PACK_HEADER = {
             0x00, 0x00, 0x01, (byte)0xba,							// 0:  0x000001ba - packet ID
             0x44, 0x02, (byte)0xc4, (byte)0x82, 0x04, (byte)0xa9,	// 4:  system clock reference
@@ -74,7 +77,22 @@ public final class SubDvdWriter {
             0x02, (byte)0xff,										// 26: CMD 2: stop displaying
     };
 
-    private SubDvdWriter() {
+    /** Settings providing the crop offset */
+    private final Configuration configuration;
+
+    // headers of this writer - all fields that vary are written again for each frame
+    private final byte[] packHeader = PACK_HEADER.clone();
+    private final byte[] headerFirst = HEADER_FIRST.clone();
+    private final byte[] headerNext = HEADER_NEXT.clone();
+    private final byte[] controlHeader = CONTROL_HEADER.clone();
+    /** RLE encoder of this writer, reuses its buffers */
+    private final DvdRleEncoder rleEncoder = new DvdRleEncoder();
+
+    /**
+     * @param configuration settings providing the crop offset
+     */
+    public SubDvdWriter(Configuration configuration) {
+        this.configuration = configuration;
     }
 
     /**
@@ -84,49 +102,53 @@ public final class SubDvdWriter {
      * @param bm  bitmap
      * @return byte buffer containing the binary stream representation of one caption
      */
-    public static byte[] createSubFrame(SubPictureDVD pic, Bitmap bm) {
+    public byte[] createSubFrame(SubPictureDVD pic, Bitmap bm) {
+
         /* create RLE buffers */
-        byte even[] = SupDvdUtil.encodeLines(bm, true);
-        byte odd[] = SupDvdUtil.encodeLines(bm, false);
+        rleEncoder.encode(bm);
+        byte[] even = rleEncoder.getEven();
+        byte[] odd = rleEncoder.getOdd();
+        int evenLength = rleEncoder.getEvenSize();
+        int oddLength = rleEncoder.getOddSize();
         int tmp;
 
         int forcedOfs;
         int controlHeaderLen;
         if (pic.isForced()) {
             forcedOfs = 0;
-            CONTROL_HEADER[2] = 0x01; // display
-            CONTROL_HEADER[3] = 0x00; // forced
-            controlHeaderLen = CONTROL_HEADER.length;
+            controlHeader[2] = 0x01; // display
+            controlHeader[3] = 0x00; // forced
+            controlHeaderLen = controlHeader.length;
         } else {
             forcedOfs = 1;
-            CONTROL_HEADER[2] = 0x00; // part of offset
-            CONTROL_HEADER[3] = 0x01; // display
-            controlHeaderLen = CONTROL_HEADER.length - 1;
+            controlHeader[2] = 0x00; // part of offset
+            controlHeader[3] = 0x01; // display
+            controlHeaderLen = controlHeader.length - 1;
         }
 
         // fill out all info but the offets (determined later)
 
         /* header - contains PTM */
         int ptm = (int) pic.getStartTime(); // should be end time, but STC writes start time?
-        HEADER_FIRST[9] = (byte) (((ptm >> 29) & 0x0E) | 0x21);
-        HEADER_FIRST[10] = (byte) (ptm >> 22);
-        HEADER_FIRST[11] = (byte) ((ptm >> 14) | 1);
-        HEADER_FIRST[12] = (byte) (ptm >> 7);
-        HEADER_FIRST[13] = (byte) (ptm * 2 + 1);
+        headerFirst[9] = (byte) (((ptm >> 29) & 0x0E) | 0x21);
+        headerFirst[10] = (byte) (ptm >> 22);
+        headerFirst[11] = (byte) ((ptm >> 14) | 1);
+        headerFirst[12] = (byte) (ptm >> 7);
+        headerFirst[13] = (byte) (ptm * 2 + 1);
 
         /* control header */
         /* palette (store reversed) */
-        CONTROL_HEADER[1 + 4] = (byte) (((pic.getPal()[3] & 0xf) << 4) | (pic.getPal()[2] & 0x0f));
-        CONTROL_HEADER[1 + 5] = (byte) (((pic.getPal()[1] & 0xf) << 4) | (pic.getPal()[0] & 0x0f));
+        controlHeader[1 + 4] = (byte) (((pic.getPal()[3] & 0xf) << 4) | (pic.getPal()[2] & 0x0f));
+        controlHeader[1 + 5] = (byte) (((pic.getPal()[1] & 0xf) << 4) | (pic.getPal()[0] & 0x0f));
         /* alpha (store reversed) */
-        CONTROL_HEADER[1 + 7] = (byte) (((pic.getAlpha()[3] & 0xf) << 4) | (pic.getAlpha()[2] & 0x0f));
-        CONTROL_HEADER[1 + 8] = (byte) (((pic.getAlpha()[1] & 0xf) << 4) | (pic.getAlpha()[0] & 0x0f));
+        controlHeader[1 + 7] = (byte) (((pic.getAlpha()[3] & 0xf) << 4) | (pic.getAlpha()[2] & 0x0f));
+        controlHeader[1 + 8] = (byte) (((pic.getAlpha()[1] & 0xf) << 4) | (pic.getAlpha()[0] & 0x0f));
 
         /* coordinates of subtitle */
-        CONTROL_HEADER[1 + 10] = (byte) ((pic.getXOffset() >> 4) & 0xff);
+        controlHeader[1 + 10] = (byte) ((pic.getXOffset() >> 4) & 0xff);
         tmp = pic.getXOffset() + bm.getWidth() - 1;
-        CONTROL_HEADER[1 + 11] = (byte) (((pic.getXOffset() & 0xf) << 4) | ((tmp >> 8) & 0xf));
-        CONTROL_HEADER[1 + 12] = (byte) (tmp & 0xff);
+        controlHeader[1 + 11] = (byte) (((pic.getXOffset() & 0xf) << 4) | ((tmp >> 8) & 0xf));
+        controlHeader[1 + 12] = (byte) (tmp & 0xff);
 
         int yOfs = pic.getYOffset() - configuration.getCropOffsetY();
         if (yOfs < 0) {
@@ -138,64 +160,64 @@ public final class SubDvdWriter {
             }
         }
 
-        CONTROL_HEADER[1 + 13] = (byte) ((yOfs >> 4) & 0xff);
+        controlHeader[1 + 13] = (byte) ((yOfs >> 4) & 0xff);
         tmp = yOfs + bm.getHeight() - 1;
-        CONTROL_HEADER[1 + 14] = (byte) (((yOfs & 0xf) << 4) | ((tmp >> 8) & 0xf));
-        CONTROL_HEADER[1 + 15] = (byte) (tmp & 0xff);
+        controlHeader[1 + 14] = (byte) (((yOfs & 0xf) << 4) | ((tmp >> 8) & 0xf));
+        controlHeader[1 + 15] = (byte) (tmp & 0xff);
 
         /* offset to even lines in rle buffer */
-        CONTROL_HEADER[1 + 17] = 0x00; /* 2 bytes subpicture size and 2 bytes control header ofs */
-        CONTROL_HEADER[1 + 18] = 0x04; /* note: SubtitleCreator uses 6 and adds 0x0000 in between */
+        controlHeader[1 + 17] = 0x00; /* 2 bytes subpicture size and 2 bytes control header ofs */
+        controlHeader[1 + 18] = 0x04; /* note: SubtitleCreator uses 6 and adds 0x0000 in between */
 
         /* offset to odd lines in rle buffer */
-        tmp = even.length + CONTROL_HEADER[1 + 18];
-        CONTROL_HEADER[1 + 19] = (byte) ((tmp >> 8) & 0xff);
-        CONTROL_HEADER[1 + 20] = (byte) (tmp & 0xff);
+        tmp = evenLength + controlHeader[1 + 18];
+        controlHeader[1 + 19] = (byte) ((tmp >> 8) & 0xff);
+        controlHeader[1 + 20] = (byte) (tmp & 0xff);
 
         /* display duration in frames */
         tmp = (int) ((pic.getEndTime() - pic.getStartTime()) / 1024); // 11.378ms resolution????
-        CONTROL_HEADER[1 + 22] = (byte) ((tmp >> 8) & 0xff);
-        CONTROL_HEADER[1 + 23] = (byte) (tmp & 0xff);
+        controlHeader[1 + 22] = (byte) ((tmp >> 8) & 0xff);
+        controlHeader[1 + 23] = (byte) (tmp & 0xff);
 
         /* offset to end sequence - 22 is the offset of the end sequence */
-        tmp = even.length + odd.length + 22 + (pic.isForced() ? 1 : 0) + 4;
-        CONTROL_HEADER[forcedOfs + 0] = (byte) ((tmp >> 8) & 0xff);
-        CONTROL_HEADER[forcedOfs + 1] = (byte) (tmp & 0xff);
-        CONTROL_HEADER[1 + 24] = (byte) ((tmp >> 8) & 0xff);
-        CONTROL_HEADER[1 + 25] = (byte) (tmp & 0xff);
+        tmp = evenLength + oddLength + 22 + (pic.isForced() ? 1 : 0) + 4;
+        controlHeader[forcedOfs + 0] = (byte) ((tmp >> 8) & 0xff);
+        controlHeader[forcedOfs + 1] = (byte) (tmp & 0xff);
+        controlHeader[1 + 24] = (byte) ((tmp >> 8) & 0xff);
+        controlHeader[1 + 25] = (byte) (tmp & 0xff);
 
         // subpicture size
-        tmp = even.length + odd.length + 4 + controlHeaderLen;
-        HEADER_FIRST[15] = (byte) (tmp >> 8);
-        HEADER_FIRST[16] = (byte) tmp;
+        tmp = evenLength + oddLength + 4 + controlHeaderLen;
+        headerFirst[15] = (byte) (tmp >> 8);
+        headerFirst[16] = (byte) tmp;
 
         /* offset to control buffer - 2 is the size of the offset */
-        tmp = even.length + odd.length + 2;
-        HEADER_FIRST[17] = (byte) (tmp >> 8);
-        HEADER_FIRST[18] = (byte) tmp;
+        tmp = evenLength + oddLength + 2;
+        headerFirst[17] = (byte) (tmp >> 8);
+        headerFirst[18] = (byte) tmp;
 
         // in the SUB format only 0x800 bytes can be written per packet. If a packet
         // is larger, it has to be split into fragments <= 0x800 bytes
         // which follow one after the other.
 
-        int sizeRLE = even.length + odd.length;
-        int bufSize = PACK_HEADER.length + HEADER_FIRST.length + controlHeaderLen + sizeRLE;
+        int sizeRLE = evenLength + oddLength;
+        int bufSize = packHeader.length + headerFirst.length + controlHeaderLen + sizeRLE;
         int numAdditionalPackets = 0;
         if (bufSize > 0x800) {
             // determine how many additional headers we will need
             // considering that each additional header also adds to the size
             // due to its own headers
             numAdditionalPackets = 1;
-            int remainingRLEsize = sizeRLE - (0x800 - PACK_HEADER.length - HEADER_FIRST.length); // size - 0x7df
-            while (remainingRLEsize > (0x800 - PACK_HEADER.length - HEADER_NEXT.length - controlHeaderLen)) {
-                remainingRLEsize -= (0x800 - PACK_HEADER.length - HEADER_NEXT.length);
-                bufSize += PACK_HEADER.length + HEADER_NEXT.length;
+            int remainingRLEsize = sizeRLE - (0x800 - packHeader.length - headerFirst.length); // size - 0x7df
+            while (remainingRLEsize > (0x800 - packHeader.length - headerNext.length - controlHeaderLen)) {
+                remainingRLEsize -= (0x800 - packHeader.length - headerNext.length);
+                bufSize += packHeader.length + headerNext.length;
                 numAdditionalPackets++;
             }
             // packet length of the 1st packet should be the maximum size
-            tmp = 0x800 - PACK_HEADER.length - 6;
+            tmp = 0x800 - packHeader.length - 6;
         } else {
-            tmp = (bufSize - PACK_HEADER.length - 6);
+            tmp = (bufSize - packHeader.length - 6);
         }
 
         // allocate and fill buffer
@@ -210,42 +232,42 @@ public final class SubDvdWriter {
         }
 
         int ofs = 0;
-        for (byte packHeader : PACK_HEADER) {
-            buf[ofs++] = packHeader;
+        for (byte b : packHeader) {
+            buf[ofs++] = b;
         }
 
         // set packet length
         tmp += stuffingBytes;
-        HEADER_FIRST[4] = (byte) (tmp >> 8);
-        HEADER_FIRST[5] = (byte) tmp;
+        headerFirst[4] = (byte) (tmp >> 8);
+        headerFirst[5] = (byte) tmp;
 
         // set pts length
-        HEADER_FIRST[8] = (byte) (5 + stuffingBytes);
+        headerFirst[8] = (byte) (5 + stuffingBytes);
 
         // write header and use pts for stuffing bytes (if needed)
         for (int i = 0; i < 14; i++) {
-            buf[ofs++] = HEADER_FIRST[i];
+            buf[ofs++] = headerFirst[i];
         }
         for (int i = 0; i < stuffingBytes; i++) {
             buf[ofs++] = (byte) 0xff;
         }
-        for (int i = 14; i < HEADER_FIRST.length; i++) {
-            buf[ofs++] = HEADER_FIRST[i];
+        for (int i = 14; i < headerFirst.length; i++) {
+            buf[ofs++] = headerFirst[i];
         }
 
         // write (first part of) RLE buffer
         tmp = sizeRLE;
         if (numAdditionalPackets > 0) {
-            tmp = (0x800 - PACK_HEADER.length - stuffingBytes - HEADER_FIRST.length);
+            tmp = (0x800 - packHeader.length - stuffingBytes - headerFirst.length);
             if (tmp > sizeRLE) { // can only happen in 1st buffer
                 tmp = sizeRLE;
             }
         }
         for (int i = 0; i < tmp; i++) {
-            if (i < even.length) {
+            if (i < evenLength) {
                 buf[ofs++] = even[i];
             } else {
-                buf[ofs++] = odd[i - even.length];
+                buf[ofs++] = odd[i - evenLength];
             }
         }
         int ofsRLE = tmp;
@@ -255,7 +277,7 @@ public final class SubDvdWriter {
         int controlHeaderWritten = 0;
         if (numAdditionalPackets == 1 && ofs < 0x800) {
             for (; ofs < 0x800; ofs++) {
-                buf[ofs] = CONTROL_HEADER[forcedOfs + (controlHeaderWritten++)];
+                buf[ofs] = controlHeader[forcedOfs + (controlHeaderWritten++)];
             }
         }
 
@@ -265,34 +287,34 @@ public final class SubDvdWriter {
             if (p == numAdditionalPackets - 1) {
                 // last loop
                 rleSizeLeft = sizeRLE - ofsRLE;
-                tmp = HEADER_NEXT.length + (controlHeaderLen - controlHeaderWritten) + (sizeRLE - ofsRLE) - 6;
+                tmp = headerNext.length + (controlHeaderLen - controlHeaderWritten) + (sizeRLE - ofsRLE) - 6;
             } else {
-                tmp = 0x800 - PACK_HEADER.length - 6;
-                rleSizeLeft = (0x800 - PACK_HEADER.length - HEADER_NEXT.length);
+                tmp = 0x800 - packHeader.length - 6;
+                rleSizeLeft = (0x800 - packHeader.length - headerNext.length);
                 // now, again, it could happen that the RLE buffer runs out before the last package
                 if (rleSizeLeft > (sizeRLE - ofsRLE)) {
                     rleSizeLeft = sizeRLE - ofsRLE;
                 }
             }
             // copy packet headers
-            PACK_HEADER[13] = (byte) (0xf8);
-            for (byte packHeader : PACK_HEADER) {
-                buf[ofs++] = packHeader;
+            packHeader[13] = (byte) (0xf8);
+            for (byte b : packHeader) {
+                buf[ofs++] = b;
             }
 
             // set packet length
-            HEADER_NEXT[4] = (byte) (tmp >> 8);
-            HEADER_NEXT[5] = (byte) tmp;
-            for (byte b : HEADER_NEXT) {
+            headerNext[4] = (byte) (tmp >> 8);
+            headerNext[5] = (byte) tmp;
+            for (byte b : headerNext) {
                 buf[ofs++] = b;
             }
 
             // copy RLE buffer
             for (int i = ofsRLE; i < ofsRLE + rleSizeLeft; i++) {
-                if (i < even.length) {
+                if (i < evenLength) {
                     buf[ofs++] = even[i];
                 } else {
-                    buf[ofs++] = odd[i - even.length];
+                    buf[ofs++] = odd[i - evenLength];
                 }
             }
             ofsRLE += rleSizeLeft;
@@ -301,14 +323,14 @@ public final class SubDvdWriter {
             // this can only happen in the package before the last one though
             if (p != numAdditionalPackets - 1) {
                 for (; ofs < (p + 2) * 0x800; ofs++) {
-                    buf[ofs] = CONTROL_HEADER[forcedOfs + (controlHeaderWritten++)];
+                    buf[ofs] = controlHeader[forcedOfs + (controlHeaderWritten++)];
                 }
             }
         }
 
         // write (rest of) control header
         for (int i = controlHeaderWritten; i < controlHeaderLen; i++) {
-            buf[ofs++] = CONTROL_HEADER[forcedOfs + i];
+            buf[ofs++] = controlHeader[forcedOfs + i];
         }
 
         // fill rest of last packet with padding bytes
@@ -339,6 +361,20 @@ public final class SubDvdWriter {
      * @throws bdsup2sub.core.CoreException
      */
     public static void writeIdx(String fname, SubPicture pic, int[] offsets, int[] timestamps, Palette palette) throws CoreException {
+        writeIdx(fname, pic, offsets, timestamps, palette, Configuration.getInstance());
+    }
+
+    /**
+     * Create VobSub IDX file
+     * @param fname file name
+     * @param pic a SubPicture object used to read screen width and height
+     * @param offsets array of offsets (one for each caption)
+     * @param timestamps array of PTS time stamps (one for each caption)
+     * @param palette 16 color main Palette
+     * @param configuration settings providing crop offset and language
+     * @throws bdsup2sub.core.CoreException
+     */
+    public static void writeIdx(String fname, SubPicture pic, int[] offsets, int[] timestamps, Palette palette, Configuration configuration) throws CoreException {
         BufferedWriter out = null;
         try {
             out = new BufferedWriter(new FileWriter(fname));
@@ -40,7 +40,7 @@ import static bdsup2sub.utils.ToolBox.toHexLeftZeroPadded;
  */
 public class SupDvd implements DvdSubtitleStream {
 
-    private static final Configuration configuration = Configuration.getInstance();
+    private final Configuration configuration;
     private static final Logger logger = Logger.getInstance();
 
     private List<SubPictureDVD> subPictures = new ArrayList<SubPictureDVD>();
@@ -61,10 +61,15 @@ public class SupDvd implements DvdSubtitleStream {
     private int numForcedFrames;
 
     /** store last alpha values for invisible workaround */
-    private static int[] lastAlpha = { 0, 0xf, 0xf, 0xf };
+    private int[] lastAlpha = { 0, 0xf, 0xf, 0xf };
 
 
     public SupDvd(String supFile, String ifoFile) throws CoreException {
+        this(supFile, ifoFile, Configuration.getInstance());
+    }
+
+    public SupDvd(String supFile, String ifoFile, Configuration configuration) throws CoreException {
+        this.configuration = configuration;
         IfoParser ifoParser = new IfoParser(ifoFile);
         this.screenHeight = ifoParser.getScreenHeight();
         this.screenWidth = ifoParser.getScreenWidth();
@@ -84,7 +89,7 @@ public class SupDvd implements DvdSubtitleStream {
             do {
                 logger.info("# " + (++i) + "\n");
                 Core.setProgress(offset);
-                logger.trace("Offset: " + ToolBox.toHexLeftZeroPadded(offset, 8) + "\n");
+                logger.trace("Offset: 0x%08x\n", offset);
                 offset = readSupFrame(offset, fileBuffer);
             } while (offset < size);
         } catch (FileBufferException e) {
@@ -140,7 +145,7 @@ public class SupDvd implements DvdSubtitleStream {
             int delay = -1;
             boolean colorAlphaUpdate = false;
 
-            logger.trace("SP_DCSQT at ofs: " + ToolBox.toHexLeftZeroPadded(ctrlOffset, 8) + "\n");
+            logger.trace("SP_DCSQT at ofs: 0x%08x\n", ctrlOffset);
 
             // copy control header in buffer (to be more compatible with VobSub)
             ctrlHeader = new byte[ctrlSize];
@@ -175,7 +180,9 @@ public class SupDvd implements DvdSubtitleStream {
                             b = getByte(ctrlHeader, index++);
                             pic.getPal()[1] = (b >> 4);
                             pic.getPal()[0] = b & 0x0f;
-                            logger.trace("Palette:   " + pic.getPal()[0] + ", " + pic.getPal()[1] + ", " + pic.getPal()[2] + ", " + pic.getPal()[3] + "\n");
+                            if (logger.isTraceEnabled()) {
+                                logger.trace("Palette:   %d, %d, %d, %d\n", pic.getPal()[0], pic.getPal()[1], pic.getPal()[2], pic.getPal()[3]);
+                            }
                             break;
                         case 4: // alpha info
                             b = getByte(ctrlHeader, index++);
@@ -187,7 +194,9 @@ public class SupDvd implements DvdSubtitleStream {
                             for (int i = 0; i < 4; i++) {
                                 alphaSum += pic.getAlpha()[i] & 0xff;
                             }
-                            logger.trace("Alpha:     " + pic.getAlpha()[0] + ", " + pic.getAlpha()[1] + ", " + pic.getAlpha()[2] + ", " + pic.getAlpha()[3] + "\n");
+                            if (logger.isTraceEnabled()) {
+                                logger.trace("Alpha:     %d, %d, %d, %d\n", pic.getAlpha()[0], pic.getAlpha()[1], pic.getAlpha()[2], pic.getAlpha()[3]);
+                            }
                             break;
                         case 5: // coordinates
                             int xOfs = (getByte(ctrlHeader, index) << 4) | (getByte(ctrlHeader, index+1) >> 4);
@@ -196,16 +205,17 @@ public class SupDvd implements DvdSubtitleStream {
                             int yOfs = (getByte(ctrlHeader, index + 3) << 4) | (getByte(ctrlHeader, index + 4) >> 4);
                             pic.setOfsY(yOfs);
                             pic.setImageHeight((((getByte(ctrlHeader, index + 4) & 0xf) << 8) | (getByte(ctrlHeader, index + 5))) - yOfs + 1);
-                            logger.trace("Area info:" + " ("
-                                    + pic.getXOffset() + ", " + pic.getYOffset() + ") - (" + (pic.getXOffset() + pic.getImageWidth() - 1) + ", "
-                                    + (pic.getYOffset() + pic.getImageHeight() - 1) + ")\n");
+                            if (logger.isTraceEnabled()) {
+                                logger.trace("Area info: (%d, %d) - (%d, %d)\n",
+                                        pic.getXOffset(), pic.getYOffset(), pic.getXOffset() + pic.getImageWidth() - 1, pic.getYOffset() + pic.getImageHeight() - 1);
+                            }
                             index += 6;
                             break;
                         case 6: // offset to RLE buffer
                             pic.setEvenOffset(getWord(ctrlHeader, index) - 4);
                             pic.setOddOffset(getWord(ctrlHeader, index + 2) - 4);
                             index += 4;
-                            logger.trace("RLE ofs:   " + ToolBox.toHexLeftZeroPadded(pic.getEvenOffset(), 4) + ", " + ToolBox.toHexLeftZeroPadded(pic.getOddOffset(), 4) + "\n");
+                            logger.trace("RLE ofs:   0x%04x, 0x%04x\n", (long)pic.getEvenOffset(), (long)pic.getOddOffset());
                             break;
                         case 7: // color/alpha update
                             colorAlphaUpdate = true;
@@ -304,7 +314,7 @@ public class SupDvd implements DvdSubtitleStream {
     }
 
     private void decode(SubPictureDVD pic) throws CoreException {
-        palette = SupDvdUtil.decodePalette(pic, srcPalette);
+        palette = SupDvdUtil.decodePalette(pic, srcPalette, configuration.getAlphaCrop());
         bitmap  = SupDvdUtil.decodeImage(pic, fileBuffer, palette.getIndexOfMostTransparentPaletteEntry());
 
         // crop
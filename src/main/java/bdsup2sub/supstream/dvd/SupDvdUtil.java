@@ -25,8 +25,7 @@ import bdsup2sub.tools.FileBuffer;
 import bdsup2sub.tools.FileBufferException;
 import bdsup2sub.utils.ToolBox;
 
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
 
 public final class SupDvdUtil {
 
@@ -45,70 +44,9 @@ public final class SupDvdUtil {
      * @return RLE buffer
      */
     public static byte[] encodeLines(Bitmap bm, boolean even) {
-        int ofs;
-        byte color;
-        int len;
-        int y;
-        ArrayList<Byte> nibbles = new ArrayList<Byte>();
-
-        if (even) {
-            y = 0;
-        } else {
-            y = 1;
-        }
-
-        for (; y < bm.getHeight(); y += 2) {
-            ofs = y * bm.getWidth();
-            for (int x = 0; x < bm.getWidth(); x += len, ofs += len) {
-                color = bm.getInternalBuffer()[ofs];
-                for (len = 1; x + len < bm.getWidth(); len++)
-                    if (bm.getInternalBuffer()[ofs + len] != color) {
-                        break;
-                    }
-                if (len < 4) {
-                    nibbles.add((byte) ((len << 2) | (color & 3)));
-                } else if (len < 0x10) {
-                    nibbles.add((byte) (len >> 2));
-                    nibbles.add((byte) ((len << 2) | (color & 3)));
-                } else if (len < 0x40) {
-                    nibbles.add((byte) 0);
-                    nibbles.add((byte) (len >> 2));
-                    nibbles.add((byte) ((len << 2) | (color & 3)));
-                } else if (x + len == bm.getWidth()) {
-                    nibbles.add((byte) (0));
-                    nibbles.add((byte) (0));
-                    nibbles.add((byte) (0));
-                    nibbles.add(color);
-                } else {
-                    if (len > 0xff) {
-                        len = 0xff;
-                    }
-                    nibbles.add((byte) (0));
-                    nibbles.add((byte) (len >> 6));
-                    nibbles.add((byte) (len >> 2));
-                    nibbles.add((byte) ((len << 2) | (color & 3)));
-                }
-            }
-            if ((nibbles.size() & 1) == 1) {
-                nibbles.add((byte) (0));
-            }
-        }
-        // end buffer with line feed
-        nibbles.add((byte) (0));
-        nibbles.add((byte) (0));
-        nibbles.add((byte) (0));
-        nibbles.add((byte) (0));
-
-        int size = nibbles.size() / 2; // number of bytes
-        byte[] retval = new byte[size];
-        Iterator<Byte> it = nibbles.iterator();
-
-        for (int i = 0; i < size; i++) {
-            int hi = (it.next() & 0xf);
-            int lo = (it.next() & 0xf);
-            retval[i] = (byte) ((hi << 4) | lo);
-        }
-        return retval;
+        byte[] buf = new byte[DvdRleEncoder.maxFieldSize(bm)];
+        int size = DvdRleEncoder.encodeField(bm, even ? 0 : 1, buf);
+        return Arrays.copyOf(buf, size);
     }
 
     /**
@@ -118,10 +56,21 @@ public final class SupDvdUtil {
      * @return decoded palette
      */
     public static Palette decodePalette(SubPictureDVD pic, Palette pal) {
+        return decodePalette(pic, pal, configuration.getAlphaCrop());
+    }
+
+    /**
+     * create fitting four color palette for the given caption
+     * @param pic SubPicture object containing info about the caption
+     * @param pal base palette
+     * @param alphaCrop alpha values below this threshold are made fully transparent
+     * @return decoded palette
+     */
+    public static Palette decodePalette(SubPictureDVD pic, Palette pal, int alphaCrop) {
         Palette miniPal = new Palette(4, true);
         for (int i=0; i < 4; i++) {
             int a = (pic.getAlpha()[i] * 0xff) / 0xf;
-            if (a >= configuration.getAlphaCrop()) {
+            if (a >= alphaCrop) {
                 miniPal.setRGB(i, pal.getR()[pic.getPal()[i]]&0xff, pal.getG()[pic.getPal()[i]]&0xff, pal.getB()[pic.getPal()[i]]&0xff);
                 miniPal.setAlpha(i, a);
             } else {
@@ -172,18 +121,16 @@ public final class SupDvdUtil {
             throw new CoreException("Corrupt buffer offset information");
 
         try {
-            // copy buffers
-            try {
-                for (int p = 0; p < pic.getRleFragments().size(); p++) {
-                    // copy data of all packet to one common buffer
-                    info = pic.getRleFragments().get(p);
-                    for (int i=0; i < info.getImagePacketSize(); i++) {
-                        buf[index+i] = (byte)fBuf.getByte(info.getImageBufferOfs() + i);
-                    }
-                    index += info.getImagePacketSize();
+            // copy data of all packets to one common buffer, one bulk read per packet
+            for (ImageObjectFragment fragment : pic.getRleFragments()) {
+                int size = Math.min(fragment.getImagePacketSize(), buf.length - index);
+                fBuf.getBytes(fragment.getImageBufferOfs(), buf, index, size);
+                index += size;
+                if (size < fragment.getImagePacketSize()) {
+                    // packets contain more data than the RLE buffer size given in the header
+                    warnings++;
+                    break;
                 }
-            } catch (ArrayIndexOutOfBoundsException ex) {
-                warnings++;
             }
             // decode even lines
             try {
@@ -18,10 +18,13 @@ package bdsup2sub.supstream.dvd;
 import bdsup2sub.bitmap.Bitmap;
 import bdsup2sub.core.Configuration;
 
+/**
+ * Encodes captions to SUP/IFO frames.<br>
+ * A writer owns its control header and reuses it for the following frames, so it must only be used by
+ * one thread at a time. Use one writer per worker thread to encode frames in parallel.
+ */
 public final class SupDvdWriter {
 
-    private static final Configuration configuration = Configuration.getInstance();
-
     private static final byte[] CONTROL_HEADER = {
             0x00,													//  dummy byte (for shifting when forced)
             0x00, 0x00,												//  0: offset to end sequence
@@ -36,7 +39,18 @@ public final class SupDvdWriter {
             0x02, (byte)0xff,										// 26: CMD 2: stop displaying
     };
 
-    private SupDvdWriter() {
+    /** Settings providing the crop offset */
+    private final Configuration configuration;
+    /** Control header of this writer - all fields that vary are written again for each frame */
+    private final byte[] controlHeader = CONTROL_HEADER.clone();
+    /** RLE encoder of this writer, reuses its buffers */
+    private final DvdRleEncoder rleEncoder = new DvdRleEncoder();
+
+    /**
+     * @param configuration settings providing the crop offset
+     */
+    public SupDvdWriter(Configuration configuration) {
+        this.configuration = configuration;
     }
 
     /**
@@ -46,28 +60,30 @@ public final class SupDvdWriter {
      * @param bm  bitmap
      * @return byte buffer containing the binary stream representation of one caption
      */
-    public static byte[] createSupFrame(SubPictureDVD pic, Bitmap bm) {
+    public byte[] createSupFrame(SubPictureDVD pic, Bitmap bm) {
+
         /* create RLE buffers */
-        byte[] even = SupDvdUtil.encodeLines(bm, true);
-        byte[] odd = SupDvdUtil.encodeLines(bm, false);
+        rleEncoder.encode(bm);
+        int evenLength = rleEncoder.getEvenSize();
+        int oddLength = rleEncoder.getOddSize();
         int tmp;
 
         int forcedOfs;
         int controlHeaderLen;
         if (pic.isForced()) {
             forcedOfs = 0;
-            CONTROL_HEADER[2] = 0x01; // display
-            CONTROL_HEADER[3] = 0x00; // forced
-            controlHeaderLen = CONTROL_HEADER.length;
+            controlHeader[2] = 0x01; // display
+            controlHeader[3] = 0x00; // forced
+            controlHeaderLen = controlHeader.length;
         } else {
             forcedOfs = 1;
-            CONTROL_HEADER[2] = 0x00; // part of offset
-            CONTROL_HEADER[3] = 0x01; // display
-            controlHeaderLen = CONTROL_HEADER.length - 1;
+            controlHeader[2] = 0x00; // part of offset
+            controlHeader[3] = 0x01; // display
+            controlHeaderLen = controlHeader.length - 1;
         }
 
         // fill out all info but the offets (determined later)
-        int sizeRLE = even.length + odd.length;
+        int sizeRLE = evenLength + oddLength;
         int bufSize = 10 + 4 + controlHeaderLen + sizeRLE;
         byte[] buf = new byte[bufSize];
 
@@ -93,26 +109,24 @@ public final class SupDvdWriter {
 
         // copy rle buffers
         int ofs = 14;
-        for (byte b : even) {
-            buf[ofs++] = b;
-        }
-        for (byte b : odd) {
-            buf[ofs++] = b;
-        }
+        System.arraycopy(rleEncoder.getEven(), 0, buf, ofs, evenLength);
+        ofs += evenLength;
+        System.arraycopy(rleEncoder.getOdd(), 0, buf, ofs, oddLength);
+        ofs += oddLength;
 
         /* create control header */
         /* palette (store reversed) */
-        CONTROL_HEADER[1 + 4] = (byte) (((pic.getPal()[3] & 0xf) << 4) | (pic.getPal()[2] & 0x0f));
-        CONTROL_HEADER[1 + 5] = (byte) (((pic.getPal()[1] & 0xf) << 4) | (pic.getPal()[0] & 0x0f));
+        controlHeader[1 + 4] = (byte) (((pic.getPal()[3] & 0xf) << 4) | (pic.getPal()[2] & 0x0f));
+        controlHeader[1 + 5] = (byte) (((pic.getPal()[1] & 0xf) << 4) | (pic.getPal()[0] & 0x0f));
         /* alpha (store reversed) */
-        CONTROL_HEADER[1 + 7] = (byte) (((pic.getAlpha()[3] & 0xf) << 4) | (pic.getAlpha()[2] & 0x0f));
-        CONTROL_HEADER[1 + 8] = (byte) (((pic.getAlpha()[1] & 0xf) << 4) | (pic.getAlpha()[0] & 0x0f));
+        controlHeader[1 + 7] = (byte) (((pic.getAlpha()[3] & 0xf) << 4) | (pic.getAlpha()[2] & 0x0f));
+        controlHeader[1 + 8] = (byte) (((pic.getAlpha()[1] & 0xf) << 4) | (pic.getAlpha()[0] & 0x0f));
 
         /* coordinates of subtitle */
-        CONTROL_HEADER[1 + 10] = (byte) ((pic.getXOffset() >> 4) & 0xff);
+        controlHeader[1 + 10] = (byte) ((pic.getXOffset() >> 4) & 0xff);
         tmp = pic.getXOffset() + bm.getWidth() - 1;
-        CONTROL_HEADER[1 + 11] = (byte) (((pic.getXOffset() & 0xf) << 4) | ((tmp >> 8) & 0xf));
-        CONTROL_HEADER[1 + 12] = (byte) (tmp & 0xff);
+        controlHeader[1 + 11] = (byte) (((pic.getXOffset() & 0xf) << 4) | ((tmp >> 8) & 0xf));
+        controlHeader[1 + 12] = (byte) (tmp & 0xff);
 
         int yOfs = pic.getYOffset() - configuration.getCropOffsetY();
         if (yOfs < 0) {
@@ -124,35 +138,35 @@ public final class SupDvdWriter {
             }
         }
 
-        CONTROL_HEADER[1 + 13] = (byte) ((yOfs >> 4) & 0xff);
+        controlHeader[1 + 13] = (byte) ((yOfs >> 4) & 0xff);
         tmp = yOfs + bm.getHeight() - 1;
-        CONTROL_HEADER[1 + 14] = (byte) (((yOfs & 0xf) << 4) | ((tmp >> 8) & 0xf));
-        CONTROL_HEADER[1 + 15] = (byte) (tmp & 0xff);
+        controlHeader[1 + 14] = (byte) (((yOfs & 0xf) << 4) | ((tmp >> 8) & 0xf));
+        controlHeader[1 + 15] = (byte) (tmp & 0xff);
 
         /* offset to even lines in rle buffer */
-        CONTROL_HEADER[1 + 17] = 0x00; /* 2 bytes subpicture size and 2 bytes control header ofs */
-        CONTROL_HEADER[1 + 18] = 0x04; /* note: SubtitleCreator uses 6 and adds 0x0000 in between */
+        controlHeader[1 + 17] = 0x00; /* 2 bytes subpicture size and 2 bytes control header ofs */
+        controlHeader[1 + 18] = 0x04; /* note: SubtitleCreator uses 6 and adds 0x0000 in between */
 
         /* offset to odd lines in rle buffer */
-        tmp = even.length + CONTROL_HEADER[1 + 18];
-        CONTROL_HEADER[1 + 19] = (byte) ((tmp >> 8) & 0xff);
-        CONTROL_HEADER[1 + 20] = (byte) (tmp & 0xff);
+        tmp = evenLength + controlHeader[1 + 18];
+        controlHeader[1 + 19] = (byte) ((tmp >> 8) & 0xff);
+        controlHeader[1 + 20] = (byte) (tmp & 0xff);
 
         /* display duration in frames */
         tmp = (int) ((pic.getEndTime() - pic.getStartTime()) / 1024); // 11.378ms resolution????
-        CONTROL_HEADER[1 + 22] = (byte) ((tmp >> 8) & 0xff);
-        CONTROL_HEADER[1 + 23] = (byte) (tmp & 0xff);
+        controlHeader[1 + 22] = (byte) ((tmp >> 8) & 0xff);
+        controlHeader[1 + 23] = (byte) (tmp & 0xff);
 
         /* offset to end sequence - 22 is the offset of the end sequence */
         tmp = sizeRLE + 22 + (pic.isForced() ? 1 : 0) + 4;
-        CONTROL_HEADER[forcedOfs + 0] = (byte) ((tmp >> 8) & 0xff);
-        CONTROL_HEADER[forcedOfs + 1] = (byte) (tmp & 0xff);
-        CONTROL_HEADER[1 + 24] = (byte) ((tmp >> 8) & 0xff);
-        CONTROL_HEADER[1 + 25] = (byte) (tmp & 0xff);
+        controlHeader[forcedOfs + 0] = (byte) ((tmp >> 8) & 0xff);
+        controlHeader[forcedOfs + 1] = (byte) (tmp & 0xff);
+        controlHeader[1 + 24] = (byte) ((tmp >> 8) & 0xff);
+        controlHeader[1 + 25] = (byte) (tmp & 0xff);
 
         // write control header
         for (int i = 0; i < controlHeaderLen; i++) {
-            buf[ofs++] = CONTROL_HEADER[forcedOfs + i];
+            buf[ofs++] = controlHeader[forcedOfs + i];
         }
 
         return buf;
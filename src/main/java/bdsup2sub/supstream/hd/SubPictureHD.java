@@ -23,15 +23,15 @@ import bdsup2sub.supstream.SubPicture;
 public class SubPictureHD extends SubPicture {
 
     /** offset to palette info for this subpicture in SUP file */
-    private int paletteOffset;
+    private long paletteOffset;
     /** offset to alpha info for this subpicture in SUP file */
-    private int alphaOffset;
+    private long alphaOffset;
     /** size of RLE buffer (odd and even part)*/
     private int imageBufferSize;
     /** offset to even part of RLE buffer in SUP file*/
-    private int imageBufferOffsetEven;
+    private long imageBufferOffsetEven;
     /** offset to odd part of RLE buffer in SUP file*/
-    private int imageBufferOffsetOdd;
+    private long imageBufferOffsetOdd;
 
     public SubPictureHD() {
     }
@@ -45,19 +45,19 @@ public class SubPictureHD extends SubPicture {
         this.imageBufferOffsetOdd = other.imageBufferOffsetOdd;
     }
 
-    public int getPaletteOffset() {
+    public long getPaletteOffset() {
         return paletteOffset;
     }
 
-    public void setPaletteOffset(int paletteOffset) {
+    public void setPaletteOffset(long paletteOffset) {
         this.paletteOffset = paletteOffset;
     }
 
-    public int getAlphaOffset() {
+    public long getAlphaOffset() {
         return alphaOffset;
     }
 
-    public void setAlphaOffset(int alphaOffset) {
+    public void setAlphaOffset(long alphaOffset) {
         this.alphaOffset = alphaOffset;
     }
 
@@ -69,19 +69,19 @@ public class SubPictureHD extends SubPicture {
         this.imageBufferSize = imageBufferSize;
     }
 
-    public int getImageBufferOffsetEven() {
+    public long getImageBufferOffsetEven() {
         return imageBufferOffsetEven;
     }
 
-    public void setImageBufferOffsetEven(int imageBufferOffsetEven) {
+    public void setImageBufferOffsetEven(long imageBufferOffsetEven) {
         this.imageBufferOffsetEven = imageBufferOffsetEven;
     }
 
-    public int getImageBufferOffsetOdd() {
+    public long getImageBufferOffsetOdd() {
         return imageBufferOffsetOdd;
     }
 
-    public void setImageBufferOffsetOdd(int imageBufferOffsetOdd) {
+    public void setImageBufferOffsetOdd(long imageBufferOffsetOdd) {
         this.imageBufferOffsetOdd = imageBufferOffsetOdd;
     }
 }
\ No newline at end of file
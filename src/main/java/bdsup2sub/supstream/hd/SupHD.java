@@ -23,13 +23,14 @@ import bdsup2sub.core.CoreException;
 import bdsup2sub.core.Logger;
 import bdsup2sub.supstream.SubPicture;
 import bdsup2sub.supstream.SubtitleStream;
-import bdsup2sub.tools.BitStream;
+import bdsup2sub.tools.BitReader;
 import bdsup2sub.tools.FileBuffer;
 import bdsup2sub.tools.FileBufferException;
 import bdsup2sub.utils.ToolBox;
 
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import static bdsup2sub.utils.TimeUtils.ptsToTimeStr;
 
@@ -38,7 +39,7 @@ import static bdsup2sub.utils.TimeUtils.ptsToTimeStr;
  */
 public class SupHD implements SubtitleStream {
 
-    private static final Configuration configuration = Configuration.getInstance();
+    private final Configuration configuration;
     private static final Logger logger = Logger.getInstance();
 
     /** ArrayList of captions contained in the current file  */
@@ -54,15 +55,20 @@ public class SupHD implements SubtitleStream {
 
 
     public SupHD(String supFile) throws CoreException {
+        this(supFile, Configuration.getInstance());
+    }
+
+    public SupHD(String supFile, Configuration configuration) throws CoreException {
+        this.configuration = configuration;
         try {
             buffer = new FileBuffer(supFile);
         } catch (FileBufferException ex) {
             throw new CoreException(ex.getMessage());
         }
-        int bufsize = (int)buffer.getSize();
+        long bufsize = buffer.getSize();
 
         SubPictureHD pic;
-        int index = 0;
+        long index = 0;
         try {
             while (index < bufsize) {
                 if (Core.isCanceled()) {
@@ -73,7 +79,7 @@ public class SupHD implements SubtitleStream {
                 if (buffer.getWord(index) != 0x5350) {
                     throw new CoreException("ID 'SP' missing at index " + ToolBox.toHexLeftZeroPadded(index, 8) + "\n");
                 }
-                int masterIndex = index + 10; //end of header
+                long masterIndex = index + 10; //end of header
                 pic = new SubPictureHD();
                 // hard code size since it's not part of the format???
                 pic.setWidth(1920);
@@ -82,14 +88,14 @@ public class SupHD implements SubtitleStream {
                 pic.setStartTime(buffer.getDWordLE(index+=2)); // read PTS
                 int packetSize = buffer.getDWord(index+=10);
                 // offset to command buffer
-                int ofsCmd = buffer.getDWord(index+=4) + masterIndex;
-                pic.setImageBufferSize(ofsCmd - (index + 4));
+                long ofsCmd = buffer.getDWord(index+=4) + masterIndex;
+                pic.setImageBufferSize((int)(ofsCmd - (index + 4)));
                 index  = ofsCmd;
                 int dcsq = buffer.getWord(index);
                 pic.setStartTime(pic.getStartTime() + (dcsq * 1024));
                 logger.info("DCSQ start    ofs: " + ToolBox.toHexLeftZeroPadded(index, 8) + "  (" + ptsToTimeStr(pic.getStartTime()) + ")\n");
                 index += 2; // 2 bytes: dcsq
-                int nextIndex = buffer.getDWord(index) + masterIndex; // offset to next dcsq
+                long nextIndex = buffer.getDWord(index) + masterIndex; // offset to next dcsq
                 index += 5;  // 4 bytes: offset, 1 byte: start
                 int cmd;
                 boolean stopDisplay = false;
@@ -109,14 +115,14 @@ public class SupHD implements SubtitleStream {
                             logger.info("DCSQ stop     ofs: " + ToolBox.toHexLeftZeroPadded(index, 8) + "  (" + ptsToTimeStr(pic.getEndTime()) + ")\n");
                             break;
                         case 0x83: // palette
-                            logger.trace("Palette info  ofs: " + ToolBox.toHexLeftZeroPadded(index, 8) + "\n");
+                            logger.trace("Palette info  ofs: 0x%08x\n", index);
                             pic.setPaletteOffset(index);
                             index += 0x300;
                             break;
                         case 0x84: // alpha
-                            logger.trace("Alpha info    ofs: " + ToolBox.toHexLeftZeroPadded(index, 8) + "\n");
+                            logger.trace("Alpha info    ofs: 0x%08x\n", index);
                             alphaSum = 0;
-                            for (int i=index; i < index+0x100; i++) {
+                            for (long i=index; i < index+0x100; i++) {
                                 alphaSum += buffer.getByte(i);
                             }
                             if (alphaSum < minAlphaSum) {
@@ -133,17 +139,19 @@ public class SupHD implements SubtitleStream {
                             pic.setImageWidth((((buffer.getByte(index+1)&0xf)<<8) | (buffer.getByte(index+2))) - pic.getXOffset() + 1);
                             pic.setOfsY((buffer.getByte(index+3)<<4) | (buffer.getByte(index+4)>>4));
                             pic.setImageHeight((((buffer.getByte(index+4)&0xf)<<8) | (buffer.getByte(index+5))) - pic.getYOffset() + 1);
-                            logger.trace("Area info     ofs: " + ToolBox.toHexLeftZeroPadded(index, 8) + "  ("
-                                    + pic.getXOffset() + ", " + pic.getYOffset() + ") - (" + (pic.getXOffset() + pic.getImageWidth()) + ", "
-                                    + (pic.getYOffset() + pic.getImageHeight()) + ")\n");
+                            if (logger.isTraceEnabled()) {
+                                logger.trace("Area info     ofs: 0x%08x  (%d, %d) - (%d, %d)\n", index,
+                                        pic.getXOffset(), pic.getYOffset(), pic.getXOffset() + pic.getImageWidth(), pic.getYOffset() + pic.getImageHeight());
+                            }
                             index += 6;
                             break;
                         case 0x86: // even/odd offsets
                             pic.setImageBufferOffsetEven(buffer.getDWord(index) + masterIndex);
                             pic.setImageBufferOffsetOdd(buffer.getDWord(index+4) + masterIndex);
-                            logger.trace("RLE buffers   ofs: " + ToolBox.toHexLeftZeroPadded(index, 8)
-                                    + "  (even: " + ToolBox.toHexLeftZeroPadded(pic.getImageBufferOffsetEven(), 8)
-                                    + ", odd: " + ToolBox.toHexLeftZeroPadded(pic.getImageBufferOffsetOdd(), 8) + "\n");
+                            if (logger.isTraceEnabled()) {
+                                logger.trace("RLE buffers   ofs: 0x%08x  (even: 0x%08x, odd: 0x%08x\n", index,
+                                        pic.getImageBufferOffsetEven(), pic.getImageBufferOffsetOdd());
+                            }
                             index += 8;
                             break;
                         case 0xff:
@@ -162,8 +170,9 @@ public class SupHD implements SubtitleStream {
                                 dcsq = d;
                                 nextIndex = buffer.getDWord(index+2) + masterIndex;
                                 stopCommand = (index == nextIndex);
-                                logger.trace("DCSQ          ofs: " + ToolBox.toHexLeftZeroPadded(index, 8) + "  (" + (d * 1024 / 90)
-                                        + "ms),    next DCSQ at ofs: " + ToolBox.toHexLeftZeroPadded(nextIndex, 8) + "\n");
+                                if (logger.isTraceEnabled()) {
+                                    logger.trace("DCSQ          ofs: 0x%08x  (%dms),    next DCSQ at ofs: 0x%08x\n", index, d * 1024 / 90, nextIndex);
+                                }
                                 index += 6;
                             }
                             break;
@@ -195,6 +204,39 @@ public class SupHD implements SubtitleStream {
         }
     }
 
+    /**
+     * Lookup table for the RLE codes using one of the colors 0..3, indexed by the next 12 bits of the stream.<br>
+     * Each entry contains the code length (bits 0..4), the color (bits 5..6) and the number of pixels (bits 8..15)
+     * where 0 pixels means "fill up the line". An entry of 0 marks a code with an 8 bit color.
+     */
+    private static final int[] RLE_CODES = createRleCodes();
+
+    private static int[] createRleCodes() {
+        int[] codes = new int[1 << 12];
+        for (int v = 0; v < codes.length; v++) {
+            int rleType = v >> 11;
+            int colorType = (v >> 10) & 1;
+            int color = (v >> 8) & 3;
+            if (colorType == 1) {
+                continue; // 8 bit color: decoded without table
+            }
+            int length;
+            int numPixels;
+            if (rleType == 0) {
+                length = 4;
+                numPixels = 1;
+            } else if (((v >> 7) & 1) == 1) {
+                length = 12;
+                numPixels = (v & 0x7f) == 0 ? 0 : (v & 0x7f) + 9;
+            } else {
+                length = 8;
+                numPixels = ((v >> 4) & 7) + 2;
+            }
+            codes[v] = length | (color << 5) | (numPixels << 8);
+        }
+        return codes;
+    }
+
     /**
      * decode one line from the RLE buffer
      * @param trg target buffer for uncompressed data
@@ -203,36 +245,39 @@ public class SupHD implements SubtitleStream {
      * @param maxPixels maximum number of pixels in caption
      * @param src source buffer
      */
-    private static void decodeLine(byte[] trg, int trgOfs, int width, int maxPixels, BitStream src) {
+    static void decodeLine(byte[] trg, int trgOfs, int width, int maxPixels, BitReader src) {
         int x=0;
         int pixelsLeft;
         int sumPixels = 0;
         boolean lf = false;
 
         while (src.bitsLeft() > 0 && sumPixels<maxPixels) {
-            int rleType = src.readBits(1);
-            int colorType = src.readBits(1);
+            // longest code: rle type, color type, 8 bit color, rle size, 7 bit length
+            int bits = src.peekBits(18);
+            int code = RLE_CODES[bits >>> 6];
             int color;
             int numPixels;
 
-            if (colorType == 1) {
-                color = src.readBits(8);
+            if (code != 0) {
+                src.skipBits(code & 0x1f);
+                color = (code >> 5) & 3;
+                numPixels = code >> 8;
             } else {
-                color = src.readBits(2); // Colors between 0 and 3 are stored in two bits
-            }
-
-            if (rleType == 1) {
-                int rleSize = src.readBits(1);
-                if (rleSize == 1) {
-                    numPixels = src.readBits(7) + 9;
-                    if (numPixels == 9) {
-                        numPixels = width - x;
-                    }
+                color = (bits >> 8) & 0xff;
+                if ((bits >> 17) == 0) {
+                    src.skipBits(10);
+                    numPixels = 1;
+                } else if (((bits >> 7) & 1) == 1) {
+                    src.skipBits(18);
+                    numPixels = (bits & 0x7f) == 0 ? 0 : (bits & 0x7f) + 9;
                 } else {
-                    numPixels = src.readBits(3) + 2;
+                    src.skipBits(14);
+                    numPixels = ((bits >> 4) & 7) + 2;
                 }
-            } else
-                numPixels = 1;
+            }
+            if (numPixels == 0) {
+                numPixels = width - x;
+            }
 
             if (x+numPixels == width) {
                 src.syncToByte();
@@ -249,9 +294,7 @@ public class SupHD implements SubtitleStream {
                 pixelsLeft = 0;
             }
 
-            for (int i=0; i<numPixels; i++) {
-                trg[trgOfs+x+i] = (byte)color;
-            }
+            fill(trg, trgOfs+x, numPixels, (byte)color);
 
             if (lf) {
                 trgOfs += x + numPixels + width; // skip odd/even line
@@ -262,10 +305,28 @@ public class SupHD implements SubtitleStream {
             }
 
             // copy remaining pixels to new line
-            for (int i=0; i < pixelsLeft; i++) {
-                trg[trgOfs+i] = (byte)color;
+            fill(trg, trgOfs, pixelsLeft, (byte)color);
+        }
+    }
+
+    /**
+     * fill a run of pixels, writing up to the end of the target buffer before failing like a pixel by pixel copy
+     * @param trg target buffer
+     * @param ofs offset of first pixel
+     * @param numPixels number of pixels
+     * @param color color index
+     */
+    private static void fill(byte[] trg, int ofs, int numPixels, byte color) {
+        if (numPixels <= 0) {
+            return;
+        }
+        if (ofs + numPixels > trg.length) {
+            if (ofs < trg.length) {
+                Arrays.fill(trg, ofs, trg.length, color);
             }
+            throw new ArrayIndexOutOfBoundsException(Math.max(ofs, trg.length));
         }
+        Arrays.fill(trg, ofs, ofs + numPixels, color);
     }
 
     /**
@@ -286,8 +347,8 @@ public class SupHD implements SubtitleStream {
 
         Bitmap bm = new Bitmap(w, h, (byte)transIdx);
 
-        int sizeEven = pic.getImageBufferOffsetOdd() - pic.getImageBufferOffsetEven();
-        int sizeOdd = pic.getImageBufferSize() + pic.getImageBufferOffsetEven() - pic.getImageBufferOffsetOdd();
+        int sizeEven = (int)(pic.getImageBufferOffsetOdd() - pic.getImageBufferOffsetEven());
+        int sizeOdd = (int)(pic.getImageBufferSize() + pic.getImageBufferOffsetEven() - pic.getImageBufferOffsetOdd());
 
         if (sizeEven <= 0 || sizeOdd <= 0) {
             throw new CoreException("Corrupt buffer offset information");
@@ -298,30 +359,18 @@ public class SupHD implements SubtitleStream {
 
         try {
             // copy buffers
-            try {
-                for (int i=0; i < evenBuf.length; i++) {
-                    evenBuf[i] = (byte)buffer.getByte(pic.getImageBufferOffsetEven() + i);
-                }
-            } catch (ArrayIndexOutOfBoundsException ex) {
-                warnings++;
-            }
-            try {
-                for (int i=0; i < oddBuf.length; i++) {
-                    oddBuf[i]  = (byte)buffer.getByte(pic.getImageBufferOffsetOdd() +i);
-                }
-            } catch (ArrayIndexOutOfBoundsException ex) {
-                warnings++;
-            }
+            buffer.getBytes(pic.getImageBufferOffsetEven(), evenBuf, evenBuf.length);
+            buffer.getBytes(pic.getImageBufferOffsetOdd(), oddBuf, oddBuf.length);
             // decode even lines
             try {
-                BitStream even = new BitStream(evenBuf);
+                BitReader even = new BitReader(evenBuf);
                 decodeLine(bm.getInternalBuffer(), 0, w, w*(h/2+(h&1)), even);
             } catch (ArrayIndexOutOfBoundsException ex) {
                 warnings++;
             }
             // decode odd lines
             try {
-                BitStream odd  = new BitStream(oddBuf);
+                BitReader odd  = new BitReader(oddBuf);
                 decodeLine(bm.getInternalBuffer(), w, w, (h/2)*w, odd);
             } catch (ArrayIndexOutOfBoundsException ex) {
                 warnings++;
@@ -344,8 +393,8 @@ public class SupHD implements SubtitleStream {
      * @throws CoreException
      */
     private Palette decodePalette(final SubPictureHD pic) throws CoreException {
-        int ofs = pic.getPaletteOffset();
-        int alphaOfs = pic.getAlphaOffset();
+        long ofs = pic.getPaletteOffset();
+        long alphaOfs = pic.getAlphaOffset();
 
         Palette palette = new Palette(256);
         try {
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2013 Volker Oth (0xdeadbeef) / Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.tools;
+
+/**
+ * Reads bitwise from a buffer through a 64 bit accumulator.<br>
+ * Bits can be peeked before they are consumed, which allows decoding variable length codes with lookup tables.
+ * Reading beyond the end of the buffer returns zero bits, like {@link BitStream} does.
+ */
+public final class BitReader {
+
+    /** Data buffer */
+    private final byte buffer[];
+    /** Offset of the next byte to load into the accumulator */
+    private int byteOfs;
+    /** Bits not consumed yet, MSB aligned */
+    private long acc;
+    /** Number of valid bits in acc */
+    private int accBits;
+    /** Number of bits consumed so far */
+    private long bitPos;
+
+    /**
+     * @param buffer Byte array to create reader for
+     */
+    public BitReader(byte buffer[]) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * @return Number of bits left in buffer (negative if more bits were read than available)
+     */
+    public long bitsLeft() {
+        return 8L * buffer.length - bitPos;
+    }
+
+    /**
+     * Return the next n bits without consuming them.
+     * @param n Number of bits to peek (1 <= n <= 32)
+     * @return Value containing the n bits (last bit is LSB)
+     */
+    public int peekBits(int n) {
+        if (accBits < n) {
+            refill();
+        }
+        return (int)(acc >>> (64 - n));
+    }
+
+    /**
+     * Consume n bits.
+     * @param n Number of bits to skip (n <= 32)
+     */
+    public void skipBits(int n) {
+        if (accBits < n) {
+            refill();
+        }
+        acc <<= n;
+        accBits -= n;
+        bitPos += n;
+    }
+
+    /**
+     * Read n bits from buffer.
+     * @param n Number of bits to read from buffer (1 <= n <= 32)
+     * @return Value containing the n bits (last bit read is LSB)
+     */
+    public int readBits(int n) {
+        int retval = peekBits(n);
+        skipBits(n);
+        return retval;
+    }
+
+    /**
+     * Synchronize to next byte in data buffer (skip remaining 0-7 bits)
+     */
+    public void syncToByte() {
+        int n = (int)(-bitPos & 7);
+        if (n != 0) {
+            skipBits(n);
+        }
+    }
+
+    /**
+     * Top up the accumulator to at least 57 valid bits, using zero bytes beyond the end of the buffer.
+     */
+    private void refill() {
+        while (accBits <= 56) {
+            if (byteOfs < buffer.length) {
+                acc |= (long)(buffer[byteOfs++] & 0xff) << (56 - accBits);
+            }
+            accBits += 8;
+        }
+    }
+}
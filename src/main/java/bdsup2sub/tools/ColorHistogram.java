@@ -0,0 +1,193 @@
+/*
+ * Copyright 2013 Volker Oth (0xdeadbeef) / Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.tools;
+
+import java.util.Arrays;
+
+/**
+ * Colors of one or more images with their number of pixels, in order of first occurrence.<br>
+ * Completely transparent pixels count as one color (transparent black), whatever their RGB.
+ */
+public final class ColorHistogram {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    /** Index of each color in colors and counts */
+    private final ColorIndexMap slots = new ColorIndexMap();
+    int[] colors = new int[INITIAL_CAPACITY];
+    long[] counts = new long[INITIAL_CAPACITY];
+    int size;
+
+    /**
+     * @param argb ARGB color
+     * @return Color as counted, transparent black for all completely transparent colors
+     */
+    static int key(int argb) {
+        return (argb & 0xff000000) == 0 ? 0 : argb;
+    }
+
+    /**
+     * Add pixels of one color.
+     * @param color ARGB color
+     * @param count Number of pixels
+     */
+    public void add(int color, long count) {
+        color = key(color);
+        int slot = slots.get(color);
+        if (slot == ColorIndexMap.NOT_FOUND) {
+            if (size == colors.length) {
+                colors = Arrays.copyOf(colors, size << 1);
+                counts = Arrays.copyOf(counts, size << 1);
+            }
+            slots.put(color, size);
+            colors[size] = color;
+            counts[size] = count;
+            size++;
+        } else {
+            counts[slot] += count;
+        }
+    }
+
+    /**
+     * Add pixels, runs of the same color are counted before looking them up.
+     * @param pixels ARGB pixels
+     * @param from   Index of the first pixel
+     * @param to     Index after the last pixel
+     */
+    public void addPixels(int[] pixels, int from, int to) {
+        int i = from;
+        while (i < to) {
+            int color = key(pixels[i]);
+            int run = 1;
+            while (i + run < to && key(pixels[i + run]) == color) {
+                run++;
+            }
+            add(color, run);
+            i += run;
+        }
+    }
+
+    /**
+     * Add the pixels of a palettized image.
+     * @param pixels  Palette indices
+     * @param palette ARGB palette
+     */
+    public void addIndexedPixels(byte[] pixels, int[] palette) {
+        int[] indexCounts = new int[256];
+        for (byte pixel : pixels) {
+            indexCounts[pixel & 0xff]++;
+        }
+        for (int i = 0; i < indexCounts.length; i++) {
+            if (indexCounts[i] > 0) {
+                add(i < palette.length ? palette[i] : 0, indexCounts[i]);
+            }
+        }
+    }
+
+    /**
+     * Add the colors scaling a palettized image blends from neighbouring pixels of different colors.<br>
+     * For each pair of horizontally or vertically adjacent colors, the mixes of 1/4, 1/2 and 3/4 of each
+     * channel are added as often as the pair occurs.
+     * @param pixels  Palette indices
+     * @param width   Image width
+     * @param palette ARGB palette
+     */
+    public void addIndexedBlends(byte[] pixels, int width, int[] palette) {
+        int[] pairCounts = new int[256 * 256];
+        for (int i = 0; i < pixels.length; i++) {
+            int idx = pixels[i] & 0xff;
+            if ((i + 1) % width != 0) {
+                pairCounts[idx << 8 | (pixels[i + 1] & 0xff)]++;
+            }
+            if (i + width < pixels.length) {
+                pairCounts[idx << 8 | (pixels[i + width] & 0xff)]++;
+            }
+        }
+        for (int i = 0; i < 256; i++) {
+            for (int j = i + 1; j < 256; j++) {
+                int count = pairCounts[i << 8 | j] + pairCounts[j << 8 | i];
+                if (count > 0) {
+                    int c0 = i < palette.length ? key(palette[i]) : 0;
+                    int c1 = j < palette.length ? key(palette[j]) : 0;
+                    if (c0 != c1) {
+                        add(mix(c0, c1, 1), count);
+                        add(mix(c0, c1, 2), count);
+                        add(mix(c0, c1, 3), count);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Each channel of c0 moved quarters/4 of the way to c1
+     */
+    private static int mix(int c0, int c1, int quarters) {
+        int color = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            int v0 = (c0 >>> shift) & 0xff;
+            int v1 = (c1 >>> shift) & 0xff;
+            color |= (v0 + ((v1 - v0) * quarters + 2 >> 2)) << shift;
+        }
+        return color;
+    }
+
+    /**
+     * Add all colors of another histogram, keeping their order.
+     * @param other Histogram to add
+     */
+    public void addAll(ColorHistogram other) {
+        for (int i = 0; i < other.size; i++) {
+            add(other.colors[i], other.counts[i]);
+        }
+    }
+
+    /**
+     * @param color ARGB color
+     * @return Index of the color or {@link ColorIndexMap#NOT_FOUND}
+     */
+    public int indexOf(int color) {
+        return slots.get(key(color));
+    }
+
+    /**
+     * @return Number of different colors
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @param index Index of color, 0..size-1
+     * @return ARGB color
+     */
+    public int getColor(int index) {
+        return colors[index];
+    }
+
+    /**
+     * @param index Index of color, 0..size-1
+     * @return Number of pixels of this color
+     */
+    public long getCount(int index) {
+        return counts[index];
+    }
+
+    public void clear() {
+        slots.clear();
+        size = 0;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2013 Volker Oth (0xdeadbeef) / Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.tools;
+
+import java.util.Arrays;
+
+/**
+ * Maps ARGB colors to palette indices without boxing, using open addressing with linear probing.<br>
+ * Used to remember the palette index chosen for each color that occurs in a caption.
+ */
+public final class ColorIndexMap {
+
+    /** Marks an empty slot, palette indices are never negative */
+    public static final int NOT_FOUND = -1;
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private int[] keys;
+    private int[] values;
+    private int mask;
+    private int count;
+
+    public ColorIndexMap() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, NOT_FOUND);
+        mask = capacity - 1;
+        count = 0;
+    }
+
+    private int slot(int color) {
+        int h = color * 0x9e3779b9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * Get the palette index stored for a color.
+     * @param color ARGB color
+     * @return Palette index or {@link #NOT_FOUND}
+     */
+    public int get(int color) {
+        int i = slot(color);
+        while (values[i] != NOT_FOUND) {
+            if (keys[i] == color) {
+                return values[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * Store the palette index for a color.
+     * @param color    ARGB color
+     * @param colorIdx Palette index, not negative
+     */
+    public void put(int color, int colorIdx) {
+        int i = slot(color);
+        while (values[i] != NOT_FOUND) {
+            if (keys[i] == color) {
+                values[i] = colorIdx;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = color;
+        values[i] = colorIdx;
+        if (++count > (mask >> 1)) {
+            rehash();
+        }
+    }
+
+    private void rehash() {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(oldKeys.length << 1);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != NOT_FOUND) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Remove all colors, the allocated capacity is kept for reuse.
+     */
+    public void clear() {
+        Arrays.fill(values, NOT_FOUND);
+        count = 0;
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2013 Volker Oth (0xdeadbeef) / Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.tools;
+
+/**
+ * Reduces a true color image to an indexed image with a limited palette.
+ */
+public interface ColorQuantizer {
+
+    /**
+     * Quantize picture. Dithering may modify inPixels, e.g. to diffuse the quantization error.
+     * @param inPixels Array of ARGB pixels to quantize
+     * @param outPixels Array receiving the palette index of each pixel
+     * @param width Width of image
+     * @param height Height of image
+     * @param numColors Maximum number of colors used
+     * @param dither Use dithering?
+     * @param serpentine Use serpentine for dithering?
+     * @return Palette with the ARGB colors used, at most numColors entries
+     */
+    int[] quantize(int[] inPixels, byte[] outPixels, int width, int height, int numColors, boolean dither, boolean serpentine);
+}
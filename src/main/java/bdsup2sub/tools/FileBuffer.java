@@ -15,79 +15,107 @@
  */
 package bdsup2sub.tools;
 
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 
 /**
- * Very simple version of a read only memory mapped file used for parsing large packet based files.
+ * Read only memory mapped file used for parsing large packet based files.<br>
+ * The file is mapped in chunks, so files larger than 2GB can be accessed with 64bit offsets.
  */
 public class FileBuffer {
 
-    /** Size of the buffer in memory */
-    private static final int BUFFERSIZE = 1024*1024; /* 1MB */
-    /** Buffer in memory */
-    private byte[] buf;
+    /** Size of one memory mapped chunk of the input file */
+    private static final int CHUNK_SIZE = 1024*1024*1024; /* 1GB */
+    /** Memory mapped chunks of the input file */
+    private final MappedByteBuffer[] chunks;
+    /** Size of the memory mapped chunks (all but the last one) */
+    private final int chunkSize;
     /** File name of the input file */
-    private String filename;
-    /** File input stream of the input file */
-    private FileInputStream fi;
+    private final String filename;
+    /** Input file */
+    private RandomAccessFile file;
     /** File channel of the input file */
     private FileChannel fc;
-    /** Current offset in file = start of memory buffer */
-    private long offset;
-    /** Last valid offset that is stored in internal buffer */
-    private long offsetEnd;
     /** Length of file */
-    private long length;
+    private final long length;
 
     public FileBuffer(final String filename) throws FileBufferException {
+        this(filename, CHUNK_SIZE);
+    }
+
+    /**
+     * Open and map the input file.
+     * @param filename  File name of the input file
+     * @param chunkSize Size of the memory mapped chunks
+     * @throws FileBufferException
+     */
+    FileBuffer(final String filename, final int chunkSize) throws FileBufferException {
         this.filename = filename;
-        length = new File(filename).length();
-        if (length < BUFFERSIZE) {
-            buf = new byte[(int)length];
-        } else {
-            buf = new byte[BUFFERSIZE];
-        }
+        this.chunkSize = chunkSize;
+        long offset = 0;
         try {
-            fi = new FileInputStream(filename);
-            fc = fi.getChannel();
-            offset = 0;
-            readBuffer(offset);
+            file = new RandomAccessFile(filename, "r");
+            fc = file.getChannel();
+            length = fc.size();
+            chunks = new MappedByteBuffer[(int)((length + chunkSize - 1) / chunkSize)];
+            for (int i = 0; i < chunks.length; i++) {
+                offset = (long)i * chunkSize;
+                chunks[i] = fc.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(chunkSize, length - offset));
+            }
         } catch (FileNotFoundException ex) {
             throw new FileBufferException("File '" + filename + "' not found");
+        } catch (IOException ex) {
+            close();
+            throw new FileBufferException("IO error at offset +" + offset + " of file '" + filename + "'");
         }
     }
 
     /**
-     * Move offset, read file to memory buffer.
-     * @param offset New file offset
+     * Create a buffer that isn't backed by a memory mapped file.<br>
+     * Subclasses providing their own data have to override all accessors.
+     */
+    protected FileBuffer() {
+        filename = null;
+        chunkSize = CHUNK_SIZE;
+        chunks = new MappedByteBuffer[0];
+        length = 0;
+    }
+
+    /**
+     * Check that the given range lies within the file.
+     * @param offset File offset
+     * @param len    Number of bytes to access
      * @throws FileBufferException
      */
-    private void readBuffer(long offset) throws FileBufferException {
-        try {
-            this.offset = offset;
-            fc.position(offset);
-            long l = length - offset;
-            int numRead;
-            if (l < 0) {
-                throw new FileBufferException("Offset " + offset + " out of bounds for file " + filename);
-            }
-            if (l < buf.length) {
-                numRead = fi.read(buf, 0, (int)l);
-            } else {
-                numRead = fi.read(buf, 0, buf.length);
-            }
-            offsetEnd = offset + numRead - 1; // points to last valid position
-        } catch (IOException ex) {
-            throw new FileBufferException("IO error at offset +" + offset + " of file '" + filename + "'");
-        } catch (IllegalArgumentException ex) {
-            throw new FileBufferException("IO error at offset +" + offset + " of file '" + filename + "'");
+    private void checkRange(long offset, int len) throws FileBufferException {
+        if (offset < 0 || len < 0 || offset + len > length) {
+            throw new FileBufferException("Offset " + offset + " out of bounds for file " + filename);
         }
     }
 
+    /**
+     * Get the chunk containing the given offset.
+     * @param offset File offset
+     * @return Memory mapped chunk
+     */
+    private ByteBuffer chunkAt(long offset) {
+        return chunks[(int)(offset / chunkSize)];
+    }
+
+    /**
+     * Check whether the given range lies within one chunk.
+     * @param offset File offset
+     * @param len    Number of bytes to access
+     * @return True if no chunk boundary is crossed
+     */
+    private boolean isInOneChunk(long offset, int len) {
+        return (offset % chunkSize) + len <= chunkSize;
+    }
+
     /**
      * Read one byte from the buffer.
      * @param offset File offset
@@ -95,10 +123,8 @@ public class FileBuffer {
      * @throws FileBufferException
      */
     public int getByte(long offset) throws FileBufferException {
-        if ((offset < this.offset) || (offset > offsetEnd)) {
-            readBuffer(offset);
-        }
-        return buf[(int)(offset - this.offset)] & 0xff;
+        checkRange(offset, 1);
+        return chunkAt(offset).get((int)(offset % chunkSize)) & 0xff;
     }
 
     /**
@@ -108,11 +134,11 @@ public class FileBuffer {
      * @throws FileBufferException
      */
     public int getWord(long offset) throws FileBufferException {
-        if ((offset < this.offset) || ((offset+1) > offsetEnd)) {
-            readBuffer(offset);
+        checkRange(offset, 2);
+        if (isInOneChunk(offset, 2)) {
+            return chunkAt(offset).getShort((int)(offset % chunkSize)) & 0xffff;
         }
-        int idx = (int)(offset - this.offset);
-        return (buf[idx+1] & 0xff) | ((buf[idx] & 0xff) << 8);
+        return getByte(offset + 1) | (getByte(offset) << 8);
     }
 
     /**
@@ -122,11 +148,11 @@ public class FileBuffer {
      * @throws FileBufferException
      */
     public int getWordLE(long offset) throws FileBufferException {
-        if ((offset < this.offset) || ((offset + 1) > offsetEnd)) {
-            readBuffer(offset);
+        checkRange(offset, 2);
+        if (isInOneChunk(offset, 2)) {
+            return Short.reverseBytes(chunkAt(offset).getShort((int)(offset % chunkSize))) & 0xffff;
         }
-        int idx = (int)(offset - this.offset);
-        return (buf[idx] & 0xff) | ((buf[idx+1] & 0xff) << 8);
+        return getByte(offset) | (getByte(offset + 1) << 8);
     }
 
     /**
@@ -136,12 +162,11 @@ public class FileBuffer {
      * @throws FileBufferException
      */
     public int getDWord(long offset) throws FileBufferException {
-        if ((offset < this.offset) || ((offset+3) > offsetEnd)) {
-            readBuffer(offset);
+        checkRange(offset, 4);
+        if (isInOneChunk(offset, 4)) {
+            return chunkAt(offset).getInt((int)(offset % chunkSize));
         }
-        int idx = (int)(offset - this.offset);
-        return  (buf[idx+3] & 0xff)      | ((buf[idx + 2] & 0xff) << 8)
-            |  ((buf[idx+1] & 0xff) << 16) | ((buf[idx]   & 0xff) << 24);
+        return (getWord(offset) << 16) | getWord(offset + 2);
     }
 
     /**
@@ -151,12 +176,11 @@ public class FileBuffer {
      * @throws FileBufferException
      */
     public int getDWordLE(long offset) throws FileBufferException {
-        if ((offset < this.offset) || ((offset + 3) > offsetEnd)) {
-            readBuffer(offset);
+        checkRange(offset, 4);
+        if (isInOneChunk(offset, 4)) {
+            return Integer.reverseBytes(chunkAt(offset).getInt((int)(offset % chunkSize)));
         }
-        int idx = (int)(offset - this.offset);
-        return (buf[idx] & 0xff) | ((buf[idx + 1] & 0xff) << 8)
-            | ((buf[idx + 2] & 0xff) << 16) | ((buf[idx + 3] & 0xff) << 24);
+        return getWordLE(offset) | (getWordLE(offset + 2) << 16);
     }
 
     /**
@@ -167,12 +191,63 @@ public class FileBuffer {
      * @throws FileBufferException
      */
     public void getBytes(long ofs, byte b[], int len) throws FileBufferException {
-        if ((ofs < offset) || ( (ofs + len - 1) > offsetEnd)) {
-            readBuffer(ofs);
+        getBytes(ofs, b, 0, len);
+    }
+
+    /**
+     * Read multiple bytes from the buffer.
+     * @param ofs	File offset
+     * @param b		Buffer to store bytes (has to be allocated and large enough)
+     * @param pos	Offset in b to store the first byte at
+     * @param len	Number of bytes to read
+     * @throws FileBufferException
+     */
+    public void getBytes(long ofs, byte b[], int pos, int len) throws FileBufferException {
+        checkRange(ofs, len);
+        int done = 0;
+        while (done < len) {
+            long offset = ofs + done;
+            // duplicate to leave the position of the shared chunk untouched
+            ByteBuffer chunk = chunkAt(offset).duplicate();
+            int idx = (int)(offset % chunkSize);
+            int n = Math.min(len - done, chunk.limit() - idx);
+            chunk.position(idx);
+            chunk.get(b, pos + done, n);
+            done += n;
         }
-        for (int i = 0; i < len; i++) {
-            b[i] = buf[(int)(ofs - offset + i)];
+    }
+
+    /**
+     * Get a read only view of a range of the file.<br>
+     * The view shares the mapped memory of the file. Only if the range crosses a chunk boundary,
+     * the bytes are copied.
+     * @param ofs	File offset
+     * @param len	Number of bytes in the view
+     * @return Read only buffer with position 0 and limit len
+     * @throws FileBufferException
+     */
+    public ByteBuffer getSlice(long ofs, int len) throws FileBufferException {
+        checkRange(ofs, len);
+        if (!isInOneChunk(ofs, len)) {
+            byte[] b = new byte[len];
+            getBytes(ofs, b, len);
+            return ByteBuffer.wrap(b).asReadOnlyBuffer();
         }
+        ByteBuffer chunk = chunkAt(ofs).duplicate();
+        int idx = (int)(ofs % chunkSize);
+        chunk.limit(idx + len);
+        chunk.position(idx);
+        return chunk.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Check whether there is data at the given offset, i.e. whether the end of the file is not reached yet.
+     * @param offset File offset
+     * @return True if the byte at the given offset can be read
+     * @throws FileBufferException
+     */
+    public boolean hasDataAt(long offset) throws FileBufferException {
+        return offset >= 0 && offset < length;
     }
 
     /**
@@ -184,15 +259,16 @@ public class FileBuffer {
     }
 
     /**
-     * Close file buffer (closes input file).
+     * Close file buffer (closes input file).<br>
+     * Note that the mapped chunks are released by the garbage collector.
      */
     public void close() {
         try {
             if (fc != null) {
                 fc.close();
             }
-            if (fi != null) {
-                fi.close();
+            if (file != null) {
+                file.close();
             }
         } catch (IOException ex) {
         }
@@ -200,12 +276,7 @@ public class FileBuffer {
 
     @Override
     public void finalize() throws Throwable {
-        if (fc != null) {
-            fc.close();
-        }
-        if (fi != null) {
-            fi.close();
-        }
+        close();
         super.finalize();
     }
 }
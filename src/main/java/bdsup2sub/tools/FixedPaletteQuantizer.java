@@ -0,0 +1,294 @@
+/*
+ * Copyright 2013 Volker Oth (0xdeadbeef) / Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.tools;
+
+/**
+ * Maps images to a given palette instead of creating a new one, e.g. to let many captions share one palette.<br>
+ * Each pixel gets the palette entry with the smallest squared ARGB distance, optionally with Floyd-Steinberg
+ * dithering. The palette is stored per channel and the nearest entry of each color is remembered while an
+ * image is mapped. Thread safe, several images may be mapped at once.
+ */
+public class FixedPaletteQuantizer implements ColorQuantizer {
+
+    /** Floyd-Steinberg weights of the next pixel and of the pixels below */
+    private static final int FS_NEXT = 7;
+    private static final int FS_BELOW_PREVIOUS = 3;
+    private static final int FS_BELOW = 5;
+    private static final int FS_BELOW_NEXT = 1;
+    private static final int FS_SUM = 16;
+
+    /** 8x8 Bayer threshold matrix, values 0..63 */
+    private static final int[] BAYER = {
+         0, 32,  8, 40,  2, 34, 10, 42,
+        48, 16, 56, 24, 50, 18, 58, 26,
+        12, 44,  4, 36, 14, 46,  6, 38,
+        60, 28, 52, 20, 62, 30, 54, 22,
+         3, 35, 11, 43,  1, 33,  9, 41,
+        51, 19, 59, 27, 49, 17, 57, 25,
+        15, 47,  7, 39, 13, 45,  5, 37,
+        63, 31, 55, 23, 61, 29, 53, 21
+    };
+    /** Upper limit of the threshold spread, avoids visible noise for palettes with few distant colors */
+    private static final int MAX_SPREAD = 64;
+
+    /** Remembered nearest palette entries are dropped once there are more than this */
+    private static final int MAX_CACHED_NEAREST = 0x10000;
+
+    private final int[] palette;
+    private final int[] pa;
+    private final int[] pr;
+    private final int[] pg;
+    private final int[] pb;
+
+    /**
+     * @param palette ARGB palette, at most 256 entries
+     */
+    public FixedPaletteQuantizer(int[] palette) {
+        this.palette = palette.clone();
+        pa = new int[palette.length];
+        pr = new int[palette.length];
+        pg = new int[palette.length];
+        pb = new int[palette.length];
+        for (int i = 0; i < palette.length; i++) {
+            pa[i] = palette[i] >>> 24;
+            pr[i] = (palette[i] >> 16) & 0xff;
+            pg[i] = (palette[i] >> 8) & 0xff;
+            pb[i] = palette[i] & 0xff;
+        }
+    }
+
+    /**
+     * @return ARGB palette
+     */
+    public int[] getPalette() {
+        return palette.clone();
+    }
+
+    /**
+     * Map picture to the palette
+     * @param inPixels Array of RGBA pixels to quantize, modified when dithering
+     * @param outPixels Array with palette entries
+     * @param width Width of image
+     * @param height Height of image
+     * @param numColors Ignored, the palette is given
+     * @param dither Use dithering?
+     * @param serpentine Use serpentine for dithering?
+     * @return The whole palette, the same for each image
+     */
+    @Override
+    public int[] quantize(int[] inPixels, byte[] outPixels, int width, int height, int numColors, boolean dither, boolean serpentine) {
+        if (dither) {
+            ditherPixels(inPixels, outPixels, width, height, serpentine);
+        } else {
+            mapPixels(inPixels, outPixels, width, height);
+        }
+        return palette.clone();
+    }
+
+    private static int clamp(int c) {
+        return c < 0 ? 0 : (c > 255 ? 255 : c);
+    }
+
+    /**
+     * Get the palette entry nearest to a color.
+     * @param color   ARGB color, completely transparent colors are treated as transparent black
+     * @param nearest Nearest palette entries of colors seen before
+     * @return Palette index
+     */
+    private int nearest(int color, ColorIndexMap nearest) {
+        int idx = nearest.get(color);
+        if (idx == ColorIndexMap.NOT_FOUND) {
+            idx = findNearest(color >>> 24, (color >> 16) & 0xff, (color >> 8) & 0xff, color & 0xff, pa, pr, pg, pb);
+            if (nearest.size() >= MAX_CACHED_NEAREST) {
+                nearest.clear();
+            }
+            nearest.put(color, idx);
+        }
+        return idx;
+    }
+
+    private void mapPixels(final int[] inPixels, final byte[] outPixels, final int width, int height) {
+        ParallelRows.run(height, width, new ParallelRows.RowTask() {
+            @Override
+            public void processRows(int yStart, int yEnd) {
+                ColorIndexMap nearest = new ColorIndexMap();
+                for (int i = yStart * width; i < yEnd * width; i++) {
+                    outPixels[i] = (byte)nearest(ColorHistogram.key(inPixels[i]), nearest);
+                }
+            }
+        });
+    }
+
+    /**
+     * Map each pixel to the nearest palette entry, diffusing the error with Floyd-Steinberg weights.
+     */
+    private void ditherPixels(int[] inPixels, byte[] outPixels, int width, int height, boolean serpentine) {
+        ColorIndexMap nearest = new ColorIndexMap();
+        for (int y = 0; y < height; y++) {
+            boolean reverse = serpentine && (y & 1) == 1;
+            int direction = reverse ? -1 : 1;
+            int index = reverse ? y * width + width - 1 : y * width;
+            boolean hasRowBelow = y < height - 1;
+            for (int x = 0; x < width; x++) {
+                int color = ColorHistogram.key(inPixels[index]);
+                int idx = nearest(color, nearest);
+                outPixels[index] = (byte)idx;
+
+                int ea = (color >>> 24) - pa[idx];
+                int er = ((color >> 16) & 0xff) - pr[idx];
+                int eg = ((color >> 8) & 0xff) - pg[idx];
+                int eb = (color & 0xff) - pb[idx];
+                if ((ea | er | eg | eb) != 0) {
+                    boolean hasNext = x < width - 1;
+                    if (hasNext) {
+                        diffuse(inPixels, index + direction, ea, er, eg, eb, FS_NEXT);
+                    }
+                    if (hasRowBelow) {
+                        int below = index + width;
+                        if (x > 0) {
+                            diffuse(inPixels, below - direction, ea, er, eg, eb, FS_BELOW_PREVIOUS);
+                        }
+                        diffuse(inPixels, below, ea, er, eg, eb, FS_BELOW);
+                        if (hasNext) {
+                            diffuse(inPixels, below + direction, ea, er, eg, eb, FS_BELOW_NEXT);
+                        }
+                    }
+                }
+                index += direction;
+            }
+        }
+    }
+
+    /**
+     * Map each pixel to the nearest palette entry after adding a threshold from an 8x8 Bayer matrix to its RGB.<br>
+     * Each pixel only depends on its own color and position, so rows are processed in parallel. Alpha isn't
+     * dithered, which keeps opaque and completely transparent areas exact.
+     * @param inPixels  ARGB pixels, not modified
+     * @param outPixels Receives the palette indices
+     * @param width     Width of image
+     * @param height    Height of image
+     */
+    void ditherOrdered(final int[] inPixels, final byte[] outPixels, final int width, int height) {
+        final int[] thresholds = new int[BAYER.length];
+        int spread = getThresholdSpread();
+        for (int i = 0; i < BAYER.length; i++) {
+            thresholds[i] = ((2 * BAYER[i] + 1 - BAYER.length) * spread) / (2 * BAYER.length);
+        }
+        ParallelRows.run(height, width, new ParallelRows.RowTask() {
+            @Override
+            public void processRows(int yStart, int yEnd) {
+                ColorIndexMap nearest = new ColorIndexMap();
+                for (int y = yStart; y < yEnd; y++) {
+                    int row = (y & 7) << 3;
+                    int index = y * width;
+                    for (int x = 0; x < width; x++, index++) {
+                        int color = ColorHistogram.key(inPixels[index]);
+                        if (color != 0) {
+                            int t = thresholds[row | (x & 7)];
+                            color = (color & 0xff000000)
+                                    | clamp(((color >> 16) & 0xff) + t) << 16
+                                    | clamp(((color >> 8) & 0xff) + t) << 8
+                                    | clamp((color & 0xff) + t);
+                        }
+                        outPixels[index] = (byte)nearest(color, nearest);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Estimate the distance between neighbouring palette colors, the thresholds of ordered dithering
+     * have to cover this range to blend them.
+     * @return Average distance of each visible palette entry to the closest other one (largest channel difference)
+     */
+    int getThresholdSpread() {
+        long sum = 0;
+        int count = 0;
+        for (int i = 0; i < palette.length; i++) {
+            if (pa[i] == 0) {
+                continue;
+            }
+            int closest = Integer.MAX_VALUE;
+            for (int j = 0; j < palette.length; j++) {
+                if (j != i && pa[j] != 0 && palette[j] != palette[i]) {
+                    int d = Math.max(Math.max(Math.abs(pa[i] - pa[j]), Math.abs(pr[i] - pr[j])),
+                            Math.max(Math.abs(pg[i] - pg[j]), Math.abs(pb[i] - pb[j])));
+                    closest = Math.min(closest, d);
+                }
+            }
+            if (closest != Integer.MAX_VALUE) {
+                sum += closest;
+                count++;
+            }
+        }
+        return count == 0 ? 0 : (int)Math.min(MAX_SPREAD, sum / count);
+    }
+
+    private static void diffuse(int[] pixels, int k, int ea, int er, int eg, int eb, int weight) {
+        int color = pixels[k];
+        int a = clamp((color >>> 24) + ea * weight / FS_SUM);
+        int r = clamp(((color >> 16) & 0xff) + er * weight / FS_SUM);
+        int g = clamp(((color >> 8) & 0xff) + eg * weight / FS_SUM);
+        int b = clamp((color & 0xff) + eb * weight / FS_SUM);
+        pixels[k] = a << 24 | r << 16 | g << 8 | b;
+    }
+
+    /**
+     * Find the palette entry with the smallest squared ARGB distance. The search skips an entry as soon as
+     * its partial distance isn't smaller than the best one.
+     * @param a  Alpha component of the color
+     * @param r  Red component of the color
+     * @param g  Green component of the color
+     * @param b  Blue component of the color
+     * @param pa Alpha components of the palette
+     * @param pr Red components of the palette
+     * @param pg Green components of the palette
+     * @param pb Blue components of the palette
+     * @return Index of the first palette entry with the minimum distance
+     */
+    static int findNearest(int a, int r, int g, int b, int[] pa, int[] pr, int[] pg, int[] pb) {
+        int best = 0;
+        int bestDist = Integer.MAX_VALUE;
+        for (int i = 0; i < pa.length; i++) {
+            int d = a - pa[i];
+            int dist = d * d;
+            if (dist >= bestDist) {
+                continue;
+            }
+            d = r - pr[i];
+            dist += d * d;
+            if (dist >= bestDist) {
+                continue;
+            }
+            d = g - pg[i];
+            dist += d * d;
+            if (dist >= bestDist) {
+                continue;
+            }
+            d = b - pb[i];
+            dist += d * d;
+            if (dist < bestDist) {
+                best = i;
+                bestDist = dist;
+                if (dist == 0) {
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,430 @@
+/*
+ * Copyright 2013 Volker Oth (0xdeadbeef) / Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.tools;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Quantizer using the median cut algorithm on the exact color histogram of an image.<br>
+ * Images with no more colors than the palette can hold keep all their colors. Otherwise the box of colors
+ * with the largest squared error is split along its worst channel until there are as many boxes as palette
+ * entries, each box becomes the average of its colors. The palette is then refined by moving each entry to
+ * the average of the colors nearest to it. Completely transparent pixels count as one color, whatever their RGB,
+ * and always keep an exact palette entry.<br>
+ * Work arrays are kept per thread and reused for the next image.
+ */
+public class MedianCutQuantizer implements ColorQuantizer {
+
+    /** Work arrays grown beyond this number of colors are not kept for the next image */
+    private static final int MAX_REUSED_COLORS = 0x40000;
+    /** Histograms with more colors keep the median cut palette, refining it would take too long */
+    private static final int MAX_REFINED_COLORS = 0x8000;
+    /** Number of times the palette is moved to the average of the colors nearest to each entry */
+    private static final int REFINE_PASSES = 2;
+
+    private static final ThreadLocal<Workspace> workspace = new ThreadLocal<Workspace>() {
+        @Override
+        protected Workspace initialValue() {
+            return new Workspace();
+        }
+    };
+
+    /**
+     * Work arrays reused for the next image quantized on the same thread.
+     */
+    private static final class Workspace {
+        final ColorHistogram histogram = new ColorHistogram();
+        /** Palette index of each color of the histogram */
+        int[] colorIndex = new int[0];
+        /** Histogram indices sorted by box */
+        int[] order = new int[0];
+        long[] sortKeys = new long[0];
+
+        void ensureCapacity(int numColors) {
+            if (colorIndex.length < numColors) {
+                colorIndex = new int[numColors];
+                order = new int[numColors];
+                sortKeys = new long[numColors];
+            }
+        }
+
+        boolean isLarge() {
+            return histogram.colors.length > MAX_REUSED_COLORS;
+        }
+    }
+
+    /**
+     * Quantize picture
+     * @param inPixels Array of RGBA pixels to quantize, modified when dithering
+     * @param outPixels Array with quantized palette entries
+     * @param width Width of image
+     * @param height Height of image
+     * @param numColors Maximum number of colors used
+     * @param dither Use dithering?
+     * @param serpentine Use serpentine for dithering?
+     * @return Palette in order of first use
+     */
+    @Override
+    public int[] quantize(int[] inPixels, byte[] outPixels, int width, int height, int numColors, boolean dither, boolean serpentine) {
+        Workspace ws = workspace.get();
+        try {
+            buildHistogram(inPixels, width, height, ws.histogram);
+            ws.ensureCapacity(ws.histogram.size);
+            int[] palette = createPalette(ws.histogram, Math.max(numColors, 1), ws.colorIndex, ws.order, ws.sortKeys);
+            if (dither) {
+                new FixedPaletteQuantizer(palette).quantize(inPixels, outPixels, width, height, palette.length, true, serpentine);
+            } else {
+                mapPixels(inPixels, outPixels, width, height, ws.histogram, ws.colorIndex);
+            }
+            return removeUnusedColors(outPixels, width * height, palette);
+        } finally {
+            if (ws.isLarge()) {
+                workspace.remove();
+            }
+        }
+    }
+
+    /**
+     * Create a palette for the colors of a histogram, e.g. one collected from several images.
+     * @param histogram Colors to create the palette for
+     * @param numColors Maximum number of palette entries
+     * @return ARGB palette, entries used by more pixels first
+     */
+    public static int[] createPalette(ColorHistogram histogram, int numColors) {
+        int n = histogram.size;
+        int[] colorIndex = new int[n];
+        int[] palette = createPalette(histogram, Math.max(numColors, 1), colorIndex, new int[n], new long[n]);
+        long[] weights = new long[palette.length];
+        for (int i = 0; i < n; i++) {
+            weights[colorIndex[i]] += histogram.counts[i];
+        }
+        // sort by descending weight, then by index
+        long[] keys = new long[palette.length];
+        for (int p = 0; p < palette.length; p++) {
+            keys[p] = -weights[p] << 8 | p;
+        }
+        Arrays.sort(keys);
+        int used = 0;
+        int[] sorted = new int[palette.length];
+        for (long key : keys) {
+            int p = (int)(key & 0xff);
+            if (weights[p] > 0) {
+                sorted[used++] = palette[p];
+            }
+        }
+        return Arrays.copyOf(sorted, used);
+    }
+
+    /**
+     * Count the colors of an image. Large images are counted in bands on the common fork/join pool,
+     * merging the bands in order gives the same histogram as counting them one after the other.
+     */
+    private static void buildHistogram(final int[] pixels, final int width, final int height, final ColorHistogram histogram) {
+        histogram.clear();
+        final Map<Integer, ColorHistogram> bands = new ConcurrentSkipListMap<Integer, ColorHistogram>();
+        ParallelRows.run(height, width, new ParallelRows.RowTask() {
+            @Override
+            public void processRows(int yStart, int yEnd) {
+                if (yStart == 0 && yEnd == height) {
+                    histogram.addPixels(pixels, 0, width * height);
+                } else {
+                    ColorHistogram band = new ColorHistogram();
+                    band.addPixels(pixels, yStart * width, yEnd * width);
+                    bands.put(yStart, band);
+                }
+            }
+        });
+        for (ColorHistogram band : bands.values()) {
+            histogram.addAll(band);
+        }
+    }
+
+    /**
+     * Create the palette and store the palette index of each histogram color.
+     * @return Palette, at most numColors entries
+     */
+    private static int[] createPalette(ColorHistogram histogram, int numColors, int[] colorIndex, int[] order, long[] sortKeys) {
+        int n = histogram.size;
+        if (n <= numColors) {
+            for (int i = 0; i < n; i++) {
+                colorIndex[i] = i;
+            }
+            return Arrays.copyOf(histogram.colors, n);
+        }
+        return new MedianCut(histogram, order, sortKeys, numColors).createPalette(colorIndex);
+    }
+
+    /**
+     * Boxes of histogram colors, each box is a range of the order array.
+     */
+    private static final class MedianCut {
+        /** Shifts of the alpha, red, green and blue channels */
+        private static final int[] CHANNEL_SHIFT = {24, 16, 8, 0};
+
+        private final int[] colors;
+        private final long[] counts;
+        private final int size;
+        private final int[] order;
+        private final long[] sortKeys;
+        private final int[] boxStart;
+        private final int[] boxEnd;
+        /** Shift of the channel with the largest squared error */
+        private final int[] boxChannel;
+        /** Squared error of all channels, 0 if the box can't be split */
+        private final double[] boxScore;
+        private int boxes;
+        /** Histogram index of transparent black, which gets the last palette entry of its own, or -1 */
+        private final int transparent;
+
+        MedianCut(ColorHistogram histogram, int[] order, long[] sortKeys, int numColors) {
+            colors = histogram.colors;
+            counts = histogram.counts;
+            size = histogram.size;
+            this.order = order;
+            this.sortKeys = sortKeys;
+            transparent = numColors > 1 ? histogram.indexOf(0) : ColorIndexMap.NOT_FOUND;
+            int numBoxes = transparent == ColorIndexMap.NOT_FOUND ? numColors : numColors - 1;
+            boxStart = new int[numBoxes];
+            boxEnd = new int[numBoxes];
+            boxChannel = new int[numBoxes];
+            boxScore = new double[numBoxes];
+            int k = 0;
+            for (int i = 0; i < size; i++) {
+                if (i != transparent) {
+                    order[k++] = i;
+                }
+            }
+            boxEnd[0] = k;
+            boxes = 1;
+            measure(0);
+        }
+
+        int[] createPalette(int[] colorIndex) {
+            while (boxes < boxStart.length) {
+                int best = -1;
+                double bestScore = 0;
+                for (int b = 0; b < boxes; b++) {
+                    if (boxScore[b] > bestScore) {
+                        bestScore = boxScore[b];
+                        best = b;
+                    }
+                }
+                if (best < 0) {
+                    break;
+                }
+                int mid = split(boxStart[best], boxEnd[best], boxChannel[best]);
+                boxStart[boxes] = mid;
+                boxEnd[boxes] = boxEnd[best];
+                boxEnd[best] = mid;
+                measure(best);
+                measure(boxes);
+                boxes++;
+            }
+            for (int b = 0; b < boxes; b++) {
+                for (int k = boxStart[b]; k < boxEnd[b]; k++) {
+                    colorIndex[order[k]] = b;
+                }
+            }
+            int numColors = boxes;
+            if (transparent != ColorIndexMap.NOT_FOUND) {
+                colorIndex[transparent] = numColors++;
+            }
+            int[] palette = average(colorIndex, numColors);
+            if (size <= MAX_REFINED_COLORS) {
+                for (int pass = 0; pass < REFINE_PASSES; pass++) {
+                    assignNearest(palette, colorIndex);
+                    palette = average(colorIndex, numColors);
+                }
+                assignNearest(palette, colorIndex);
+            }
+            return palette;
+        }
+
+        /**
+         * @return Average color of the histogram colors assigned to each palette entry, transparent black stays exact
+         */
+        private int[] average(int[] colorIndex, int numColors) {
+            long[] sumA = new long[numColors];
+            long[] sumR = new long[numColors];
+            long[] sumG = new long[numColors];
+            long[] sumB = new long[numColors];
+            long[] weight = new long[numColors];
+            for (int i = 0; i < size; i++) {
+                int b = colorIndex[i];
+                int color = colors[i];
+                long count = counts[i];
+                sumA[b] += (color >>> 24) * count;
+                sumR[b] += ((color >> 16) & 0xff) * count;
+                sumG[b] += ((color >> 8) & 0xff) * count;
+                sumB[b] += (color & 0xff) * count;
+                weight[b] += count;
+            }
+            int[] palette = new int[numColors];
+            for (int b = 0; b < numColors; b++) {
+                long w = weight[b];
+                if (w > 0) {
+                    long half = w >> 1;
+                    palette[b] = (int)((sumA[b] + half) / w) << 24 | (int)((sumR[b] + half) / w) << 16
+                            | (int)((sumG[b] + half) / w) << 8 | (int)((sumB[b] + half) / w);
+                }
+            }
+            if (transparent != ColorIndexMap.NOT_FOUND) {
+                palette[numColors - 1] = 0;
+            }
+            return palette;
+        }
+
+        /**
+         * Assign each histogram color to its nearest palette entry.
+         */
+        private void assignNearest(int[] palette, int[] colorIndex) {
+            int[] pa = new int[palette.length];
+            int[] pr = new int[palette.length];
+            int[] pg = new int[palette.length];
+            int[] pb = new int[palette.length];
+            for (int i = 0; i < palette.length; i++) {
+                pa[i] = palette[i] >>> 24;
+                pr[i] = (palette[i] >> 16) & 0xff;
+                pg[i] = (palette[i] >> 8) & 0xff;
+                pb[i] = palette[i] & 0xff;
+            }
+            for (int i = 0; i < size; i++) {
+                int color = colors[i];
+                colorIndex[i] = FixedPaletteQuantizer.findNearest(color >>> 24, (color >> 16) & 0xff, (color >> 8) & 0xff, color & 0xff, pa, pr, pg, pb);
+            }
+        }
+
+        /**
+         * Find the channel with the largest squared error of a box.
+         */
+        private void measure(int b) {
+            long weight = 0;
+            long[] sum = new long[4];
+            long[] sumSq = new long[4];
+            for (int k = boxStart[b]; k < boxEnd[b]; k++) {
+                int idx = order[k];
+                int color = colors[idx];
+                long count = counts[idx];
+                for (int c = 0; c < 4; c++) {
+                    long v = (color >>> CHANNEL_SHIFT[c]) & 0xff;
+                    sum[c] += v * count;
+                    sumSq[c] += v * v * count;
+                }
+                weight += count;
+            }
+            double total = 0;
+            double max = -1;
+            for (int c = 0; c < 4; c++) {
+                double error = weight == 0 ? 0 : sumSq[c] - (double)sum[c] * sum[c] / weight;
+                total += error;
+                if (error > max) {
+                    max = error;
+                    boxChannel[b] = CHANNEL_SHIFT[c];
+                }
+            }
+            boxScore[b] = boxEnd[b] - boxStart[b] < 2 ? 0 : total;
+        }
+
+        /**
+         * Sort a box by one channel and split it where the squared error of both halves in this channel is smallest.
+         * @return Start of the upper half, both halves contain at least one color
+         */
+        private int split(int start, int end, int channel) {
+            for (int k = start; k < end; k++) {
+                int idx = order[k];
+                sortKeys[k] = (long)((colors[idx] >>> channel) & 0xff) << 32 | idx;
+            }
+            Arrays.sort(sortKeys, start, end);
+            long totalWeight = 0;
+            long totalSum = 0;
+            for (int k = start; k < end; k++) {
+                order[k] = (int)sortKeys[k];
+                long count = counts[order[k]];
+                totalWeight += count;
+                totalSum += (sortKeys[k] >>> 32) * count;
+            }
+            // minimizing the squared error means maximizing sum^2/weight of both halves
+            int mid = end - 1;
+            double best = -1;
+            long weight = 0;
+            long sum = 0;
+            for (int k = start; k < end - 1; k++) {
+                long count = counts[order[k]];
+                weight += count;
+                sum += (sortKeys[k] >>> 32) * count;
+                if ((sortKeys[k] >>> 32) != (sortKeys[k + 1] >>> 32)) {
+                    long upperSum = totalSum - sum;
+                    double score = (double)sum * sum / weight + (double)upperSum * upperSum / (totalWeight - weight);
+                    if (score > best) {
+                        best = score;
+                        mid = k + 1;
+                    }
+                }
+            }
+            return mid;
+        }
+    }
+
+    /**
+     * Map each pixel to the palette entry of its histogram color.
+     */
+    private static void mapPixels(final int[] inPixels, final byte[] outPixels, final int width, int height,
+                                  final ColorHistogram histogram, final int[] colorIndex) {
+        ParallelRows.run(height, width, new ParallelRows.RowTask() {
+            @Override
+            public void processRows(int yStart, int yEnd) {
+                int lastColor = 0;
+                int lastIdx = -1;
+                for (int i = yStart * width; i < yEnd * width; i++) {
+                    int color = inPixels[i];
+                    if (color != lastColor || lastIdx < 0) {
+                        lastColor = color;
+                        lastIdx = colorIndex[histogram.indexOf(color)];
+                    }
+                    outPixels[i] = (byte)lastIdx;
+                }
+            }
+        });
+    }
+
+    /**
+     * Drop palette entries no pixel uses and renumber the rest in order of first use.
+     * @return Palette with the used entries
+     */
+    private static int[] removeUnusedColors(byte[] outPixels, int count, int[] palette) {
+        int[] remap = new int[palette.length];
+        Arrays.fill(remap, -1);
+        int used = 0;
+        for (int i = 0; i < count; i++) {
+            int idx = outPixels[i] & 0xff;
+            int newIdx = remap[idx];
+            if (newIdx < 0) {
+                newIdx = used++;
+                remap[idx] = newIdx;
+            }
+            outPixels[i] = (byte)newIdx;
+        }
+        int[] result = new int[used];
+        for (int i = 0; i < palette.length; i++) {
+            if (remap[i] >= 0) {
+                result[remap[i]] = palette[i];
+            }
+        }
+        return result;
+    }
+}
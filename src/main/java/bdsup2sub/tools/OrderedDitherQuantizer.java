@@ -0,0 +1,54 @@
+/*
+ * Copyright 2013 Volker Oth (0xdeadbeef) / Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.tools;
+
+/**
+ * Uses ordered (Bayer matrix) dithering instead of error diffusion.<br>
+ * The palette still comes from another quantizer, only the mapping of pixels to it is replaced. Unlike
+ * Floyd-Steinberg, no pixel depends on its neighbours, so large images are dithered on all cores and
+ * the input pixels are left untouched.
+ */
+public class OrderedDitherQuantizer implements ColorQuantizer {
+
+    private final ColorQuantizer paletteQuantizer;
+
+    /**
+     * @param paletteQuantizer Quantizer creating the palette
+     */
+    public OrderedDitherQuantizer(ColorQuantizer paletteQuantizer) {
+        this.paletteQuantizer = paletteQuantizer;
+    }
+
+    /**
+     * Quantize picture
+     * @param inPixels Array of RGBA pixels to quantize, not modified
+     * @param outPixels Array with palette entries
+     * @param width Width of image
+     * @param height Height of image
+     * @param numColors Number of colors used
+     * @param dither Use ordered dithering?
+     * @param serpentine Ignored, the pixels are processed independently
+     * @return Integer array containing palette information
+     */
+    @Override
+    public int[] quantize(int[] inPixels, byte[] outPixels, int width, int height, int numColors, boolean dither, boolean serpentine) {
+        int[] palette = paletteQuantizer.quantize(inPixels, outPixels, width, height, numColors, false, false);
+        if (dither) {
+            new FixedPaletteQuantizer(palette).ditherOrdered(inPixels, outPixels, width, height);
+        }
+        return palette;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2013 Volker Oth (0xdeadbeef) / Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.tools;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Processes the rows of an image in bands on the common fork/join pool.<br>
+ * Small images are processed on the calling thread, splitting them costs more than it saves.
+ */
+public final class ParallelRows {
+
+    /** Minimum number of target pixels per band */
+    public static final int MIN_PIXELS_PER_BAND = 0x10000;
+
+    /** Work done for a band of rows, must only write the rows it is given */
+    public abstract static class RowTask {
+        /**
+         * @param yStart First row of the band
+         * @param yEnd   Row after the last row of the band
+         */
+        public abstract void processRows(int yStart, int yEnd);
+    }
+
+    private ParallelRows() {
+    }
+
+    /**
+     * Process all rows of a target image, in parallel if it's large enough.
+     * @param height Number of rows
+     * @param width  Number of pixels per row
+     * @param task   Work done for each band of rows
+     */
+    public static void run(int height, int width, RowTask task) {
+        run(ForkJoinPool.commonPool(), height, width, task);
+    }
+
+    /**
+     * Process all rows of a target image on the given pool, in parallel if it's large enough.
+     * @param pool   Pool executing the bands
+     * @param height Number of rows
+     * @param width  Number of pixels per row
+     * @param task   Work done for each band of rows
+     */
+    public static void run(ForkJoinPool pool, int height, int width, RowTask task) {
+        long pixels = (long)height * width;
+        if (pixels < 2L * MIN_PIXELS_PER_BAND || height < 2 || pool.getParallelism() < 2) {
+            task.processRows(0, height);
+        } else {
+            int minRows = Math.max(1, MIN_PIXELS_PER_BAND / Math.max(1, width));
+            pool.invoke(new Band(task, 0, height, minRows));
+        }
+    }
+
+    /** Splits its rows in halves until bands are small enough */
+    private static final class Band extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final RowTask task;
+        private final int yStart;
+        private final int yEnd;
+        private final int minRows;
+
+        Band(RowTask task, int yStart, int yEnd, int minRows) {
+            this.task = task;
+            this.yStart = yStart;
+            this.yEnd = yEnd;
+            this.minRows = minRows;
+        }
+
+        @Override
+        protected void compute() {
+            if (yEnd - yStart < 2 * minRows) {
+                task.processRows(yStart, yEnd);
+            } else {
+                int yMid = (yStart + yEnd) >>> 1;
+                invokeAll(new Band(task, yStart, yMid, minRows), new Band(task, yMid, yEnd, minRows));
+            }
+        }
+    }
+}
@@ -34,6 +34,16 @@ public class Props {
         this.header = "";
     }
 
+    /**
+     * Create a copy of the given properties
+     * @param other Properties to copy
+     */
+    public Props(Props other) {
+        this.hash = new Properties();
+        this.hash.putAll(other.hash);
+        this.header = other.header;
+    }
+
     /**
      * Set the property file header
      * @param header String containing Header information
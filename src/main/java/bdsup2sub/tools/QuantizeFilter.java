@@ -28,7 +28,7 @@ import java.util.Vector;
  * uses the RGB color model (because the application it was written for required it).
  * I hope to extend it to produce an IndexColorModel by request.
  */
-public class QuantizeFilter  {
+public class QuantizeFilter implements ColorQuantizer {
 
     /**
      * Floyd-Steinberg dithering matrix.
@@ -118,6 +118,7 @@ public class QuantizeFilter  {
      * @param serpentine Use serpentine for dithering?
      * @return Integer array containing palette information
      */
+    @Override
     public int[] quantize(int[] inPixels, byte[] outPixels, int width, int height, int numColors, boolean dither, boolean serpentine) {
         int count = width * height;
         OctTreeQuantizer quantizer = new OctTreeQuantizer();
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2013 Volker Oth (0xdeadbeef) / Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.tools;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Read only window over a sequential input stream (e.g. a pipe) used for parsing packet based streams while they are read.<br>
+ * Offsets are counted from the start of the stream just like file offsets of a {@link FileBuffer}. Data is read from the
+ * stream when it is accessed and kept in memory until it is released with {@link #discardBefore(long)}.
+ */
+public class StreamBuffer extends FileBuffer {
+
+    /** Initial size of the window */
+    private static final int INITIAL_SIZE = 0x40000; /* 256KB */
+
+    /** Input stream */
+    private final InputStream in;
+    /** Name of the input stream used in error messages */
+    private final String name;
+    /** Data read from the stream and not discarded yet */
+    private byte[] data = new byte[INITIAL_SIZE];
+    /** Stream offset of the first byte in data */
+    private long base;
+    /** Number of valid bytes in data */
+    private int count;
+    /** Data before this stream offset is not needed anymore */
+    private long discardOffset;
+    /** End of the input stream was reached */
+    private boolean eof;
+
+    /**
+     * @param in   Input stream to read from
+     * @param name Name of the input stream used in error messages
+     */
+    public StreamBuffer(InputStream in, String name) {
+        this.in = in;
+        this.name = name;
+    }
+
+    /**
+     * Read from the input stream until the data up to the given offset is available or the stream ends.
+     * @param end Stream offset of the first byte that doesn't need to be available
+     * @throws FileBufferException
+     */
+    private void fill(long end) throws FileBufferException {
+        try {
+            while (!eof && base + count < end) {
+                if (count == data.length) {
+                    makeRoom(end);
+                }
+                int n = in.read(data, count, data.length - count);
+                if (n < 0) {
+                    eof = true;
+                } else {
+                    count += n;
+                }
+            }
+        } catch (IOException ex) {
+            throw new FileBufferException("IO error at offset " + (base + count) + " of " + name);
+        }
+    }
+
+    /**
+     * Drop discarded data from the window or grow it if there's nothing to drop.
+     * @param end Stream offset of the first byte that doesn't need to be available
+     * @throws FileBufferException
+     */
+    private void makeRoom(long end) throws FileBufferException {
+        int drop = (int)Math.min(discardOffset - base, count);
+        if (drop > 0) {
+            System.arraycopy(data, drop, data, 0, count - drop);
+            base += drop;
+            count -= drop;
+        }
+        long needed = end - base;
+        if (needed > Integer.MAX_VALUE - 8) {
+            throw new FileBufferException("Data at offset " + base + " of " + name + " was never released");
+        }
+        if (count == data.length || needed > data.length) {
+            data = Arrays.copyOf(data, (int)Math.min(Integer.MAX_VALUE - 8, Math.max(2L * data.length, needed)));
+        }
+    }
+
+    /**
+     * Check that the given range was read from the stream and not discarded yet.
+     * @param offset Stream offset
+     * @param len    Number of bytes to access
+     * @return Index of the first byte in data
+     * @throws FileBufferException
+     */
+    private int checkRange(long offset, int len) throws FileBufferException {
+        if (offset < base || len < 0) {
+            throw new FileBufferException("Offset " + offset + " of " + name + " was already released");
+        }
+        fill(offset + len);
+        if (offset + len > base + count) {
+            throw new FileBufferException("Offset " + offset + " out of bounds for " + name);
+        }
+        return (int)(offset - base);
+    }
+
+    /**
+     * Release all data before the given offset, it won't be accessed anymore.
+     * @param offset Stream offset of the first byte that is still needed
+     */
+    public void discardBefore(long offset) {
+        if (offset > discardOffset) {
+            discardOffset = offset;
+        }
+    }
+
+    @Override
+    public int getByte(long offset) throws FileBufferException {
+        int idx = checkRange(offset, 1);
+        return data[idx] & 0xff;
+    }
+
+    @Override
+    public int getWord(long offset) throws FileBufferException {
+        int idx = checkRange(offset, 2);
+        return ((data[idx] & 0xff) << 8) | (data[idx + 1] & 0xff);
+    }
+
+    @Override
+    public int getWordLE(long offset) throws FileBufferException {
+        int idx = checkRange(offset, 2);
+        return (data[idx] & 0xff) | ((data[idx + 1] & 0xff) << 8);
+    }
+
+    @Override
+    public int getDWord(long offset) throws FileBufferException {
+        int idx = checkRange(offset, 4);
+        return ((data[idx] & 0xff) << 24) | ((data[idx + 1] & 0xff) << 16) | ((data[idx + 2] & 0xff) << 8) | (data[idx + 3] & 0xff);
+    }
+
+    @Override
+    public int getDWordLE(long offset) throws FileBufferException {
+        int idx = checkRange(offset, 4);
+        return (data[idx] & 0xff) | ((data[idx + 1] & 0xff) << 8) | ((data[idx + 2] & 0xff) << 16) | ((data[idx + 3] & 0xff) << 24);
+    }
+
+    @Override
+    public void getBytes(long ofs, byte[] b, int pos, int len) throws FileBufferException {
+        int idx = checkRange(ofs, len);
+        System.arraycopy(data, idx, b, pos, len);
+    }
+
+    /**
+     * Get a read only copy of a range of the stream.<br>
+     * Other than for a file, the bytes are always copied since the window is reused for new data.
+     */
+    @Override
+    public ByteBuffer getSlice(long ofs, int len) throws FileBufferException {
+        byte[] b = new byte[len];
+        getBytes(ofs, b, 0, len);
+        return ByteBuffer.wrap(b).asReadOnlyBuffer();
+    }
+
+    @Override
+    public boolean hasDataAt(long offset) throws FileBufferException {
+        if (offset < 0) {
+            return false;
+        }
+        fill(offset + 1);
+        return offset < base + count;
+    }
+
+    /**
+     * Get number of bytes read from the input stream so far.
+     * @return Stream offset of the first byte not read yet
+     */
+    @Override
+    public long getSize() {
+        return base + count;
+    }
+
+    /**
+     * Close the input stream.
+     */
+    @Override
+    public void close() {
+        try {
+            in.close();
+        } catch (IOException ex) {
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2013 Volker Oth (0xdeadbeef) / Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.utils;
+
+import java.util.Collection;
+import java.util.Locale;
+
+/**
+ * Builds one JSON object, members are written in the order they are added.
+ */
+public final class JsonBuilder {
+
+    private final StringBuilder json = new StringBuilder("{");
+
+    public JsonBuilder add(String name, String value) {
+        return addRaw(name, value == null ? "null" : quote(value));
+    }
+
+    public JsonBuilder add(String name, long value) {
+        return addRaw(name, Long.toString(value));
+    }
+
+    public JsonBuilder add(String name, double value) {
+        return addRaw(name, String.format(Locale.US, "%.3f", value));
+    }
+
+    public JsonBuilder add(String name, boolean value) {
+        return addRaw(name, Boolean.toString(value));
+    }
+
+    public JsonBuilder add(String name, JsonBuilder value) {
+        return addRaw(name, value.toString());
+    }
+
+    /**
+     * Add a member whose value is already JSON.
+     * @param name  Member name
+     * @param value JSON value, e.g. an array built with {@link #array(Collection)}
+     * @return This builder
+     */
+    public JsonBuilder addRaw(String name, String value) {
+        if (json.length() > 1) {
+            json.append(',');
+        }
+        json.append(quote(name)).append(':').append(value);
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return json + "}";
+    }
+
+    /**
+     * @param values JSON values
+     * @return JSON array of the values
+     */
+    public static String array(Collection<?> values) {
+        StringBuilder sb = new StringBuilder("[");
+        for (Object value : values) {
+            if (sb.length() > 1) {
+                sb.append(',');
+            }
+            sb.append(value);
+        }
+        return sb.append(']').toString();
+    }
+
+    /**
+     * @param s Text
+     * @return JSON string literal of the text
+     */
+    public static String quote(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int)c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
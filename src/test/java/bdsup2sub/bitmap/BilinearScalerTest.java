@@ -0,0 +1,74 @@
+/*
+ * Copyright 2013 Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.bitmap;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BilinearScalerTest {
+
+    private static final int[] VALUES = {0, 100, 200, 255};
+
+    @Test
+    public void shouldKeepCornerPixels() {
+        byte[] src = {0, 1, 2, 3};
+        BilinearScaler subject = new BilinearScaler(2, 2, 5, 3);
+        int[] top = new int[5];
+        int[] bottom = new int[5];
+        int[] unused = new int[5];
+
+        subject.interpolateRow(src, 0, VALUES, VALUES, top, unused);
+        subject.interpolateRow(src, 2, VALUES, VALUES, bottom, unused);
+
+        assertEquals(0, top[0] >> BilinearScaler.FRACTION_BITS);
+        assertEquals(100, top[4] >> BilinearScaler.FRACTION_BITS);
+        assertEquals(200, bottom[0] >> BilinearScaler.FRACTION_BITS);
+        assertEquals(255, bottom[4] >> BilinearScaler.FRACTION_BITS);
+    }
+
+    @Test
+    public void shouldInterpolateBetweenSourcePixels() {
+        byte[] src = {0, 1, 2, 3};
+        BilinearScaler subject = new BilinearScaler(2, 2, 3, 3);
+        int[] middle = new int[3];
+        int[] unused = new int[3];
+
+        subject.interpolateRow(src, 1, VALUES, VALUES, middle, unused);
+
+        assertEquals(100, (middle[0] + BilinearScaler.HALF) >> BilinearScaler.FRACTION_BITS);
+        assertEquals(139, (middle[1] + BilinearScaler.HALF) >> BilinearScaler.FRACTION_BITS);
+        assertEquals(178, (middle[2] + BilinearScaler.HALF) >> BilinearScaler.FRACTION_BITS);
+    }
+
+    @Test
+    public void shouldKeepUniformAreasExact() {
+        byte[] src = new byte[7 * 5];
+        BilinearScaler subject = new BilinearScaler(7, 5, 23, 11);
+        int[] a = new int[23];
+        int[] r = new int[23];
+        int[] g = new int[23];
+        int[] b = new int[23];
+        int[] opaque = {255};
+
+        for (int yt = 0; yt < 11; yt++) {
+            subject.interpolateRow(src, yt, opaque, opaque, opaque, opaque, a, r, g, b);
+            for (int xt = 0; xt < 23; xt++) {
+                assertEquals(255 << BilinearScaler.FRACTION_BITS, a[xt]);
+            }
+        }
+    }
+}
@@ -202,4 +202,45 @@ public class BitmapTest {
         assertEquals(2, buffer[4 * WIDTH + 4]); // e1 color index remapped 1 from 2
         assertEquals(3, buffer[7 * WIDTH + 7]); // e2 color index remapped 2 from 3
     }
+
+    @Test
+    public void shouldScaleBilinearKeepingPalette() {
+        subject.fillRectangularWithColorIndex(0, 0, WIDTH, HEIGHT / 2, (byte)1);
+        Palette palette = new Palette(2);
+        palette.setARGB(0, 0);
+        palette.setARGB(1, 0xffffffff);
+
+        Bitmap bitmap = subject.scaleBilinear(WIDTH * 3, HEIGHT * 3, palette);
+
+        assertEquals(WIDTH * 3, bitmap.getWidth());
+        assertEquals(HEIGHT * 3, bitmap.getHeight());
+        byte[] buffer = bitmap.getInternalBuffer();
+        assertEquals(1, buffer[0]);
+        assertEquals(0, buffer[buffer.length - 1]);
+    }
+
+    @Test
+    public void shouldScaleLargeBitmapsTheSameWayAsSmallOnes() {
+        Bitmap large = new Bitmap(1920, 300);
+        Bitmap small = new Bitmap(WIDTH, 300);
+        for (int y = 0; y < 300; y += 7) {
+            large.fillRectangularWithColorIndex(0, y, 1920, 3, (byte)(1 + y % 3));
+            small.fillRectangularWithColorIndex(0, y, WIDTH, 3, (byte)(1 + y % 3));
+        }
+        Palette palette = new Palette(4);
+        for (int i = 1; i < 4; i++) {
+            palette.setAlpha(i, 255);
+            palette.setYCbCr(i, 60 * i, 128, 128);
+        }
+        int[] lumThr = {210, 160};
+
+        byte[] scaledLarge = large.scaleBilinearLm(1280, 451, palette, 80, lumThr).getInternalBuffer();
+        byte[] scaledSmall = small.scaleBilinearLm(WIDTH, 451, palette, 80, lumThr).getInternalBuffer();
+
+        for (int y = 0; y < 451; y++) {
+            for (int x = 0; x < 1280; x += 127) {
+                assertEquals(scaledSmall[y * WIDTH], scaledLarge[y * 1280 + x]);
+            }
+        }
+    }
 }
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2013 Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.bitmap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static com.mortennobel.imagescaling.ResampleFilters.getLanczos3Filter;
+import static com.mortennobel.imagescaling.ResampleFilters.getMitchellFilter;
+import static org.junit.Assert.*;
+
+public class FilterOpTest {
+
+    private Bitmap bitmap;
+    private Palette palette;
+
+    @Before
+    public void setUp() {
+        bitmap = new Bitmap(300, 80);
+        bitmap.fillRectangularWithColorIndex(20, 10, 200, 50, (byte)1);
+        bitmap.fillRectangularWithColorIndex(40, 20, 20, 30, (byte)2);
+        palette = new Palette(3);
+        palette.setARGB(1, 0xffeeeeee);
+        palette.setARGB(2, 0xff202020);
+    }
+
+    @Test
+    public void shouldGiveTheSameResultWhenScalingRepeatedly() {
+        int[] first = new FilterOp(getLanczos3Filter(), 200, 53).filter(bitmap, palette);
+        new FilterOp(getMitchellFilter(), 450, 120).filter(bitmap, palette);
+        int[] second = new FilterOp(getLanczos3Filter(), 200, 53).filter(bitmap, palette);
+
+        assertNotSame(first, second);
+        assertTrue(Arrays.equals(first, second));
+    }
+
+    @Test
+    public void shouldKeepUniformAreas() {
+        int[] scaled = new FilterOp(getLanczos3Filter(), 600, 160).filter(bitmap, palette);
+
+        assertEquals(0, scaled[0]);
+        assertColor(0xffeeeeee, scaled[30 * 600 + 300]);
+        assertColor(0xff202020, scaled[70 * 600 + 100]);
+    }
+
+    @Test
+    public void shouldFilterSpansOfOneIndexLikeSpansOfIndicesWithTheSameColor() {
+        Palette aliased = new Palette(4);
+        aliased.setARGB(1, 0xffeeeeee);
+        aliased.setARGB(2, 0xff202020);
+        aliased.setARGB(3, 0xffeeeeee);
+        Bitmap mixed = new Bitmap(bitmap);
+        byte[] buffer = mixed.getInternalBuffer();
+        for (int i = 0; i < buffer.length; i += 2) {
+            if (buffer[i] == 1) {
+                buffer[i] = 3;
+            }
+        }
+
+        for (int[] size : new int[][] {{200, 53}, {600, 160}, {301, 79}}) {
+            int[] uniform = new FilterOp(getLanczos3Filter(), size[0], size[1]).filter(bitmap, aliased);
+            int[] alternating = new FilterOp(getLanczos3Filter(), size[0], size[1]).filter(mixed, aliased);
+
+            assertArrayEquals(uniform, alternating);
+        }
+    }
+
+    /** Weights are summed in float, so each component may be off by one */
+    private static void assertColor(int expected, int actual) {
+        for (int shift = 0; shift < 32; shift += 8) {
+            assertEquals((expected >> shift) & 0xff, (actual >> shift) & 0xff, 1);
+        }
+    }
+}
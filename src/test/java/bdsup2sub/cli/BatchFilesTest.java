@@ -0,0 +1,88 @@
+/*
+ * Copyright 2013 Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.cli;
+
+import org.apache.commons.cli.ParseException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BatchFilesTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = folder.newFolder("subs");
+        for (String name : new String[] {"b.sup", "a.sup", "c.idx", "c.sub", "d.ifo", "d.sup", "e.xml", "notes.txt"}) {
+            new File(dir, name).createNewFile();
+        }
+    }
+
+    @Test
+    public void shouldFindStreamsOfDirectorySortedByName() throws Exception {
+        List<File> files = BatchFiles.expandInputs(Arrays.asList(dir.getPath()));
+
+        assertEquals(Arrays.asList(file("a.sup"), file("b.sup"), file("c.idx"), file("d.ifo"), file("e.xml")), files);
+    }
+
+    @Test
+    public void shouldExpandFileNamePattern() throws Exception {
+        List<File> files = BatchFiles.expandInputs(Arrays.asList(new File(dir, "*.sup").getPath()));
+
+        assertEquals(Arrays.asList(file("a.sup"), file("b.sup"), file("d.sup")), files);
+    }
+
+    @Test
+    public void shouldReadListFileAndSkipDuplicates() throws Exception {
+        File list = folder.newFile("list.txt");
+        FileOutputStream out = new FileOutputStream(list);
+        out.write(("# tracks\n" + file("e.xml").getPath() + "\n\n" + file("a.sup").getPath() + "\n").getBytes("UTF-8"));
+        out.close();
+
+        List<File> files = BatchFiles.expandInputs(Arrays.asList("@" + list.getPath(), file("a.sup").getPath(), file("b.sup").getPath()));
+
+        assertEquals(Arrays.asList(file("e.xml"), file("a.sup"), file("b.sup")), files);
+    }
+
+    @Test(expected = ParseException.class)
+    public void shouldRejectMissingInputFile() throws Exception {
+        BatchFiles.expandInputs(Arrays.asList(file("missing.sup").getPath()));
+    }
+
+    @Test
+    public void shouldReplacePlaceholdersOfOutputFile() {
+        File output = BatchFiles.outputFile("{dir}/converted/{name}_720p.sup", file("a.sup"));
+
+        assertEquals(new File(new File(dir, "converted"), "a_720p.sup"), output);
+    }
+
+    private File file(String name) {
+        return new File(dir, name);
+    }
+}
@@ -153,6 +153,28 @@ public class CommandLineOptionsTest {
         assertEquals("mode", options.getOption(option).getArgName());
     }
 
+    @Test
+    public void shouldHaveQuantizerOption() {
+        String option = "q";
+        assertTrue(options.hasOption(option));
+        assertEquals("quantizer", options.getOption(option).getLongOpt());
+        assertFalse(options.getOption(option).isRequired());
+        assertTrue(options.getOption(option).hasArg());
+        assertFalse(options.getOption(option).hasOptionalArg());
+        assertEquals("quantizer", options.getOption(option).getArgName());
+    }
+
+    @Test
+    public void shouldHaveGlobalPaletteOption() {
+        String option = "g";
+        assertTrue(options.hasOption(option));
+        assertEquals("global-palette", options.getOption(option).getLongOpt());
+        assertFalse(options.getOption(option).isRequired());
+        assertTrue(options.getOption(option).hasArg());
+        assertFalse(options.getOption(option).hasOptionalArg());
+        assertEquals("captions", options.getOption(option).getArgName());
+    }
+
     @Test
     public void shouldHaveMinimumDisplayTimeOption() {
         String option = "m";
@@ -354,4 +376,66 @@ public class CommandLineOptionsTest {
         assertFalse(options.getOption(option).hasOptionalArg());
         assertEquals("file", options.getOption(option).getArgName());
     }
+
+    @Test
+    public void shouldHaveExportThreadsOption() {
+        String option = "j";
+        assertTrue(options.hasOption(option));
+        assertEquals("threads", options.getOption(option).getLongOpt());
+        assertFalse(options.getOption(option).isRequired());
+        assertTrue(options.getOption(option).hasArg());
+        assertFalse(options.getOption(option).hasOptionalArg());
+        assertEquals("n", options.getOption(option).getArgName());
+    }
+
+    @Test
+    public void shouldHaveStreamOption() {
+        String option = "s";
+        assertTrue(options.hasOption(option));
+        assertEquals("stream", options.getOption(option).getLongOpt());
+        assertFalse(options.getOption(option).isRequired());
+        assertFalse(options.getOption(option).hasArg());
+    }
+
+    @Test
+    public void shouldHaveBatchOption() {
+        String option = "b";
+        assertTrue(options.hasOption(option));
+        assertEquals("batch", options.getOption(option).getLongOpt());
+        assertFalse(options.getOption(option).isRequired());
+        assertTrue(options.getOption(option).hasArg());
+        assertFalse(options.getOption(option).hasOptionalArg());
+        assertEquals("n", options.getOption(option).getArgName());
+    }
+
+    @Test
+    public void shouldHaveServerOption() {
+        String option = "R";
+        assertTrue(options.hasOption(option));
+        assertEquals("server", options.getOption(option).getLongOpt());
+        assertFalse(options.getOption(option).isRequired());
+        assertTrue(options.getOption(option).hasArg());
+        assertFalse(options.getOption(option).hasOptionalArg());
+        assertEquals("port", options.getOption(option).getArgName());
+    }
+
+    @Test
+    public void shouldHaveMetricsOption() {
+        String option = "e";
+        assertTrue(options.hasOption(option));
+        assertEquals("metrics", options.getOption(option).getLongOpt());
+        assertFalse(options.getOption(option).isRequired());
+        assertTrue(options.getOption(option).hasArg());
+        assertFalse(options.getOption(option).hasOptionalArg());
+        assertEquals("file", options.getOption(option).getArgName());
+    }
+
+    @Test
+    public void shouldHaveProgressJsonOption() {
+        String option = "J";
+        assertTrue(options.hasOption(option));
+        assertEquals("progress-json", options.getOption(option).getLongOpt());
+        assertFalse(options.getOption(option).isRequired());
+        assertFalse(options.getOption(option).hasArg());
+    }
 }
@@ -332,6 +332,106 @@ public class CommandLineParserTest {
         assertEquals(ScalingFilter.BICUBIC_SPLINE, subject.getScalingFilter().get());
     }
 
+    @Test(expected = ParseException.class)
+    public void shouldRejectInvalidQuantizerArg() throws Exception {
+        subject.parse("--quantizer", "foo");
+    }
+
+    @Test
+    public void shouldQuantizerDefaultToAbsent() throws Exception {
+        subject.parse("--version");
+        assertFalse(subject.getQuantizer().isPresent());
+    }
+
+    @Test
+    public void shouldParseQuantizerWithValidName() throws Exception {
+        subject.parse("--quantizer", "octree");
+        assertEquals(Quantizer.OCTREE, subject.getQuantizer().get());
+    }
+
+    @Test
+    public void shouldGlobalPaletteDefaultToAbsent() throws Exception {
+        subject.parse("--version");
+        assertFalse(subject.getGlobalPaletteWindow().isPresent());
+    }
+
+    @Test
+    public void shouldParseGlobalPaletteForWholeStream() throws Exception {
+        subject.parse("--global-palette", "all");
+        assertEquals(0, subject.getGlobalPaletteWindow().get().intValue());
+    }
+
+    @Test
+    public void shouldParseGlobalPaletteWindow() throws Exception {
+        subject.parse("--global-palette", "50");
+        assertEquals(50, subject.getGlobalPaletteWindow().get().intValue());
+    }
+
+    @Test(expected = ParseException.class)
+    public void shouldRejectInvalidGlobalPaletteArg() throws Exception {
+        subject.parse("--global-palette", "0");
+    }
+
+    @Test(expected = ParseException.class)
+    public void shouldRejectStreamArgWithGlobalPalette() throws Exception {
+        File infile = File.createTempFile("input", null);
+        infile.deleteOnExit();
+        subject.parse("--stream", "--global-palette", "all", "--output", "out.sup", infile.getAbsolutePath());
+    }
+
+    @Test
+    public void shouldBatchModeDefaultToOff() throws Exception {
+        subject.parse("--version");
+        assertFalse(subject.isBatchMode());
+    }
+
+    @Test
+    public void shouldParseBatchWithInputFilesAndOutputTemplate() throws Exception {
+        File first = File.createTempFile("first", ".sup");
+        first.deleteOnExit();
+        File second = File.createTempFile("second", ".sup");
+        second.deleteOnExit();
+        subject.parse("--batch", "2", "--output", "out/{name}.sub", first.getAbsolutePath(), second.getAbsolutePath());
+
+        assertTrue(subject.isBatchMode());
+        assertEquals(2, subject.getBatchJobs().get().intValue());
+        assertEquals(OutputMode.VOBSUB, subject.getOutputMode().get());
+        assertEquals(2, subject.getInputFiles().size());
+        assertEquals(first, subject.getInputFiles().get(0));
+        assertEquals(new File("out", first.getName().replace(".sup", ".sub")).getAbsoluteFile(), subject.getOutputFiles().get(0));
+        assertEquals(new File("out", second.getName().replace(".sup", ".sub")).getAbsoluteFile(), subject.getOutputFiles().get(1));
+    }
+
+    @Test(expected = ParseException.class)
+    public void shouldRejectInvalidBatchArg() throws Exception {
+        File infile = File.createTempFile("input", ".sup");
+        infile.deleteOnExit();
+        subject.parse("--batch", "0", "--output", "{name}.sup", infile.getAbsolutePath());
+    }
+
+    @Test(expected = ParseException.class)
+    public void shouldRejectBatchWithoutOutputFile() throws Exception {
+        File infile = File.createTempFile("input", ".sup");
+        infile.deleteOnExit();
+        subject.parse("--batch", "1", infile.getAbsolutePath());
+    }
+
+    @Test(expected = ParseException.class)
+    public void shouldRejectBatchConvertingTwoInputsToTheSameOutput() throws Exception {
+        File first = File.createTempFile("first", ".sup");
+        first.deleteOnExit();
+        File second = File.createTempFile("second", ".sup");
+        second.deleteOnExit();
+        subject.parse("--batch", "1", "--output", "out.sup", first.getAbsolutePath(), second.getAbsolutePath());
+    }
+
+    @Test(expected = ParseException.class)
+    public void shouldRejectStreamArgWithBatch() throws Exception {
+        File infile = File.createTempFile("input", ".sup");
+        infile.deleteOnExit();
+        subject.parse("--stream", "--batch", "1", "--output", "{name}.sup", infile.getAbsolutePath());
+    }
+
     @Test(expected = ParseException.class)
     public void shouldRejectIfMissingPaletteModeArg() throws Exception {
         subject.parse("--palette-mode");
@@ -354,6 +454,12 @@ public class CommandLineParserTest {
         assertEquals(PaletteMode.KEEP_EXISTING, subject.getPaletteMode().get());
     }
 
+    @Test
+    public void shouldParseOrderedDitherPaletteMode() throws Exception {
+        subject.parse("--palette-mode", "ordered");
+        assertEquals(PaletteMode.CREATE_ORDERED_DITHERED, subject.getPaletteMode().get());
+    }
+
     @Test(expected = ParseException.class)
     public void shouldRejectInvalidMinimumDisplayTimeArg() throws Exception {
         subject.parse("--minimum-time", "foo");
@@ -797,4 +903,128 @@ public class CommandLineParserTest {
 
         assertEquals(paletteFile, subject.getPaletteFile());
     }
+
+    @Test(expected = ParseException.class)
+    public void shouldRejectIfMissingExportThreadsArg() throws Exception {
+        subject.parse("--threads");
+    }
+
+    @Test(expected = ParseException.class)
+    public void shouldRejectInvalidExportThreadsArg() throws Exception {
+        subject.parse("--threads", "foo");
+    }
+
+    @Test(expected = ParseException.class)
+    public void shouldRejectZeroExportThreadsArg() throws Exception {
+        subject.parse("--threads", "0");
+    }
+
+    @Test
+    public void shouldAcceptValidExportThreadsArg() throws Exception {
+        subject.parse("--threads", "4");
+        assertEquals(4, subject.getExportThreads().get().intValue());
+    }
+
+    @Test
+    public void shouldUseProcessorCountForAutoExportThreadsArg() throws Exception {
+        subject.parse("--threads", "auto");
+        assertEquals(Runtime.getRuntime().availableProcessors(), subject.getExportThreads().get().intValue());
+    }
+
+    @Test
+    public void shouldExportThreadsDefaultToAbsent() throws Exception {
+        subject.parse("--version");
+        assertFalse(subject.getExportThreads().isPresent());
+    }
+
+    @Test
+    public void shouldStreamModeDefaultToFalse() throws Exception {
+        File infile = File.createTempFile("input", null);
+        infile.deleteOnExit();
+        subject.parse("--output", "out.sup", infile.getAbsolutePath());
+        assertFalse(subject.isStreamMode());
+    }
+
+    @Test
+    public void shouldParseStreamArg() throws Exception {
+        File infile = File.createTempFile("input", null);
+        infile.deleteOnExit();
+        subject.parse("--stream", "--output", "out.sub", infile.getAbsolutePath());
+        assertTrue(subject.isStreamMode());
+        assertEquals(OutputMode.VOBSUB, subject.getOutputMode().get());
+    }
+
+    @Test(expected = ParseException.class)
+    public void shouldRejectStreamArgWithXmlOutput() throws Exception {
+        File infile = File.createTempFile("input", null);
+        infile.deleteOnExit();
+        subject.parse("--stream", "--output", "out.xml", infile.getAbsolutePath());
+    }
+
+    @Test
+    public void shouldAcceptStandardInputAsInputFile() throws Exception {
+        subject.parse("--output", "out.sup", "-");
+        assertTrue(subject.isStandardInput());
+        assertTrue(subject.isStreamMode());
+    }
+
+    @Test
+    public void shouldWriteBDSupToStandardOutput() throws Exception {
+        File infile = File.createTempFile("input", null);
+        infile.deleteOnExit();
+        subject.parse("--output", "-", infile.getAbsolutePath());
+        assertTrue(subject.isStandardOutput());
+        assertTrue(subject.isStreamMode());
+        assertEquals(OutputMode.BDSUP, subject.getOutputMode().get());
+    }
+
+    @Test
+    public void shouldParseServerArg() throws Exception {
+        subject.parse("--server", "8080");
+        assertTrue(subject.isServerMode());
+        assertTrue(subject.isCliMode());
+        assertEquals(8080, subject.getServerPort().get().intValue());
+    }
+
+    @Test
+    public void shouldServerModeDefaultToFalse() throws Exception {
+        subject.parse("--version");
+        assertFalse(subject.isServerMode());
+        assertFalse(subject.getServerPort().isPresent());
+    }
+
+    @Test(expected = ParseException.class)
+    public void shouldRejectInvalidServerPort() throws Exception {
+        subject.parse("--server", "65536");
+    }
+
+    @Test(expected = ParseException.class)
+    public void shouldRejectServerArgWithInputFile() throws Exception {
+        File infile = File.createTempFile("input", null);
+        infile.deleteOnExit();
+        subject.parse("--server", "0", "--output", "out.sup", infile.getAbsolutePath());
+    }
+
+    @Test
+    public void shouldParseMetricsArgs() throws Exception {
+        File infile = File.createTempFile("input", null);
+        infile.deleteOnExit();
+        subject.parse("--metrics", "-", "--progress-json", "--output", "out.sup", infile.getAbsolutePath());
+        assertEquals(new File("-"), subject.getMetricsFile().get());
+        assertTrue(subject.isProgressJson());
+    }
+
+    @Test
+    public void shouldMetricsDefaultToAbsent() throws Exception {
+        File infile = File.createTempFile("input", null);
+        infile.deleteOnExit();
+        subject.parse("--output", "out.sup", infile.getAbsolutePath());
+        assertFalse(subject.getMetricsFile().isPresent());
+        assertFalse(subject.isProgressJson());
+    }
+
+    @Test(expected = ParseException.class)
+    public void shouldRejectMetricsArgWithoutOutputFile() throws Exception {
+        subject.parse("--metrics", "metrics.json");
+    }
 }
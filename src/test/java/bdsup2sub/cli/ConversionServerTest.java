@@ -0,0 +1,169 @@
+/*
+ * Copyright 2013 Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.cli;
+
+import bdsup2sub.bitmap.Palette;
+import bdsup2sub.core.Configuration;
+import bdsup2sub.core.Constants;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.Scanner;
+
+import static org.junit.Assert.*;
+
+public class ConversionServerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ConversionServer subject;
+    /** Body of the last response */
+    private String body;
+
+    @Before
+    public void setUp() throws Exception {
+        subject = new ConversionServer(Configuration.getInstance(), new Palette(Constants.DEFAULT_DVD_PALETTE), 0, 1);
+        subject.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        subject.stop();
+    }
+
+    @Test
+    public void shouldListNoJobsAfterStart() throws Exception {
+        assertEquals(200, request("GET", "/jobs", null));
+        assertEquals("{\"jobs\":[]}", body.trim());
+    }
+
+    @Test
+    public void shouldRejectJobWithoutOutputFile() throws Exception {
+        File input = folder.newFile("input.sup");
+
+        assertEquals(400, request("POST", "/jobs", input.getAbsolutePath()));
+        assertTrue(body.contains("\"error\""));
+    }
+
+    @Test
+    public void shouldReportUnknownJob() throws Exception {
+        assertEquals(404, request("GET", "/jobs/42", null));
+        assertEquals(404, request("GET", "/jobs/foo", null));
+    }
+
+    @Test
+    public void shouldRejectRequestWithoutToken() throws Exception {
+        assertEquals(403, request("GET", "/jobs", null, null));
+        assertEquals(403, request("POST", "/shutdown", null, null));
+    }
+
+    @Test
+    public void shouldRejectRequestWithWrongToken() throws Exception {
+        assertEquals(403, request("GET", "/jobs", null, "0123456789abcdef0123456789abcdef"));
+    }
+
+    @Test
+    public void shouldRejectRequestForOtherHost() throws Exception {
+        assertEquals(403, rawRequest("GET /jobs HTTP/1.1\r\nHost: attacker.example:" + subject.getPort() + "\r\n"
+                + ConversionServer.TOKEN_HEADER + ": " + subject.getToken() + "\r\nConnection: close\r\n\r\n"));
+        assertEquals(200, rawRequest("GET /jobs HTTP/1.1\r\nHost: localhost:" + subject.getPort() + "\r\n"
+                + ConversionServer.TOKEN_HEADER + ": " + subject.getToken() + "\r\nConnection: close\r\n\r\n"));
+    }
+
+    @Test
+    public void shouldRejectCrossOriginRequest() throws Exception {
+        File input = folder.newFile("input.sup");
+        String content = input.getAbsolutePath() + "\n-o\n" + new File(folder.getRoot(), "output.sub").getAbsolutePath() + "\n";
+
+        assertEquals(403, rawRequest("POST /jobs HTTP/1.1\r\nHost: 127.0.0.1:" + subject.getPort() + "\r\n"
+                + "Origin: http://attacker.example\r\nContent-Type: text/plain\r\n"
+                + ConversionServer.TOKEN_HEADER + ": " + subject.getToken() + "\r\n"
+                + "Content-Length: " + content.getBytes("UTF-8").length + "\r\nConnection: close\r\n\r\n" + content));
+        assertEquals(200, request("GET", "/jobs", null));
+        assertEquals("{\"jobs\":[]}", body.trim());
+    }
+
+    @Test
+    public void shouldReportFailedJob() throws Exception {
+        File input = folder.newFile("input.sup");
+        File output = new File(folder.getRoot(), "output.sub");
+
+        assertEquals(202, request("POST", "/jobs", input.getAbsolutePath() + "\n-o\n" + output.getAbsolutePath() + "\n"));
+        assertTrue(body.startsWith("{\"id\":1,"));
+
+        long timeout = System.currentTimeMillis() + 10000;
+        do {
+            Thread.sleep(20);
+            assertEquals(200, request("GET", "/jobs/1", null));
+        } while (!body.contains("\"state\":\"failed\"") && System.currentTimeMillis() < timeout);
+
+        assertTrue(body.contains("\"state\":\"failed\""));
+        assertTrue(body.contains("is not a supported subtitle stream"));
+        assertFalse(output.exists());
+    }
+
+    private int request(String method, String path, String content) throws Exception {
+        return request(method, path, content, subject.getToken());
+    }
+
+    private int request(String method, String path, String content, String token) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection)new URL("http://127.0.0.1:" + subject.getPort() + path).openConnection();
+        connection.setRequestMethod(method);
+        if (token != null) {
+            connection.setRequestProperty(ConversionServer.TOKEN_HEADER, token);
+        }
+        if (content != null) {
+            connection.setDoOutput(true);
+            OutputStream out = connection.getOutputStream();
+            out.write(content.getBytes("UTF-8"));
+            out.close();
+        }
+        int status = connection.getResponseCode();
+        InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        Scanner scanner = new Scanner(in, "UTF-8").useDelimiter("\\A");
+        body = scanner.hasNext() ? scanner.next() : "";
+        in.close();
+        return status;
+    }
+
+    /**
+     * Send a request as is, e.g. with headers HttpURLConnection doesn't allow to set.
+     * @return Status code of the response
+     */
+    private int rawRequest(String request) throws Exception {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), subject.getPort());
+        try {
+            socket.getOutputStream().write(request.getBytes("UTF-8"));
+            socket.getOutputStream().flush();
+            Scanner scanner = new Scanner(socket.getInputStream(), "UTF-8");
+            String statusLine = scanner.nextLine();
+            return Integer.parseInt(statusLine.split(" ")[1]);
+        } finally {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2013 Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ConfigurationTest {
+
+    private Configuration subject;
+
+    @Before
+    public void setUp() {
+        subject = Configuration.getInstance().copy();
+    }
+
+    @Test
+    public void shouldCopyPlainAndStoredSettings() {
+        subject.setExportThreads(3);
+        subject.setAlphaCrop(42);
+
+        Configuration copy = subject.copy();
+
+        assertEquals(3, copy.getExportThreads());
+        assertEquals(42, copy.getAlphaCrop());
+    }
+
+    @Test
+    public void shouldNotShareStateWithCopy() {
+        Configuration copy = subject.copy();
+        copy.setExportThreads(5);
+        copy.setAlphaCrop(7);
+        copy.getLuminanceThreshold()[0] = 1;
+
+        assertEquals(Configuration.DEFAULT_EXPORT_THREADS, subject.getExportThreads());
+        assertEquals(Configuration.DEFAULT_ALPHA_CROP_THRESHOLD, subject.getAlphaCrop());
+        assertEquals(Configuration.DEFAULT_LUMINANCE_MED_HIGH_THRESHOLD, subject.getLuminanceThreshold()[0]);
+    }
+
+    @Test
+    public void shouldStoreQuantizer() {
+        subject.setQuantizer(Quantizer.OCTREE);
+
+        assertEquals(Quantizer.OCTREE, subject.getQuantizer());
+        assertEquals(Quantizer.OCTREE, subject.copy().getQuantizer());
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2013 Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static bdsup2sub.core.ConversionMetrics.Phase.*;
+import static org.junit.Assert.*;
+
+public class ConversionMetricsTest {
+
+    private ConversionMetrics subject;
+
+    @Before
+    public void setUp() {
+        subject = new ConversionMetrics();
+    }
+
+    @Test
+    public void shouldSumTimesAndCountsPerPhase() {
+        subject.add(DECODE, 100);
+        subject.add(DECODE, 50);
+        subject.add(WRITE, 7);
+
+        assertEquals(150, subject.getNanos(DECODE));
+        assertEquals(2, subject.getCount(DECODE));
+        assertEquals(7, subject.getNanos(WRITE));
+        assertEquals(0, subject.getCount(SCALE));
+    }
+
+    @Test
+    public void shouldKeepLargestCaptionSize() {
+        subject.updateSourceSize(100, 20);
+        subject.updateSourceSize(50, 80);
+        subject.updateTargetSize(10, 10);
+
+        assertEquals(100, subject.getMaxSourceWidth());
+        assertEquals(80, subject.getMaxSourceHeight());
+        assertEquals(10, subject.getMaxTargetWidth());
+        assertEquals(10, subject.getMaxTargetHeight());
+    }
+
+    @Test
+    public void shouldClearEverythingOnReset() {
+        subject.add(PARSE, 1000);
+        subject.addBytesRead(10);
+        subject.addBytesWritten(20);
+        subject.setCaptionsRead(3);
+        subject.addCaptionWritten();
+        subject.updateSourceSize(100, 20);
+
+        subject.reset();
+
+        assertEquals(0, subject.getNanos(PARSE));
+        assertEquals(0, subject.getCount(PARSE));
+        assertEquals(0, subject.getBytesRead());
+        assertEquals(0, subject.getBytesWritten());
+        assertEquals(0, subject.getCaptionsRead());
+        assertEquals(0, subject.getCaptionsWritten());
+        assertEquals(0, subject.getMaxSourceWidth());
+    }
+
+    @Test
+    public void shouldReportAllPhasesAsJson() {
+        subject.add(QUANTIZE, 1500000000L);
+        subject.setCaptionsRead(2);
+        subject.addCaptionWritten();
+
+        String json = subject.toJson().toString();
+
+        assertTrue(json.contains("\"captions\":{\"read\":2,\"written\":1}"));
+        assertTrue(json.contains("\"quantize\":{\"seconds\":1.500,\"count\":1}"));
+        for (ConversionMetrics.Phase phase : ConversionMetrics.Phase.values()) {
+            assertTrue(json.contains("\"" + phase.name().toLowerCase() + "\":{"));
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2013 Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+import static org.junit.Assert.*;
+
+public class ConversionSessionAsyncTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ConversionSession subject;
+
+    @Before
+    public void setUp() {
+        Configuration configuration = Configuration.getInstance().copy();
+        configuration.setCliMode(true);
+        subject = new ConversionSession(configuration);
+    }
+
+    @After
+    public void tearDown() {
+        subject.close();
+    }
+
+    @Test
+    public void shouldCompleteExceptionallyWithExceptionOfOperation() throws Exception {
+        File input = folder.newFile("input.sup");
+        final AtomicReference<CoreThreadState> stateOnCompletion = new AtomicReference<CoreThreadState>();
+
+        CompletableFuture<Void> future = subject.readStreamAsync(input.getAbsolutePath(), StreamID.BDSUP);
+        CompletableFuture<Void> chained = future.whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void result, Throwable ex) {
+                stateOnCompletion.set(subject.getStatus());
+            }
+        });
+
+        try {
+            chained.get(10, TimeUnit.SECONDS);
+            fail("reading an empty file should fail");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof CoreException);
+        }
+        assertEquals(CoreThreadState.INACTIVE, stateOnCompletion.get());
+        assertEquals("reading", subject.getProgressOperation());
+    }
+
+    @Test
+    public void shouldStopRunningOperationBeforeCompletingCanceledFuture() throws Exception {
+        File input = createLargeSupFile();
+        BlockingListener listener = new BlockingListener();
+        subject.setProgressListener(listener);
+
+        CompletableFuture<Void> future = subject.readStreamAsync(input.getAbsolutePath(), StreamID.BDSUP);
+        assertTrue(listener.started.await(10, TimeUnit.SECONDS));
+
+        assertFalse(future.cancel(true));
+        assertFalse(future.isDone());
+        assertFalse(future.isCancelled());
+        assertEquals(CoreThreadState.CANCELED, subject.getStatus());
+        listener.release.countDown();
+
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail("the operation should be canceled");
+        } catch (CancellationException ex) {
+            // expected
+        }
+        assertTrue(future.isCancelled());
+        assertEquals(CoreThreadState.INACTIVE, subject.getStatus());
+        assertTrue(listener.getCalls() <= 2);
+    }
+
+    @Test
+    public void shouldKeepRunningOperationCanceledWhenAnotherOperationIsSubmitted() throws Exception {
+        File input = createLargeSupFile();
+        File empty = folder.newFile("empty.sup");
+        BlockingListener listener = new BlockingListener();
+        subject.setProgressListener(listener);
+
+        CompletableFuture<Void> first = subject.readStreamAsync(input.getAbsolutePath(), StreamID.BDSUP);
+        assertTrue(listener.started.await(10, TimeUnit.SECONDS));
+        first.cancel(true);
+        CompletableFuture<Void> second = subject.readStreamAsync(empty.getAbsolutePath(), StreamID.BDSUP);
+
+        assertEquals(CoreThreadState.CANCELED, subject.getStatus());
+        int callsOfFirst = listener.getCalls();
+        listener.release.countDown();
+
+        try {
+            first.get(10, TimeUnit.SECONDS);
+            fail("the first operation should be canceled");
+        } catch (CancellationException ex) {
+            // expected
+        }
+        assertTrue(listener.getCalls() <= callsOfFirst + 1);
+        try {
+            second.get(10, TimeUnit.SECONDS);
+            fail("reading an empty file should fail");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof CoreException);
+        }
+        assertEquals(CoreThreadState.INACTIVE, subject.getStatus());
+    }
+
+    @Test
+    public void shouldCancelQueuedOperationAtOnce() throws Exception {
+        File input = createLargeSupFile();
+        BlockingListener listener = new BlockingListener();
+        subject.setProgressListener(listener);
+
+        CompletableFuture<Void> first = subject.readStreamAsync(input.getAbsolutePath(), StreamID.BDSUP);
+        assertTrue(listener.started.await(10, TimeUnit.SECONDS));
+        CompletableFuture<Void> second = subject.readStreamAsync(input.getAbsolutePath(), StreamID.BDSUP);
+
+        assertTrue(second.cancel(true));
+        assertTrue(second.isDone());
+        assertTrue(second.isCancelled());
+        assertFalse(first.isDone());
+        listener.release.countDown();
+
+        first.get(30, TimeUnit.SECONDS);
+        assertEquals(CoreThreadState.INACTIVE, subject.getStatus());
+    }
+
+    /**
+     * Create a stream that takes long enough to parse, the test stream concatenated a hundred times.
+     */
+    private File createLargeSupFile() throws Exception {
+        byte[] data = Files.readAllBytes(new File(ClassLoader.getSystemResource("test.sup").toURI()).toPath());
+        File file = folder.newFile("large.sup");
+        OutputStream out = new FileOutputStream(file);
+        try {
+            for (int i=0; i < 100; i++) {
+                out.write(data);
+            }
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    /** Blocks the operation thread on its first progress report until it is released */
+    private static class BlockingListener implements ProgressListener {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        private final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public void progressChanged(String operation, int percent) {
+            if (calls.getAndIncrement() == 0) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        int getCalls() {
+            return calls.get();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2013 Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.core;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class ConversionSessionExportTest {
+
+    private static final int CAPTIONS = 24;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String input;
+
+    @Before
+    public void setUp() throws Exception {
+        input = SyntheticStream.createXml(folder.newFolder("input"), CAPTIONS).getAbsolutePath();
+    }
+
+    @Test
+    public void shouldWriteSameBDSupWithSeveralExportThreadsAsWithOne() throws Exception {
+        File sequential = export(OutputMode.BDSUP, Resolution.HD_720, 1, "out.sup");
+        File parallel = export(OutputMode.BDSUP, Resolution.HD_720, 4, "out.sup");
+
+        assertTrue(sequential.length() > 0);
+        assertArrayEquals(Files.readAllBytes(sequential.toPath()), Files.readAllBytes(parallel.toPath()));
+    }
+
+    @Test
+    public void shouldWriteSameVobSubWithSeveralExportThreadsAsWithOne() throws Exception {
+        File sequential = export(OutputMode.VOBSUB, Resolution.PAL, 1, "out.sub");
+        File parallel = export(OutputMode.VOBSUB, Resolution.PAL, 4, "out.sub");
+
+        assertTrue(sequential.length() > 0);
+        assertArrayEquals(Files.readAllBytes(sequential.toPath()), Files.readAllBytes(parallel.toPath()));
+        assertArrayEquals(Files.readAllBytes(sibling(sequential, "out.idx").toPath()), Files.readAllBytes(sibling(parallel, "out.idx").toPath()));
+    }
+
+    /**
+     * Convert the synthetic stream in a session of its own.
+     * @return Written file, in a folder named after the number of threads
+     */
+    private File export(OutputMode outputMode, Resolution resolution, int threads, String name) throws Exception {
+        Configuration configuration = Configuration.getInstance().copy();
+        configuration.setCliMode(true);
+        configuration.setOutputMode(outputMode);
+        configuration.setConvertResolution(true);
+        configuration.setOutputResolution(resolution);
+        configuration.setScalingFilter(ScalingFilter.LANCZOS3);
+        configuration.setExportThreads(threads);
+        ConversionSession session = new ConversionSession(configuration);
+        try {
+            session.readXml(input);
+            session.scanSubtitles();
+            assertEquals(CAPTIONS, session.getNumFrames());
+            File output = new File(folder.newFolder("threads" + threads + outputMode.name()), name);
+            session.writeSub(output.getAbsolutePath());
+            return output;
+        } finally {
+            session.close();
+        }
+    }
+
+    private static File sibling(File file, String name) {
+        return new File(file.getParentFile(), name);
+    }
+}
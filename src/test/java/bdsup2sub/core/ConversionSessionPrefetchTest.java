@@ -0,0 +1,103 @@
+/*
+ * Copyright 2013 Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static bdsup2sub.core.ConversionMetrics.Phase.SCALE;
+import static org.junit.Assert.*;
+
+public class ConversionSessionPrefetchTest {
+
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ConversionSession subject;
+    private Configuration configuration;
+    private String input;
+
+    @Before
+    public void setUp() throws Exception {
+        configuration = Configuration.getInstance().copy();
+        configuration.setCliMode(false);
+        configuration.setPrefetchCaptions(1);
+        configuration.setOutputMode(OutputMode.BDSUP);
+        configuration.setScalingFilter(ScalingFilter.BILINEAR);
+        subject = new ConversionSession(configuration);
+        input = SyntheticStream.createXml(folder.getRoot(), 3).getAbsolutePath();
+
+        subject.readXml(input);
+        subject.scanSubtitles();
+        assertTrue(subject.getNumFrames() >= 2);
+        subject.convertSup(0, 1, subject.getNumFrames());
+    }
+
+    @After
+    public void tearDown() {
+        subject.close();
+    }
+
+    @Test
+    public void shouldServePrefetchedCaptionWhileSettingsAreUnchanged() throws Exception {
+        prefetchNextCaption();
+
+        subject.convertSup(1, 2, subject.getNumFrames());
+
+        assertEquals(2, subject.getMetrics().getCount(SCALE));
+    }
+
+    @Test
+    public void shouldConvertAgainWhenSettingsChangedAfterPrefetch() throws Exception {
+        prefetchNextCaption();
+        configuration.setScalingFilter(ScalingFilter.LANCZOS3);
+
+        subject.convertSup(1, 2, subject.getNumFrames());
+
+        assertEquals(3, subject.getMetrics().getCount(SCALE));
+    }
+
+    @Test
+    public void shouldConvertAgainWhenStreamWasReloadedAfterPrefetch() throws Exception {
+        prefetchNextCaption();
+        subject.readXml(input);
+        subject.scanSubtitles();
+        assertEquals(0, subject.getPrefetchedCount());
+
+        subject.convertSup(1, 2, subject.getNumFrames());
+
+        assertEquals(1, subject.getMetrics().getCount(SCALE));
+    }
+
+    /**
+     * Prefetch the neighbours of the first caption and wait until the second one was converted in the background.
+     */
+    private void prefetchNextCaption() throws InterruptedException {
+        assertEquals(0, subject.getPrefetchedCount());
+        subject.prefetchCaptions(0);
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (subject.getPrefetchedCount() < 1) {
+            assertTrue("caption wasn't prefetched in time", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        assertEquals(2, subject.getMetrics().getCount(SCALE));
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2013 Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class ConversionSessionProgressTest {
+
+    private ConversionSession subject;
+    private final List<Integer> reported = Collections.synchronizedList(new ArrayList<Integer>());
+
+    @Before
+    public void setUp() {
+        subject = new ConversionSession(Configuration.getInstance().copy());
+        subject.setProgressListener(new ProgressListener() {
+            @Override
+            public void progressChanged(String operation, int percent) {
+                reported.add(percent);
+            }
+        });
+    }
+
+    @Test
+    public void shouldReportEachPercentageOnce() {
+        subject.startProgress("writing", 200);
+        for (int i = 0; i <= 200; i++) {
+            subject.setProgress(i);
+            subject.setProgress(i);
+        }
+
+        assertEquals(100, subject.getProgress());
+        assertEquals(100, reported.size());
+        assertEquals(Integer.valueOf(1), reported.get(0));
+        assertEquals(Integer.valueOf(100), reported.get(99));
+    }
+
+    @Test
+    public void shouldKeepHighestProgressOfConcurrentWorkers() {
+        subject.startProgress("writing", 10);
+        subject.setProgress(6);
+        subject.setProgress(3);
+
+        assertEquals(60, subject.getProgress());
+        assertEquals(1, reported.size());
+    }
+
+    @Test
+    public void shouldRestartFromZeroForNextOperation() {
+        subject.startProgress("reading", 10);
+        subject.setProgress(10);
+        subject.startProgress("writing", 10);
+
+        assertEquals(0, subject.getProgress());
+        assertEquals("writing", subject.getProgressOperation());
+        subject.setProgress(1);
+        assertEquals(10, subject.getProgress());
+    }
+
+    @Test
+    public void shouldReportEachPercentageOnceWithWorkersReportingConcurrently() throws InterruptedException {
+        final int workers = 4;
+        final int steps = 1000;
+        subject.startProgress("writing", steps);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int w = 0; w < workers; w++) {
+            Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i <= steps; i++) {
+                        subject.setProgress(i);
+                    }
+                }
+            });
+            t.start();
+            threads.add(t);
+        }
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        assertEquals(100, subject.getProgress());
+        List<Integer> sorted = new ArrayList<Integer>(reported);
+        Collections.sort(sorted);
+        assertEquals(100, sorted.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Integer.valueOf(i + 1), sorted.get(i));
+        }
+    }
+}
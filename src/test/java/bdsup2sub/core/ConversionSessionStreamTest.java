@@ -0,0 +1,124 @@
+/*
+ * Copyright 2013 Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.core;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class ConversionSessionStreamTest {
+
+    private static final int CAPTIONS = 12;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File input;
+
+    @Before
+    public void setUp() throws Exception {
+        String xml = SyntheticStream.createXml(folder.newFolder("xml"), CAPTIONS).getAbsolutePath();
+        ConversionSession session = new ConversionSession(configuration(OutputMode.BDSUP, null));
+        try {
+            session.readXml(xml);
+            session.scanSubtitles();
+            input = new File(folder.getRoot(), "input.sup");
+            session.writeSub(input.getAbsolutePath());
+        } finally {
+            session.close();
+        }
+    }
+
+    @Test
+    public void shouldConvertBDSupStreamToSameBytesAsLoadedStream() throws Exception {
+        File loaded = writeLoaded(OutputMode.BDSUP, Resolution.HD_720, "loaded.sup");
+        byte[] streamed = convertStream(OutputMode.BDSUP, Resolution.HD_720, null);
+
+        assertTrue(loaded.length() > 0);
+        assertArrayEquals(Files.readAllBytes(loaded.toPath()), streamed);
+    }
+
+    @Test
+    public void shouldConvertBDSupStreamToSameVobSubAsLoadedStream() throws Exception {
+        File loaded = writeLoaded(OutputMode.VOBSUB, Resolution.PAL, "loaded.sub");
+        File streamedIdx = new File(folder.newFolder("streamed"), "streamed.idx");
+        byte[] streamed = convertStream(OutputMode.VOBSUB, Resolution.PAL, streamedIdx.getAbsolutePath());
+
+        assertTrue(loaded.length() > 0);
+        assertArrayEquals(Files.readAllBytes(loaded.toPath()), streamed);
+        assertArrayEquals(Files.readAllBytes(new File(loaded.getParentFile(), "loaded.idx").toPath()),
+                Files.readAllBytes(streamedIdx.toPath()));
+    }
+
+    /**
+     * Convert the input with readSup, scanSubtitles and writeSub.
+     * @return Written file
+     */
+    private File writeLoaded(OutputMode outputMode, Resolution resolution, String name) throws Exception {
+        ConversionSession session = new ConversionSession(configuration(outputMode, resolution));
+        try {
+            session.readSup(input.getAbsolutePath());
+            session.scanSubtitles();
+            File output = new File(folder.newFolder("loaded"), name);
+            session.writeSub(output.getAbsolutePath());
+            return output;
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Convert the input caption by caption.
+     * @param fname File name for the IDX file, null for BD-SUP
+     * @return Converted stream
+     */
+    private byte[] convertStream(OutputMode outputMode, Resolution resolution, String fname) throws Exception {
+        ConversionSession session = new ConversionSession(configuration(outputMode, resolution));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InputStream in = new FileInputStream(input);
+        try {
+            session.convertStream(in, input.getName(), out, fname);
+        } finally {
+            in.close();
+            session.close();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @param resolution Output resolution, null to keep the resolution of the input
+     */
+    private static Configuration configuration(OutputMode outputMode, Resolution resolution) {
+        Configuration configuration = Configuration.getInstance().copy();
+        configuration.setCliMode(true);
+        configuration.setOutputMode(outputMode);
+        configuration.setConvertResolution(resolution != null);
+        if (resolution != null) {
+            configuration.setOutputResolution(resolution);
+        }
+        configuration.setScalingFilter(ScalingFilter.LANCZOS3);
+        return configuration;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2013 Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.core;
+
+import bdsup2sub.bitmap.Bitmap;
+import bdsup2sub.bitmap.Palette;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DecodedFrameCacheTest {
+
+    private static final String SETTINGS = "settings";
+
+    private DecodedFrameCache subject;
+    private long entrySize;
+
+    @Before
+    public void setUp() {
+        entrySize = entry().size;
+        subject = new DecodedFrameCache(3 * entrySize);
+    }
+
+    @Test
+    public void shouldReturnCachedEntry() {
+        DecodedFrameCache.Entry entry = entry();
+        subject.put(1, entry);
+        assertSame(entry, subject.get(1, SETTINGS));
+        assertNull(subject.get(2, SETTINGS));
+    }
+
+    @Test
+    public void shouldMissIfDecodedWithOtherSettings() {
+        subject.put(1, entry());
+        assertNull(subject.get(1, "other"));
+        assertEquals(0, subject.getCount());
+        assertEquals(0, subject.getSize());
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedEntry() {
+        subject.put(1, entry());
+        subject.put(2, entry());
+        subject.put(3, entry());
+        subject.get(1, SETTINGS);
+        subject.put(4, entry());
+        assertEquals(3, subject.getCount());
+        assertNotNull(subject.get(1, SETTINGS));
+        assertNull(subject.get(2, SETTINGS));
+        assertNotNull(subject.get(3, SETTINGS));
+        assertNotNull(subject.get(4, SETTINGS));
+    }
+
+    @Test
+    public void shouldReplaceEntryWithSameIndex() {
+        subject.put(1, entry());
+        DecodedFrameCache.Entry entry = entry();
+        subject.put(1, entry);
+        assertEquals(1, subject.getCount());
+        assertEquals(entrySize, subject.getSize());
+        assertSame(entry, subject.get(1, SETTINGS));
+    }
+
+    @Test
+    public void shouldEvictWhenBudgetIsReduced() {
+        subject.put(1, entry());
+        subject.put(2, entry());
+        subject.setBudget(entrySize);
+        assertEquals(1, subject.getCount());
+        assertNotNull(subject.get(2, SETTINGS));
+    }
+
+    @Test
+    public void shouldNotStoreAnythingWithoutBudget() {
+        subject.setBudget(0);
+        subject.put(1, entry());
+        assertEquals(0, subject.getCount());
+    }
+
+    @Test
+    public void shouldForgetEverythingOnClear() {
+        subject.put(1, entry());
+        subject.put(2, entry());
+        subject.clear();
+        assertEquals(0, subject.getCount());
+        assertEquals(0, subject.getSize());
+    }
+
+    private static DecodedFrameCache.Entry entry() {
+        return new DecodedFrameCache.Entry(new Bitmap(100, 20, (byte)0), new Palette(256, true), 1, SETTINGS);
+    }
+}
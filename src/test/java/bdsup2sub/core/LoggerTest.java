@@ -0,0 +1,176 @@
+/*
+ * Copyright 2013 Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import static org.junit.Assert.*;
+
+public class LoggerTest {
+
+    private final Logger subject = Logger.getInstance();
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    private PrintStream stdout;
+    private boolean verbose;
+
+    @Before
+    public void setUp() {
+        subject.flush();
+        stdout = System.out;
+        verbose = Configuration.getInstance().isVerbose();
+        System.setOut(new PrintStream(output, true));
+        subject.resetErrorCounter();
+        subject.resetWarningCounter();
+    }
+
+    @After
+    public void tearDown() {
+        subject.flush();
+        System.setOut(stdout);
+        Configuration.getInstance().setVerbose(verbose);
+        subject.resetErrorCounter();
+        subject.resetWarningCounter();
+    }
+
+    @Test
+    public void shouldWriteAllMessagesInOrderOnFlush() {
+        subject.info("one\n");
+        subject.warn("two\n");
+        subject.error("three\n");
+        subject.flush();
+
+        assertEquals("one\nWARNING: two\nERROR: three\n", output.toString());
+        assertEquals(1, subject.getWarningCount());
+        assertEquals(1, subject.getErrorCount());
+    }
+
+    @Test
+    public void shouldSkipTraceMessagesUnlessVerbose() {
+        Configuration.getInstance().setVerbose(false);
+        subject.trace("hidden\n");
+        assertFalse(subject.isTraceEnabled());
+
+        Configuration.getInstance().setVerbose(true);
+        subject.trace("shown\n");
+        subject.flush();
+
+        assertTrue(subject.isTraceEnabled());
+        assertEquals("shown\n", output.toString());
+    }
+
+    @Test
+    public void shouldFormatTraceTemplateOnlyWhenVerbose() {
+        Object notFormatted = new Object() {
+            @Override
+            public String toString() {
+                throw new AssertionError("formatted while not verbose");
+            }
+        };
+        Configuration.getInstance().setVerbose(false);
+        subject.trace("hidden %s\n", notFormatted);
+
+        Configuration.getInstance().setVerbose(true);
+        subject.trace("ofs: 0x%08x, size: 0x%04x, dim: %d*%d\n", 0x1234L, 0x2a, 1920, 1080);
+        subject.flush();
+
+        assertEquals("ofs: 0x00001234, size: 0x002a, dim: 1920*1080\n", output.toString());
+    }
+
+    @Test
+    public void shouldFormatNumberTemplatesOnlyWhenVerbose() {
+        Configuration.getInstance().setVerbose(false);
+        subject.trace("hidden 0x%08x\n", 1L);
+        subject.trace("hidden 0x%08x, 0x%04x\n", 1L, 2);
+
+        Configuration.getInstance().setVerbose(true);
+        subject.trace("END offset: 0x%08x\n", 0x1234L);
+        subject.trace("PDS offset: 0x%08x, size: 0x%04x\n", 0x1234L, 0x2a);
+        subject.flush();
+
+        assertEquals("END offset: 0x00001234\nPDS offset: 0x00001234, size: 0x002a\n", output.toString());
+    }
+
+    @Test
+    public void shouldTraceByVerboseSettingOfBoundSession() {
+        Configuration.getInstance().setVerbose(false);
+        Configuration jobConfiguration = Configuration.getInstance().copy();
+        jobConfiguration.setVerbose(true);
+        ConversionSession session = new ConversionSession(jobConfiguration);
+
+        subject.trace("hidden\n");
+        ConversionSession previous = session.bind();
+        try {
+            assertTrue(subject.isTraceEnabled());
+            subject.trace("job offset: 0x%08x\n", 0x1234L);
+        } finally {
+            ConversionSession.unbind(previous);
+        }
+        assertFalse(subject.isTraceEnabled());
+        subject.flush();
+
+        assertEquals("job offset: 0x00001234\n", output.toString());
+    }
+
+    @Test
+    public void shouldCountWarningsAndErrorsOfBoundSession() {
+        ConversionSession first = new ConversionSession(Configuration.getInstance().copy());
+        ConversionSession second = new ConversionSession(Configuration.getInstance().copy());
+
+        ConversionSession previous = first.bind();
+        try {
+            subject.warn("one\n");
+        } finally {
+            ConversionSession.unbind(previous);
+        }
+        previous = second.bind();
+        try {
+            subject.error("two\n");
+            subject.error("three\n");
+        } finally {
+            ConversionSession.unbind(previous);
+        }
+
+        assertEquals(1, first.getWarningCount());
+        assertEquals(0, first.getErrorCount());
+        assertEquals(0, second.getWarningCount());
+        assertEquals(2, second.getErrorCount());
+        assertEquals(1, subject.getWarningCount());
+        assertEquals(2, subject.getErrorCount());
+    }
+
+    @Test
+    public void shouldPrefixLinesWithLogNameOfBoundSession() {
+        ConversionSession session = new ConversionSession(Configuration.getInstance().copy());
+        session.setLogName("input.sup");
+
+        ConversionSession previous = session.bind();
+        try {
+            subject.info("\nWriting output.sub\n\nDecoding frame 1/2\n");
+            subject.warn("odd size\n");
+        } finally {
+            ConversionSession.unbind(previous);
+        }
+        subject.info("done\n");
+        subject.flush();
+
+        assertEquals("\n[input.sup] Writing output.sub\n\n[input.sup] Decoding frame 1/2\n[input.sup] WARNING: odd size\ndone\n", output.toString());
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2013 Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MessageRingBufferTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectCapacityThatIsNoPowerOfTwo() {
+        new MessageRingBuffer(12);
+    }
+
+    @Test
+    public void shouldTakeMessagesInOrder() {
+        MessageRingBuffer subject = new MessageRingBuffer(4);
+        subject.put("a");
+        subject.put("b");
+        subject.put("c");
+        StringBuilder sb = new StringBuilder();
+
+        assertEquals(3, subject.drainTo(sb));
+        assertEquals("abc", sb.toString());
+        assertEquals(0, subject.size());
+        assertEquals(0, subject.drainTo(sb));
+    }
+
+    @Test
+    public void shouldReuseSlotsAfterWrapAround() {
+        MessageRingBuffer subject = new MessageRingBuffer(2);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5; i++) {
+            subject.put(Integer.toString(i));
+            subject.drainTo(sb);
+        }
+
+        assertEquals("01234", sb.toString());
+        assertEquals(5, subject.getConsumed());
+    }
+
+    @Test
+    public void shouldLetProducerWaitUntilThereIsSpace() throws Exception {
+        final MessageRingBuffer subject = new MessageRingBuffer(2);
+        subject.put("a");
+        subject.put("b");
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                subject.put("c");
+            }
+        });
+        producer.start();
+        producer.join(100);
+        assertTrue(producer.isAlive());
+
+        StringBuilder sb = new StringBuilder();
+        subject.drainTo(sb);
+        producer.join(5000);
+        subject.drainTo(sb);
+
+        assertFalse(producer.isAlive());
+        assertEquals("abc", sb.toString());
+    }
+
+    @Test
+    public void shouldKeepTheOrderOfEachProducer() throws Exception {
+        final MessageRingBuffer subject = new MessageRingBuffer(16);
+        final int producers = 4;
+        final int messages = 2000;
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int p = 0; p < producers; p++) {
+            final char name = (char)('a' + p);
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < messages; i++) {
+                        subject.put(name + Integer.toString(i) + ";");
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        StringBuilder sb = new StringBuilder();
+        while (subject.getConsumed() < producers * messages) {
+            subject.drainTo(sb);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        int[] next = new int[producers];
+        for (String message : sb.toString().split(";")) {
+            int p = message.charAt(0) - 'a';
+            assertEquals(next[p], Integer.parseInt(message.substring(1)));
+            next[p]++;
+        }
+        for (int count : next) {
+            assertEquals(messages, count);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2013 Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.core;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+
+/**
+ * Sony BDN XML streams generated by the tests, so conversions can be tested without sample streams.
+ * Each caption is a line of outlined glyphs with anti-aliased edges on a transparent background.
+ */
+public final class SyntheticStream {
+
+    private static final int SCREEN_WIDTH = 1920;
+    private static final int SCREEN_HEIGHT = 1080;
+    private static final int IMAGE_HEIGHT = 64;
+
+    private SyntheticStream() {
+    }
+
+    /**
+     * Write a 1080p BDN XML file at 25 fps and the PNG images of its captions.
+     * @param dir      Directory to write to
+     * @param captions Number of captions, each shown for two seconds
+     * @return XML file
+     * @throws IOException
+     */
+    public static File createXml(File dir, int captions) throws IOException {
+        File xml = new File(dir, "synthetic.xml");
+        Writer out = new OutputStreamWriter(new FileOutputStream(xml), "UTF-8");
+        try {
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            out.write("<BDN Version=\"0.93\">\n<Description>\n<Name Title=\"synthetic\" Content=\"\"/>\n");
+            out.write("<Language Code=\"eng\"/>\n");
+            out.write("<Format VideoFormat=\"1080p\" FrameRate=\"25\" DropFrame=\"False\"/>\n");
+            out.write("<Events Type=\"Graphic\" FirstEventInTC=\"" + timecode(1) + "\" LastEventOutTC=\""
+                    + timecode(3 * captions + 2) + "\" NumberofEvents=\"" + captions + "\"/>\n");
+            out.write("</Description>\n<Events>\n");
+            for (int i = 0; i < captions; i++) {
+                String name = String.format("caption_%04d.png", i);
+                BufferedImage image = caption(i);
+                ImageIO.write(image, "png", new File(dir, name));
+                int x = (SCREEN_WIDTH - image.getWidth()) / 2;
+                int y = i % 3 == 0 ? 40 : SCREEN_HEIGHT - 40 - IMAGE_HEIGHT;
+                out.write("<Event InTC=\"" + timecode(3 * i + 1) + "\" OutTC=\"" + timecode(3 * i + 3)
+                        + "\" Forced=\"" + (i % 4 == 0 ? "True" : "False") + "\">\n");
+                out.write("<Graphic Width=\"" + image.getWidth() + "\" Height=\"" + image.getHeight()
+                        + "\" X=\"" + x + "\" Y=\"" + y + "\">" + name + "</Graphic>\n</Event>\n");
+            }
+            out.write("</Events>\n</BDN>\n");
+        } finally {
+            out.close();
+        }
+        return xml;
+    }
+
+    /**
+     * @param seconds Time in seconds
+     * @return BDN timecode hh:mm:ss:ff
+     */
+    private static String timecode(int seconds) {
+        return String.format("%02d:%02d:%02d:00", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+
+    private static BufferedImage caption(int index) {
+        Random random = new Random(index);
+        int width = 300 + random.nextInt(20) * 20;
+        BufferedImage image = new BufferedImage(width, IMAGE_HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        int fill = 0xff000000 | (0xc0 + index * 8 % 0x40) * 0x010101;
+        for (int x0 = 8; x0 + 30 < width - 8; x0 += 24 + random.nextInt(10)) {
+            int glyphWidth = 12 + random.nextInt(10);
+            int glyphHeight = 24 + random.nextInt(30);
+            int y0 = IMAGE_HEIGHT - 4 - glyphHeight;
+            for (int y = 0; y < glyphHeight; y++) {
+                for (int x = 0; x < glyphWidth; x++) {
+                    int edgeDistance = Math.min(Math.min(x, y), Math.min(glyphWidth - 1 - x, glyphHeight - 1 - y));
+                    int color;
+                    if (edgeDistance == 0) {
+                        color = 0x80000000;
+                    } else if (edgeDistance == 1) {
+                        color = 0xff000000;
+                    } else if (edgeDistance == 2) {
+                        color = 0xff808080;
+                    } else {
+                        color = fill;
+                    }
+                    image.setRGB(x0 + x, y0 + y, color);
+                }
+            }
+        }
+        return image;
+    }
+}
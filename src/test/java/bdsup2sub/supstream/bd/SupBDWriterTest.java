@@ -0,0 +1,133 @@
+/*
+ * Copyright 2013 Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.supstream.bd;
+
+import bdsup2sub.bitmap.Bitmap;
+import bdsup2sub.core.Configuration;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class SupBDWriterTest {
+
+    private final SupBDWriter subject = new SupBDWriter(Configuration.getInstance());
+
+    @Test
+    public void shouldEncodeNoiseLikeReferenceEncoder() {
+        Random random = new Random(42);
+        byte[] buffer = new byte[97 * 61];
+        for (int i=0; i < buffer.length; i++) {
+            buffer[i] = (byte)random.nextInt(4);
+        }
+        Bitmap bm = new Bitmap(97, 61, buffer);
+
+        assertArrayEquals(referenceEncodeImage(bm), subject.encodeImage(bm));
+    }
+
+    @Test
+    public void shouldEncodeRunsOfAllLengthsLikeReferenceEncoder() {
+        Random random = new Random(7);
+        byte[] buffer = new byte[700 * 40];
+        int ofs = 0;
+        while (ofs < buffer.length) {
+            int len = 1 + random.nextInt(random.nextBoolean() ? 3 : 300);
+            byte color = (byte)(random.nextBoolean() ? 0 : random.nextInt(256));
+            for (int i=0; i < len && ofs < buffer.length; i++) {
+                buffer[ofs++] = color;
+            }
+        }
+        Bitmap bm = new Bitmap(700, 40, buffer);
+
+        assertArrayEquals(referenceEncodeImage(bm), subject.encodeImage(bm));
+    }
+
+    @Test
+    public void shouldSplitRunsLongerThanMaximumRunLength() {
+        Bitmap bm = new Bitmap(40000, 3, (byte)0);
+        bm.fillRectangularWithColorIndex(0, 1, 40000, 1, (byte)5);
+        bm.fillRectangularWithColorIndex(0x3fff, 2, 2, 1, (byte)9);
+
+        assertArrayEquals(referenceEncodeImage(bm), subject.encodeImage(bm));
+    }
+
+    @Test
+    public void shouldNotLeakScratchContentIntoFollowingFrames() {
+        Bitmap large = new Bitmap(1920, 200, (byte)3);
+        Bitmap small = new Bitmap(10, 2, (byte)0);
+        small.fillRectangularWithColorIndex(4, 1, 1, 1, (byte)1);
+
+        subject.encodeImage(large);
+
+        assertArrayEquals(referenceEncodeImage(small), subject.encodeImage(small));
+    }
+
+    /** The original encoder collecting boxed bytes, kept as reference for the expected output */
+    private static byte[] referenceEncodeImage(Bitmap bm) {
+        ArrayList<Byte> bytes = new ArrayList<Byte>();
+        byte color;
+        int ofs;
+        int len;
+
+        for (int y=0; y < bm.getHeight(); y++) {
+            ofs = y * bm.getWidth();
+            int x;
+            for (x=0; x < bm.getWidth(); x+=len, ofs+=len) {
+                color = bm.getInternalBuffer()[ofs];
+                for (len=1; x+len < bm.getWidth(); len++) {
+                    if (bm.getInternalBuffer()[ofs+len] != color) {
+                        break;
+                    }
+                }
+                if (len<=2 && color != 0) {
+                    bytes.add(color);
+                    if (len==2) {
+                        bytes.add(color);
+                    }
+                } else {
+                    if (len > 0x3fff) {
+                        len = 0x3fff;
+                    }
+                    bytes.add((byte)0);
+                    if (color == 0 && len < 0x40){
+                        bytes.add((byte)len);
+                    } else if (color == 0){
+                        bytes.add((byte)(0x40|(len>>8)) );
+                        bytes.add((byte)len);
+                    } else if(len < 0x40) {
+                        bytes.add((byte)(0x80|len) );
+                        bytes.add(color);
+                    } else {
+                        bytes.add((byte)(0xc0|(len>>8)) );
+                        bytes.add((byte)len);
+                        bytes.add(color);
+                    }
+                }
+            }
+            if (x == bm.getWidth()) {
+                bytes.add((byte)0);
+                bytes.add((byte)0);
+            }
+        }
+        byte[] retval = new byte[bytes.size()];
+        for (int i=0; i < retval.length; i++) {
+            retval[i] = bytes.get(i);
+        }
+        return retval;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2013 Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.supstream.dvd;
+
+import bdsup2sub.bitmap.Bitmap;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class DvdRleEncoderTest {
+
+    @Test
+    public void shouldEncodeGeneratedBitmapsLikeReferenceEncoder() {
+        Random random = new Random(11);
+        for (int n = 0; n < 200; n++) {
+            Bitmap bm = createRuns(1 + random.nextInt(800), 1 + random.nextInt(40), random);
+
+            assertArrayEquals(referenceEncodeLines(bm, true), SupDvdUtil.encodeLines(bm, true));
+            assertArrayEquals(referenceEncodeLines(bm, false), SupDvdUtil.encodeLines(bm, false));
+        }
+    }
+
+    @Test
+    public void shouldEncodeAllColorIndicesLikeReferenceEncoder() {
+        Random random = new Random(5);
+        byte[] buffer = new byte[300 * 9];
+        int ofs = 0;
+        while (ofs < buffer.length) {
+            // long runs of colors beyond the 4 DVD colors end some lines
+            int len = 1 + random.nextInt(120);
+            byte color = (byte)random.nextInt(256);
+            for (int i=0; i < len && ofs < buffer.length; i++) {
+                buffer[ofs++] = color;
+            }
+        }
+        Bitmap bm = new Bitmap(300, 9, buffer);
+
+        assertArrayEquals(referenceEncodeLines(bm, true), SupDvdUtil.encodeLines(bm, true));
+        assertArrayEquals(referenceEncodeLines(bm, false), SupDvdUtil.encodeLines(bm, false));
+    }
+
+    @Test
+    public void shouldEncodeBothFieldsOfLargeCaptionLikeReferenceEncoder() {
+        DvdRleEncoder subject = new DvdRleEncoder();
+        Bitmap large = createRuns(720, 400, new Random(3));
+        Bitmap small = new Bitmap(20, 3, (byte)1);
+
+        subject.encode(large);
+        assertArrayEquals(referenceEncodeLines(large, true), Arrays.copyOf(subject.getEven(), subject.getEvenSize()));
+        assertArrayEquals(referenceEncodeLines(large, false), Arrays.copyOf(subject.getOdd(), subject.getOddSize()));
+
+        subject.encode(small);
+        assertArrayEquals(referenceEncodeLines(small, true), Arrays.copyOf(subject.getEven(), subject.getEvenSize()));
+        assertArrayEquals(referenceEncodeLines(small, false), Arrays.copyOf(subject.getOdd(), subject.getOddSize()));
+    }
+
+    private static Bitmap createRuns(int width, int height, Random random) {
+        byte[] buffer = new byte[width * height];
+        int ofs = 0;
+        while (ofs < buffer.length) {
+            int len = 1 + random.nextInt(random.nextBoolean() ? 5 : 400);
+            byte color = (byte)random.nextInt(4);
+            for (int i=0; i < len && ofs < buffer.length; i++) {
+                buffer[ofs++] = color;
+            }
+        }
+        return new Bitmap(width, height, buffer);
+    }
+
+    /** The original encoder collecting boxed nibbles, kept as reference for the expected output */
+    private static byte[] referenceEncodeLines(Bitmap bm, boolean even) {
+        int ofs;
+        byte color;
+        int len;
+        int y;
+        ArrayList<Byte> nibbles = new ArrayList<Byte>();
+
+        if (even) {
+            y = 0;
+        } else {
+            y = 1;
+        }
+
+        for (; y < bm.getHeight(); y += 2) {
+            ofs = y * bm.getWidth();
+            for (int x = 0; x < bm.getWidth(); x += len, ofs += len) {
+                color = bm.getInternalBuffer()[ofs];
+                for (len = 1; x + len < bm.getWidth(); len++)
+                    if (bm.getInternalBuffer()[ofs + len] != color) {
+                        break;
+                    }
+                if (len < 4) {
+                    nibbles.add((byte) ((len << 2) | (color & 3)));
+                } else if (len < 0x10) {
+                    nibbles.add((byte) (len >> 2));
+                    nibbles.add((byte) ((len << 2) | (color & 3)));
+                } else if (len < 0x40) {
+                    nibbles.add((byte) 0);
+                    nibbles.add((byte) (len >> 2));
+                    nibbles.add((byte) ((len << 2) | (color & 3)));
+                } else if (x + len == bm.getWidth()) {
+                    nibbles.add((byte) (0));
+                    nibbles.add((byte) (0));
+                    nibbles.add((byte) (0));
+                    nibbles.add(color);
+                } else {
+                    if (len > 0xff) {
+                        len = 0xff;
+                    }
+                    nibbles.add((byte) (0));
+                    nibbles.add((byte) (len >> 6));
+                    nibbles.add((byte) (len >> 2));
+                    nibbles.add((byte) ((len << 2) | (color & 3)));
+                }
+            }
+            if ((nibbles.size() & 1) == 1) {
+                nibbles.add((byte) (0));
+            }
+        }
+        nibbles.add((byte) (0));
+        nibbles.add((byte) (0));
+        nibbles.add((byte) (0));
+        nibbles.add((byte) (0));
+
+        int size = nibbles.size() / 2;
+        byte[] retval = new byte[size];
+        Iterator<Byte> it = nibbles.iterator();
+        for (int i = 0; i < size; i++) {
+            int hi = (it.next() & 0xf);
+            int lo = (it.next() & 0xf);
+            retval[i] = (byte) ((hi << 4) | lo);
+        }
+        return retval;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2013 Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.supstream.dvd;
+
+import bdsup2sub.bitmap.Bitmap;
+import bdsup2sub.core.Configuration;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class DvdWritersTest {
+
+    private static final int NUM_THREADS = 4;
+    private static final int NUM_CAPTIONS = 24;
+
+    private final Configuration configuration = Configuration.getInstance();
+
+    @Test
+    public void shouldCreateSameFramesWhenWriterIsReused() {
+        SubPictureDVD large = createPicture(700, 60, true, 1000);
+        Bitmap largeBitmap = createNoise(700, 60, 1);
+        SubPictureDVD small = createPicture(40, 6, false, 50000);
+        Bitmap smallBitmap = createNoise(40, 6, 2);
+        SubDvdWriter subWriter = new SubDvdWriter(configuration);
+        SupDvdWriter supWriter = new SupDvdWriter(configuration);
+
+        byte[] firstSub = subWriter.createSubFrame(large, largeBitmap);
+        byte[] secondSub = subWriter.createSubFrame(small, smallBitmap);
+        byte[] firstSup = supWriter.createSupFrame(large, largeBitmap);
+        byte[] secondSup = supWriter.createSupFrame(small, smallBitmap);
+
+        assertArrayEquals(new SubDvdWriter(configuration).createSubFrame(large, largeBitmap), firstSub);
+        assertArrayEquals(new SubDvdWriter(configuration).createSubFrame(small, smallBitmap), secondSub);
+        assertArrayEquals(new SupDvdWriter(configuration).createSupFrame(large, largeBitmap), firstSup);
+        assertArrayEquals(new SupDvdWriter(configuration).createSupFrame(small, smallBitmap), secondSup);
+    }
+
+    @Test
+    public void shouldCreateSameFramesOnConcurrentThreadsAsSerially() throws Exception {
+        Random random = new Random(9);
+        final List<SubPictureDVD> pictures = new ArrayList<SubPictureDVD>();
+        final List<Bitmap> bitmaps = new ArrayList<Bitmap>();
+        for (int i=0; i < NUM_CAPTIONS; i++) {
+            // mix of small captions and captions large enough for the parallel RLE encoding
+            int width = i % 3 == 0 ? 720 : 8 + random.nextInt(400);
+            int height = i % 3 == 0 ? 400 : 2 + random.nextInt(80);
+            pictures.add(createPicture(width, height, i % 2 == 0, 90000L * i));
+            bitmaps.add(createNoise(width, height, i));
+        }
+        final List<byte[]> expected = createFrames(pictures, bitmaps, 0);
+
+        ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+        try {
+            List<Future<List<byte[]>>> results = new ArrayList<Future<List<byte[]>>>();
+            for (int t=0; t < NUM_THREADS; t++) {
+                final int firstCaption = t * NUM_CAPTIONS / NUM_THREADS;
+                results.add(executor.submit(new Callable<List<byte[]>>() {
+                    @Override
+                    public List<byte[]> call() {
+                        return createFrames(pictures, bitmaps, firstCaption);
+                    }
+                }));
+            }
+            for (Future<List<byte[]>> result : results) {
+                List<byte[]> actual = result.get();
+                for (int i=0; i < expected.size(); i++) {
+                    assertArrayEquals(expected.get(i), actual.get(i));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Create the VobSub and the SUP/IFO frames of all captions with one writer of each kind.
+     * @param firstCaption caption to start with, so that concurrent callers work on different captions
+     * @return frames in caption order, VobSub and SUP/IFO frame of each caption
+     */
+    private List<byte[]> createFrames(List<SubPictureDVD> pictures, List<Bitmap> bitmaps, int firstCaption) {
+        SubDvdWriter subWriter = new SubDvdWriter(configuration);
+        SupDvdWriter supWriter = new SupDvdWriter(configuration);
+        byte[][] frames = new byte[2 * pictures.size()][];
+        for (int n=0; n < pictures.size(); n++) {
+            int i = (firstCaption + n) % pictures.size();
+            frames[2 * i] = subWriter.createSubFrame(pictures.get(i), bitmaps.get(i));
+            frames[2 * i + 1] = supWriter.createSupFrame(pictures.get(i), bitmaps.get(i));
+        }
+        List<byte[]> retval = new ArrayList<byte[]>();
+        for (byte[] frame : frames) {
+            retval.add(frame);
+        }
+        return retval;
+    }
+
+    private static SubPictureDVD createPicture(int width, int height, boolean forced, long start) {
+        SubPictureDVD pic = new SubPictureDVD();
+        pic.setWidth(720);
+        pic.setHeight(576);
+        pic.setOfsX(0);
+        pic.setOfsY(576 - height);
+        pic.setImageWidth(width);
+        pic.setImageHeight(height);
+        pic.setStartTime(start);
+        pic.setEndTime(start + 90000);
+        pic.setForced(forced);
+        pic.setPal(new int[] {0, 1, 2, 3});
+        pic.setAlpha(new int[] {0, 15, 15, 15});
+        return pic;
+    }
+
+    private static Bitmap createNoise(int width, int height, long seed) {
+        Random random = new Random(seed);
+        byte[] buffer = new byte[width * height];
+        for (int i=0; i < buffer.length; i++) {
+            buffer[i] = (byte)random.nextInt(4);
+        }
+        return new Bitmap(width, height, buffer);
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2013 Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.supstream.hd;
+
+import bdsup2sub.tools.BitReader;
+import bdsup2sub.tools.BitStream;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SupHDTest {
+
+    @Test
+    public void shouldDecodeEncodedFieldsLikeReferenceDecoder() {
+        Random random = new Random(13);
+        for (int n = 0; n < 100; n++) {
+            int width = 1 + random.nextInt(600);
+            int height = 1 + random.nextInt(30);
+            byte[] pixels = createRuns(width * height, random);
+
+            for (int field = 0; field < 2; field++) {
+                byte[] rle = encodeField(pixels, width, height, field);
+                int maxPixels = field == 0 ? width * (height / 2 + (height & 1)) : (height / 2) * width;
+                byte[] expected = new byte[width * height];
+                byte[] actual = new byte[width * height];
+
+                referenceDecodeLine(expected, field * width, width, maxPixels, new BitStream(rle));
+                SupHD.decodeLine(actual, field * width, width, maxPixels, new BitReader(rle));
+
+                assertArrayEquals(expected, actual);
+                for (int y = field; y < height; y += 2) {
+                    for (int x = 0; x < width; x++) {
+                        assertEquals(pixels[y * width + x], actual[y * width + x]);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void shouldDecodeCorruptBuffersLikeReferenceDecoder() {
+        Random random = new Random(17);
+        for (int n = 0; n < 500; n++) {
+            int width = 1 + random.nextInt(200);
+            int height = 1 + random.nextInt(20);
+            byte[] rle = new byte[1 + random.nextInt(400)];
+            random.nextBytes(rle);
+            byte[] expected = new byte[width * height];
+            byte[] actual = new byte[width * height];
+            int maxPixels = width * (height / 2 + (height & 1));
+
+            boolean expectedFailure = false;
+            try {
+                referenceDecodeLine(expected, 0, width, maxPixels, new BitStream(rle));
+            } catch (ArrayIndexOutOfBoundsException ex) {
+                expectedFailure = true;
+            }
+            boolean actualFailure = false;
+            try {
+                SupHD.decodeLine(actual, 0, width, maxPixels, new BitReader(rle));
+            } catch (ArrayIndexOutOfBoundsException ex) {
+                actualFailure = true;
+            }
+
+            assertEquals(expectedFailure, actualFailure);
+            assertArrayEquals(expected, actual);
+        }
+    }
+
+    private static byte[] createRuns(int size, Random random) {
+        byte[] buffer = new byte[size];
+        int ofs = 0;
+        while (ofs < size) {
+            int len = 1 + random.nextInt(random.nextBoolean() ? 10 : 300);
+            byte color = (byte)(random.nextBoolean() ? random.nextInt(4) : random.nextInt(256));
+            for (int i=0; i < len && ofs < size; i++) {
+                buffer[ofs++] = color;
+            }
+        }
+        return buffer;
+    }
+
+    /** The original bit serial decoder, kept as reference for the expected output */
+    private static void referenceDecodeLine(byte[] trg, int trgOfs, int width, int maxPixels, BitStream src) {
+        int x=0;
+        int pixelsLeft;
+        int sumPixels = 0;
+        boolean lf = false;
+
+        while (src.bitsLeft() > 0 && sumPixels<maxPixels) {
+            int rleType = src.readBits(1);
+            int colorType = src.readBits(1);
+            int color;
+            int numPixels;
+
+            if (colorType == 1) {
+                color = src.readBits(8);
+            } else {
+                color = src.readBits(2);
+            }
+
+            if (rleType == 1) {
+                int rleSize = src.readBits(1);
+                if (rleSize == 1) {
+                    numPixels = src.readBits(7) + 9;
+                    if (numPixels == 9) {
+                        numPixels = width - x;
+                    }
+                } else {
+                    numPixels = src.readBits(3) + 2;
+                }
+            } else
+                numPixels = 1;
+
+            if (x+numPixels == width) {
+                src.syncToByte();
+                lf = true;
+            }
+            sumPixels += numPixels;
+
+            if (x+numPixels > width) {
+                pixelsLeft = x + numPixels - width;
+                numPixels = width - x;
+                lf = true;
+            } else {
+                pixelsLeft = 0;
+            }
+
+            for (int i=0; i<numPixels; i++) {
+                trg[trgOfs+x+i] = (byte)color;
+            }
+
+            if (lf) {
+                trgOfs += x + numPixels + width;
+                x = pixelsLeft;
+                lf = false;
+            } else {
+                x += numPixels;
+            }
+
+            for (int i=0; i < pixelsLeft; i++) {
+                trg[trgOfs+i] = (byte)color;
+            }
+        }
+    }
+
+    /** Encode every second line the way the decoder expects it */
+    private static byte[] encodeField(byte[] pixels, int w, int h, int firstLine) {
+        BitWriter out = new BitWriter();
+        for (int y = firstLine; y < h; y += 2) {
+            int x = 0;
+            while (x < w) {
+                int color = pixels[y * w + x] & 0xff;
+                int len = 1;
+                while (x + len < w && (pixels[y * w + x + len] & 0xff) == color) {
+                    len++;
+                }
+                boolean toEndOfLine = x + len == w && len > 9;
+                if (!toEndOfLine && len > 136) {
+                    len = 136;
+                }
+                out.write(len > 1 ? 1 : 0, 1);
+                if (color < 4) {
+                    out.write(0, 1);
+                    out.write(color, 2);
+                } else {
+                    out.write(1, 1);
+                    out.write(color, 8);
+                }
+                if (toEndOfLine) {
+                    out.write(1, 1);
+                    out.write(0, 7);
+                } else if (len > 9) {
+                    out.write(1, 1);
+                    out.write(len - 9, 7);
+                } else if (len > 1) {
+                    out.write(0, 1);
+                    out.write(len - 2, 3);
+                }
+                x += toEndOfLine ? w - x : len;
+            }
+            out.syncToByte();
+        }
+        out.write(0, 8); // decodeImage never hands out empty buffers
+        return out.toByteArray();
+    }
+
+    private static class BitWriter {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private int current;
+        private int numBits;
+
+        void write(int value, int n) {
+            for (int i = n - 1; i >= 0; i--) {
+                current = (current << 1) | ((value >> i) & 1);
+                if (++numBits == 8) {
+                    bytes.write(current);
+                    current = 0;
+                    numBits = 0;
+                }
+            }
+        }
+
+        void syncToByte() {
+            if (numBits > 0) {
+                write(0, 8 - numBits);
+            }
+        }
+
+        byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2013 Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.tools;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class BitReaderTest {
+
+    @Test
+    public void shouldReadBitsInStreamOrder() {
+        BitReader subject = new BitReader(new byte[] {(byte)0xa5, (byte)0x0f, (byte)0x81});
+
+        assertEquals(0x5, subject.peekBits(3));
+        assertEquals(0x5, subject.readBits(3));
+        assertEquals(0x050f, subject.readBits(13));
+        assertEquals(8, subject.bitsLeft());
+        assertEquals(0x81, subject.readBits(8));
+        assertEquals(0, subject.bitsLeft());
+    }
+
+    @Test
+    public void shouldReadZeroBitsBeyondEndOfBuffer() {
+        BitReader subject = new BitReader(new byte[] {(byte)0xff});
+
+        assertEquals(0xff00, subject.readBits(16));
+        assertEquals(-8, subject.bitsLeft());
+    }
+
+    @Test
+    public void shouldReadLikeBitStream() {
+        Random random = new Random(7);
+        for (int n = 0; n < 100; n++) {
+            byte[] buffer = new byte[1 + random.nextInt(64)];
+            random.nextBytes(buffer);
+            BitStream expected = new BitStream(buffer);
+            BitReader subject = new BitReader(buffer);
+
+            while (expected.bitsLeft() > 0) {
+                assertEquals(expected.bitsLeft(), subject.bitsLeft());
+                if (random.nextInt(8) == 0) {
+                    expected.syncToByte();
+                    subject.syncToByte();
+                } else {
+                    int bits = 1 + random.nextInt(32);
+                    assertEquals(expected.readBits(bits), subject.readBits(bits));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2013 Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.tools;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ColorHistogramTest {
+
+    @Test
+    public void shouldCountColorsInOrderOfFirstOccurrence() {
+        ColorHistogram subject = new ColorHistogram();
+        subject.addPixels(new int[] {0xff0000ff, 0xff0000ff, 0xffff0000, 0xff0000ff}, 0, 4);
+
+        assertEquals(2, subject.getSize());
+        assertEquals(0xff0000ff, subject.getColor(0));
+        assertEquals(3, subject.getCount(0));
+        assertEquals(0xffff0000, subject.getColor(1));
+        assertEquals(1, subject.getCount(1));
+    }
+
+    @Test
+    public void shouldCountAllTransparentPixelsAsTransparentBlack() {
+        ColorHistogram subject = new ColorHistogram();
+        subject.addPixels(new int[] {0x00ffffff, 0x00123456, 0}, 0, 3);
+
+        assertEquals(1, subject.getSize());
+        assertEquals(0, subject.getColor(0));
+        assertEquals(3, subject.getCount(0));
+        assertEquals(0, subject.indexOf(0x00abcdef));
+    }
+
+    @Test
+    public void shouldCountBeyondIntRange() {
+        ColorHistogram subject = new ColorHistogram();
+        subject.add(0, Integer.MAX_VALUE);
+        subject.add(0, Integer.MAX_VALUE);
+
+        assertEquals(2L * Integer.MAX_VALUE, subject.getCount(0));
+    }
+
+    @Test
+    public void shouldMergeBandHistogramsInOrderOfFirstOccurrence() {
+        int width = 64;
+        int height = 48;
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xff000000 | (i * 7919) % 97;
+        }
+        ColorHistogram whole = new ColorHistogram();
+        whole.addPixels(pixels, 0, pixels.length);
+
+        ColorHistogram merged = new ColorHistogram();
+        for (int y = 0; y < height; y += 5) {
+            ColorHistogram band = new ColorHistogram();
+            band.addPixels(pixels, y * width, Math.min(y + 5, height) * width);
+            merged.addAll(band);
+        }
+
+        assertEquals(whole.getSize(), merged.getSize());
+        for (int i = 0; i < whole.getSize(); i++) {
+            assertEquals(whole.getColor(i), merged.getColor(i));
+            assertEquals(whole.getCount(i), merged.getCount(i));
+        }
+    }
+
+    @Test
+    public void shouldCountPixelsOfPalettizedImage() {
+        ColorHistogram subject = new ColorHistogram();
+        subject.addIndexedPixels(new byte[] {1, 1, 0, 1}, new int[] {0, 0xffffffff});
+
+        assertEquals(2, subject.getSize());
+        assertEquals(3, subject.getCount(subject.indexOf(0xffffffff)));
+        assertEquals(1, subject.getCount(subject.indexOf(0)));
+    }
+
+    @Test
+    public void shouldAddBlendsOfNeighbouringColors() {
+        ColorHistogram subject = new ColorHistogram();
+        subject.addIndexedBlends(new byte[] {0, 1, 1, 1}, 2, new int[] {0, 0xffffffff});
+
+        assertEquals(3, subject.getSize());
+        assertEquals(2, subject.getCount(subject.indexOf(0x40404040)));
+        assertEquals(2, subject.getCount(subject.indexOf(0x80808080)));
+        assertEquals(2, subject.getCount(subject.indexOf(0xbfbfbfbf)));
+    }
+
+    @Test
+    public void shouldBeEmptyAfterClear() {
+        ColorHistogram subject = new ColorHistogram();
+        subject.add(0xff00ff00, 1);
+        subject.clear();
+
+        assertEquals(0, subject.getSize());
+        assertEquals(ColorIndexMap.NOT_FOUND, subject.indexOf(0xff00ff00));
+    }
+}
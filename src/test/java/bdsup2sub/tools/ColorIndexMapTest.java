@@ -0,0 +1,66 @@
+/*
+ * Copyright 2013 Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.tools;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ColorIndexMapTest {
+
+    private ColorIndexMap subject;
+
+    @Before
+    public void setUp() {
+        subject = new ColorIndexMap();
+    }
+
+    @Test
+    public void shouldReturnNotFoundForUnknownColor() {
+        assertEquals(ColorIndexMap.NOT_FOUND, subject.get(0xff123456));
+    }
+
+    @Test
+    public void shouldStoreTransparentBlack() {
+        subject.put(0, 7);
+
+        assertEquals(7, subject.get(0));
+        assertEquals(1, subject.size());
+    }
+
+    @Test
+    public void shouldReplaceIndexOfKnownColor() {
+        subject.put(0xff123456, 1);
+        subject.put(0xff123456, 2);
+
+        assertEquals(2, subject.get(0xff123456));
+        assertEquals(1, subject.size());
+    }
+
+    @Test
+    public void shouldKeepAllColorsWhenGrowing() {
+        for (int i = 0; i < 10000; i++) {
+            subject.put(0xff000000 | i * 7, i & 0xff);
+        }
+
+        assertEquals(10000, subject.size());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i & 0xff, subject.get(0xff000000 | i * 7));
+        }
+        assertEquals(ColorIndexMap.NOT_FOUND, subject.get(0x00ffffff));
+    }
+}
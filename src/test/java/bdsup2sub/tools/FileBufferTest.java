@@ -0,0 +1,125 @@
+/*
+ * Copyright 2013 Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.tools;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class FileBufferTest {
+
+    private static final int CHUNK_SIZE = 16;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private byte[] data;
+    private FileBuffer subject;
+
+    @Before
+    public void setUp() throws IOException, FileBufferException {
+        data = new byte[100];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)(i * 7 + 3);
+        }
+        File file = folder.newFile("test.bin");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        subject = new FileBuffer(file.getPath(), CHUNK_SIZE);
+    }
+
+    @After
+    public void tearDown() {
+        subject.close();
+    }
+
+    @Test
+    public void shouldReturnFileSize() {
+        assertEquals(data.length, subject.getSize());
+    }
+
+    @Test
+    public void shouldReadMultiByteValuesAtEveryOffset() throws FileBufferException {
+        for (int i = 0; i + 4 <= data.length; i++) {
+            assertEquals(u(i), subject.getByte(i));
+            assertEquals((u(i) << 8) | u(i + 1), subject.getWord(i));
+            assertEquals(u(i) | (u(i + 1) << 8), subject.getWordLE(i));
+            assertEquals((u(i) << 24) | (u(i + 1) << 16) | (u(i + 2) << 8) | u(i + 3), subject.getDWord(i));
+            assertEquals(u(i) | (u(i + 1) << 8) | (u(i + 2) << 16) | (u(i + 3) << 24), subject.getDWordLE(i));
+        }
+    }
+
+    @Test
+    public void shouldReadBytesAcrossChunks() throws FileBufferException {
+        byte[] b = new byte[60];
+        subject.getBytes(10, b, 5, 50);
+        for (int i = 0; i < 50; i++) {
+            assertEquals(data[10 + i], b[5 + i]);
+        }
+    }
+
+    @Test
+    public void shouldReturnSliceWithinChunk() throws FileBufferException {
+        ByteBuffer slice = subject.getSlice(18, 10);
+        assertTrue(slice.isReadOnly());
+        assertEquals(0, slice.position());
+        assertEquals(10, slice.limit());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(data[18 + i], slice.get(i));
+        }
+    }
+
+    @Test
+    public void shouldReturnSliceAcrossChunks() throws FileBufferException {
+        ByteBuffer slice = subject.getSlice(5, 90);
+        assertEquals(90, slice.limit());
+        for (int i = 0; i < 90; i++) {
+            assertEquals(data[5 + i], slice.get(i));
+        }
+    }
+
+    @Test(expected = FileBufferException.class)
+    public void shouldRejectSliceBeyondEndOfFile() throws FileBufferException {
+        subject.getSlice(90, 11);
+    }
+
+    @Test(expected = FileBufferException.class)
+    public void shouldRejectReadBeyondEndOfFile() throws FileBufferException {
+        subject.getWord(data.length - 1);
+    }
+
+    @Test(expected = FileBufferException.class)
+    public void shouldRejectMissingFile() throws FileBufferException {
+        new FileBuffer(new File(folder.getRoot(), "missing.bin").getPath());
+    }
+
+    private int u(int index) {
+        return data[index] & 0xff;
+    }
+}
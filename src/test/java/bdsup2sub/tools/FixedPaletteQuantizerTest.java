@@ -0,0 +1,118 @@
+/*
+ * Copyright 2013 Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.tools;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class FixedPaletteQuantizerTest {
+
+    private static final int[] PALETTE = {0xff000000, 0xffffffff, 0xffff0000, 0};
+
+    @Test
+    public void shouldAlwaysReturnTheWholePalette() {
+        FixedPaletteQuantizer subject = new FixedPaletteQuantizer(PALETTE);
+        byte[] indices = new byte[2];
+
+        int[] palette = subject.quantize(new int[] {0xffffffff, 0xffffffff}, indices, 2, 1, 256, false, false);
+
+        assertArrayEquals(PALETTE, palette);
+    }
+
+    @Test
+    public void shouldMapToNearestPaletteEntry() {
+        FixedPaletteQuantizer subject = new FixedPaletteQuantizer(PALETTE);
+        int[] pixels = {0xff101010, 0xffe0f0e0, 0xffd02010, 0x00ffffff, 0xff000000};
+        byte[] indices = new byte[pixels.length];
+
+        subject.quantize(pixels, indices, pixels.length, 1, 256, false, false);
+
+        assertArrayEquals(new byte[] {0, 1, 2, 3, 0}, indices);
+    }
+
+    @Test
+    public void shouldOnlyUsePaletteEntriesWhenDithering() {
+        FixedPaletteQuantizer subject = new FixedPaletteQuantizer(PALETTE);
+        int width = 32;
+        int height = 8;
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            int grey = (i % width) * 8;
+            pixels[i] = 0xff000000 | grey << 16 | grey << 8 | grey;
+        }
+        byte[] indices = new byte[pixels.length];
+
+        subject.quantize(pixels, indices, width, height, 256, true, true);
+
+        boolean black = false;
+        boolean white = false;
+        for (byte index : indices) {
+            assertTrue(index == 0 || index == 1);
+            black |= index == 0;
+            white |= index == 1;
+        }
+        assertTrue(black && white);
+    }
+
+    @Test
+    public void shouldBlendGreyFromBlackAndWhiteWithOrderedDithering() {
+        FixedPaletteQuantizer subject = new FixedPaletteQuantizer(new int[] {0xff000000, 0xffffffff, 0});
+        int width = 16;
+        int height = 16;
+        int[] pixels = new int[width * height];
+        Arrays.fill(pixels, 0xff808080);
+        pixels[0] = 0x00808080;
+        int[] original = pixels.clone();
+        byte[] indices = new byte[pixels.length];
+
+        subject.ditherOrdered(pixels, indices, width, height);
+
+        int white = 0;
+        for (int i = 1; i < indices.length; i++) {
+            assertTrue(indices[i] == 0 || indices[i] == 1);
+            white += indices[i];
+        }
+        assertEquals(2, indices[0]);
+        assertTrue(Math.abs(white - indices.length / 2) < indices.length / 8);
+        assertArrayEquals(original, pixels);
+    }
+
+    @Test
+    public void shouldNotDitherExactPaletteColors() {
+        FixedPaletteQuantizer subject = new FixedPaletteQuantizer(PALETTE);
+        int[] pixels = new int[64];
+        Arrays.fill(pixels, 0xffff0000);
+        byte[] indices = new byte[pixels.length];
+
+        subject.ditherOrdered(pixels, indices, 8, 8);
+
+        for (byte index : indices) {
+            assertEquals(2, index);
+        }
+    }
+
+    @Test
+    public void shouldNotBeAffectedByChangesToThePaletteArray() {
+        int[] palette = PALETTE.clone();
+        FixedPaletteQuantizer subject = new FixedPaletteQuantizer(palette);
+        palette[0] = 0xff00ff00;
+
+        assertArrayEquals(PALETTE, subject.getPalette());
+    }
+}
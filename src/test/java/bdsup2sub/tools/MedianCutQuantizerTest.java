@@ -0,0 +1,184 @@
+/*
+ * Copyright 2013 Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.tools;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MedianCutQuantizerTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    private MedianCutQuantizer subject;
+
+    @Before
+    public void setUp() {
+        subject = new MedianCutQuantizer();
+    }
+
+    @Test
+    public void shouldKeepAllColorsIfThePaletteIsLargeEnough() {
+        int[] pixels = {0xff000000, 0xffffffff, 0xff000000, 0x80ff0000, 0xffffffff, 0x80ff0000};
+        byte[] indices = new byte[pixels.length];
+
+        int[] palette = subject.quantize(pixels.clone(), indices, 3, 2, 255, false, false);
+
+        assertArrayEquals(new int[] {0xff000000, 0xffffffff, 0x80ff0000}, palette);
+        for (int i = 0; i < pixels.length; i++) {
+            assertEquals(pixels[i], palette[indices[i]]);
+        }
+    }
+
+    @Test
+    public void shouldTreatAllTransparentPixelsAsOneColor() {
+        int[] pixels = {0x00123456, 0x00ffffff, 0xff00ff00, 0x00000000};
+        byte[] indices = new byte[pixels.length];
+
+        int[] palette = subject.quantize(pixels, indices, 4, 1, 255, false, false);
+
+        assertArrayEquals(new int[] {0, 0xff00ff00}, palette);
+        assertArrayEquals(new byte[] {0, 0, 1, 0}, indices);
+    }
+
+    @Test
+    public void shouldNotUseMoreColorsThanRequested() {
+        int[] pixels = gradient();
+        byte[] indices = new byte[pixels.length];
+
+        int[] palette = subject.quantize(pixels.clone(), indices, WIDTH, HEIGHT, 16, false, false);
+
+        assertTrue(palette.length <= 16);
+        for (byte index : indices) {
+            assertTrue((index & 0xff) < palette.length);
+        }
+    }
+
+    @Test
+    public void shouldBeAtLeastAsAccurateAsTheOctree() {
+        int[] pixels = gradient();
+        byte[] indices = new byte[pixels.length];
+        byte[] octreeIndices = new byte[pixels.length];
+
+        int[] palette = subject.quantize(pixels.clone(), indices, WIDTH, HEIGHT, 64, false, false);
+        int[] octreePalette = new QuantizeFilter().quantize(pixels.clone(), octreeIndices, WIDTH, HEIGHT, 64, false, false);
+
+        assertTrue(squaredError(pixels, indices, palette) <= squaredError(pixels, octreeIndices, octreePalette));
+    }
+
+    @Test
+    public void shouldUseEveryPaletteEntryInOrderOfFirstUse() {
+        int[] pixels = gradient();
+        byte[] indices = new byte[pixels.length];
+
+        int[] palette = subject.quantize(pixels.clone(), indices, WIDTH, HEIGHT, 255, false, false);
+
+        int next = 0;
+        for (byte index : indices) {
+            int idx = index & 0xff;
+            assertTrue(idx <= next);
+            if (idx == next) {
+                next++;
+            }
+        }
+        assertEquals(palette.length, next);
+    }
+
+    @Test
+    public void shouldOnlyUsePaletteEntriesWhenDithering() {
+        int[] pixels = gradient();
+        byte[] indices = new byte[pixels.length];
+
+        int[] palette = subject.quantize(pixels.clone(), indices, WIDTH, HEIGHT, 8, true, true);
+
+        assertTrue(palette.length <= 8);
+        for (byte index : indices) {
+            assertTrue((index & 0xff) < palette.length);
+        }
+    }
+
+    @Test
+    public void shouldGiveTheSameResultWhenReused() {
+        int[] pixels = gradient();
+        byte[] first = new byte[pixels.length];
+        byte[] second = new byte[pixels.length];
+
+        int[] firstPalette = subject.quantize(pixels.clone(), first, WIDTH, HEIGHT, 32, false, false);
+        subject.quantize(new int[] {0xff0000ff, 0xff00ff00}, new byte[2], 2, 1, 32, false, false);
+        int[] secondPalette = subject.quantize(pixels.clone(), second, WIDTH, HEIGHT, 32, false, false);
+
+        assertArrayEquals(firstPalette, secondPalette);
+        assertArrayEquals(first, second);
+    }
+
+    @Test
+    public void shouldCreatePaletteSortedByPixelCountWithExactTransparentEntry() {
+        ColorHistogram histogram = new ColorHistogram();
+        histogram.add(0xff102030, 10);
+        histogram.add(0x00123456, 5);
+        histogram.add(0xffc0c0c0, 40);
+        histogram.add(0xff808080, 20);
+
+        int[] palette = MedianCutQuantizer.createPalette(histogram, 4);
+
+        assertArrayEquals(new int[] {0xffc0c0c0, 0xff808080, 0xff102030, 0}, palette);
+    }
+
+    @Test
+    public void shouldSortPaletteByPixelCountsBeyondIntRange() {
+        ColorHistogram histogram = new ColorHistogram();
+        histogram.add(0xffffffff, 2000000000);
+        for (int i = 0; i < 2; i++) {
+            histogram.add(0, 1500000000);
+            histogram.add(0xff000000, 1000000000);
+        }
+
+        int[] palette = MedianCutQuantizer.createPalette(histogram, 4);
+
+        assertArrayEquals(new int[] {0, 0xffffffff, 0xff000000}, palette);
+    }
+
+    /**
+     * Semi transparent red/blue gradient with a green step in the middle and a transparent border.
+     */
+    private static int[] gradient() {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                if (x == 0 || y == 0) {
+                    continue;
+                }
+                int green = x < WIDTH / 2 ? 0x40 : 0xc0;
+                pixels[y * WIDTH + x] = 0xc0000000 | (x * 4) << 16 | green << 8 | y * 5;
+            }
+        }
+        return pixels;
+    }
+
+    private static long squaredError(int[] pixels, byte[] indices, int[] palette) {
+        long error = 0;
+        for (int i = 0; i < pixels.length; i++) {
+            int color = palette[indices[i] & 0xff];
+            for (int shift = 0; shift < 32; shift += 8) {
+                int diff = ((pixels[i] >>> shift) & 0xff) - ((color >>> shift) & 0xff);
+                error += diff * diff;
+            }
+        }
+        return error;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2013 Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.tools;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class OrderedDitherQuantizerTest {
+
+    private static final int[] PALETTE = {0xff000000, 0xffffffff, 0};
+
+    @Test
+    public void shouldKeepPaletteOfWrappedQuantizer() {
+        OrderedDitherQuantizer subject = new OrderedDitherQuantizer(new FixedPaletteQuantizer(PALETTE));
+        int[] pixels = {0xff808080, 0xff404040, 0xffc0c0c0, 0};
+
+        int[] palette = subject.quantize(pixels, new byte[pixels.length], 2, 2, 256, true, true);
+
+        assertArrayEquals(PALETTE, palette);
+    }
+
+    @Test
+    public void shouldNotDitherWhenNotRequested() {
+        OrderedDitherQuantizer subject = new OrderedDitherQuantizer(new FixedPaletteQuantizer(PALETTE));
+        int[] pixels = new int[64];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xff707070;
+        }
+        byte[] indices = new byte[pixels.length];
+
+        subject.quantize(pixels, indices, 8, 8, 256, false, false);
+
+        for (byte index : indices) {
+            assertEquals(0, index);
+        }
+    }
+
+    @Test
+    public void shouldNotModifyInputPixels() {
+        OrderedDitherQuantizer subject = new OrderedDitherQuantizer(new MedianCutQuantizer());
+        int[] pixels = new int[32 * 32];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xff000000 | (i % 32) * 0x080808;
+        }
+        int[] original = pixels.clone();
+
+        int[] palette = subject.quantize(pixels, new byte[pixels.length], 32, 32, 4, true, true);
+
+        assertTrue(palette.length <= 4);
+        assertArrayEquals(original, pixels);
+    }
+}
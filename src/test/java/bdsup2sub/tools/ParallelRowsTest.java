@@ -0,0 +1,78 @@
+/*
+ * Copyright 2013 Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.tools;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.*;
+
+public class ParallelRowsTest {
+
+    private ForkJoinPool pool;
+
+    @Before
+    public void setUp() {
+        pool = new ForkJoinPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void shouldProcessEachRowOnceWhenSplittingInBands() {
+        final AtomicIntegerArray visits = new AtomicIntegerArray(1000);
+        final AtomicInteger bands = new AtomicInteger();
+
+        ParallelRows.run(pool, 1000, 1920, new ParallelRows.RowTask() {
+            @Override
+            public void processRows(int yStart, int yEnd) {
+                bands.incrementAndGet();
+                for (int y = yStart; y < yEnd; y++) {
+                    visits.incrementAndGet(y);
+                }
+            }
+        });
+
+        assertTrue(bands.get() > 1);
+        for (int y = 0; y < 1000; y++) {
+            assertEquals(1, visits.get(y));
+        }
+    }
+
+    @Test
+    public void shouldProcessSmallImagesInOneBand() {
+        final AtomicInteger bands = new AtomicInteger();
+
+        ParallelRows.run(pool, 100, 720, new ParallelRows.RowTask() {
+            @Override
+            public void processRows(int yStart, int yEnd) {
+                bands.incrementAndGet();
+                assertEquals(0, yStart);
+                assertEquals(100, yEnd);
+            }
+        });
+
+        assertEquals(1, bands.get());
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2013 Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.tools;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class StreamBufferTest {
+
+    private byte[] data;
+    private StreamBuffer subject;
+
+    @Before
+    public void setUp() {
+        data = new byte[0x100000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)(i * 7 + 3);
+        }
+        subject = new StreamBuffer(new TrickleInputStream(new ByteArrayInputStream(data)), "test");
+    }
+
+    @Test
+    public void shouldReadMultiByteValues() throws FileBufferException {
+        for (int i = 0; i + 4 <= 1000; i++) {
+            assertEquals(u(i), subject.getByte(i));
+            assertEquals((u(i) << 8) | u(i + 1), subject.getWord(i));
+            assertEquals(u(i) | (u(i + 1) << 8), subject.getWordLE(i));
+            assertEquals((u(i) << 24) | (u(i + 1) << 16) | (u(i + 2) << 8) | u(i + 3), subject.getDWord(i));
+            assertEquals(u(i) | (u(i + 1) << 8) | (u(i + 2) << 16) | (u(i + 3) << 24), subject.getDWordLE(i));
+        }
+    }
+
+    @Test
+    public void shouldOnlyReadWhatIsAccessed() throws FileBufferException {
+        subject.getByte(10);
+        assertTrue(subject.getSize() < data.length);
+    }
+
+    @Test
+    public void shouldReturnReadOnlyCopyAsSlice() throws FileBufferException {
+        ByteBuffer slice = subject.getSlice(0x3fff0, 0x20);
+        assertTrue(slice.isReadOnly());
+        assertEquals(0x20, slice.limit());
+        for (int i = 0; i < 0x20; i++) {
+            assertEquals(data[0x3fff0 + i], slice.get(i));
+        }
+    }
+
+    @Test
+    public void shouldKeepDataAfterDiscardOffset() throws FileBufferException {
+        subject.getByte(0x80000);
+        subject.discardBefore(0x7fff0);
+        assertEquals(u(0xfffff), subject.getByte(0xfffff));
+        assertEquals(u(0x7fff0), subject.getByte(0x7fff0));
+    }
+
+    @Test(expected = FileBufferException.class)
+    public void shouldRejectAccessToDiscardedData() throws FileBufferException {
+        subject.discardBefore(0x80000);
+        subject.getByte(0xfffff);
+        subject.getByte(0x10);
+    }
+
+    @Test
+    public void shouldDetectEndOfStream() throws FileBufferException {
+        assertTrue(subject.hasDataAt(data.length - 1));
+        assertFalse(subject.hasDataAt(data.length));
+        assertEquals(data.length, subject.getSize());
+    }
+
+    @Test(expected = FileBufferException.class)
+    public void shouldRejectReadBeyondEndOfStream() throws FileBufferException {
+        subject.getWord(data.length - 1);
+    }
+
+    private int u(int index) {
+        return data[index] & 0xff;
+    }
+
+    /** Returns at most a few bytes per read like a pipe does */
+    private static class TrickleInputStream extends FilterInputStream {
+        TrickleInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return super.read(b, off, Math.min(len, 4093));
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2013 Miklos Juhasz (mjuhasz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bdsup2sub.utils;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class JsonBuilderTest {
+
+    @Test
+    public void shouldBuildEmptyObject() {
+        assertEquals("{}", new JsonBuilder().toString());
+    }
+
+    @Test
+    public void shouldWriteMembersInOrder() {
+        String json = new JsonBuilder()
+                .add("name", "a.sup")
+                .add("count", 42)
+                .add("seconds", 1.5)
+                .add("done", true)
+                .add("error", (String)null)
+                .toString();
+
+        assertEquals("{\"name\":\"a.sup\",\"count\":42,\"seconds\":1.500,\"done\":true,\"error\":null}", json);
+    }
+
+    @Test
+    public void shouldNestObjectsAndArrays() {
+        String json = new JsonBuilder()
+                .add("job", new JsonBuilder().add("id", 1))
+                .addRaw("list", JsonBuilder.array(Arrays.asList(1, 2)))
+                .addRaw("empty", JsonBuilder.array(Collections.emptyList()))
+                .toString();
+
+        assertEquals("{\"job\":{\"id\":1},\"list\":[1,2],\"empty\":[]}", json);
+    }
+
+    @Test
+    public void shouldEscapeSpecialCharacters() {
+        assertEquals("\"C:\\\\subs\\\\\\\"a\\\"\\n\\t\\u0001\"", JsonBuilder.quote("C:\\subs\\\"a\"\n\t\u0001"));
+    }
+}